@@ -1,7 +1,8 @@
 package edu.dal.ocrrect.detect;
 
 import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
-import edu.dal.ocrrect.util.Context;
+import edu.dal.ocrrect.suggest.NgramPattern;
+import edu.dal.ocrrect.suggest.NgramRecord;
 
 /**
  * @since 2017.04.26
@@ -13,20 +14,11 @@ public class ApproximateContextCoherenceFeature extends ContextCoherenceFeature
   }
 
   @Override
-  protected String substitueWord(String ngram, Context context) {
-    String[] grams = ngram.split(" ");
-    // Detect whether this ngram contains a word substitution.
-    String sub = grams[context.index()];
-    boolean unmatch = false;
-    for (int i = 0; i < ngramSize(); i++) {
-      if (context.index() != i && !context.words()[i].equals(grams[i])) { // context gram unmatch
-        if (unmatch) { // already have an unmatching gram
-          sub = null;
-          break;
-        }
-        unmatch = true;
-      }
+  protected String substitueWord(NgramRecord record, NgramPattern context) {
+    // Detect whether this ngram contains a word substitution, allowing one unmatching context gram.
+    if (context.pivot() >= record.size() || context.mismatches(record, 1) > 1) {
+      return null;
     }
-    return sub;
+    return record.gram(context.pivot());
   }
 }
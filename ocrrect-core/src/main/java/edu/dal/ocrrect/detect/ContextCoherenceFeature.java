@@ -1,13 +1,17 @@
 package edu.dal.ocrrect.detect;
 
+import edu.dal.ocrrect.suggest.NgramBlockScanner;
+import edu.dal.ocrrect.suggest.NgramBlockTask;
 import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
+import edu.dal.ocrrect.suggest.NgramPattern;
+import edu.dal.ocrrect.suggest.NgramRecord;
 import edu.dal.ocrrect.util.LogUtils;
 import edu.dal.ocrrect.util.Timer;
 import edu.dal.ocrrect.util.Context;
 import edu.dal.ocrrect.util.Word;
-import gnu.trove.map.hash.TObjectFloatHashMap;
-import java.io.BufferedReader;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -28,21 +32,16 @@ public class ContextCoherenceFeature extends DetectionFeature {
   }
 
   /**
-   * @param ngram a word ngram in the corpus.
-   * @param context a word ngram context.
+   * @param record a word ngram record in the corpus.
+   * @param context a pattern of the word ngram context, which pivot is the context index.
    * @return a valid word substitution, or {@null} otherwise.
    */
-  protected String substitueWord(String ngram, Context context) {
-    String[] grams = ngram.split(" ");
+  protected String substitueWord(NgramRecord record, NgramPattern context) {
     // Detect whether this ngram contains a word substitution.
-    String sub = grams[context.index()];
-    for (int i = 0; i < ngramSize; i++) {
-      if (context.index() != i && !context.words()[i].equals(grams[i])) { // not a valid substitution
-        sub = null;
-        break;
-      }
+    if (context.pivot() >= record.size() || context.mismatches(record, 0) > 0) {
+      return null; // not a valid substitution
     }
-    return sub;
+    return record.gram(context.pivot());
   }
 
   protected int ngramSize() {
@@ -51,21 +50,15 @@ public class ContextCoherenceFeature extends DetectionFeature {
 
   @Override
   public float detect(Word word) {
-    TObjectFloatHashMap<String> wordMap = new TObjectFloatHashMap<>();
+    // The sums are kept in double and rounded once, so that they do not depend on the order in
+    // which the parts of a split block are merged.
+    TObjectDoubleHashMap<String> wordMap = new TObjectDoubleHashMap<>();
     List<Context> contexts = word.getContexts(ngramSize);
     for (Context c: contexts) {
-      try (BufferedReader br = reader.openBufferedRecordsWithFirstWord(c.words()[0])) {
-        if (br != null) {
-          for (String line = br.readLine(); line != null; line = br.readLine()) {
-            String[] splits = line.split("\t");
-            String sub = substitueWord(splits[0], c);
-            if (sub != null) {
-              // Records the sum of log n-gram frequencies of the possible word substitutions.
-              float val = (float)Math.log(Long.parseLong(splits[1]));
-              wordMap.adjustOrPutValue(sub, val, val);
-            }
-          }
-        }
+      try {
+        // Large blocks are split into parts scanned in parallel.
+        NgramBlockScanner.scan(reader, c.words()[0], null,
+            Arrays.asList(new SubstitutionTask(c, wordMap)));
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
@@ -73,11 +66,11 @@ public class ContextCoherenceFeature extends DetectionFeature {
     if (wordMap.get(word.text()) == 0) {
       return 0;
     } else {
-      float max = 0;
-      for (float val: wordMap.values()) {
+      double max = 0;
+      for (double val: wordMap.values()) {
         if (val > max) { max = val; }
       }
-      return wordMap.get(word.text()) / max;
+      return (float)(wordMap.get(word.text()) / max);
     }
   }
 
@@ -97,4 +90,56 @@ public class ContextCoherenceFeature extends DetectionFeature {
         .collect(Collectors.toList());
     return Floats.toArray(scores);
   }
+
+  /**
+   * A task summing the log n-gram frequencies of the word substitutions in a context. Split tasks
+   * are merged by adding their sums, which are kept in double precision. As the logarithms are not
+   * integral, the scores differ slightly from the float sums of the earlier versions.
+   */
+  private class SubstitutionTask implements NgramBlockTask<TObjectDoubleHashMap<String>> {
+    private final NgramPattern context;
+    private final TObjectDoubleHashMap<String> wordMap;
+
+    private SubstitutionTask(Context context, TObjectDoubleHashMap<String> wordMap) {
+      this(new NgramPattern(context.words(), context.index(), NgramPattern.NONE), wordMap);
+    }
+
+    private SubstitutionTask(NgramPattern context, TObjectDoubleHashMap<String> wordMap) {
+      this.context = context;
+      this.wordMap = wordMap;
+    }
+
+    @Override
+    public void accept(NgramRecord record) {
+      String sub = substitueWord(record, context);
+      if (sub != null) {
+        // Records the sum of log n-gram frequencies of the possible word substitutions.
+        double val = Math.log(record.count());
+        wordMap.adjustOrPutValue(sub, val, val);
+      }
+    }
+
+    @Override
+    public TObjectDoubleHashMap<String> result() {
+      return wordMap;
+    }
+
+    @Override
+    public boolean splittable() {
+      return true;
+    }
+
+    @Override
+    public NgramBlockTask<TObjectDoubleHashMap<String>> split() {
+      return new SubstitutionTask(context, new TObjectDoubleHashMap<>());
+    }
+
+    @Override
+    public void merge(NgramBlockTask<TObjectDoubleHashMap<String>> part) {
+      ((SubstitutionTask) part).wordMap.forEachEntry((sub, val) -> {
+        wordMap.adjustOrPutValue(sub, val, val);
+        return true;
+      });
+    }
+  }
 }
@@ -0,0 +1,297 @@
+package edu.dal.ocrrect.feature.metric;
+
+/**
+ * Levenshtein and optimal string alignment distances computed by bit-parallel algorithms.
+ *
+ * <p>If the shorter string has at most {@value #MAX_PATTERN_LENGTH} characters, the columns of the
+ * dynamic programming matrix are encoded as bit vectors of vertical deltas, and each character of
+ * the longer string is processed in a constant number of word operations (Myers 1999, Hyyro 2003).
+ * Longer strings are computed row by row. The buffers are reused in each thread, thus no array is
+ * allocated per pair.
+ *
+ * <p>A maximum distance may be given to abort a computation once the distance is known to exceed
+ * it, in which case {@code maxDistance + 1} is returned. The distances are identical to {@link
+ * info.debatty.java.stringsimilarity.Levenshtein} and {@link
+ * info.debatty.java.stringsimilarity.OptimalStringAlignment}.
+ *
+ * @since 2017.09.28
+ */
+public class EditDistance {
+  public static final int MAX_PATTERN_LENGTH = 64;
+
+  private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+  private EditDistance() {}
+
+  /**
+   * Compute the Levenshtein distance.
+   *
+   * @param s1 a string.
+   * @param s2 a string.
+   * @return the distance.
+   */
+  public static int levenshtein(String s1, String s2) {
+    return levenshtein(s1, s2, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Compute the Levenshtein distance up to a maximum.
+   *
+   * @param s1 a string.
+   * @param s2 a string.
+   * @param maxDistance the maximum distance.
+   * @return the distance, or {@code maxDistance + 1} if the distance exceeds the maximum.
+   */
+  public static int levenshtein(String s1, String s2, int maxDistance) {
+    return distance(s1, s2, maxDistance, false);
+  }
+
+  /**
+   * Compute the optimal string alignment distance, i.e. the Levenshtein distance with
+   * transpositions of adjacent characters, where no substring is edited more than once.
+   *
+   * @param s1 a string.
+   * @param s2 a string.
+   * @return the distance.
+   */
+  public static int osa(String s1, String s2) {
+    return osa(s1, s2, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Compute the optimal string alignment distance up to a maximum.
+   *
+   * @param s1 a string.
+   * @param s2 a string.
+   * @param maxDistance the maximum distance.
+   * @return the distance, or {@code maxDistance + 1} if the distance exceeds the maximum.
+   */
+  public static int osa(String s1, String s2, int maxDistance) {
+    return distance(s1, s2, maxDistance, true);
+  }
+
+  /**
+   * Compute both the Levenshtein and the optimal string alignment distances in one pass over the
+   * longer string, which shares the match vectors of the shorter string.
+   *
+   * @param s1 a string.
+   * @param s2 a string.
+   * @param out the array to which the Levenshtein and the optimal string alignment distances are
+   *     written at index {@code 0} and {@code 1}.
+   */
+  public static void levenshteinAndOsa(String s1, String s2, int[] out) {
+    String p = s1.length() <= s2.length() ? s1 : s2;
+    String t = p == s1 ? s2 : s1;
+    if (p.isEmpty()) {
+      out[0] = out[1] = t.length();
+      return;
+    }
+    Buffers buf = BUFFERS.get();
+    if (p.length() > MAX_PATTERN_LENGTH) {
+      out[0] = rows(p, t, Integer.MAX_VALUE, false, buf);
+      out[1] = rows(p, t, Integer.MAX_VALUE, true, buf);
+      return;
+    }
+    buf.setPattern(p);
+    long last = 1L << (p.length() - 1);
+    long vp = ~0L;
+    long vn = 0;
+    long osaVp = ~0L;
+    long osaVn = 0;
+    long osaD0 = 0;
+    long prevEq = 0;
+    int score = p.length();
+    int osaScore = score;
+    try {
+      for (int j = 0; j < t.length(); j++) {
+        long eq = buf.match(t.charAt(j));
+
+        long d0 = (((eq & vp) + vp) ^ vp) | eq | vn;
+        long hp = vn | ~(d0 | vp);
+        long hn = d0 & vp;
+        score += (hp & last) != 0 ? 1 : (hn & last) != 0 ? -1 : 0;
+        hp = (hp << 1) | 1;
+        hn = hn << 1;
+        vp = hn | ~(d0 | hp);
+        vn = hp & d0;
+
+        long tr = (((~osaD0) & eq) << 1) & prevEq;
+        osaD0 = (((eq & osaVp) + osaVp) ^ osaVp) | eq | osaVn | tr;
+        hp = osaVn | ~(osaD0 | osaVp);
+        hn = osaD0 & osaVp;
+        osaScore += (hp & last) != 0 ? 1 : (hn & last) != 0 ? -1 : 0;
+        hp = (hp << 1) | 1;
+        hn = hn << 1;
+        osaVp = hn | ~(osaD0 | hp);
+        osaVn = hp & osaD0;
+        prevEq = eq;
+      }
+    } finally {
+      buf.clearPattern(p);
+    }
+    out[0] = score;
+    out[1] = osaScore;
+  }
+
+  private static int distance(String s1, String s2, int maxDistance, boolean transpose) {
+    if (maxDistance < 0) {
+      throw new IllegalArgumentException("invalid distance: " + maxDistance);
+    }
+    // Both distances are symmetric, thus the shorter string is the pattern.
+    String p = s1.length() <= s2.length() ? s1 : s2;
+    String t = p == s1 ? s2 : s1;
+    int bound = maxDistance == Integer.MAX_VALUE ? maxDistance : maxDistance + 1;
+    if (t.length() - p.length() > maxDistance) {
+      return bound;
+    }
+    if (p.isEmpty()) {
+      return t.length();
+    }
+    Buffers buf = BUFFERS.get();
+    int d = p.length() <= MAX_PATTERN_LENGTH
+        ? bitParallel(p, t, maxDistance, transpose, buf)
+        : rows(p, t, maxDistance, transpose, buf);
+    return Math.min(d, bound);
+  }
+
+  /**
+   * Compute the distance by bit vectors, where the pattern has at most 64 characters. The score is
+   * the last row of the current column. Since each remaining column changes the last row by at most
+   * one, the computation is aborted once the score minus the remaining columns exceeds the maximum.
+   */
+  private static int bitParallel(String p, String t, int maxDistance, boolean transpose,
+      Buffers buf) {
+    int m = p.length();
+    int n = t.length();
+    buf.setPattern(p);
+    long last = 1L << (m - 1);
+    long vp = ~0L;
+    long vn = 0;
+    long d0 = 0;
+    long prevEq = 0;
+    int score = m;
+    try {
+      for (int j = 0; j < n; j++) {
+        long eq = buf.match(t.charAt(j));
+        long tr = transpose ? (((~d0) & eq) << 1) & prevEq : 0;
+        d0 = (((eq & vp) + vp) ^ vp) | eq | vn | tr;
+        long hp = vn | ~(d0 | vp);
+        long hn = d0 & vp;
+        if ((hp & last) != 0) {
+          score++;
+        } else if ((hn & last) != 0) {
+          score--;
+        }
+        if (score - (n - j - 1) > maxDistance) {
+          return maxDistance + 1;
+        }
+        hp = (hp << 1) | 1;
+        hn = hn << 1;
+        vp = hn | ~(d0 | hp);
+        vn = hp & d0;
+        prevEq = eq;
+      }
+      return score;
+    } finally {
+      buf.clearPattern(p);
+    }
+  }
+
+  /**
+   * Compute the distance row by row, where each row is a character of the pattern. The computation
+   * is aborted once the minimum of a row exceeds the maximum.
+   */
+  private static int rows(String p, String t, int maxDistance, boolean transpose, Buffers buf) {
+    int n = t.length();
+    int[] prev2 = buf.row(0, n + 1);
+    int[] prev = buf.row(1, n + 1);
+    int[] row = buf.row(2, n + 1);
+    for (int j = 0; j <= n; j++) {
+      prev[j] = j;
+    }
+    for (int i = 1; i <= p.length(); i++) {
+      char c = p.charAt(i - 1);
+      row[0] = i;
+      int min = i;
+      for (int j = 1; j <= n; j++) {
+        int cost = c == t.charAt(j - 1) ? 0 : 1;
+        int d = Math.min(Math.min(row[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+        if (transpose && i > 1 && j > 1 && c == t.charAt(j - 2)
+            && p.charAt(i - 2) == t.charAt(j - 1)) {
+          d = Math.min(d, prev2[j - 2] + cost);
+        }
+        row[j] = d;
+        min = Math.min(min, d);
+      }
+      if (min > maxDistance) {
+        return maxDistance + 1;
+      }
+      int[] tmp = prev2;
+      prev2 = prev;
+      prev = row;
+      row = tmp;
+    }
+    return prev[n];
+  }
+
+  /**
+   * The buffers of a thread.
+   */
+  private static class Buffers {
+    /** The match vectors of characters below 256. */
+    private final long[] ascii = new long[256];
+    /** The match vectors of other characters, at most one per pattern character. */
+    private final char[] others = new char[MAX_PATTERN_LENGTH];
+    private final long[] otherMasks = new long[MAX_PATTERN_LENGTH];
+    private int numOfOthers;
+    private int[][] rows = new int[3][0];
+
+    private void setPattern(String p) {
+      for (int i = 0; i < p.length(); i++) {
+        char c = p.charAt(i);
+        if (c < 256) {
+          ascii[c] |= 1L << i;
+        } else {
+          int k = 0;
+          while (k < numOfOthers && others[k] != c) {
+            k++;
+          }
+          if (k == numOfOthers) {
+            others[numOfOthers] = c;
+            otherMasks[numOfOthers++] = 0;
+          }
+          otherMasks[k] |= 1L << i;
+        }
+      }
+    }
+
+    private void clearPattern(String p) {
+      for (int i = 0; i < p.length(); i++) {
+        char c = p.charAt(i);
+        if (c < 256) {
+          ascii[c] = 0;
+        }
+      }
+      numOfOthers = 0;
+    }
+
+    private long match(char c) {
+      if (c < 256) {
+        return ascii[c];
+      }
+      for (int k = 0; k < numOfOthers; k++) {
+        if (others[k] == c) {
+          return otherMasks[k];
+        }
+      }
+      return 0;
+    }
+
+    private int[] row(int i, int size) {
+      if (rows[i].length < size) {
+        rows[i] = new int[size];
+      }
+      return rows[i];
+    }
+  }
+}
@@ -1,67 +1,94 @@
 package edu.dal.ocrrect.feature.metric;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
+/**
+ * Unnormalized n-gram distance with different cost functions.
+ *
+ * <p>Both strings are padded with {@code n - 1} prefix characters, and the cost functions compare
+ * the n-grams in place by their offsets in the padded strings, thus no n-gram is copied. The padded
+ * strings and the rows of the dynamic programming matrix are reused in each thread, such that no
+ * array is allocated per pair by {@link #distance(String, String)}.
+ */
 public class NGram {
-  private static char PREFIX = '\n';
+  /** The maximum n-gram size. */
+  public static final int MAX_SIZE = 64;
 
-  private int n;
-  private CostFunction cf;
+  private static final char PREFIX = '\n';
+  private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+  private final int n;
+  private final CostFunction[] cfs;
 
   /**
    * Unnormalized n-gram distance with different cost functions.
    *
-   * @param size
-   * @param func
+   * @param size the n-gram size, at most {@value #MAX_SIZE}.
+   * @param func the cost function of two n-grams.
    */
   public NGram(int size, CostFunction func) {
+    checkSize(size);
     n = size;
-    cf = func;
+    cfs = new CostFunction[] {func};
   }
 
   public interface CostFunction {
-    public float cost(char[] ngram1, char[] ngram2);
+    /**
+     * Compute the cost of two n-grams.
+     *
+     * @param s1 the array of the first n-gram.
+     * @param off1 the offset of the first n-gram.
+     * @param s2 the array of the second n-gram.
+     * @param off2 the offset of the second n-gram.
+     * @param n the n-gram size.
+     * @return the cost.
+     */
+    float cost(char[] s1, int off1, char[] s2, int off2, int n);
   }
 
-  public static CostFunction BINARY_COST = (s1, s2) -> {
-    int n = s1.length;
+  public static final CostFunction BINARY_COST = (s1, off1, s2, off2, n) -> {
     for (int ni = 0; ni < n; ni++) {
-      if (s1[ni] != s2[ni]) {
+      if (s1[off1 + ni] != s2[off2 + ni]) {
         return 1;
       }
     }
     return 0;
   };
 
-  public static CostFunction POSITIONAL_COST = (s1, s2) -> {
-    int n = s1.length;
+  public static final CostFunction POSITIONAL_COST = (s1, off1, s2, off2, n) -> {
     int tn = n;
     int cost = 0;
     for (int ni = 0; ni < n; ni++) {
-      if (s1[ni] != s2[ni]) {
+      char c = s1[off1 + ni];
+      if (c != s2[off2 + ni]) {
         cost++;
-      } else if (s1[ni] == PREFIX) {
+      } else if (c == PREFIX) {
         tn--; //discount matches on prefix
       }
     }
     return (float) cost / tn;
   };
 
-  public static CostFunction COMPREHENSIVE_COST = (s1, s2) -> {
-    int n = s1.length;
+  /**
+   * The number of characters of the first n-gram which are not in the second n-gram, where each
+   * character of the second n-gram is matched at most once, divided by the number of non-prefix
+   * characters of the first n-gram.
+   */
+  public static final CostFunction COMPREHENSIVE_COST = (s1, off1, s2, off2, n) -> {
     int tn = n;
     int cost = 0;
-    List<Character> l2 = new ArrayList<>();
-    for (char c: s2) {
-      l2.add(c);
-    }
-    for (char c: s1) {
-      if (! l2.contains(c)) {
+    // The positions of the second n-gram already matched.
+    long matched = 0;
+    for (int ni = 0; ni < n; ni++) {
+      char c = s1[off1 + ni];
+      int k = 0;
+      while (k < n && (s2[off2 + k] != c || (matched & (1L << k)) != 0)) {
+        k++;
+      }
+      if (k == n) {
         cost++;
       } else {
-        l2.remove((Character)c);
+        matched |= 1L << k;
       }
       if (c == PREFIX) {
         tn--;
@@ -71,89 +98,138 @@ public class NGram {
   };
 
   public final double distance(final String s0, final String s1) {
+    double[] out = BUFFERS.get().out;
+    distances(n, cfs, s0, s1, out);
+    return out[0];
+  }
+
+  /**
+   * Compute the n-gram distances of several cost functions, which share the padded strings. The
+   * distance of each cost function is identical to {@link #distance(String, String)}.
+   *
+   * @param size the n-gram size.
+   * @param funcs cost functions.
+   * @param s0 a string.
+   * @param s1 a string.
+   * @return the distance of each cost function.
+   */
+  public static double[] distances(int size, CostFunction[] funcs, String s0, String s1) {
+    double[] distances = new double[funcs.length];
+    distances(size, funcs, s0, s1, distances);
+    return distances;
+  }
+
+  /**
+   * Compute the n-gram distances of several cost functions without allocating the output.
+   *
+   * @param size the n-gram size.
+   * @param funcs cost functions.
+   * @param s0 a string.
+   * @param s1 a string.
+   * @param out the array to which the distance of each cost function is written.
+   * @see #distances(int, CostFunction[], String, String)
+   */
+  public static void distances(int size, CostFunction[] funcs, String s0, String s1,
+      double[] out) {
     if (s0 == null) {
-        throw new NullPointerException("s0 must not be null");
+      throw new NullPointerException("s0 must not be null");
     }
     if (s1 == null) {
-        throw new NullPointerException("s1 must not be null");
+      throw new NullPointerException("s1 must not be null");
     }
+    checkSize(size);
+    final int n = size;
+    final int k = funcs.length;
     if (s0.equals(s1)) {
-        return 0;
+      Arrays.fill(out, 0, k, 0);
+      return;
     }
 
-    final char special = '\n';
     final int sl = s0.length();
     final int tl = s1.length();
-
     if (sl == 0 || tl == 0) {
-        return 1;
+      Arrays.fill(out, 0, k, 1);
+      return;
     }
 
-    int cost = 0;
     if (sl < n || tl < n) {
-        for (int i = 0, ni = Math.min(sl, tl); i < ni; i++) {
-            if (s0.charAt(i) == s1.charAt(i)) {
-                cost++;
-            }
+      int cost = 0;
+      for (int i = 0, ni = Math.min(sl, tl); i < ni; i++) {
+        if (s0.charAt(i) == s1.charAt(i)) {
+          cost++;
         }
-        return (float) cost;
+      }
+      Arrays.fill(out, 0, k, (float) cost);
+      return;
     }
 
-    char[] sa = new char[sl + n - 1];
-    float[] p; //'previous' cost array, horizontally
-    float[] d; // cost array, horizontally
-    float[] d2; //placeholder to assist in swapping p and d
-
-    //construct sa with prefix
-    for (int i = 0; i < sa.length; i++) {
-        if (i < n - 1) {
-            sa[i] = special; //add prefix
-        } else {
-            sa[i] = s0.charAt(i - n + 1);
+    // The i-th n-gram of s0 starts at sa[i - 1], and the j-th n-gram of s1 starts at ta[j - 1].
+    Buffers buf = BUFFERS.get();
+    char[] sa = buf.pad(0, s0, n);
+    char[] ta = buf.pad(1, s1, n);
+
+    // The 'previous' and the current cost rows of each cost function, horizontally.
+    int width = sl + 1;
+    float[] p = buf.row(0, k * width);
+    float[] d = buf.row(1, k * width);
+    for (int f = 0; f < k; f++) {
+      for (int i = 0; i <= sl; i++) {
+        p[f * width + i] = i;
+      }
+    }
+    for (int j = 1; j <= tl; j++) {
+      for (int f = 0; f < k; f++) {
+        CostFunction cf = funcs[f];
+        int o = f * width;
+        d[o] = j;
+        for (int i = 1; i <= sl; i++) {
+          float ec = cf.cost(sa, i - 1, ta, j - 1, n);
+          // minimum of cell to the left+1, to the top+1, diagonally left and up +cost
+          d[o + i] = Math.min(Math.min(d[o + i - 1] + 1, p[o + i] + 1), p[o + i - 1] + ec);
         }
+      }
+      float[] tmp = p;
+      p = d;
+      d = tmp;
     }
-    p = new float[sl + 1];
-    d = new float[sl + 1];
-
-    // indexes into strings s and t
-    int i; // iterates through source
-    int j; // iterates through target
-
-    char[] t_j = new char[n]; // jth n-gram of t
+    for (int f = 0; f < k; f++) {
+      out[f] = p[f * width + sl];
+    }
+  }
 
-    for (i = 0; i <= sl; i++) {
-        p[i] = i;
+  private static void checkSize(int size) {
+    if (size < 1 || size > MAX_SIZE) {
+      throw new IllegalArgumentException("invalid n-gram size: " + size);
     }
+  }
 
-    for (j = 1; j <= tl; j++) {
-        //construct t_j n-gram
-        if (j < n) {
-            for (int ti = 0; ti < n - j; ti++) {
-                t_j[ti] = special; //add prefix
-            }
-            for (int ti = n - j; ti < n; ti++) {
-                t_j[ti] = s1.charAt(ti - (n - j));
-            }
-        } else {
-            t_j = s1.substring(j - n, j).toCharArray();
-        }
-        d[0] = j;
-        for (i = 1; i <= sl; i++) {
-            float ec = cf.cost(Arrays.copyOfRange(sa, i - 1, i - 1 + n), t_j);
-
-            // minimum of cell to the left+1, to the top+1,
-            // diagonally left and up +cost
-            d[i] = Math.min(
-                    Math.min(d[i - 1] + 1, p[i] + 1), p[i - 1] + ec);
-        }
-        // copy current distance counts to 'previous row' distance counts
-        d2 = p;
-        p = d;
-        d = d2;
+  /**
+   * The buffers of a thread.
+   */
+  private static class Buffers {
+    private final char[][] padded = new char[2][0];
+    private final float[][] rows = new float[2][0];
+    private final double[] out = new double[1];
+
+    /**
+     * Pad a string with {@code n - 1} prefix characters.
+     */
+    private char[] pad(int i, String s, int n) {
+      int len = s.length() + n - 1;
+      if (padded[i].length < len) {
+        padded[i] = new char[Math.max(len, padded[i].length * 2)];
+      }
+      char[] chars = padded[i];
+      Arrays.fill(chars, 0, n - 1, PREFIX);
+      s.getChars(0, s.length(), chars, n - 1);
+      return chars;
     }
 
-    // our last action in the above loop was to switch d and p, so p now
-    // actually has the most recent cost counts
-    return p[sl];
+    private float[] row(int i, int size) {
+      if (rows[i].length < size) {
+        rows[i] = new float[Math.max(size, rows[i].length * 2)];
+      }
+      return rows[i];
+    }
   }
 }
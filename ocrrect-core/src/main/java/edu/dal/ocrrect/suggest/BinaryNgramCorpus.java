@@ -0,0 +1,433 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.IOUtils;
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TIntHashSet;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A n-gram corpus of one order stored in a dictionary-encoded binary format.
+ *
+ * <p>Tokens are replaced by their IDs in a {@link NgramVocabulary}. The records sharing the same first
+ * word are stored contiguously in a group, where each record consists of a fixed-width tuple of the
+ * token IDs following the first word and the frequency encoded as a unsigned variable-length long.
+ * The width of token IDs is the least number of bytes representing all IDs in the vocabulary. Groups
+ * are located by a directory sorted by the first word ID.
+ *
+ * <p>The file layout is as follows, where all numbers are big-endian:
+ * <pre>
+ *   header    int magic, int version, int order, int idWidth, int vocabSize, int numGroups,
+ *             long directoryPosition
+ *   groups    record[] (byte[idWidth * (order - 1)] ids, varint frequency)
+ *   directory int[numGroups] firstIds, long[numGroups] offsets, long[numGroups] lengths,
+ *             int[numGroups] counts
+ * </pre>
+ *
+ * <p>Records are read in blocks by {@link Records}, which exposes token IDs and frequencies as
+ * primitives without constructing any strings.
+ *
+ * @since 2017.09.08
+ */
+public class BinaryNgramCorpus implements Closeable {
+  public static final String FILE_EXTENSION = ".bin";
+
+  private static final int MAGIC = 0x4E424743; // "NBGC"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int BLOCK_SIZE = 1 << 20;
+
+  private final FileChannel channel;
+  private final int order;
+  private final int idWidth;
+  private final int vocabSize;
+  private final int numGroups;
+  private final MappedByteBuffer directory;
+
+  private BinaryNgramCorpus(FileChannel channel) throws IOException {
+    this.channel = channel;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    readFully(channel, header, 0);
+    header.flip();
+    if (header.getInt() != MAGIC) {
+      throw new IOException("not a binary n-gram corpus");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported binary n-gram corpus version: " + version);
+    }
+    order = header.getInt();
+    idWidth = header.getInt();
+    vocabSize = header.getInt();
+    numGroups = header.getInt();
+    long dirPos = header.getLong();
+    directory = channel.map(FileChannel.MapMode.READ_ONLY, dirPos, numGroups * 24L);
+  }
+
+  /**
+   * Open a binary n-gram corpus.
+   *
+   * @param path a file written by {@link #convert(List, NgramVocabulary, Path)}.
+   * @return a binary n-gram corpus.
+   * @throws IOException if I/O error occurs or the file is malformed.
+   */
+  public static BinaryNgramCorpus open(Path path) throws IOException {
+    FileChannel fc = FileChannel.open(path);
+    try {
+      return new BinaryNgramCorpus(fc);
+    } catch (IOException | RuntimeException e) {
+      fc.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Get the order of n-grams.
+   *
+   * @return the n-gram order.
+   */
+  public int order() {
+    return order;
+  }
+
+  /**
+   * Get the size of the vocabulary used to encode this corpus.
+   *
+   * @return the number of tokens.
+   */
+  public int vocabularySize() {
+    return vocabSize;
+  }
+
+  /**
+   * Get the number of distinct first words.
+   *
+   * @return the number of groups.
+   */
+  public int numGroups() {
+    return numGroups;
+  }
+
+  private int findGroup(int firstId) {
+    int lo = 0;
+    int hi = numGroups - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int id = directory.getInt(mid * 4);
+      if (id < firstId) {
+        lo = mid + 1;
+      } else if (id > firstId) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Get the number of records starting with a given word.
+   *
+   * @param firstId the ID of the first word.
+   * @return the number of records.
+   */
+  public int count(int firstId) {
+    int group = findGroup(firstId);
+    return group < 0 ? 0 : directory.getInt(numGroups * 20 + group * 4);
+  }
+
+  /**
+   * Iterate records starting with a given word.
+   *
+   * @param firstId the ID of the first word.
+   * @return records starting with the given word, or {@code null} if the word does not appear as a
+   *     first word.
+   */
+  public Records records(int firstId) {
+    int group = findGroup(firstId);
+    if (group < 0) {
+      return null;
+    }
+    long offset = directory.getLong(numGroups * 4 + group * 8);
+    long length = directory.getLong(numGroups * 12 + group * 8);
+    return new Records(firstId, offset, length);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static void readFully(FileChannel fc, ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      int n = fc.read(buf, pos);
+      if (n < 0) {
+        throw new IOException("unexpected end of file");
+      }
+      pos += n;
+    }
+  }
+
+  /**
+   * A cursor over the records in a group. The array returned by {@link #ids()} is reused among
+   * records.
+   */
+  public class Records {
+    private final int[] ids;
+    private long pos;
+    private final long end;
+    private final ByteBuffer buf;
+    private long freq;
+
+    private Records(int firstId, long offset, long length) {
+      ids = new int[order];
+      ids[0] = firstId;
+      pos = offset;
+      end = offset + length;
+      buf = ByteBuffer.allocate((int) Math.min(BLOCK_SIZE, length));
+      buf.limit(0);
+    }
+
+    /**
+     * Advance to the next record.
+     *
+     * @return {@code true} if a record is read, or {@code false} if the group is exhausted.
+     * @throws IOException if I/O error occurs.
+     */
+    public boolean next() throws IOException {
+      // A record is no longer than the tuple and a 10-byte varint.
+      if (buf.remaining() < idWidth * (order - 1) + 10 && pos < end) {
+        buf.compact();
+        int n = (int) Math.min(buf.remaining(), end - pos);
+        buf.limit(buf.position() + n);
+        readFully(channel, buf, pos);
+        pos += n;
+        buf.flip();
+      }
+      if (! buf.hasRemaining()) {
+        return false;
+      }
+      for (int i = 1; i < order; i++) {
+        int id = 0;
+        for (int j = 0; j < idWidth; j++) {
+          id = (id << 8) | (buf.get() & 0xFF);
+        }
+        ids[i] = id;
+      }
+      freq = readVarLong(buf);
+      return true;
+    }
+
+    /**
+     * Get the token IDs of the current record, including the first word.
+     *
+     * @return an array of token IDs.
+     */
+    public int[] ids() {
+      return ids;
+    }
+
+    /**
+     * Get the frequency of the current record.
+     *
+     * @return the frequency.
+     */
+    public long freq() {
+      return freq;
+    }
+  }
+
+  private static long readVarLong(ByteBuffer buf) {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buf.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  private static int writeVarLong(OutputStream out, long value) throws IOException {
+    int n = 1;
+    for (; (value & ~0x7FL) != 0; n++) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+    return n;
+  }
+
+  private static int idWidth(int vocabSize) {
+    int width = 1;
+    while (width < 4 && (vocabSize - 1) >>> (width * 8) != 0) {
+      width++;
+    }
+    return width;
+  }
+
+  /**
+   * Convert n-gram data files of one order into a binary n-gram corpus. Records in data files are
+   * expected to be grouped by their first words, as in the Web1T corpus.
+   *
+   * @param ngrams the n-gram data files.
+   * @param vocab a vocabulary including all tokens in the data files.
+   * @param out the output path.
+   * @throws IOException if I/O error occurs or the data files are malformed.
+   */
+  public static void convert(List<Path> ngrams, NgramVocabulary vocab, Path out)
+      throws IOException {
+    Timer t = new Timer();
+    Files.createDirectories(out.toAbsolutePath().getParent());
+    int width = idWidth(vocab.size());
+
+    TIntArrayList firstIds = new TIntArrayList();
+    TLongArrayList offsets = new TLongArrayList();
+    TLongArrayList lengths = new TLongArrayList();
+    TIntArrayList counts = new TIntArrayList();
+    TIntHashSet seen = new TIntHashSet();
+    int order = 0;
+    long inBytes = 0;
+
+    long pos = HEADER_SIZE;
+    try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(out), 1 << 16)) {
+      os.write(new byte[HEADER_SIZE]);
+      int[] ids = null;
+      int prevFirst = NgramVocabulary.NO_ID;
+      long groupStart = HEADER_SIZE;
+      int groupCount = 0;
+
+      for (Path p : ngrams) {
+        inBytes += p.toFile().length();
+        try (BufferedReader br = IOUtils.newBufferedReader(p)) {
+          for (String line = br.readLine(); line != null; line = br.readLine()) {
+            int tab = line.indexOf('\t');
+            if (tab < 0) {
+              throw new IOException("malformed n-gram record: " + line);
+            }
+            if (ids == null) {
+              order = 1;
+              for (int i = 0; i < tab; i++) {
+                if (line.charAt(i) == ' ') {
+                  order++;
+                }
+              }
+              ids = new int[order];
+            }
+            // Encode tokens.
+            int n = 0;
+            int str = 0;
+            for (int i = 0; i <= tab; i++) {
+              if (i == tab || line.charAt(i) == ' ') {
+                if (n == order) {
+                  throw new IOException("inconsistent n-gram order: " + line);
+                }
+                String token = line.substring(str, i);
+                int id = vocab.id(token);
+                if (id == NgramVocabulary.NO_ID) {
+                  throw new IOException("token not in vocabulary: " + token);
+                }
+                ids[n++] = id;
+                str = i + 1;
+              }
+            }
+            if (n != order) {
+              throw new IOException("inconsistent n-gram order: " + line);
+            }
+            long freq = Long.parseLong(line.substring(tab + 1).trim());
+
+            // Close the current group on a new first word.
+            if (ids[0] != prevFirst) {
+              if (prevFirst != NgramVocabulary.NO_ID) {
+                firstIds.add(prevFirst);
+                offsets.add(groupStart);
+                lengths.add(pos - groupStart);
+                counts.add(groupCount);
+              }
+              if (! seen.add(ids[0])) {
+                throw new IOException("records are not grouped by first word: " + line);
+              }
+              prevFirst = ids[0];
+              groupStart = pos;
+              groupCount = 0;
+            }
+            for (int i = 1; i < order; i++) {
+              for (int j = width - 1; j >= 0; j--) {
+                os.write(ids[i] >>> (j * 8));
+              }
+            }
+            pos += width * (order - 1) + writeVarLong(os, freq);
+            groupCount++;
+          }
+        }
+      }
+      if (prevFirst != NgramVocabulary.NO_ID) {
+        firstIds.add(prevFirst);
+        offsets.add(groupStart);
+        lengths.add(pos - groupStart);
+        counts.add(groupCount);
+      }
+    }
+    long dirPos = pos;
+
+    // Sort the directory by first word IDs.
+    int numGroups = firstIds.size();
+    Integer[] sorted = new Integer[numGroups];
+    for (int i = 0; i < numGroups; i++) {
+      sorted[i] = i;
+    }
+    Arrays.sort(sorted, (a, b) -> Integer.compare(firstIds.get(a), firstIds.get(b)));
+
+    try (FileChannel fc = FileChannel.open(out, StandardOpenOption.WRITE)) {
+      ByteBuffer dir = ByteBuffer.allocate(numGroups * 24);
+      for (int i : sorted) {
+        dir.putInt(firstIds.get(i));
+      }
+      for (int i : sorted) {
+        dir.putLong(offsets.get(i));
+      }
+      for (int i : sorted) {
+        dir.putLong(lengths.get(i));
+      }
+      for (int i : sorted) {
+        dir.putInt(counts.get(i));
+      }
+      dir.flip();
+      writeFully(fc, dir, dirPos);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(order)
+          .putInt(width)
+          .putInt(vocab.size())
+          .putInt(numGroups)
+          .putLong(dirPos);
+      header.flip();
+      writeFully(fc, header, 0);
+    }
+    LogUtils.info(String.format("converted %.1f MB to %.1f MB (%.1f%%)",
+        inBytes / 1e6, out.toFile().length() / 1e6, out.toFile().length() * 100f / inBytes));
+    LogUtils.logMethodTime(t, 2);
+  }
+
+  private static void writeFully(FileChannel fc, ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      pos += fc.write(buf, pos);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.feature.metric.EditDistance;
+import edu.dal.ocrrect.feature.metric.NGram;
+import edu.dal.ocrrect.util.Word;
+import info.debatty.java.stringsimilarity.Damerau;
+import info.debatty.java.stringsimilarity.Jaccard;
+import info.debatty.java.stringsimilarity.JaroWinkler;
+import info.debatty.java.stringsimilarity.LongestCommonSubsequence;
+import info.debatty.java.stringsimilarity.QGram;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A built-in string distance metric, which can be scored together with other metrics by {@link
+ * MultiDistanceScorer}.
+ *
+ * @see Scoreable#levenshteinDist()
+ * @since 2017.09.28
+ */
+public final class DistanceMetric implements Scoreable {
+  private static final long serialVersionUID = 6129504736280385621L;
+
+  // The metrics without parameters are stateless, thus shared by all threads.
+  private static final Damerau DAMERAU = new Damerau();
+  private static final LongestCommonSubsequence LCS = new LongestCommonSubsequence();
+  private static final JaroWinkler JARO_WINKLER = new JaroWinkler();
+
+  public enum Kind {
+    LEVENSHTEIN,
+    DAMERAU,
+    OPTIMAL_STRING_ALIGNMENT,
+    LCS,
+    JARO_WINKLER,
+    JACCARD,
+    QGRAM,
+    BINARY_NGRAM,
+    POSITIONAL_NGRAM,
+    COMPREHENSIVE_NGRAM
+  }
+
+  private final Kind kind;
+  private final int size;
+
+  /**
+   * Construct a metric.
+   *
+   * @param kind the kind of metric.
+   * @param size the shingle size of {@link Kind#JACCARD} and {@link Kind#QGRAM}, or the n-gram size
+   *     of n-gram metrics. Ignored by other metrics.
+   */
+  DistanceMetric(Kind kind, int size) {
+    this.kind = kind;
+    this.size = size;
+  }
+
+  public Kind kind() {
+    return kind;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the cost function of an n-gram metric.
+   *
+   * @return the cost function, or {@code null} if this is not an n-gram metric.
+   */
+  NGram.CostFunction costFunction() {
+    switch (kind) {
+      case BINARY_NGRAM:        return NGram.BINARY_COST;
+      case POSITIONAL_NGRAM:    return NGram.POSITIONAL_COST;
+      case COMPREHENSIVE_NGRAM: return NGram.COMPREHENSIVE_COST;
+      default:                  return null;
+    }
+  }
+
+  @Override
+  public float score(Word word, String candidate) {
+    return distance(word.text(), candidate);
+  }
+
+  /**
+   * Compute the distance of two strings.
+   */
+  float distance(String w, String candidate) {
+    switch (kind) {
+      case LEVENSHTEIN:
+        return (float)EditDistance.levenshtein(w, candidate);
+      case DAMERAU:
+        return (float)DAMERAU.distance(w, candidate);
+      case OPTIMAL_STRING_ALIGNMENT:
+        return (float)EditDistance.osa(w, candidate);
+      case LCS:
+        return (float)LCS.distance(w, candidate);
+      case JARO_WINKLER:
+        return (float)JARO_WINKLER.distance(w, candidate);
+      case JACCARD:
+        double dist = new Jaccard(size).distance(w, candidate);
+        return Double.isNaN(dist) ? 0f : (float) dist;
+      case QGRAM:
+        return (float)new QGram(size).distance(w, candidate);
+      default:
+        return (float)new NGram(size, costFunction()).distance(w, candidate);
+    }
+  }
+
+  /**
+   * Score candidates of the same word, where the states of the word, e.g. its shingle profile, are
+   * computed once, and each metric scores the candidates in its own loop.
+   */
+  @Override
+  public void score(Word word, String[] candidates, float[] out) {
+    String w = word.text();
+    switch (kind) {
+      case LEVENSHTEIN:
+        for (int i = 0; i < candidates.length; i++) {
+          out[i] = EditDistance.levenshtein(w, candidates[i]);
+        }
+        break;
+      case DAMERAU:
+        for (int i = 0; i < candidates.length; i++) {
+          out[i] = (float) DAMERAU.distance(w, candidates[i]);
+        }
+        break;
+      case OPTIMAL_STRING_ALIGNMENT:
+        for (int i = 0; i < candidates.length; i++) {
+          out[i] = EditDistance.osa(w, candidates[i]);
+        }
+        break;
+      case LCS:
+        for (int i = 0; i < candidates.length; i++) {
+          out[i] = (float) LCS.distance(w, candidates[i]);
+        }
+        break;
+      case JARO_WINKLER:
+        for (int i = 0; i < candidates.length; i++) {
+          out[i] = (float) JARO_WINKLER.distance(w, candidates[i]);
+        }
+        break;
+      case JACCARD:
+      case QGRAM:
+        QGram shingles = new QGram(size);
+        Map<String, Integer> profile = shingles.getProfile(w);
+        boolean jaccard = kind == Kind.JACCARD;
+        for (int i = 0; i < candidates.length; i++) {
+          String c = candidates[i];
+          out[i] = w.equals(c) ? 0 : shingleDistance(profile, shingles.getProfile(c), jaccard);
+        }
+        break;
+      default:
+        NGram ngram = new NGram(size, costFunction());
+        for (int i = 0; i < candidates.length; i++) {
+          out[i] = (float) ngram.distance(w, candidates[i]);
+        }
+    }
+  }
+
+  /**
+   * Compute the Jaccard or the q-gram distance of two different strings from their shingle
+   * profiles, as in {@link Jaccard} and {@link QGram}. A Jaccard distance of two strings without
+   * shingles is {@code 0}.
+   *
+   * @param p1 the shingle profile of a string.
+   * @param p2 the shingle profile of another string.
+   * @param jaccard whether to compute the Jaccard distance, otherwise the q-gram distance.
+   * @return the distance.
+   */
+  static float shingleDistance(Map<String, Integer> p1, Map<String, Integer> p2,
+      boolean jaccard) {
+    int inter = 0;
+    int diff = 0;
+    for (Map.Entry<String, Integer> e : p1.entrySet()) {
+      Integer count = p2.get(e.getKey());
+      if (count == null) {
+        diff += e.getValue();
+      } else {
+        inter++;
+        diff += Math.abs(e.getValue() - count);
+      }
+    }
+    if (jaccard) {
+      int union = p1.size() + p2.size() - inter;
+      return union == 0 ? 0f : (float) (1.0 - 1.0 * inter / union);
+    }
+    for (Map.Entry<String, Integer> e : p2.entrySet()) {
+      if (! p1.containsKey(e.getKey())) {
+        diff += e.getValue();
+      }
+    }
+    return diff;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj instanceof DistanceMetric) {
+      DistanceMetric another = (DistanceMetric) obj;
+      return kind == another.kind && size == another.size;
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(kind, size);
+  }
+
+  @Override
+  public String toString() {
+    return kind + "(" + size + ")";
+  }
+}
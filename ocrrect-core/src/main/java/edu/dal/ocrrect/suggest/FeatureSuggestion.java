@@ -21,13 +21,20 @@ public class FeatureSuggestion extends LocatedTextualUnit {
   private final Word word;
   private final String[] candidates;
   private final float[] scores;
+  private final boolean approximate;
 
-  FeatureSuggestion(FeatureType type, Word word, String[] candidates, float[] scores) {
+  FeatureSuggestion(FeatureType type, Word word, String[] candidates, float[] scores,
+      boolean approximate) {
     super(word.text(), word.position());
     this.word = word;
     this.type = type;
     this.candidates = candidates;
     this.scores = scores;
+    this.approximate = approximate;
+  }
+
+  FeatureSuggestion(FeatureType type, Word word, String[] candidates, float[] scores) {
+    this(type, word, candidates, scores, false);
   }
 
   FeatureSuggestion(Feature feature, Word word, String[] candidates, float[] scores) {
@@ -46,6 +53,16 @@ public class FeatureSuggestion extends LocatedTextualUnit {
     return scores;
   }
 
+  /**
+   * Check whether the candidates and scores are approximated, as the n-gram blocks of some
+   * contexts of the word are not fully scanned within a {@link ScanBudget}.
+   *
+   * @return {@code true} if this suggestion is approximate.
+   */
+  public boolean isApproximate() {
+    return approximate;
+  }
+
   public List<FeatureCandidate> candidates() {
     List<FeatureCandidate> cands = new ArrayList<>(scores.length);
     for (int i = 0; i < scores.length; i++) {
@@ -81,6 +98,6 @@ public class FeatureSuggestion extends LocatedTextualUnit {
       topCand[i] = fc.text();
       topScore[i] = fc.score();
     }
-    return new FeatureSuggestion(type, word, topCand, topScore);
+    return new FeatureSuggestion(type, word, topCand, topScore, approximate);
   }
 }
@@ -21,6 +21,7 @@ class FeatureSuggestionBuilder {
   private List<String> candidates;
   private THashSet<String> candSet;
   private TFloatArrayList scores;
+  private boolean approximate;
 
   FeatureSuggestionBuilder(Feature feature, Word word) {
     this.feature = feature;
@@ -53,6 +54,11 @@ class FeatureSuggestionBuilder {
     return this;
   }
 
+  FeatureSuggestionBuilder setApproximate(boolean approximate) {
+    this.approximate = approximate;
+    return this;
+  }
+
   private void normalize() {
     if (scores.size() == 0) return;
 
@@ -83,9 +89,10 @@ class FeatureSuggestionBuilder {
 
   FeatureSuggestion build() {
     normalize();
-    return new FeatureSuggestion(feature, word,
+    return new FeatureSuggestion(feature.type(), word,
         candidates.toArray(new String[candidates.size()]),
-        scores.toArray());
+        scores.toArray(),
+        approximate);
   }
 
   static FeatureSuggestion build(Feature feature, Word word, TObjectFloatMap<String> scoreMap) {
@@ -0,0 +1,100 @@
+package edu.dal.ocrrect.suggest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Helpers of the read-only files mapped into memory, such as {@link MappedNgramIndex} and {@link
+ * NgramStore}. Each file starts with a header of {@value #HEADER_SIZE} bytes, which begins with a
+ * magic number and the format version, and contains a CRC32 checksum of all the bytes after the
+ * header. A file is mapped as a whole, thus it is limited to 2 GB.
+ *
+ * @see MappedKeyBlock
+ * @since 2017.09.24
+ */
+public final class MappedFiles {
+  public static final int HEADER_SIZE = 64;
+
+  private MappedFiles() {}
+
+  /**
+   * Map a file as a whole. The checksum is not verified in this method, see {@link
+   * #checksum(ByteBuffer, int)}.
+   *
+   * @param path a file.
+   * @param name the name of the file format in error messages.
+   * @return a read-only buffer.
+   * @throws IOException if the file is too large to be mapped, or I/O error occurs.
+   */
+  public static MappedByteBuffer map(Path path, String name) throws IOException {
+    try (FileChannel fc = FileChannel.open(path)) {
+      if (fc.size() > Integer.MAX_VALUE) {
+        throw new IOException(name + " file is too large to be mapped: " + path);
+      }
+      return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+    }
+  }
+
+  /**
+   * Check the magic number and the format version at the beginning of a buffer.
+   *
+   * @param buffer a buffer.
+   * @param magic the expected magic number.
+   * @param version the supported version.
+   * @param name the name of the file format in error messages.
+   * @throws IllegalArgumentException if the magic number or the version does not match.
+   */
+  public static void checkHeader(ByteBuffer buffer, int magic, int version, String name) {
+    if (buffer.getInt(0) != magic) {
+      throw new IllegalArgumentException("not a " + name + " file");
+    }
+    int v = buffer.getInt(4);
+    if (v != version) {
+      throw new IllegalArgumentException("unsupported " + name + " version: " + v);
+    }
+  }
+
+  /**
+   * Compute the CRC32 checksum of the bytes from a position to the limit of a buffer. The position
+   * of the buffer is not changed.
+   *
+   * @param buffer a buffer.
+   * @param from the position of the first byte, e.g. {@link #HEADER_SIZE} for a whole file.
+   * @return the checksum.
+   */
+  public static long checksum(ByteBuffer buffer, int from) {
+    ByteBuffer bb = buffer.duplicate();
+    bb.position(from);
+    CRC32 crc = new CRC32();
+    crc.update(bb);
+    return crc.getValue();
+  }
+
+  /**
+   * Write the whole content of buffers into a file in order, regardless of their positions and
+   * limits. The parent directory is created if absent.
+   *
+   * @param out the output path.
+   * @param sections buffers, e.g. the header and the body of a file.
+   * @throws IOException if I/O error occurs.
+   */
+  public static void write(Path out, ByteBuffer... sections) throws IOException {
+    Files.createDirectories(out.toAbsolutePath().getParent());
+    try (FileChannel fc = FileChannel.open(out, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      for (ByteBuffer section : sections) {
+        ByteBuffer bb = section.duplicate();
+        bb.clear();
+        while (bb.hasRemaining()) {
+          fc.write(bb);
+        }
+      }
+    }
+  }
+}
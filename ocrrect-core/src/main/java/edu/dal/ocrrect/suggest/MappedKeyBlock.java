@@ -0,0 +1,237 @@
+package edu.dal.ocrrect.suggest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A sorted set of words stored in a mapped buffer, which maps each word to its rank. Words are
+ * sorted by their UTF-8 bytes and front-coded in groups of a fixed number of keys, where the first
+ * key in each group is written in full. The position of each group is stored in a restart array,
+ * which is binary searched in lookups.
+ *
+ * @see MappedNgramIndex
+ * @see NgramStore
+ * @since 2017.09.24
+ */
+class MappedKeyBlock {
+  static final int RESTART_INTERVAL = 16;
+
+  /**
+   * Compare two byte arrays as unsigned bytes. Words in index are sorted in this order.
+   */
+  static final Comparator<byte[]> UNSIGNED_BYTES = (a, b) -> compare(a, a.length, b);
+
+  private final ByteBuffer buffer;
+  private final int numOfKeys;
+  private final int keyBlockPos;
+  private final int restartPos;
+  private final int interval;
+
+  /**
+   * Read a key block in a buffer.
+   *
+   * @param buffer a buffer.
+   * @param numOfKeys the number of keys.
+   * @param keyBlockPos the position of the front-coded keys.
+   * @param restartPos the position of the restart array.
+   * @param interval the number of keys in a group.
+   */
+  MappedKeyBlock(ByteBuffer buffer, int numOfKeys, int keyBlockPos, int restartPos, int interval) {
+    this.buffer = buffer;
+    this.numOfKeys = numOfKeys;
+    this.keyBlockPos = keyBlockPos;
+    this.restartPos = restartPos;
+    this.interval = interval;
+  }
+
+  int size() {
+    return numOfKeys;
+  }
+
+  /**
+   * Find the rank of a word.
+   *
+   * @param word a word.
+   * @return the rank of the word, or {@code -1} if the word is not in the block.
+   */
+  int find(String word) {
+    if (numOfKeys == 0) {
+      return -1;
+    }
+    byte[] target = word.getBytes(StandardCharsets.UTF_8);
+
+    // Binary search for the last key group which first key is not greater than the target.
+    int numOfGroups = (numOfKeys + interval - 1) / interval;
+    int lo = 0;
+    int hi = numOfGroups - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      int pos = keyBlockPos + buffer.getInt(restartPos + mid * 4);
+      if (compareFullKey(pos, target) <= 0) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+
+    // Scan the front-coded keys in group.
+    int pos = keyBlockPos + buffer.getInt(restartPos + lo * 4);
+    byte[] key = new byte[64];
+    int keyLen = 0;
+    int end = Math.min(numOfKeys, (lo + 1) * interval);
+    for (int i = lo * interval; i < end; i++) {
+      int shared = 0;
+      if (i != lo * interval) {
+        shared = readVarInt(pos);
+        pos += varIntSize(shared);
+      }
+      int suffixLen = readVarInt(pos);
+      pos += varIntSize(suffixLen);
+      keyLen = shared + suffixLen;
+      if (key.length < keyLen) {
+        key = Arrays.copyOf(key, keyLen * 2);
+      }
+      for (int j = 0; j < suffixLen; j++) {
+        key[shared + j] = buffer.get(pos + j);
+      }
+      pos += suffixLen;
+
+      int cmp = compare(key, keyLen, target);
+      if (cmp == 0) {
+        return i;
+      } else if (cmp > 0) {
+        break;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Decode the {@code i}-th word.
+   *
+   * @param i the rank of a word.
+   * @return the word.
+   */
+  String key(int i) {
+    int group = i / interval;
+    int pos = keyBlockPos + buffer.getInt(restartPos + group * 4);
+    byte[] key = new byte[0];
+    for (int j = group * interval; j <= i; j++) {
+      int shared = 0;
+      if (j != group * interval) {
+        shared = readVarInt(pos);
+        pos += varIntSize(shared);
+      }
+      int suffixLen = readVarInt(pos);
+      pos += varIntSize(suffixLen);
+      key = Arrays.copyOf(key, shared + suffixLen);
+      for (int k = 0; k < suffixLen; k++) {
+        key[shared + k] = buffer.get(pos + k);
+      }
+      pos += suffixLen;
+    }
+    return new String(key, StandardCharsets.UTF_8);
+  }
+
+  private int compareFullKey(int pos, byte[] target) {
+    int len = readVarInt(pos);
+    pos += varIntSize(len);
+    int min = Math.min(len, target.length);
+    for (int i = 0; i < min; i++) {
+      int diff = (buffer.get(pos + i) & 0xFF) - (target[i] & 0xFF);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return len - target.length;
+  }
+
+  private static int compare(byte[] a, int aLen, byte[] b) {
+    int min = Math.min(aLen, b.length);
+    for (int i = 0; i < min; i++) {
+      int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return aLen - b.length;
+  }
+
+  private int readVarInt(int pos) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buffer.get(pos++);
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  private static int varIntSize(int value) {
+    int size = 1;
+    while ((value >>>= 7) != 0) {
+      size++;
+    }
+    return size;
+  }
+
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * Encode the UTF-8 bytes of words in a block.
+   *
+   * @param words words sorted by {@link #UNSIGNED_BYTES}.
+   * @return the encoded block.
+   * @throws IOException if I/O error occurs.
+   */
+  static Encoded encode(byte[][] words) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    int[] restarts = new int[(words.length + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+    byte[] prev = null;
+    for (int i = 0; i < words.length; i++) {
+      byte[] key = words[i];
+      if (i % RESTART_INTERVAL == 0) {
+        restarts[i / RESTART_INTERVAL] = out.size();
+        writeVarInt(out, key.length);
+        out.write(key);
+      } else {
+        int shared = 0;
+        int min = Math.min(prev.length, key.length);
+        while (shared < min && prev[shared] == key[shared]) {
+          shared++;
+        }
+        writeVarInt(out, shared);
+        writeVarInt(out, key.length - shared);
+        out.write(key, shared, key.length - shared);
+      }
+      prev = key;
+    }
+    return new Encoded(bytes.toByteArray(), restarts);
+  }
+
+  /**
+   * An encoded key block and its restart array.
+   */
+  static class Encoded {
+    final byte[] keys;
+    final int[] restarts;
+
+    private Encoded(byte[] keys, int[] restarts) {
+      this.keys = keys;
+      this.restarts = restarts;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+package edu.dal.ocrrect.suggest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A read-only n-gram first word index stored in a memory-mapped file.
+ *
+ * <p>The index maps each first word to a subset of the n-gram corpus, in the same way as the
+ * offset map in {@link NgramBoundedReaderSearcher}. Unlike the serialized searcher, nothing is
+ * materialized on the heap when the index is opened. Words are looked up by binary search directly
+ * on the mapped buffer.
+ *
+ * <p>The file is organized in the following sections:
+ *
+ * <ul>
+ *   <li>A header, containing a magic number, the format version, the section positions and a CRC32
+ *       checksum of all the bytes after the header.
+ *   <li>The n-gram data pathnames and the offset before each data file.
+ *   <li>The key block, where words are sorted by their UTF-8 bytes and front-coded in groups of
+ *       {@value #RESTART_INTERVAL} keys. The first key in each group is written in full.
+ *   <li>The restart array, the position of each key group in the key block.
+ *   <li>The packed array of corpus subset offsets and the packed array of corpus subset sizes.
+ * </ul>
+ *
+ * @since 2017.09.04
+ */
+public class MappedNgramIndex {
+  public static final String FILE_EXTENSION = ".idx";
+
+  static final int MAGIC = 0x4E425249; // "NBRI"
+  static final int VERSION = 1;
+  static final int RESTART_INTERVAL = MappedKeyBlock.RESTART_INTERVAL;
+
+  private static final int HEADER_SIZE = MappedFiles.HEADER_SIZE;
+
+  private final MappedByteBuffer buffer;
+
+  private final MappedKeyBlock keys;
+  private final int offsetPos;
+  private final int sizePos;
+  private final long checksum;
+
+  private final String[] ngramPaths;
+  private final long[] fileOffsets;
+
+  private MappedNgramIndex(MappedByteBuffer buffer) {
+    this.buffer = buffer;
+    MappedFiles.checkHeader(buffer, MAGIC, VERSION, "mapped n-gram index");
+    keys      = new MappedKeyBlock(buffer, buffer.getInt(8), buffer.getInt(12), buffer.getInt(16),
+                                   buffer.getInt(28));
+    offsetPos = buffer.getInt(20);
+    sizePos   = buffer.getInt(24);
+    checksum  = buffer.getLong(32);
+
+    // The data pathnames are small, thus decoded once.
+    ByteBuffer bb = buffer.duplicate();
+    bb.position(HEADER_SIZE);
+    ngramPaths = new String[bb.getInt()];
+    for (int i = 0; i < ngramPaths.length; i++) {
+      byte[] bytes = new byte[bb.getInt()];
+      bb.get(bytes);
+      ngramPaths[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    fileOffsets = new long[ngramPaths.length + 1];
+    for (int i = 0; i < fileOffsets.length; i++) {
+      fileOffsets[i] = bb.getLong();
+    }
+  }
+
+  /**
+   * Open a mapped index file. The checksum is not verified in this method, see {@link #verify()}.
+   *
+   * @param path an index file.
+   * @return a mapped index.
+   * @throws IOException if I/O error occurs.
+   */
+  public static MappedNgramIndex open(Path path) throws IOException {
+    return new MappedNgramIndex(MappedFiles.map(path, "mapped n-gram index"));
+  }
+
+  /**
+   * Check whether the content of the index file matches the checksum in header.
+   *
+   * @return {@code true} if the checksum matches, or {@code false} otherwise.
+   */
+  public boolean verify() {
+    return MappedFiles.checksum(buffer, HEADER_SIZE) == checksum;
+  }
+
+  String[] ngramPaths() {
+    return ngramPaths.clone();
+  }
+
+  long[] fileOffsets() {
+    return fileOffsets.clone();
+  }
+
+  /**
+   * Get the number of words in the index.
+   *
+   * @return the number of words.
+   */
+  public int size() {
+    return keys.size();
+  }
+
+  /**
+   * Get the offset of the corpus subset of the {@code i}-th word.
+   *
+   * @param i the index of a word.
+   * @return the offset from the beginning of the first data file.
+   */
+  public long offset(int i) {
+    return buffer.getLong(offsetPos + i * 8);
+  }
+
+  /**
+   * Get the size of the corpus subset of the {@code i}-th word.
+   *
+   * @param i the index of a word.
+   * @return the size of the corpus subset in bytes.
+   */
+  public int size(int i) {
+    return buffer.getInt(sizePos + i * 4);
+  }
+
+  /**
+   * Find the index of a word.
+   *
+   * @param word a word.
+   * @return the index of the word, or {@code -1} if the word is not in the index.
+   */
+  public int find(String word) {
+    return keys.find(word);
+  }
+
+  /**
+   * Decode the {@code i}-th word in the index.
+   *
+   * @param i the index of a word.
+   * @return the word.
+   */
+  public String key(int i) {
+    return keys.key(i);
+  }
+
+  /**
+   * Write a mapped index file.
+   *
+   * @param out the output path.
+   * @param ngramPaths the n-gram data pathnames.
+   * @param fileOffsets the offset before each data file.
+   * @param words the indexed words.
+   * @param offsets the offset of the corpus subset of each word.
+   * @param sizes the size of the corpus subset of each word.
+   * @throws IOException if I/O error occurs.
+   */
+  static void write(Path out, String[] ngramPaths, long[] fileOffsets, String[] words,
+      long[] offsets, int[] sizes) throws IOException {
+    // Sort words by their UTF-8 bytes.
+    byte[][] keys = new byte[words.length][];
+    for (int i = 0; i < words.length; i++) {
+      keys[i] = words[i].getBytes(StandardCharsets.UTF_8);
+    }
+    Integer[] order = new Integer[words.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> MappedKeyBlock.UNSIGNED_BYTES.compare(keys[a], keys[b]));
+
+    // Encode the data pathnames.
+    ByteArrayBuilder paths = new ByteArrayBuilder();
+    paths.out.writeInt(ngramPaths.length);
+    for (String p : ngramPaths) {
+      byte[] bytes = p.getBytes(StandardCharsets.UTF_8);
+      paths.out.writeInt(bytes.length);
+      paths.out.write(bytes);
+    }
+    for (long offset : fileOffsets) {
+      paths.out.writeLong(offset);
+    }
+
+    // Encode the front-coded key block.
+    byte[][] sorted = new byte[order.length][];
+    for (int i = 0; i < order.length; i++) {
+      sorted[i] = keys[order[i]];
+    }
+    MappedKeyBlock.Encoded keyBlock = MappedKeyBlock.encode(sorted);
+    int[] restarts = keyBlock.restarts;
+
+    // Compute the section positions.
+    long keyBlockPos = HEADER_SIZE + paths.size();
+    long restartPos = keyBlockPos + keyBlock.keys.length;
+    long offsetPos = restartPos + restarts.length * 4L;
+    offsetPos += (8 - offsetPos % 8) % 8; // align packed offsets
+    long sizePos = offsetPos + order.length * 8L;
+    long end = sizePos + order.length * 4L;
+    if (end > Integer.MAX_VALUE) {
+      throw new IOException("index is too large to be mapped");
+    }
+
+    ByteBuffer body = ByteBuffer.allocate((int) (end - HEADER_SIZE));
+    body.put(paths.toByteArray());
+    body.put(keyBlock.keys);
+    for (int r : restarts) {
+      body.putInt(r);
+    }
+    body.position((int) (offsetPos - HEADER_SIZE));
+    for (Integer i : order) {
+      body.putLong(offsets[i]);
+    }
+    for (Integer i : order) {
+      body.putInt(sizes[i]);
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(order.length)
+          .putInt((int) keyBlockPos)
+          .putInt((int) restartPos)
+          .putInt((int) offsetPos)
+          .putInt((int) sizePos)
+          .putInt(RESTART_INTERVAL)
+          .putLong(MappedFiles.checksum(body, 0));
+
+    MappedFiles.write(out, header, body);
+  }
+
+  private static class ByteArrayBuilder {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    int size() {
+      return out.size();
+    }
+
+    byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+  }
+}
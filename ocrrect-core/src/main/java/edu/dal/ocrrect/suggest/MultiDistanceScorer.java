@@ -0,0 +1,221 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.feature.metric.EditDistance;
+import edu.dal.ocrrect.feature.metric.NGram;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import info.debatty.java.stringsimilarity.QGram;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A scorer computing several {@link DistanceMetric distance metrics} of a word and a candidate at
+ * once, where the intermediate results are shared by the metrics:
+ *
+ * <ul>
+ *   <li>the Levenshtein and the optimal string alignment distances are computed in one bit-parallel
+ *       pass by {@link EditDistance#levenshteinAndOsa(String, String, int[])};
+ *   <li>the Jaccard and the q-gram distances of the same shingle size share the shingle profiles,
+ *       and the profiles of a word are computed once for all its candidates;
+ *   <li>the n-gram distances of the same size share the padded n-grams by {@link
+ *       NGram#distances(int, NGram.CostFunction[], String, String)}.
+ * </ul>
+ *
+ * <p>The scores are identical to {@link DistanceMetric#score(edu.dal.ocrrect.util.Word, String)}.
+ *
+ * @since 2017.09.28
+ */
+public class MultiDistanceScorer {
+  private final List<DistanceMetric> metrics;
+
+  /** The indices of the edit distances, or {@code -1} if absent. */
+  private final int levIdx;
+  private final int osaIdx;
+
+  /** The shingle sizes, and the indices of the Jaccard and q-gram distances of each size. */
+  private final int[] shingleSizes;
+  private final int[] jaccardIdx;
+  private final int[] qgramIdx;
+
+  /** The n-gram sizes, and the cost functions and the indices of the distances of each size. */
+  private final int[] ngramSizes;
+  private final NGram.CostFunction[][] ngramFuncs;
+  private final int[][] ngramIdx;
+
+  /** The indices of the other metrics, which are computed individually. */
+  private final int[] otherIdx;
+
+  /**
+   * Construct a scorer.
+   *
+   * @param metrics the metrics, in the order of the output scores.
+   */
+  public MultiDistanceScorer(List<DistanceMetric> metrics) {
+    this.metrics = Collections.unmodifiableList(new ArrayList<>(metrics));
+    int lev = -1;
+    int osa = -1;
+    TIntArrayList shingles = new TIntArrayList();
+    TIntArrayList ngrams = new TIntArrayList();
+    TIntObjectHashMap<TIntArrayList> ngramIdxBySize = new TIntObjectHashMap<>();
+    TIntArrayList others = new TIntArrayList();
+    for (int i = 0; i < metrics.size(); i++) {
+      DistanceMetric m = metrics.get(i);
+      switch (m.kind()) {
+        case LEVENSHTEIN:
+          lev = lev < 0 ? i : lev;
+          break;
+        case OPTIMAL_STRING_ALIGNMENT:
+          osa = osa < 0 ? i : osa;
+          break;
+        case JACCARD:
+        case QGRAM:
+          if (! shingles.contains(m.size())) {
+            shingles.add(m.size());
+          }
+          break;
+        case BINARY_NGRAM:
+        case POSITIONAL_NGRAM:
+        case COMPREHENSIVE_NGRAM:
+          if (! ngramIdxBySize.containsKey(m.size())) {
+            ngrams.add(m.size());
+            ngramIdxBySize.put(m.size(), new TIntArrayList());
+          }
+          ngramIdxBySize.get(m.size()).add(i);
+          break;
+        default:
+          others.add(i);
+      }
+    }
+    this.levIdx = lev;
+    this.osaIdx = osa;
+
+    this.shingleSizes = shingles.toArray();
+    this.jaccardIdx = new int[shingleSizes.length];
+    this.qgramIdx = new int[shingleSizes.length];
+    for (int s = 0; s < shingleSizes.length; s++) {
+      jaccardIdx[s] = indexOf(DistanceMetric.Kind.JACCARD, shingleSizes[s]);
+      qgramIdx[s] = indexOf(DistanceMetric.Kind.QGRAM, shingleSizes[s]);
+    }
+
+    this.ngramSizes = ngrams.toArray();
+    this.ngramFuncs = new NGram.CostFunction[ngramSizes.length][];
+    this.ngramIdx = new int[ngramSizes.length][];
+    for (int s = 0; s < ngramSizes.length; s++) {
+      ngramIdx[s] = ngramIdxBySize.get(ngramSizes[s]).toArray();
+      ngramFuncs[s] = new NGram.CostFunction[ngramIdx[s].length];
+      for (int f = 0; f < ngramIdx[s].length; f++) {
+        ngramFuncs[s][f] = metrics.get(ngramIdx[s][f]).costFunction();
+      }
+    }
+    this.otherIdx = others.toArray();
+  }
+
+  private int indexOf(DistanceMetric.Kind kind, int size) {
+    for (int i = 0; i < metrics.size(); i++) {
+      if (metrics.get(i).kind() == kind && metrics.get(i).size() == size) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public List<DistanceMetric> metrics() {
+    return metrics;
+  }
+
+  public int size() {
+    return metrics.size();
+  }
+
+  /**
+   * Score a candidate by all the metrics.
+   *
+   * @param word a word.
+   * @param candidate a candidate of the word.
+   * @return the scores, in the order of {@link #metrics()}.
+   */
+  public float[] score(String word, String candidate) {
+    return score(word, new String[] {candidate})[0];
+  }
+
+  /**
+   * Score candidates of a word by all the metrics.
+   *
+   * @param word a word.
+   * @param candidates candidates of the word.
+   * @return the scores of each candidate, in the order of {@link #metrics()}.
+   */
+  public float[][] score(String word, String[] candidates) {
+    List<Map<String, Integer>> profiles = new ArrayList<>(shingleSizes.length);
+    for (int size : shingleSizes) {
+      profiles.add(new QGram(size).getProfile(word));
+    }
+    int[] edits = new int[2];
+    double[][] ngramDists = new double[ngramSizes.length][];
+    for (int s = 0; s < ngramSizes.length; s++) {
+      ngramDists[s] = new double[ngramFuncs[s].length];
+    }
+    float[][] scores = new float[candidates.length][metrics.size()];
+    for (int c = 0; c < candidates.length; c++) {
+      String cand = candidates[c];
+      float[] out = scores[c];
+      if (levIdx >= 0 || osaIdx >= 0) {
+        EditDistance.levenshteinAndOsa(word, cand, edits);
+        if (levIdx >= 0) {
+          out[levIdx] = edits[0];
+        }
+        if (osaIdx >= 0) {
+          out[osaIdx] = edits[1];
+        }
+      }
+      for (int s = 0; s < shingleSizes.length; s++) {
+        scoreShingles(s, word, profiles.get(s), cand, out);
+      }
+      for (int s = 0; s < ngramSizes.length; s++) {
+        NGram.distances(ngramSizes[s], ngramFuncs[s], word, cand, ngramDists[s]);
+        for (int f = 0; f < ngramDists[s].length; f++) {
+          out[ngramIdx[s][f]] = (float) ngramDists[s][f];
+        }
+      }
+      for (int i : otherIdx) {
+        out[i] = metrics.get(i).distance(word, cand);
+      }
+    }
+    // Metrics listed more than once.
+    for (int i = 0; i < metrics.size(); i++) {
+      int first = metrics.indexOf(metrics.get(i));
+      if (first != i) {
+        for (float[] out : scores) {
+          out[i] = out[first];
+        }
+      }
+    }
+    return scores;
+  }
+
+  /**
+   * Compute the Jaccard and the q-gram distances of a shingle size from the shingle profiles, as
+   * in {@link info.debatty.java.stringsimilarity.Jaccard} and {@link QGram}.
+   */
+  private void scoreShingles(int s, String word, Map<String, Integer> wordProfile, String cand,
+      float[] out) {
+    if (word.equals(cand)) {
+      if (jaccardIdx[s] >= 0) {
+        out[jaccardIdx[s]] = 0;
+      }
+      if (qgramIdx[s] >= 0) {
+        out[qgramIdx[s]] = 0;
+      }
+      return;
+    }
+    Map<String, Integer> candProfile = new QGram(shingleSizes[s]).getProfile(cand);
+    if (jaccardIdx[s] >= 0) {
+      out[jaccardIdx[s]] = DistanceMetric.shingleDistance(wordProfile, candProfile, true);
+    }
+    if (qgramIdx[s] >= 0) {
+      out[qgramIdx[s]] = DistanceMetric.shingleDistance(wordProfile, candProfile, false);
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package edu.dal.ocrrect.suggest;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of n-gram first word blocks, shared by the {@link
+ * NgramBoundedReaderSearcher} of all orders.
+ *
+ * <p>Blocks are keyed by the n-gram order and the first word, and hold the raw bytes of the
+ * records, which is the most compact form of the block. When the total size of the cached blocks
+ * exceeds the byte budget, the least recently used blocks are evicted. Blocks larger than a quarter
+ * of the budget are never cached, such that a single huge block does not flush the others. The
+ * cache is safe for use by multiple threads.
+ *
+ * @since 2017.09.12
+ */
+public class NgramBlockCache {
+  private final long capacity;
+  private final LinkedHashMap<Key, byte[]> blocks = new LinkedHashMap<>(1024, 0.75f, true);
+  private long size;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong bytesSaved = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Construct a cache.
+   *
+   * @param capacity the byte budget of cached blocks.
+   */
+  public NgramBlockCache(long capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("invalid cache capacity: " + capacity);
+    }
+    this.capacity = capacity;
+  }
+
+  /**
+   * A loader of a block when it is not found in the cache.
+   */
+  @FunctionalInterface
+  public interface BlockLoader {
+    byte[] load() throws IOException;
+  }
+
+  /**
+   * Get a block from the cache, or load and cache it if absent. Concurrent misses on the same block
+   * may load it more than once.
+   *
+   * @param order the n-gram order.
+   * @param word the first word.
+   * @param loader the loader of the block.
+   * @return the records in the block.
+   * @throws IOException if I/O error occurs in loading.
+   */
+  public byte[] get(int order, String word, BlockLoader loader) throws IOException {
+    Key key = new Key(order, word);
+    byte[] block;
+    synchronized (this) {
+      block = blocks.get(key);
+    }
+    if (block != null) {
+      hits.incrementAndGet();
+      bytesSaved.addAndGet(block.length);
+      return block;
+    }
+    misses.incrementAndGet();
+    block = loader.load();
+    if (accepts(block.length)) {
+      put(key, block);
+    }
+    return block;
+  }
+
+  /**
+   * Check whether a block is cached, without counting a hit or a miss.
+   *
+   * @param order the n-gram order.
+   * @param word the first word.
+   * @return {@code true} if the block is cached.
+   */
+  public synchronized boolean contains(int order, String word) {
+    return blocks.containsKey(new Key(order, word));
+  }
+
+  /**
+   * Get a block from the cache without loading it if absent. A found block is counted as a hit.
+   *
+   * @param order the n-gram order.
+   * @param word the first word.
+   * @return the records in the block, or {@code null} if the block is not cached.
+   */
+  public byte[] getIfPresent(int order, String word) {
+    byte[] block;
+    synchronized (this) {
+      block = blocks.get(new Key(order, word));
+    }
+    if (block != null) {
+      hits.incrementAndGet();
+      bytesSaved.addAndGet(block.length);
+    }
+    return block;
+  }
+
+  /**
+   * Cache a block loaded elsewhere after {@link #getIfPresent(int, String)} missed, which is
+   * counted as a miss.
+   *
+   * @param order the n-gram order.
+   * @param word the first word.
+   * @param block the records in the block.
+   */
+  public void offer(int order, String word, byte[] block) {
+    misses.incrementAndGet();
+    if (accepts(block.length)) {
+      put(new Key(order, word), block);
+    }
+  }
+
+  /**
+   * Check whether a block of the given size would be cached, such that callers can skip copying a
+   * block which is rejected anyway.
+   *
+   * @param size the size of a block in bytes.
+   * @return {@code true} if the block is not larger than a quarter of the capacity.
+   */
+  public boolean accepts(int size) {
+    return size <= capacity / 4;
+  }
+
+  private synchronized void put(Key key, byte[] block) {
+    byte[] prev = blocks.put(key, block);
+    size += block.length - (prev == null ? 0 : prev.length);
+    for (Iterator<byte[]> it = blocks.values().iterator(); size > capacity && it.hasNext(); ) {
+      size -= it.next().length;
+      it.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Remove all blocks in the cache. Counters are not reset.
+   */
+  public synchronized void clear() {
+    blocks.clear();
+    size = 0;
+  }
+
+  public long capacity() {
+    return capacity;
+  }
+
+  public synchronized long size() {
+    return size;
+  }
+
+  public synchronized int numBlocks() {
+    return blocks.size();
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  /**
+   * Get the total size of blocks returned from the cache, which are not read again from disk.
+   *
+   * @return the number of bytes.
+   */
+  public long bytesSaved() {
+    return bytesSaved.get();
+  }
+
+  public long evictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public String toString() {
+    long h = hits();
+    long m = misses();
+    return String.format(
+        "%d blocks, %.1f / %.1f MB, %d hits, %d misses (%.1f%%), %.1f MB saved, %d evictions",
+        numBlocks(), size() / 1e6, capacity / 1e6, h, m, h + m == 0 ? 0 : h * 100f / (h + m),
+        bytesSaved() / 1e6, evictions());
+  }
+
+  private static class Key {
+    private final int order;
+    private final String word;
+
+    private Key(int order, String word) {
+      this.order = order;
+      this.word = word;
+    }
+
+    @Override
+    public int hashCode() {
+      return word.hashCode() * 31 + order;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (! (obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return order == other.order && word.equals(other.word);
+    }
+  }
+}
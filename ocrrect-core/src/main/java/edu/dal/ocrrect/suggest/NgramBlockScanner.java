@@ -0,0 +1,415 @@
+package edu.dal.ocrrect.suggest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Static methods feeding the records of n-gram blocks to {@link NgramBlockTask}.
+ *
+ * <p>The sizes of first word blocks are extremely skewed, such that the block of a frequent word
+ * such as "the" takes much longer than all the others. A block larger than the split size is thus
+ * divided into parts of about the split size, which boundaries are moved forward to the beginning
+ * of lines. The parts are scanned by fork/join subtasks in the pool of the calling thread, or in
+ * the common pool if it is not a pool worker, where idle workers steal the remaining parts. Each
+ * part is consumed by the tasks created by {@link NgramBlockTask#split()}, and the partial results
+ * are merged in the order of parts. Blocks are split only if all the given tasks are {@link
+ * NgramBlockTask#splittable()}. Otherwise, the records are scanned in order by the calling thread.
+ *
+ * <p>Lines are split in byte buffers and fed to the tasks through a reused {@link NgramRecord}
+ * cursor, such that no object is created per record unless a task decodes strings.
+ *
+ * <p>A block may be scanned within a {@link ScanBudget}, where a block exceeding the budget is
+ * scanned in order up to its limits, and the scan reports whether all the records are consumed.
+ *
+ * @since 2017.09.23
+ */
+public class NgramBlockScanner {
+  public static final int DEFAULT_SPLIT_SIZE = 4 << 20;
+
+  private static final int LINE_BUFFER_SIZE = 256;
+  private static final int BUFFER_SIZE = 64 << 10;
+  private static final int DEADLINE_CHECK_MASK = (1 << 10) - 1;
+
+  private NgramBlockScanner() {}
+
+  /**
+   * A source of the bytes in a block.
+   */
+  @FunctionalInterface
+  private interface BlockSource {
+    InputStream open(int from, int size) throws IOException;
+  }
+
+  /**
+   * Feed every record from a stream to all the given tasks. The stream is closed.
+   *
+   * @param in a stream of records, or {@code null} if there is no records.
+   * @param tasks a list of tasks.
+   * @throws IOException if I/O error occurs.
+   */
+  public static void scan(InputStream in, List<? extends NgramBlockTask<?>> tasks)
+      throws IOException {
+    scan(in, false, tasks, null);
+  }
+
+  /**
+   * Feed the records from a stream to all the given tasks within a budget. The stream is closed.
+   *
+   * @param in a stream of records, or {@code null} if there is no records.
+   * @param truncated {@code true} if the stream is a prefix of a block, where the last incomplete
+   *     line is ignored.
+   * @param tasks a list of tasks.
+   * @param budget a budget, or {@code null} for no limit.
+   * @return {@code true} if all the records are consumed.
+   * @throws IOException if I/O error occurs.
+   */
+  private static boolean scan(InputStream in, boolean truncated,
+      List<? extends NgramBlockTask<?>> tasks, ScanBudget budget) throws IOException {
+    if (in == null) {
+      return true;
+    }
+    NgramRecord record = new NgramRecord();
+    byte[] buf = new byte[BUFFER_SIZE];
+    int len = 0;
+    int scanned = 0;
+    long n = 0;
+    try (InputStream is = in) {
+      for (int r = is.read(buf, len, buf.length - len); r >= 0;
+          r = is.read(buf, len, buf.length - len)) {
+        len += r;
+        int from = 0;
+        for (int i = scanned; i < len; i++) {
+          if (buf[i] == '\n') {
+            if (! accept(record.set(buf, from, i), tasks, ++n, budget)) {
+              return false;
+            }
+            from = i + 1;
+          }
+        }
+        // Move the incomplete line to the beginning, and grow the buffer for a long line.
+        len -= from;
+        System.arraycopy(buf, from, buf, 0, len);
+        scanned = len;
+        if (len == buf.length) {
+          buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+      }
+    }
+    if (truncated) {
+      return false;
+    }
+    return len == 0 || accept(record.set(buf, 0, len), tasks, ++n, budget);
+  }
+
+  /**
+   * Feed every record in a range of a byte array to all the given tasks.
+   *
+   * @param bytes a byte array.
+   * @param offset the offset of the records.
+   * @param size the size of the records in bytes.
+   * @param tasks a list of tasks.
+   */
+  public static void scan(byte[] bytes, int offset, int size,
+      List<? extends NgramBlockTask<?>> tasks) {
+    scan(bytes, offset, size, size, tasks, null);
+  }
+
+  /**
+   * Feed the records in a range of a byte array to all the given tasks within a budget. The range
+   * is scanned up to the byte limit of the budget, where the last incomplete line is ignored.
+   *
+   * @param bytes a byte array.
+   * @param offset the offset of the records.
+   * @param size the size of the records in bytes.
+   * @param tasks a list of tasks.
+   * @param budget a budget.
+   * @return {@code true} if all the records are consumed.
+   */
+  public static boolean scan(byte[] bytes, int offset, int size,
+      List<? extends NgramBlockTask<?>> tasks, ScanBudget budget) {
+    if (budget.isExpired()) {
+      return false;
+    }
+    return scan(bytes, offset, size, Math.min(size, budget.maxBlockBytes()), tasks, budget);
+  }
+
+  private static boolean scan(byte[] bytes, int offset, int size, int limit,
+      List<? extends NgramBlockTask<?>> tasks, ScanBudget budget) {
+    NgramRecord record = new NgramRecord();
+    int end = offset + limit;
+    int from = offset;
+    long n = 0;
+    for (int i = offset; i < end; i++) {
+      if (bytes[i] == '\n') {
+        if (! accept(record.set(bytes, from, i), tasks, ++n, budget)) {
+          return false;
+        }
+        from = i + 1;
+      }
+    }
+    if (limit < size) {
+      return false;
+    }
+    return from == end || accept(record.set(bytes, from, end), tasks, ++n, budget);
+  }
+
+  /**
+   * Feed the {@code n}-th record of a block to all the given tasks, unless the budget is exceeded.
+   * The deadline is checked once every 1024 records.
+   *
+   * @return {@code false} if the record is not consumed.
+   */
+  private static boolean accept(NgramRecord record, List<? extends NgramBlockTask<?>> tasks,
+      long n, ScanBudget budget) {
+    if (budget != null && (n > budget.maxBlockRecords()
+        || (n & DEADLINE_CHECK_MASK) == 0 && budget.isExpired())) {
+      return false;
+    }
+    accept(record, tasks);
+    return true;
+  }
+
+  private static void accept(NgramRecord record, List<? extends NgramBlockTask<?>> tasks) {
+    for (int i = 0; i < tasks.size(); i++) {
+      tasks.get(i).accept(record);
+    }
+  }
+
+  /**
+   * Feed every record in a block of a searcher to all the given tasks, splitting the block if it
+   * is larger than {@value #DEFAULT_SPLIT_SIZE} bytes.
+   *
+   * @see #scan(NgramBoundedReaderSearcher, String, String, List, int)
+   */
+  public static void scan(NgramBoundedReaderSearcher searcher, String first, String second,
+      List<? extends NgramBlockTask<?>> tasks) throws IOException {
+    scan(searcher, first, second, tasks, DEFAULT_SPLIT_SIZE);
+  }
+
+  /**
+   * Feed every record in a block of a searcher to all the given tasks. The records are read in the
+   * same way as {@link NgramBoundedReaderSearcher#openBufferedRecordsWithFirstTwoWords(String,
+   * String)}, including the block cache of the searcher, which is bypassed by the blocks too large
+   * to be cached.
+   *
+   * @param searcher a n-gram searcher.
+   * @param first the first word.
+   * @param second the second word to narrow the block to the sub-block with this word, or {@code
+   *     null} to scan the full block.
+   * @param tasks a list of tasks.
+   * @param splitSize the size of parts in bytes.
+   * @throws IOException if I/O error occurs.
+   */
+  public static void scan(NgramBoundedReaderSearcher searcher, String first, String second,
+      List<? extends NgramBlockTask<?>> tasks, int splitSize) throws IOException {
+    long[] found = searcher.locateRecords(first, second);
+    if (found != null) {
+      scan(searcher, first, second, found[0], (int) found[1], tasks, splitSize);
+    }
+  }
+
+  private static void scan(NgramBoundedReaderSearcher searcher, String first, String second,
+      long offset, int size, List<? extends NgramBlockTask<?>> tasks, int splitSize)
+      throws IOException {
+    NgramBlockCache cache = searcher.getBlockCache();
+    // Blocks too large to be cached are streamed and split without being loaded in whole.
+    if (cache != null && cache.accepts(size)) {
+      byte[] bytes = cache.get(searcher.order(), searcher.blockKey(first, second),
+          () -> searcher.readRange(offset, size));
+      if (! isSplit(size, tasks, splitSize)) {
+        scan(bytes, 0, size, tasks);
+        return;
+      }
+      scan((from, len) -> new ByteArrayInputStream(bytes, from, len), size, tasks, splitSize);
+    } else {
+      scan((from, len) -> searcher.openRange(offset + from, len), size, tasks, splitSize);
+    }
+  }
+
+  /**
+   * Feed the records in a block of a searcher to all the given tasks within a budget. A block
+   * within the byte limit is scanned in the same way as {@link #scan(NgramBoundedReaderSearcher,
+   * String, String, List)} if neither records nor time are limited. Otherwise, the records are
+   * scanned in order by the calling thread, until a limit of the budget is reached. A prefix of the
+   * block up to the byte limit is read, unless the block is in the block cache of the searcher.
+   *
+   * @param searcher a n-gram searcher.
+   * @param first the first word.
+   * @param second the second word to narrow the block to the sub-block with this word, or {@code
+   *     null} to scan the full block.
+   * @param tasks a list of tasks.
+   * @param budget a budget, or {@code null} for no limit.
+   * @return {@code true} if all the records in the block are consumed.
+   * @throws IOException if I/O error occurs.
+   */
+  public static boolean scan(NgramBoundedReaderSearcher searcher, String first, String second,
+      List<? extends NgramBlockTask<?>> tasks, ScanBudget budget) throws IOException {
+    long[] found = searcher.locateRecords(first, second);
+    if (found == null) {
+      return true;
+    }
+    long offset = found[0];
+    int size = (int) found[1];
+    if (budget == null || ! budget.isBounded(size)) {
+      scan(searcher, first, second, offset, size, tasks, DEFAULT_SPLIT_SIZE);
+      return true;
+    }
+    if (budget.isExpired()) {
+      return false;
+    }
+    NgramBlockCache cache = searcher.getBlockCache();
+    byte[] bytes = cache == null
+        ? null : cache.getIfPresent(searcher.order(), searcher.blockKey(first, second));
+    if (bytes != null) {
+      return scan(bytes, 0, size, tasks, budget);
+    }
+    return scanRange(searcher, offset, size, tasks, budget);
+  }
+
+  /**
+   * Feed every record in a range of data files to all the given tasks.
+   *
+   * @param searcher a n-gram searcher.
+   * @param offset the offset from the beginning of the first data file.
+   * @param size the size of the range, which consists of whole lines in one data file.
+   * @param tasks a list of tasks.
+   * @param splitSize the size of parts in bytes.
+   * @throws IOException if I/O error occurs.
+   */
+  static void scanRange(NgramBoundedReaderSearcher searcher, long offset, int size,
+      List<? extends NgramBlockTask<?>> tasks, int splitSize) throws IOException {
+    scan((from, len) -> searcher.openRange(offset + from, len), size, tasks, splitSize);
+  }
+
+  /**
+   * Feed the records in a range of data files to all the given tasks within a budget, where only
+   * a prefix of the range up to the byte limit is read.
+   *
+   * @param searcher a n-gram searcher.
+   * @param offset the offset from the beginning of the first data file.
+   * @param size the size of the range, which consists of whole lines in one data file.
+   * @param tasks a list of tasks.
+   * @param budget a budget.
+   * @return {@code true} if all the records in the range are consumed.
+   * @throws IOException if I/O error occurs.
+   */
+  static boolean scanRange(NgramBoundedReaderSearcher searcher, long offset, int size,
+      List<? extends NgramBlockTask<?>> tasks, ScanBudget budget) throws IOException {
+    if (budget.isExpired()) {
+      return false;
+    }
+    int limit = Math.min(size, budget.maxBlockBytes());
+    return scan(searcher.openRange(offset, limit), limit < size, tasks, budget);
+  }
+
+  private static void scan(BlockSource source, int size, List<? extends NgramBlockTask<?>> tasks,
+      int splitSize) throws IOException {
+    if (! isSplit(size, tasks, splitSize)) {
+      scan(source.open(0, size), tasks);
+      return;
+    }
+    // Move the boundaries of parts to the beginning of lines.
+    int parts = (size - 1) / splitSize + 1;
+    int[] bounds = new int[parts + 1];
+    for (int i = 1; i < parts; i++) {
+      bounds[i] = Math.max(bounds[i - 1], nextLineStart(source, i * splitSize, size));
+    }
+    bounds[parts] = size;
+
+    List<NgramBlockTask<?>> merged;
+    try {
+      merged = new PartScan(source, bounds, 0, parts, tasks).invoke();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    for (int i = 0; i < tasks.size(); i++) {
+      merge(tasks.get(i), merged.get(i));
+    }
+  }
+
+  private static boolean isSplit(int size, List<? extends NgramBlockTask<?>> tasks,
+      int splitSize) {
+    return size > splitSize && tasks.stream().allMatch(NgramBlockTask::splittable);
+  }
+
+  /**
+   * Find the beginning of the first line at or after the given position.
+   */
+  private static int nextLineStart(BlockSource source, int pos, int size) throws IOException {
+    if (pos >= size) {
+      return size;
+    }
+    // Read from the last byte before the position, which is a line break if a line begins here.
+    int p = pos - 1;
+    try (InputStream in = new BufferedInputStream(source.open(p, size - p), LINE_BUFFER_SIZE)) {
+      for (int b = in.read(); b >= 0; b = in.read()) {
+        p++;
+        if (b == '\n') {
+          return p;
+        }
+      }
+    }
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void merge(NgramBlockTask<T> task, NgramBlockTask<?> part) {
+    task.merge((NgramBlockTask<T>) part);
+  }
+
+  /**
+   * A fork/join subtask scanning a range of parts, which result is a list of split tasks that have
+   * consumed the records in the parts.
+   */
+  private static class PartScan extends RecursiveTask<List<NgramBlockTask<?>>> {
+    private static final long serialVersionUID = 5107240953715637026L;
+
+    private final BlockSource source;
+    private final int[] bounds;
+    private final int from;
+    private final int to;
+    private final List<? extends NgramBlockTask<?>> tasks;
+
+    private PartScan(BlockSource source, int[] bounds, int from, int to,
+        List<? extends NgramBlockTask<?>> tasks) {
+      this.source = source;
+      this.bounds = bounds;
+      this.from = from;
+      this.to = to;
+      this.tasks = tasks;
+    }
+
+    @Override
+    protected List<NgramBlockTask<?>> compute() {
+      if (to - from == 1) {
+        List<NgramBlockTask<?>> parts = new ArrayList<>(tasks.size());
+        tasks.forEach(t -> parts.add(t.split()));
+        int size = bounds[to] - bounds[from];
+        if (size > 0) {
+          try {
+            scan(source.open(bounds[from], size), parts);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        return parts;
+      }
+      int mid = (from + to) >>> 1;
+      PartScan left = new PartScan(source, bounds, from, mid, tasks);
+      left.fork();
+      List<NgramBlockTask<?>> right = new PartScan(source, bounds, mid, to, tasks).compute();
+      List<NgramBlockTask<?>> merged = left.join();
+      for (int i = 0; i < merged.size(); i++) {
+        merge(merged.get(i), right.get(i));
+      }
+      return merged;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package edu.dal.ocrrect.suggest;
+
+/**
+ * A computation over the records in a n-gram first word block. A task consumes every record in the
+ * block in order, and produces its result after the block is exhausted. Several tasks can be fed by
+ * one scan of the block.
+ *
+ * <p>A task may be {@link #splittable()}, and support {@link #split()} and {@link
+ * #merge(NgramBlockTask)}, such that a large block is divided into parts scanned in parallel by
+ * {@link NgramBlockScanner}. Each part is
+ * consumed by a split task, and the split tasks are merged back in the order of parts.
+ *
+ * @param <T> the type of the result.
+ * @since 2017.09.14
+ */
+public interface NgramBlockTask<T> {
+  /**
+   * Consume a record in the block.
+   *
+   * @param record a n-gram record.
+   */
+  void accept(NgramRecord record);
+
+  /**
+   * Get the result after all records are consumed. This method is also called when the block does
+   * not exist in the corpus, without any record consumed.
+   *
+   * @return the result.
+   */
+  T result();
+
+  /**
+   * Check whether this task supports {@link #split()} and {@link #merge(NgramBlockTask)}.
+   *
+   * @return {@code true} if this task can be split.
+   */
+  default boolean splittable() {
+    return false;
+  }
+
+  /**
+   * Create a task of the same computation with an empty state, which consumes a part of the block.
+   * This method is called only if the task is {@link #splittable()}.
+   *
+   * @return a split task.
+   */
+  default NgramBlockTask<T> split() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Merge the state of a split task, which has consumed the records following the ones consumed by
+   * this task.
+   *
+   * @param part a task created by {@link #split()}.
+   */
+  default void merge(NgramBlockTask<T> part) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,303 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over all n-grams of one order, stored in a memory-mapped file.
+ *
+ * <p>The filter answers whether a n-gram may exist in the corpus, without reading the corpus. A
+ * negative answer is always correct, while a positive answer is wrong with a probability close to
+ * the false positive rate given on construction. The n-grams are hashed as the UTF-8 bytes before
+ * the tab character in each record.
+ *
+ * <p>The file starts with a header containing a magic number, the format version, the number of
+ * hash functions, the number of bits and the number of keys, followed by the bit array packed in
+ * big-endian longs.
+ *
+ * @since 2017.09.10
+ */
+public class NgramBloomFilter {
+  public static final String FILE_EXTENSION = ".bloom";
+  public static final double DEFAULT_FPP = 0.01;
+
+  private static final int MAGIC = 0x4E42424C; // "NBBL"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int SEGMENT_SHIFT = 30;
+  private static final int BUFFER_SIZE = 8 << 20;
+
+  private final MappedByteBuffer[] segments;
+  private final int numHashes;
+  private final long numBits;
+  private final long numKeys;
+
+  private NgramBloomFilter(FileChannel fc) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (header.hasRemaining()) {
+      if (fc.read(header, header.position()) < 0) {
+        throw new IOException("unexpected end of file");
+      }
+    }
+    header.flip();
+    if (header.getInt() != MAGIC) {
+      throw new IOException("not a n-gram Bloom filter");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported Bloom filter version: " + version);
+    }
+    numHashes = header.getInt();
+    header.getInt();
+    numBits = header.getLong();
+    numKeys = header.getLong();
+
+    // Map the bit array in segments, as a mapped buffer is limited to 2GB.
+    long bytes = numBits / 8;
+    segments = new MappedByteBuffer[(int) ((bytes + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT)];
+    for (int i = 0; i < segments.length; i++) {
+      long pos = (long) i << SEGMENT_SHIFT;
+      segments[i] = fc.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + pos,
+          Math.min(1L << SEGMENT_SHIFT, bytes - pos));
+    }
+  }
+
+  /**
+   * Open a Bloom filter file.
+   *
+   * @param path a file written by {@link #build(List, double, Path)}.
+   * @return a Bloom filter.
+   * @throws IOException if I/O error occurs or the file is malformed.
+   */
+  public static NgramBloomFilter open(Path path) throws IOException {
+    try (FileChannel fc = FileChannel.open(path)) {
+      NgramBloomFilter filter = new NgramBloomFilter(fc);
+      LogUtils.info(String.format("opened %s: %d n-grams, %.1f MB, expected fpp %.4f",
+          path.getFileName(), filter.numKeys, filter.sizeInBytes() / 1e6, filter.expectedFpp()));
+      return filter;
+    }
+  }
+
+  /**
+   * Test whether a n-gram may exist in the corpus.
+   *
+   * @param ngram a n-gram string, where grams are separated by a space.
+   * @return {@code false} if the n-gram definitely does not exist, or {@code true} if the n-gram
+   *     probably exists.
+   */
+  public boolean mightContain(String ngram) {
+    byte[] bytes = ngram.getBytes(StandardCharsets.UTF_8);
+    long h = FNV_OFFSET;
+    for (byte b : bytes) {
+      h = update(h, b);
+    }
+    long h1 = fmix(h);
+    long h2 = fmix(h1 ^ GOLDEN) | 1;
+    for (int i = 0; i < numHashes; i++) {
+      long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+      long word = bit >>> 6;
+      long pos = word << 3;
+      long bits = segments[(int) (pos >>> SEGMENT_SHIFT)]
+          .getLong((int) (pos & ((1L << SEGMENT_SHIFT) - 1)));
+      if ((bits & (1L << (bit & 63))) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the memory footprint of the bit array.
+   *
+   * @return the size in bytes.
+   */
+  public long sizeInBytes() {
+    return numBits / 8;
+  }
+
+  /**
+   * Get the number of n-grams added to the filter.
+   *
+   * @return the number of n-grams.
+   */
+  public long numKeys() {
+    return numKeys;
+  }
+
+  /**
+   * Get the number of hash functions.
+   *
+   * @return the number of hash functions.
+   */
+  public int numHashFunctions() {
+    return numHashes;
+  }
+
+  /**
+   * Get the expected false positive rate given the number of n-grams added.
+   *
+   * @return the expected false positive rate.
+   */
+  public double expectedFpp() {
+    return Math.pow(1 - Math.exp(-(double) numHashes * numKeys / numBits), numHashes);
+  }
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+  private static long update(long h, byte b) {
+    return (h ^ (b & 0xFF)) * FNV_PRIME;
+  }
+
+  private static long fmix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Build a Bloom filter over all n-grams in the given data files and write it to a file. The data
+   * files are scanned in parallel.
+   *
+   * @param ngrams the n-gram data files of one order.
+   * @param fpp the desired false positive rate, between 0 and 1 exclusively.
+   * @param out the output path.
+   * @return the Bloom filter mapped from the written file.
+   * @throws IOException if I/O error occurs.
+   */
+  public static NgramBloomFilter build(List<Path> ngrams, double fpp, Path out)
+      throws IOException {
+    if (! (fpp > 0 && fpp < 1)) {
+      throw new IllegalArgumentException("invalid false positive rate: " + fpp);
+    }
+    Timer t = new Timer();
+    long numKeys;
+    try {
+      numKeys = ngrams.parallelStream().mapToLong(p -> scan(p, null, 0, 0)).sum();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    // Optimal sizes: m = -n ln(p) / (ln 2)^2, k = m / n ln 2.
+    long n = Math.max(numKeys, 1);
+    long numBits = ((long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2))) + 63) & ~63L;
+    int numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    if (numBits / 64 > Integer.MAX_VALUE) {
+      throw new IOException("Bloom filter too large: " + numBits + " bits");
+    }
+
+    AtomicLongArray bits = new AtomicLongArray((int) (numBits / 64));
+    try {
+      ngrams.parallelStream().forEach(p -> scan(p, bits, numHashes, numBits));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    Files.createDirectories(out.toAbsolutePath().getParent());
+    try (FileChannel fc = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+      buf.putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(numHashes)
+          .putInt(0)
+          .putLong(numBits)
+          .putLong(numKeys);
+      for (int i = 0; i < bits.length(); i++) {
+        if (! buf.hasRemaining()) {
+          buf.flip();
+          while (buf.hasRemaining()) {
+            fc.write(buf);
+          }
+          buf.clear();
+        }
+        buf.putLong(bits.get(i));
+      }
+      buf.flip();
+      while (buf.hasRemaining()) {
+        fc.write(buf);
+      }
+    }
+    NgramBloomFilter filter = open(out);
+    LogUtils.logMethodTime(t, 2);
+    return filter;
+  }
+
+  /**
+   * Scan a data file. Count the records if {@code bits} is {@code null}, otherwise add all n-grams
+   * in the file to the bit array.
+   */
+  private static long scan(Path path, AtomicLongArray bits, int numHashes, long numBits) {
+    long count = 0;
+    try (FileChannel fc = FileChannel.open(path)) {
+      byte[] bytes = new byte[BUFFER_SIZE];
+      ByteBuffer buf = ByteBuffer.wrap(bytes);
+      long h = FNV_OFFSET;
+      boolean inKey = true;
+      boolean inLine = false;
+      while (fc.read(buf) > 0) {
+        int n = buf.position();
+        for (int i = 0; i < n; i++) {
+          byte b = bytes[i];
+          if (b == '\n') {
+            if (inLine) {
+              count++;
+            }
+            h = FNV_OFFSET;
+            inKey = true;
+            inLine = false;
+            continue;
+          }
+          inLine = true;
+          if (! inKey) {
+            continue;
+          }
+          if (b == '\t') {
+            inKey = false;
+            if (bits != null) {
+              set(bits, h, numHashes, numBits);
+            }
+          } else {
+            h = update(h, b);
+          }
+        }
+        buf.clear();
+      }
+      if (inLine) {
+        count++;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return count;
+  }
+
+  private static void set(AtomicLongArray bits, long h, int numHashes, long numBits) {
+    long h1 = fmix(h);
+    long h2 = fmix(h1 ^ GOLDEN) | 1;
+    for (int i = 0; i < numHashes; i++) {
+      long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+      int word = (int) (bit >>> 6);
+      long mask = 1L << (bit & 63);
+      long prev;
+      do {
+        prev = bits.get(word);
+      } while ((prev & mask) == 0 && ! bits.compareAndSet(word, prev, prev | mask));
+    }
+  }
+}
@@ -1,24 +1,37 @@
 package edu.dal.ocrrect.suggest;
 
+import edu.dal.ocrrect.util.LogUtils;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.array.TLongArrayList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
-import org.apache.commons.io.input.BoundedInputStream;
 
 /**
  * @since 2017.04.20
@@ -42,6 +55,36 @@ public class NgramBoundedReaderSearcher implements Serializable {
    */
   private HashMap<String, CorpusSubset> offsetMap;
 
+  /**
+   * The memory-mapped index, which replaces {@link #offsetMap} when this searcher is opened from a
+   * mapped index file.
+   */
+  private transient MappedNgramIndex mappedIndex;
+
+  /**
+   * The sparse index, which replaces {@link #offsetMap} in the low-memory mode.
+   */
+  private transient SparseNgramIndex sparseIndex;
+
+  /**
+   * The view of a multi-order store, which replaces {@link #offsetMap} when this searcher is opened
+   * from a store file.
+   */
+  private transient NgramStore.View storeView;
+
+  /**
+   * Channels of the data files, shared by all reads.
+   */
+  private transient FileChannel[] channels;
+  private transient MappedByteBuffer[] mappedShards;
+  private transient boolean mapShards;
+  private transient NgramBloomFilter bloomFilter;
+  private transient NgramBlockCache blockCache;
+  private transient SecondWordIndex secondWordIndex;
+  private transient SkipNgramIndex skipNgramIndex;
+  private transient int order;
+  private transient Map<String, CorpusSubset> captured;
+
   /**
    * Construct n-gram searcher.
    * <p>
@@ -103,6 +146,66 @@ public class NgramBoundedReaderSearcher implements Serializable {
     fileOffsets = searcher.fileOffsets;
   }
 
+  /**
+   * Construct n-gram searcher backed by a memory-mapped index.
+   *
+   * @param index a mapped index.
+   * @see NgramBoundedReaders#readMapped(Path)
+   */
+  NgramBoundedReaderSearcher(MappedNgramIndex index) {
+    ngramPaths = index.ngramPaths();
+    fileOffsets = index.fileOffsets();
+    mappedIndex = index;
+  }
+
+  /**
+   * Construct n-gram searcher backed by a sparse index, which keeps a fraction of first words in
+   * memory and locates the others by a short forward scan of the data files.
+   *
+   * @param index a sparse index.
+   * @see NgramBoundedReaders#readSparse(Path)
+   */
+  NgramBoundedReaderSearcher(SparseNgramIndex index) {
+    ngramPaths = index.ngramPaths();
+    fileOffsets = index.fileOffsets();
+    sparseIndex = index;
+  }
+
+  /**
+   * Construct n-gram searcher backed by an order of a multi-order store.
+   *
+   * @param view the view of an order.
+   * @see NgramStore#searcher(int)
+   */
+  NgramBoundedReaderSearcher(NgramStore.View view) {
+    ngramPaths = view.ngramPaths();
+    fileOffsets = view.fileOffsets();
+    storeView = view;
+    order = view.order();
+  }
+
+  /**
+   * Construct n-gram searcher with an index built elsewhere. Words are mapped in order, thus a word
+   * given more than once is mapped to its last corpus subset, in the same way as {@link
+   * #NgramBoundedReaderSearcher(List)}.
+   *
+   * @param ngramPaths the n-gram data pathnames.
+   * @param fileOffsets the offset before each data file.
+   * @param words the indexed words.
+   * @param offsets the offset of the corpus subset of each word.
+   * @param sizes the size of the corpus subset of each word.
+   * @see NgramIndexBuilder
+   */
+  NgramBoundedReaderSearcher(String[] ngramPaths, long[] fileOffsets, List<String> words,
+      TLongArrayList offsets, TIntArrayList sizes) {
+    this.ngramPaths = ngramPaths;
+    this.fileOffsets = fileOffsets;
+    offsetMap = new HashMap<>(words.size() * 4 / 3 + 1);
+    for (int i = 0; i < words.size(); i++) {
+      offsetMap.put(words.get(i), new CorpusSubset(offsets.get(i), sizes.get(i)));
+    }
+  }
+
   private void addToOffsetMap(String prevWord, long prevFileOffset, long prevLineEndPos, long
       lastRecWordEnd) {
     offsetMap.put(prevWord, new CorpusSubset(
@@ -135,23 +238,545 @@ public class NgramBoundedReaderSearcher implements Serializable {
    * @throws IOException if I/O error occurs.
    */
   public BufferedReader openBufferedRecordsWithFirstWord(String word) throws IOException {
-    CorpusSubset subset = offsetMap.get(word);
+    CorpusSubset subset = findSubset(word);
     if (subset == null) {
       return null;
     }
+    return openBufferedRecords(word, subset);
+  }
 
-    // TODO: use binary search.
-    int pIdx = 0;
-    for (int i = 1; i <= ngramPaths.length; i++) {
-      if (subset.offset < fileOffsets[i]) {
-        pIdx = i - 1;
-        break;
+  /**
+   * Get a {@link BufferedReader} feed with a subset of ngram corpus, which records have the given
+   * first word. If the block of the first word is indexed by the {@link SecondWordIndex} set in
+   * {@link #setSecondWordIndex(SecondWordIndex)}, the subset is narrowed to the records which also
+   * have the given second word. Otherwise, all records with the first word are returned, and the
+   * caller should match the second word itself.
+   *
+   * @param first the first word.
+   * @param second the second word.
+   * @return a bufferedReader which underlying stream contains the records with the given first
+   *     word, and with the second word if the block is indexed, or {@code null} if there is no such
+   *     records in the corpus.
+   * @throws IOException if I/O error occurs.
+   * @see #hasSecondWordIndex(String)
+   */
+  public BufferedReader openBufferedRecordsWithFirstTwoWords(String first, String second)
+      throws IOException {
+    CorpusSubset subset = findSubset(first);
+    if (subset == null) {
+      return null;
+    }
+    if (! hasSecondWordIndex(first)) {
+      return openBufferedRecords(first, subset);
+    }
+    long range = secondWordIndex.find(first, second);
+    if (range == 0) {
+      return null;
+    }
+    return openBufferedRecords(blockKey(first, second),
+        new CorpusSubset(subset.offset + (range >>> 32), (int) range));
+  }
+
+  /**
+   * Locate the records read by {@link #openBufferedRecordsWithFirstTwoWords(String, String)}, or
+   * by {@link #openBufferedRecordsWithFirstWord(String)} if the second word is {@code null}.
+   *
+   * @param first the first word.
+   * @param second the second word, or {@code null} for the full block.
+   * @return the offset from the beginning of the first data file and the size of the records, or
+   *     {@code null} if there is no such records in the corpus.
+   * @throws IOException if I/O error occurs.
+   */
+  long[] locateRecords(String first, String second) throws IOException {
+    CorpusSubset subset = findSubset(first);
+    if (subset == null) {
+      return null;
+    }
+    if (second == null || ! hasSecondWordIndex(first)) {
+      return new long[] {subset.offset, subset.size};
+    }
+    long range = secondWordIndex.find(first, second);
+    return range == 0 ? null : new long[] {subset.offset + (range >>> 32), (int) range};
+  }
+
+  /**
+   * Get the key of the records located by {@link #locateRecords(String, String)} in the block
+   * cache.
+   */
+  String blockKey(String first, String second) {
+    return second == null || ! hasSecondWordIndex(first) ? first : first + ' ' + second;
+  }
+
+  /**
+   * Read a range of a data file into a byte array.
+   *
+   * @param offset the offset from the beginning of the first data file.
+   * @param size the number of bytes, which are in the same data file.
+   * @return the bytes.
+   * @throws IOException if I/O error occurs.
+   */
+  byte[] readRange(long offset, int size) throws IOException {
+    return readBlock(new CorpusSubset(offset, size));
+  }
+
+  /**
+   * Open a stream over a range of a data file.
+   *
+   * @param offset the offset from the beginning of the first data file.
+   * @param size the number of bytes, which are in the same data file.
+   * @return an input stream, which does not need to be closed.
+   * @throws IOException if I/O error occurs.
+   */
+  InputStream openRange(long offset, int size) throws IOException {
+    int pIdx = findFile(offset);
+    return new ChannelRangeInputStream(channel(pIdx), offset - fileOffsets[pIdx], size);
+  }
+
+  private BufferedReader openBufferedRecords(String key, CorpusSubset subset) throws IOException {
+    // Blocks too large to be cached are streamed instead of being loaded in whole.
+    if (blockCache != null && blockCache.accepts(subset.size)) {
+      return new BufferedReader(new InputStreamReader(
+          new ByteArrayInputStream(blockCache.get(order(), key, () -> readBlock(subset)))));
+    }
+    int pIdx = findFile(subset.offset);
+    return new BufferedReader(new InputStreamReader(new ChannelRangeInputStream(
+        channel(pIdx), subset.offset - fileOffsets[pIdx], subset.size)));
+  }
+
+  /**
+   * Get a subset of ngram corpus as a read-only byte buffer. The records in this subset have the
+   * same first word as the given word.
+   *
+   * <p>The records are read from a pooled {@link FileChannel} using positional reads, so no file is
+   * opened in this method. If shard mapping is enabled by {@link #setMapShards(boolean)}, the
+   * returned buffer is a slice of the mapped data file and no bytes are copied. If a block cache is
+   * set by {@link #setBlockCache(NgramBlockCache)}, the records are read through the cache instead,
+   * unless the block is too large to be cached.
+   *
+   * @param word A word
+   * @return a read-only buffer which contains all the records in the ngram corpus which first word
+   *     is the same as the given word, or {@code null} if there is no such records in the corpus.
+   * @throws IOException if I/O error occurs.
+   */
+  public ByteBuffer readRecordsWithFirstWord(String word) throws IOException {
+    CorpusSubset subset = findSubset(word);
+    if (subset == null) {
+      return null;
+    }
+    if (blockCache != null && blockCache.accepts(subset.size)) {
+      return ByteBuffer.wrap(blockCache.get(order(), word, () -> readBlock(subset)))
+          .asReadOnlyBuffer();
+    }
+    int pIdx = findFile(subset.offset);
+    long pos = subset.offset - fileOffsets[pIdx];
+
+    if (mapShards) {
+      MappedByteBuffer shard = mappedShard(pIdx);
+      if (shard != null) {
+        ByteBuffer bb = shard.duplicate();
+        bb.position((int) pos);
+        bb.limit((int) pos + subset.size);
+        return bb.slice();
+      }
+    }
+    return ByteBuffer.wrap(readBlock(subset)).asReadOnlyBuffer();
+  }
+
+  /**
+   * Read a corpus subset into a byte array using positional reads.
+   */
+  private byte[] readBlock(CorpusSubset subset) throws IOException {
+    int pIdx = findFile(subset.offset);
+    long pos = subset.offset - fileOffsets[pIdx];
+    ByteBuffer bb = ByteBuffer.allocate(subset.size);
+    FileChannel fc = channel(pIdx);
+    while (bb.hasRemaining()) {
+      if (fc.read(bb, pos + bb.position()) < 0) {
+        throw new EOFException(ngramPaths[pIdx]);
+      }
+    }
+    return bb.array();
+  }
+
+  /**
+   * Get the order of n-grams in the data files, which is the number of words in the first record.
+   *
+   * @return the n-gram order.
+   * @throws IOException if I/O error occurs.
+   */
+  public synchronized int order() throws IOException {
+    if (order == 0) {
+      InputStream in = new BufferedInputStream(
+          new ChannelRangeInputStream(channel(0), 0, fileOffsets[1] - fileOffsets[0]), 256);
+      int n = 1;
+      for (int b = in.read(); b != '\t'; b = in.read()) {
+        if (b < 0 || b == '\n') {
+          throw new IOException("malformed n-gram record in " + ngramPaths[0]);
+        }
+        if (b == ' ') {
+          n++;
+        }
+      }
+      order = n;
+    }
+    return order;
+  }
+
+  /**
+   * Find the data file which contains the given offset.
+   *
+   * @param offset an offset from the beginning of the first data file.
+   * @return the index of the data file.
+   */
+  int findFile(long offset) {
+    int idx = Arrays.binarySearch(fileOffsets, offset);
+    // Files are never empty, thus an exact match is the start of a file.
+    return idx >= 0 ? idx : -idx - 2;
+  }
+
+  /**
+   * Get the pooled channel of a data file. Channels are opened on demand and shared by all threads,
+   * as positional reads do not modify the channel position.
+   */
+  private synchronized FileChannel channel(int pIdx) throws IOException {
+    if (channels == null) {
+      channels = new FileChannel[ngramPaths.length];
+    }
+    if (channels[pIdx] == null) {
+      channels[pIdx] = FileChannel.open(Paths.get(ngramPaths[pIdx]));
+    }
+    return channels[pIdx];
+  }
+
+  /**
+   * Get the mapped data file, or {@code null} if the file is too large to be mapped as a whole.
+   */
+  private synchronized MappedByteBuffer mappedShard(int pIdx) throws IOException {
+    if (mappedShards == null) {
+      mappedShards = new MappedByteBuffer[ngramPaths.length];
+    }
+    if (mappedShards[pIdx] == null) {
+      FileChannel fc = channel(pIdx);
+      if (fc.size() > Integer.MAX_VALUE) {
+        return null;
+      }
+      mappedShards[pIdx] = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+    }
+    return mappedShards[pIdx];
+  }
+
+  /**
+   * Set whether the data files are memory-mapped in {@link #readRecordsWithFirstWord(String)}.
+   * Files larger than 2GB are always read using positional reads.
+   *
+   * @param mapShards {@code true} to map the data files.
+   */
+  public void setMapShards(boolean mapShards) {
+    this.mapShards = mapShards;
+  }
+
+  /**
+   * Set the Bloom filter over all n-grams in the data files. The filter is used to skip the corpus
+   * scan for n-grams which definitely do not exist.
+   *
+   * @param bloomFilter a Bloom filter, or {@code null} to disable filtering.
+   */
+  public void setBloomFilter(NgramBloomFilter bloomFilter) {
+    this.bloomFilter = bloomFilter;
+  }
+
+  /**
+   * Get the Bloom filter over all n-grams in the data files.
+   *
+   * @return the Bloom filter, or {@code null} if not set.
+   */
+  public NgramBloomFilter getBloomFilter() {
+    return bloomFilter;
+  }
+
+  /**
+   * Set the cache of first word blocks. A cache can be shared by searchers of different orders.
+   *
+   * @param blockCache a block cache, or {@code null} to read blocks from data files every time.
+   */
+  public void setBlockCache(NgramBlockCache blockCache) {
+    this.blockCache = blockCache;
+  }
+
+  /**
+   * Get the cache of first word blocks.
+   *
+   * @return the block cache, or {@code null} if not set.
+   */
+  public NgramBlockCache getBlockCache() {
+    return blockCache;
+  }
+
+  /**
+   * Set the index of second word sub-ranges in oversized first word blocks, which is used in {@link
+   * #openBufferedRecordsWithFirstTwoWords(String, String)}.
+   *
+   * @param secondWordIndex a second word index built for this searcher, or {@code null} to always
+   *     read the full blocks.
+   */
+  public void setSecondWordIndex(SecondWordIndex secondWordIndex) {
+    this.secondWordIndex = secondWordIndex;
+  }
+
+  /**
+   * Get the index of second word sub-ranges in oversized first word blocks.
+   *
+   * @return the second word index, or {@code null} if not set.
+   */
+  public SecondWordIndex getSecondWordIndex() {
+    return secondWordIndex;
+  }
+
+  /**
+   * Check whether the block of a first word can be narrowed by its second words.
+   *
+   * @param first the first word.
+   * @return {@code true} if a second word index is set and the block is indexed.
+   */
+  public boolean hasSecondWordIndex(String first) {
+    return secondWordIndex != null && secondWordIndex.contains(first);
+  }
+
+  /**
+   * Set the precomputed skip-gram index of the n-grams in the data files. The index is used to find
+   * suggestion candidates without scanning the corpus.
+   *
+   * @param skipNgramIndex a skip-gram index of the same order, or {@code null} to scan the corpus.
+   */
+  public void setSkipNgramIndex(SkipNgramIndex skipNgramIndex) {
+    this.skipNgramIndex = skipNgramIndex;
+  }
+
+  /**
+   * Get the precomputed skip-gram index of the n-grams in the data files.
+   *
+   * @return the skip-gram index, or {@code null} if not set.
+   */
+  public SkipNgramIndex getSkipNgramIndex() {
+    return skipNgramIndex;
+  }
+
+  /**
+   * Set whether the first word blocks read by this searcher are captured. Enabling the capture
+   * discards the blocks captured before. The captured blocks are the working set of the processed
+   * words, which can be written as a standalone corpus by {@link #writeCaptured(Path)}.
+   *
+   * <p>Records found in a skip-gram index are not read from the corpus, thus the capture cannot be
+   * enabled if a skip-gram index is set.
+   *
+   * @param capture {@code true} to start capturing blocks, or {@code false} to stop.
+   * @throws IllegalStateException if a skip-gram index is set.
+   */
+  public synchronized void setCapture(boolean capture) {
+    if (capture && skipNgramIndex != null) {
+      throw new IllegalStateException("cannot capture blocks with a skip-gram index");
+    }
+    captured = capture ? new ConcurrentHashMap<>() : null;
+  }
+
+  /**
+   * Get the number of the captured first word blocks.
+   *
+   * @return the number of blocks, or 0 if the capture is not enabled.
+   */
+  public int numOfCapturedBlocks() {
+    Map<String, CorpusSubset> capturing = captured;
+    return capturing == null ? 0 : capturing.size();
+  }
+
+  /**
+   * Write the captured first word blocks into a data file, in the same order as in the corpus. The
+   * written data file is a standalone n-gram corpus, where the processed words have the same
+   * records as in the whole corpus.
+   *
+   * @param data the output data file.
+   * @return a n-gram searcher of the written data file.
+   * @throws IOException if I/O error occurs.
+   * @throws IllegalStateException if the capture is not enabled, or no block has been captured.
+   */
+  public NgramBoundedReaderSearcher writeCaptured(Path data) throws IOException {
+    Map<String, CorpusSubset> capturing = captured;
+    if (capturing == null || capturing.isEmpty()) {
+      throw new IllegalStateException("no captured block");
+    }
+    List<CorpusSubset> subsets = new ArrayList<>(capturing.values());
+    subsets.sort((a, b) -> Long.compare(a.offset, b.offset));
+    Files.createDirectories(data.toAbsolutePath().getParent());
+    try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(data))) {
+      for (CorpusSubset subset : subsets) {
+        byte[] block = readBlock(subset);
+        os.write(block);
+        // The last block of a data file may not be terminated.
+        if (block[block.length - 1] != '\n') {
+          os.write('\n');
+        }
       }
     }
-    FileInputStream fis = new FileInputStream(ngramPaths[pIdx]);
-    fis.skip(subset.offset - fileOffsets[pIdx]);
-    return new BufferedReader(new InputStreamReader(
-        new BoundedInputStream(fis, subset.size)));
+    return new NgramIndexBuilder(1).build(Arrays.asList(data));
+  }
+
+  /**
+   * Close all the pooled channels. Channels are reopened on demand in later reads.
+   *
+   * @throws IOException if I/O error occurs.
+   */
+  public synchronized void close() throws IOException {
+    if (channels != null) {
+      for (FileChannel fc : channels) {
+        if (fc != null) {
+          fc.close();
+        }
+      }
+    }
+    channels = null;
+    mappedShards = null;
+  }
+
+  private CorpusSubset findSubset(String word) throws IOException {
+    CorpusSubset subset = lookupSubset(word);
+    Map<String, CorpusSubset> capturing = captured;
+    if (capturing != null && subset != null) {
+      capturing.putIfAbsent(word, subset);
+    }
+    return subset;
+  }
+
+  private CorpusSubset lookupSubset(String word) throws IOException {
+    if (sparseIndex != null) {
+      long[] found = sparseIndex.find(word, this::channel);
+      return found == null ? null : new CorpusSubset(found[0], (int) found[1]);
+    }
+    if (storeView != null) {
+      int id = storeView.find(word);
+      return id < 0 || storeView.size(id) == 0
+          ? null
+          : new CorpusSubset(storeView.offset(id), storeView.size(id));
+    }
+    if (mappedIndex == null) {
+      return offsetMap.get(word);
+    }
+    int i = mappedIndex.find(word);
+    return i < 0 ? null : new CorpusSubset(mappedIndex.offset(i), mappedIndex.size(i));
+  }
+
+  /**
+   * Visit the block of every indexed first word. In the sparse mode, the data files are scanned.
+   *
+   * @param consumer the consumer of blocks.
+   * @throws IOException if I/O error occurs.
+   */
+  void forEachSubset(SparseNgramIndex.BlockConsumer consumer) throws IOException {
+    if (sparseIndex != null) {
+      sparseIndex.forEachBlock(this::channel, consumer);
+    } else if (storeView != null) {
+      for (int id = 0; id < storeView.numOfWords(); id++) {
+        if (storeView.size(id) > 0) {
+          consumer.accept(storeView.word(id), storeView.offset(id), storeView.size(id));
+        }
+      }
+    } else if (mappedIndex == null) {
+      offsetMap.forEach((word, subset) -> consumer.accept(word, subset.offset, subset.size));
+    } else {
+      for (int i = 0; i < mappedIndex.size(); i++) {
+        consumer.accept(mappedIndex.key(i), mappedIndex.offset(i), mappedIndex.size(i));
+      }
+    }
+  }
+
+  /**
+   * Get the first words which blocks are larger than the given size.
+   *
+   * @param size a size in bytes.
+   * @return a list of first words.
+   * @throws IOException if I/O error occurs.
+   */
+  List<String> wordsWithBlocksLargerThan(int size) throws IOException {
+    List<String> words = new ArrayList<>();
+    forEachSubset((word, offset, blockSize) -> {
+      if (blockSize > size) {
+        words.add(word);
+      }
+    });
+    return words;
+  }
+
+  String[] ngramPaths() {
+    return ngramPaths.clone();
+  }
+
+  long[] fileOffsets() {
+    return fileOffsets.clone();
+  }
+
+  /**
+   * Write the first word index of this searcher as a memory-mapped index file.
+   *
+   * @param out the output path.
+   * @throws IOException if I/O error occurs.
+   */
+  void writeMapped(Path out) throws IOException {
+    List<String> words = new ArrayList<>();
+    TLongArrayList offsets = new TLongArrayList();
+    TIntArrayList sizes = new TIntArrayList();
+    forEachSubset((word, offset, size) -> {
+      words.add(word);
+      offsets.add(offset);
+      sizes.add(size);
+    });
+    MappedNgramIndex.write(out, ngramPaths, fileOffsets,
+        words.toArray(new String[words.size()]), offsets.toArray(), sizes.toArray());
+  }
+
+  /**
+   * An input stream reading a range of bytes from a shared channel using positional reads. Closing
+   * this stream does not close the underlying channel.
+   */
+  static class ChannelRangeInputStream extends InputStream {
+    private final FileChannel channel;
+    private final ByteBuffer single = ByteBuffer.allocate(1);
+    private long position;
+    private long remaining;
+
+    ChannelRangeInputStream(FileChannel channel, long position, long size) {
+      this.channel = channel;
+      this.position = position;
+      this.remaining = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+      single.clear();
+      return read(single) <= 0 ? -1 : single.get(0) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      return read(ByteBuffer.wrap(b, off, len));
+    }
+
+    private int read(ByteBuffer bb) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      if (bb.remaining() > remaining) {
+        bb.limit(bb.position() + (int) remaining);
+      }
+      int n = channel.read(bb, position);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      position += n;
+      remaining -= n;
+      return n;
+    }
   }
 
   private class CorpusSubset implements Serializable {
@@ -173,6 +798,7 @@ public class NgramBoundedReaderSearcher implements Serializable {
    */
   public void setNgramPath(String... pathnames) {
     if (pathnames.length == ngramPaths.length) {
+      closeQuietly();
       ngramPaths = pathnames;
     } else {
       throw new IllegalArgumentException();
@@ -186,6 +812,7 @@ public class NgramBoundedReaderSearcher implements Serializable {
    */
   public void setNgramPath(List<Path> paths) {
     if (paths.size() == ngramPaths.length) {
+      closeQuietly();
       ngramPaths = paths
         .stream()
         .map(Path::toString)
@@ -196,6 +823,18 @@ public class NgramBoundedReaderSearcher implements Serializable {
     }
   }
 
+  /**
+   * Close the opened files, where an error is logged and ignored, as the files are reopened on
+   * demand.
+   */
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (IOException e) {
+      LogUtils.warn("failed to close the n-gram files: ", e);
+    }
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (obj instanceof NgramBoundedReaderSearcher) {
@@ -211,17 +850,30 @@ public class NgramBoundedReaderSearcher implements Serializable {
           return false;
         }
       }
-      for (String word :offsetMap.keySet()) {
-        CorpusSubset cs1 = offsetMap.get(word);
-        CorpusSubset cs2 = another.offsetMap.get(word);
-        if (cs1.offset != cs2.offset || cs1.size != cs2.size) {
-          return false;
-        }
+      boolean[] same = {true};
+      try {
+        forEachSubset((word, offset, size) -> {
+          try {
+            if (same[0] && ! sameSubset(new CorpusSubset(offset, size),
+                another.lookupSubset(word))) {
+              same[0] = false;
+            }
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
+      return same[0];
     }
     return true;
   }
 
+  private static boolean sameSubset(CorpusSubset cs1, CorpusSubset cs2) {
+    return cs2 != null && cs1.offset == cs2.offset && cs1.size == cs2.size;
+  }
+
   public static void write(NgramBoundedReaderSearcher searcher, Path out)
     throws IOException
   {
@@ -8,6 +8,7 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
 
 import edu.dal.ocrrect.util.LogUtils;
 import edu.dal.ocrrect.util.Timer;
@@ -51,4 +52,176 @@ public class NgramBoundedReaders {
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * Write the first word index of a searcher as a memory-mapped index file.
+   *
+   * @param searcher a n-gram searcher.
+   * @param out the output path.
+   * @throws IOException If I/O error occurs.
+   * @see MappedNgramIndex
+   */
+  public static void writeMapped(NgramBoundedReaderSearcher searcher, Path out)
+      throws IOException {
+    Timer t = new Timer();
+    searcher.writeMapped(out);
+    LogUtils.logMethodTime(t, 2);
+  }
+
+  /**
+   * Open a searcher from a memory-mapped index file. The index is not loaded onto the heap.
+   *
+   * @param in A mapped index file.
+   * @return a n-gram searcher.
+   * @throws IOException If I/O error occurs.
+   * @see MappedNgramIndex
+   */
+  public static NgramBoundedReaderSearcher readMapped(Path in) throws IOException {
+    Timer t = new Timer();
+    NgramBoundedReaderSearcher searcher =
+        new NgramBoundedReaderSearcher(MappedNgramIndex.open(in));
+    LogUtils.logMethodTime(t, 2);
+    return searcher;
+  }
+
+  /**
+   * Build a sparse index over n-gram data files and write it to a file.
+   *
+   * @param ngrams the n-gram data files, sorted as the Web1T corpus.
+   * @param interval the minimum distance between two sampled first words in bytes. A larger
+   *     interval takes less memory and a longer scan for each lookup.
+   * @param out the output path.
+   * @throws IOException If I/O error occurs, or the data files are not sorted.
+   * @see SparseNgramIndex
+   */
+  public static void writeSparse(List<Path> ngrams, int interval, Path out) throws IOException {
+    Timer t = new Timer();
+    SparseNgramIndex.write(SparseNgramIndex.build(ngrams, interval), out);
+    LogUtils.logMethodTime(t, 2);
+  }
+
+  /**
+   * Open a searcher from a sparse index file, which keeps only the sampled first words on the heap.
+   *
+   * @param in A sparse index file.
+   * @return a n-gram searcher.
+   * @throws IOException If I/O error occurs.
+   * @see SparseNgramIndex
+   */
+  public static NgramBoundedReaderSearcher readSparse(Path in) throws IOException {
+    Timer t = new Timer();
+    NgramBoundedReaderSearcher searcher =
+        new NgramBoundedReaderSearcher(SparseNgramIndex.read(in));
+    LogUtils.logMethodTime(t, 2);
+    return searcher;
+  }
+
+  /**
+   * Write the first word indexes of searchers of different orders into a single store file.
+   *
+   * @param searchers n-gram searchers of different orders.
+   * @param out the output path.
+   * @throws IOException If I/O error occurs, or the written store fails the checksum.
+   * @see NgramStore
+   */
+  public static void writeStore(List<NgramBoundedReaderSearcher> searchers, Path out)
+      throws IOException {
+    Timer t = new Timer();
+    NgramStore.write(out, searchers);
+    if (! NgramStore.open(out).verify()) {
+      throw new IOException("checksum mismatch in written store: " + out);
+    }
+    LogUtils.logMethodTime(t, 2);
+  }
+
+  /**
+   * Open a multi-order store file, which searchers of all orders share the mapped dictionary.
+   *
+   * @param in A store file.
+   * @return a store.
+   * @throws IOException If I/O error occurs.
+   * @see NgramStore#searcher(int)
+   */
+  public static NgramStore readStore(Path in) throws IOException {
+    Timer t = new Timer();
+    NgramStore store = NgramStore.open(in);
+    LogUtils.logMethodTime(t, 2);
+    return store;
+  }
+
+  /**
+   * Write the first word blocks captured by a searcher as a standalone corpus, and the serialized
+   * searcher of it. Later runs on the same words may read the written searcher and set its n-gram
+   * path to the written data file.
+   *
+   * @param searcher a n-gram searcher capturing blocks.
+   * @param data the output data file.
+   * @param out the output path of the serialized searcher.
+   * @return a n-gram searcher of the written data file.
+   * @throws IOException If I/O error occurs.
+   * @see NgramBoundedReaderSearcher#setCapture(boolean)
+   */
+  public static NgramBoundedReaderSearcher writeCaptured(NgramBoundedReaderSearcher searcher,
+      Path data, Path out) throws IOException {
+    Timer t = new Timer();
+    NgramBoundedReaderSearcher captured = searcher.writeCaptured(data);
+    write(captured, out);
+    LogUtils.info(String.format("captured %d blocks in %.1f MB", searcher.numOfCapturedBlocks(),
+        data.toFile().length() / 1e6));
+    LogUtils.logMethodTime(t, 2);
+    return captured;
+  }
+
+  /**
+   * Read a serialized searcher. Both the serialized {@link NgramBoundedReaderSearcher} and the
+   * legacy {@code edu.dal.corr.suggest} searcher are accepted.
+   *
+   * @param in A serialized searcher file.
+   * @return a n-gram searcher.
+   * @throws IOException If I/O error occurs.
+   */
+  public static NgramBoundedReaderSearcher readAny(Path in) throws IOException {
+    try (ObjectInputStream ois = new ObjectInputStream(
+        Channels.newInputStream(FileChannel.open(in)))) {
+      Object obj = ois.readObject();
+      if (obj instanceof edu.dal.corr.suggest.NgramBoundedReaderSearcher) {
+        return new NgramBoundedReaderSearcher(
+            (edu.dal.corr.suggest.NgramBoundedReaderSearcher) obj);
+      } else {
+        return (NgramBoundedReaderSearcher) obj;
+      }
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Convert a serialized searcher into a memory-mapped index file. Both the serialized {@link
+   * NgramBoundedReaderSearcher} and the legacy {@code edu.dal.corr.suggest} searcher are accepted.
+   *
+   * @param in A serialized searcher file.
+   * @param out the output path.
+   * @throws IOException If I/O error occurs, or the written index fails the checksum.
+   */
+  public static void convert(Path in, Path out) throws IOException {
+    Timer t = new Timer();
+    writeMappedAndVerify(readAny(in), out);
+    LogUtils.logMethodTime(t, 2);
+  }
+
+  /**
+   * Write the first word index of a searcher as a memory-mapped index file, and verify the
+   * checksum of the written file.
+   *
+   * @param searcher a n-gram searcher.
+   * @param out the output path.
+   * @throws IOException If I/O error occurs, or the written index fails the checksum.
+   */
+  public static void writeMappedAndVerify(NgramBoundedReaderSearcher searcher, Path out)
+      throws IOException {
+    searcher.writeMapped(out);
+    if (! MappedNgramIndex.open(out).verify()) {
+      throw new IOException("checksum mismatch in converted index: " + out);
+    }
+  }
 }
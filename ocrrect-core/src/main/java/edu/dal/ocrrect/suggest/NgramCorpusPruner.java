@@ -0,0 +1,266 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import edu.dal.ocrrect.util.lexicon.Lexicon;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A builder of a pruned n-gram corpus, which keeps only the records that may contribute to the
+ * context features of a document.
+ *
+ * <p>A record is matched against a context in all the positions except the pivot, which is the
+ * position of candidates. Thus, a record with more words outside a lexicon than the positions
+ * allowed to differ never matches a context made of words in the lexicon. Records with a count
+ * below a floor are also dropped, as they contribute little to the frequency-based scores.
+ *
+ * <p>The relaxed skip-grams of {@link
+ * edu.dal.ocrrect.suggest.feature.ApproximateContextCoherenceFeature} also let one context word
+ * differ besides the pivot. A corpus serving approximate features must therefore be pruned with
+ * {@link #setMaxOutOfLexicon(int)} set to {@value #APPROXIMATE_MAX_OUT_OF_LEXICON}, otherwise the
+ * records matching a relaxed skip-gram with a word outside the lexicon are dropped and the
+ * approximate features lose candidates.
+ *
+ * <p>Every data file is streamed once in its own task and the kept records are written to a data
+ * file of the same name in the output directory, such that the pruned corpus is sorted as the
+ * input. The first word index of the pruned corpus is then built by {@link NgramIndexBuilder}.
+ *
+ * @since 2017.09.26
+ */
+public class NgramCorpusPruner {
+  /** The number of words outside the lexicon to keep for approximate context features. */
+  public static final int APPROXIMATE_MAX_OUT_OF_LEXICON = 2;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final Lexicon lexicon;
+  private final int threads;
+  private int maxOutOfLexicon = 1;
+  private long minCount = 0;
+
+  private final AtomicLong recordsRead = new AtomicLong();
+  private final AtomicLong recordsKept = new AtomicLong();
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong bytesKept = new AtomicLong();
+
+  /**
+   * Construct a pruner using one thread per available processor.
+   *
+   * @param lexicon the lexicon of words which may appear in contexts, or {@code null} to keep
+   *     records regardless of their words.
+   */
+  public NgramCorpusPruner(Lexicon lexicon) {
+    this(lexicon, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Construct a pruner.
+   *
+   * @param lexicon the lexicon of words which may appear in contexts, or {@code null} to keep
+   *     records regardless of their words.
+   * @param threads the number of data files pruned in parallel.
+   */
+  public NgramCorpusPruner(Lexicon lexicon, int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("invalid number of threads: " + threads);
+    }
+    this.lexicon = lexicon;
+    this.threads = threads;
+  }
+
+  /**
+   * Set the number of words outside the lexicon allowed in a kept record. The default is 1, which
+   * keeps the records that match a context except the pivot, and is sufficient only for exact
+   * context features. Use {@value #APPROXIMATE_MAX_OUT_OF_LEXICON} for approximate features.
+   *
+   * @param maxOutOfLexicon the number of words.
+   * @return this pruner.
+   */
+  public NgramCorpusPruner setMaxOutOfLexicon(int maxOutOfLexicon) {
+    if (maxOutOfLexicon < 0) {
+      throw new IllegalArgumentException("invalid number of words: " + maxOutOfLexicon);
+    }
+    this.maxOutOfLexicon = maxOutOfLexicon;
+    return this;
+  }
+
+  /**
+   * Set the minimum count of a kept record. The default is 0, which keeps all counts.
+   *
+   * @param minCount the minimum count.
+   * @return this pruner.
+   */
+  public NgramCorpusPruner setMinCount(long minCount) {
+    if (minCount < 0) {
+      throw new IllegalArgumentException("invalid count: " + minCount);
+    }
+    this.minCount = minCount;
+    return this;
+  }
+
+  public long recordsRead() {
+    return recordsRead.get();
+  }
+
+  public long recordsKept() {
+    return recordsKept.get();
+  }
+
+  public long bytesRead() {
+    return bytesRead.get();
+  }
+
+  public long bytesKept() {
+    return bytesKept.get();
+  }
+
+  /**
+   * Prune the data files of one n-gram order, and build the index of the pruned corpus. Records are
+   * counted from the last call.
+   *
+   * @param ngrams the n-gram data files sorted by their records.
+   * @param outDir the output directory of the pruned data files.
+   * @return the n-gram searcher of the pruned corpus.
+   * @throws IOException if I/O error occurs, or two data files have the same name.
+   */
+  public NgramBoundedReaderSearcher prune(List<Path> ngrams, Path outDir) throws IOException {
+    Timer t = new Timer();
+    recordsRead.set(0);
+    recordsKept.set(0);
+    bytesRead.set(0);
+    bytesKept.set(0);
+
+    Files.createDirectories(outDir);
+    List<Path> outputs = new ArrayList<>();
+    for (Path p : ngrams) {
+      Path out = outDir.resolve(p.getFileName().toString());
+      if (outputs.contains(out)) {
+        throw new IOException("duplicate data file name: " + p.getFileName());
+      }
+      outputs.add(out);
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < ngrams.size(); i++) {
+        Path in = ngrams.get(i);
+        Path out = outputs.get(i);
+        futures.add(pool.submit(() -> {
+          prune(in, out);
+          return null;
+        }));
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    LogUtils.info(String.format("kept %d / %d records, %.1f / %.1f MB (%.1f%% reduced)",
+        recordsKept(), recordsRead(), bytesKept() / 1e6, bytesRead() / 1e6,
+        bytesRead() == 0 ? 0 : 100 - bytesKept() * 100f / bytesRead()));
+
+    NgramBoundedReaderSearcher searcher = new NgramIndexBuilder(threads).build(outputs);
+    LogUtils.logMethodTime(t, 2);
+    return searcher;
+  }
+
+  /**
+   * Stream the records of a data file and write the kept ones.
+   */
+  private void prune(Path in, Path out) throws IOException {
+    NgramRecord record = new NgramRecord();
+    byte[] buf = new byte[BUFFER_SIZE];
+    int len = 0;
+    int scanned = 0;
+    long read = 0;
+    long kept = 0;
+    long keptBytes = 0;
+    long readBytes = 0;
+    try (InputStream is = Files.newInputStream(in);
+         OutputStream os = new BufferedOutputStream(Files.newOutputStream(out), BUFFER_SIZE)) {
+      for (int n = is.read(buf, len, buf.length - len); n >= 0;
+          n = is.read(buf, len, buf.length - len)) {
+        len += n;
+        int from = 0;
+        for (int i = scanned; i < len; i++) {
+          if (buf[i] == '\n') {
+            read++;
+            if (keep(record.set(buf, from, i))) {
+              os.write(buf, from, i + 1 - from);
+              kept++;
+              keptBytes += i + 1 - from;
+            }
+            readBytes += i + 1 - from;
+            from = i + 1;
+          }
+        }
+        // Move the incomplete line to the beginning, and grow the buffer for a long line.
+        len -= from;
+        System.arraycopy(buf, from, buf, 0, len);
+        scanned = len;
+        if (len == buf.length) {
+          buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+      }
+      if (len > 0) {
+        // Terminate the last line, such that the pruned data files can be concatenated.
+        read++;
+        if (keep(record.set(buf, 0, len))) {
+          os.write(buf, 0, len);
+          os.write('\n');
+          kept++;
+          keptBytes += len + 1;
+        }
+        readBytes += len;
+      }
+    }
+    recordsRead.addAndGet(read);
+    recordsKept.addAndGet(kept);
+    bytesRead.addAndGet(readBytes);
+    bytesKept.addAndGet(keptBytes);
+  }
+
+  /**
+   * Check whether a record is kept by the rules.
+   *
+   * @param record a record.
+   * @return {@code true} if the record is kept.
+   */
+  boolean keep(NgramRecord record) {
+    if (minCount > 0 && record.count() < minCount) {
+      return false;
+    }
+    if (lexicon != null) {
+      int outOfLexicon = 0;
+      for (int i = 0; i < record.size(); i++) {
+        if (! lexicon.contains(record.gram(i)) && ++outOfLexicon > maxOutOfLexicon) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
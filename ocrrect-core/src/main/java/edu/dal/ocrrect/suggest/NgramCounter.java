@@ -0,0 +1,454 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.Text;
+import edu.dal.ocrrect.text.Segment;
+import edu.dal.ocrrect.text.WordSegmenter;
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A builder of n-gram corpora in the Web1T format from text collections, which counts n-grams in
+ * bounded memory.
+ *
+ * <p>Each text file is read line by line in its own task and tokenized by a {@link WordSegmenter}.
+ * N-grams span lines in the same file, but not files. The counts of each task are kept in memory up
+ * to a number of distinct n-grams, and then spilled into a sorted run file. After all the files
+ * are counted, the runs of each order are merged into sorted {@code ngram\tcount} data files, which
+ * are split only between first words. The first word index of each order is then built by {@link
+ * NgramIndexBuilder}.
+ *
+ * <p>N-grams are sorted by the UTF-8 bytes of their words, in the same order as the Web1T corpus,
+ * such that the records of a first word are contiguous and the first words are sorted by bytes as
+ * required by {@link SparseNgramIndex}.
+ *
+ * @since 2017.09.27
+ */
+public class NgramCounter {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int DEFAULT_MAX_ENTRIES = 1 << 21;
+  private static final long DEFAULT_SHARD_SIZE = 256L << 20;
+
+  /**
+   * Compare n-grams by the unsigned bytes of their words. A space sorts before any other byte, thus
+   * a word sorts before all the words it prefixes.
+   */
+  static final Comparator<byte[]> NGRAM_ORDER = (a, b) -> {
+    int min = Math.min(a.length, b.length);
+    for (int i = 0; i < min; i++) {
+      if (a[i] != b[i]) {
+        return a[i] == ' ' ? -1 : b[i] == ' ' ? 1 : (a[i] & 0xFF) - (b[i] & 0xFF);
+      }
+    }
+    return a.length - b.length;
+  };
+
+  private final WordSegmenter segmenter;
+  private final int threads;
+  private int minOrder = 2;
+  private int maxOrder = 5;
+  private int maxEntries = DEFAULT_MAX_ENTRIES;
+  private long minCount = 1;
+  private long shardSize = DEFAULT_SHARD_SIZE;
+
+  private final AtomicInteger runId = new AtomicInteger();
+  private List<List<Path>> runs;
+  private Path runDir;
+
+  /**
+   * Construct a counter using one thread per available processor.
+   *
+   * @param segmenter the segmenter of text lines.
+   */
+  public NgramCounter(WordSegmenter segmenter) {
+    this(segmenter, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Construct a counter.
+   *
+   * @param segmenter the segmenter of text lines.
+   * @param threads the number of text files counted in parallel.
+   */
+  public NgramCounter(WordSegmenter segmenter, int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("invalid number of threads: " + threads);
+    }
+    this.segmenter = segmenter;
+    this.threads = threads;
+  }
+
+  /**
+   * Set the orders of the counted n-grams. The default orders are 2 to 5.
+   *
+   * @param minOrder the minimum order.
+   * @param maxOrder the maximum order.
+   * @return this counter.
+   */
+  public NgramCounter setOrders(int minOrder, int maxOrder) {
+    if (minOrder < 1 || maxOrder < minOrder) {
+      throw new IllegalArgumentException("invalid orders: " + minOrder + " to " + maxOrder);
+    }
+    this.minOrder = minOrder;
+    this.maxOrder = maxOrder;
+    return this;
+  }
+
+  /**
+   * Set the number of distinct n-grams of all orders counted in memory by a task, after which the
+   * counts are spilled into run files.
+   *
+   * @param maxEntries the number of n-grams.
+   * @return this counter.
+   */
+  public NgramCounter setMaxEntries(int maxEntries) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("invalid number of entries: " + maxEntries);
+    }
+    this.maxEntries = maxEntries;
+    return this;
+  }
+
+  /**
+   * Set the minimum count of the written n-grams. The default is 1, which writes all n-grams.
+   *
+   * @param minCount the minimum count.
+   * @return this counter.
+   */
+  public NgramCounter setMinCount(long minCount) {
+    if (minCount <= 0) {
+      throw new IllegalArgumentException("invalid count: " + minCount);
+    }
+    this.minCount = minCount;
+    return this;
+  }
+
+  /**
+   * Set the size of the data files, after which a new data file is started at the next first word.
+   *
+   * @param shardSize the size in bytes.
+   * @return this counter.
+   */
+  public NgramCounter setShardSize(long shardSize) {
+    if (shardSize <= 0) {
+      throw new IllegalArgumentException("invalid shard size: " + shardSize);
+    }
+    this.shardSize = shardSize;
+    return this;
+  }
+
+  /**
+   * Count the n-grams in text files, and write the data files of each order into a sub-directory
+   * of the output directory, e.g. {@code 5gm/5gm-0000}. Run files are written into a temporary
+   * directory in the output directory, which is deleted after merging.
+   *
+   * @param texts a list of text files encoded in UTF-8.
+   * @param outDir the output directory.
+   * @return the n-gram searchers of the written data files, ordered by n-gram order. A searcher is
+   *     {@code null} if no n-gram of the order is written.
+   * @throws IOException if I/O error occurs.
+   */
+  public List<NgramBoundedReaderSearcher> count(List<Path> texts, Path outDir)
+      throws IOException {
+    Timer t = new Timer();
+    runDir = Files.createTempDirectory(Files.createDirectories(outDir), "runs");
+    runs = new ArrayList<>();
+    for (int n = minOrder; n <= maxOrder; n++) {
+      runs.add(Collections.synchronizedList(new ArrayList<>()));
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Path p : texts) {
+        futures.add(pool.submit(() -> {
+          countFile(p);
+          return null;
+        }));
+      }
+      await(futures);
+      LogUtils.info(String.format("counted %d files into %d runs", texts.size(), runId.get()));
+
+      // Merge the runs of each order concurrently.
+      List<Future<List<Path>>> merged = new ArrayList<>();
+      for (int n = minOrder; n <= maxOrder; n++) {
+        int order = n;
+        Path dir = Files.createDirectories(outDir.resolve(n + "gm"));
+        merged.add(pool.submit(() -> merge(order, runs.get(order - minOrder), dir)));
+      }
+      List<List<Path>> shards = new ArrayList<>();
+      for (Future<List<Path>> f : merged) {
+        shards.add(f.get());
+      }
+
+      List<List<Path>> nonEmpty = new ArrayList<>();
+      shards.stream().filter(s -> ! s.isEmpty()).forEach(nonEmpty::add);
+      List<NgramBoundedReaderSearcher> built = new NgramIndexBuilder(threads).buildAll(nonEmpty);
+      List<NgramBoundedReaderSearcher> searchers = new ArrayList<>();
+      for (List<Path> s : shards) {
+        searchers.add(s.isEmpty() ? null : built.get(nonEmpty.indexOf(s)));
+      }
+      LogUtils.logMethodTime(t, 2);
+      return searchers;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+      for (List<Path> r : runs) {
+        for (Path p : r) {
+          Files.deleteIfExists(p);
+        }
+      }
+      Files.deleteIfExists(runDir);
+    }
+  }
+
+  private static void await(List<Future<?>> futures)
+      throws InterruptedException, ExecutionException {
+    for (Future<?> f : futures) {
+      f.get();
+    }
+  }
+
+  /**
+   * Count the n-grams in a text file, and spill the counts whenever the table is full.
+   */
+  private void countFile(Path path) throws IOException {
+    List<TObjectLongHashMap<String>> counts = new ArrayList<>();
+    for (int n = minOrder; n <= maxOrder; n++) {
+      counts.add(new TObjectLongHashMap<>());
+    }
+    int entries = 0;
+    String[] window = new String[maxOrder];
+    int size = 0;
+    try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      for (String line = br.readLine(); line != null; line = br.readLine()) {
+        for (Segment seg : new Text(line).segment(segmenter)) {
+          // Slide the window of the last words.
+          if (size == maxOrder) {
+            System.arraycopy(window, 1, window, 0, maxOrder - 1);
+            size--;
+          }
+          window[size++] = seg.getText();
+
+          // Count the n-grams ending at the current word.
+          StringBuilder sb = new StringBuilder(window[size - 1]);
+          for (int n = 2; n <= size; n++) {
+            sb.insert(0, ' ').insert(0, window[size - n]);
+            if (n >= minOrder && counts.get(n - minOrder).adjustOrPutValue(sb.toString(), 1, 1)
+                == 1) {
+              entries++;
+            }
+          }
+          if (minOrder == 1 && counts.get(0).adjustOrPutValue(window[size - 1], 1, 1) == 1) {
+            entries++;
+          }
+          if (entries >= maxEntries) {
+            spill(counts);
+            entries = 0;
+          }
+        }
+      }
+    }
+    spill(counts);
+  }
+
+  /**
+   * Write the counts of each order into a sorted run file, and clear the counts.
+   */
+  private void spill(List<TObjectLongHashMap<String>> counts) throws IOException {
+    for (int i = 0; i < counts.size(); i++) {
+      TObjectLongHashMap<String> c = counts.get(i);
+      if (c.isEmpty()) {
+        continue;
+      }
+      byte[][] keys = new byte[c.size()][];
+      long[] values = new long[c.size()];
+      int[] k = {0};
+      c.forEachEntry((ngram, count) -> {
+        keys[k[0]] = ngram.getBytes(StandardCharsets.UTF_8);
+        values[k[0]++] = count;
+        return true;
+      });
+      Integer[] order = new Integer[keys.length];
+      for (int j = 0; j < order.length; j++) {
+        order[j] = j;
+      }
+      Arrays.sort(order, (a, b) -> NGRAM_ORDER.compare(keys[a], keys[b]));
+
+      Path run = runDir.resolve(String.format("%dgm-run-%05d", i + minOrder,
+          runId.getAndIncrement()));
+      try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE)) {
+        for (int j : order) {
+          writeRecord(os, keys[j], values[j]);
+        }
+      }
+      runs.get(i).add(run);
+      c.clear();
+    }
+  }
+
+  private static void writeRecord(OutputStream os, byte[] ngram, long count) throws IOException {
+    os.write(ngram);
+    os.write('\t');
+    os.write(Long.toString(count).getBytes(StandardCharsets.US_ASCII));
+    os.write('\n');
+  }
+
+  /**
+   * Merge the sorted runs of an order into data files.
+   *
+   * @return the written data files.
+   */
+  private List<Path> merge(int order, List<Path> orderRuns, Path dir) throws IOException {
+    PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, orderRuns.size()),
+        (a, b) -> NGRAM_ORDER.compare(a.ngram, b.ngram));
+    List<Path> shards = new ArrayList<>();
+    OutputStream os = null;
+    try {
+      for (Path p : orderRuns) {
+        RunReader reader = new RunReader(p);
+        if (reader.next()) {
+          queue.add(reader);
+        } else {
+          reader.close();
+        }
+      }
+      long written = 0;
+      byte[] prevFirst = null;
+      while (! queue.isEmpty()) {
+        // Sum the counts of the smallest n-gram in all runs.
+        RunReader head = queue.poll();
+        byte[] ngram = head.ngram;
+        long count = head.count;
+        advance(queue, head);
+        while (! queue.isEmpty() && Arrays.equals(queue.peek().ngram, ngram)) {
+          RunReader r = queue.poll();
+          count += r.count;
+          advance(queue, r);
+        }
+        if (count < minCount) {
+          continue;
+        }
+
+        // Start a new data file between first words.
+        byte[] first = firstWord(ngram);
+        if (os == null || (written >= shardSize && ! Arrays.equals(first, prevFirst))) {
+          if (os != null) {
+            os.close();
+          }
+          Path shard = dir.resolve(String.format("%dgm-%04d", order, shards.size()));
+          os = new BufferedOutputStream(Files.newOutputStream(shard), BUFFER_SIZE);
+          shards.add(shard);
+          written = 0;
+        }
+        writeRecord(os, ngram, count);
+        written += ngram.length + 2 + Long.toString(count).length();
+        prevFirst = first;
+      }
+    } finally {
+      if (os != null) {
+        os.close();
+      }
+      for (RunReader r : queue) {
+        r.close();
+      }
+    }
+    return shards;
+  }
+
+  private static void advance(PriorityQueue<RunReader> queue, RunReader reader)
+      throws IOException {
+    if (reader.next()) {
+      queue.add(reader);
+    } else {
+      reader.close();
+    }
+  }
+
+  private static byte[] firstWord(byte[] ngram) {
+    for (int i = 0; i < ngram.length; i++) {
+      if (ngram[i] == ' ') {
+        return Arrays.copyOf(ngram, i);
+      }
+    }
+    return ngram;
+  }
+
+  /**
+   * A reader of the records in a run file.
+   */
+  private static class RunReader implements Closeable {
+    private final InputStream in;
+    private byte[] buf = new byte[256];
+    private byte[] ngram;
+    private long count;
+
+    private RunReader(Path run) throws IOException {
+      in = new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE);
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return {@code false} if there is no more record.
+     */
+    private boolean next() throws IOException {
+      int len = 0;
+      int tab = -1;
+      for (int b = in.read(); b != '\n'; b = in.read()) {
+        if (b < 0) {
+          if (len == 0) {
+            return false;
+          }
+          break;
+        }
+        if (b == '\t') {
+          tab = len;
+        }
+        if (len == buf.length) {
+          buf = Arrays.copyOf(buf, len * 2);
+        }
+        buf[len++] = (byte) b;
+      }
+      if (tab < 0) {
+        throw new IOException("malformed run record");
+      }
+      ngram = Arrays.copyOf(buf, tab);
+      count = Long.parseLong(new String(buf, tab + 1, len - tab - 1, StandardCharsets.US_ASCII));
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
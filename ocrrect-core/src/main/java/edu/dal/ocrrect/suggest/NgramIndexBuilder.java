@@ -0,0 +1,274 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A parallel builder of the n-gram first word index used by {@link NgramBoundedReaderSearcher}.
+ *
+ * <p>Every data file is scanned once in its own task, reading large blocks of bytes and detecting
+ * the first word boundaries at the byte level. The partial index of each data file is then merged
+ * in the order of files. As the n-gram records are sorted and contiguous in files, the merged index
+ * is the same as the one constructed by {@link NgramBoundedReaderSearcher#NgramBoundedReaderSearcher(
+ * List)}, including words that are decoded byte by byte as ISO-8859-1 characters. The data files of
+ * several n-gram orders can be scanned in one run, sharing the same thread pool.
+ *
+ * @since 2017.09.06
+ */
+public class NgramIndexBuilder {
+  private static final int DEFAULT_BUFFER_SIZE = 8 << 20;
+  private static final long PROGRESS_INTERVAL = 10_000;
+
+  private final int threads;
+  private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+  private final AtomicLong bytesScanned = new AtomicLong();
+  private final AtomicLong lastReport = new AtomicLong();
+  private long totalBytes;
+  private Timer timer;
+
+  /**
+   * Construct a builder using one thread per available processor.
+   */
+  public NgramIndexBuilder() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Construct a builder.
+   *
+   * @param threads the number of data files scanned in parallel.
+   */
+  public NgramIndexBuilder(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("invalid number of threads: " + threads);
+    }
+    this.threads = threads;
+  }
+
+  /**
+   * Set the size of the block read from data files at once.
+   *
+   * @param bufferSize the block size in bytes.
+   * @return this builder.
+   */
+  public NgramIndexBuilder setBufferSize(int bufferSize) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("invalid buffer size: " + bufferSize);
+    }
+    this.bufferSize = bufferSize;
+    return this;
+  }
+
+  /**
+   * Build the index of one n-gram order.
+   *
+   * @param ngrams the n-gram data files sorted by their records.
+   * @return a n-gram searcher.
+   * @throws IOException if I/O error occurs.
+   */
+  public NgramBoundedReaderSearcher build(List<Path> ngrams) throws IOException {
+    return buildAll(Arrays.asList(ngrams)).get(0);
+  }
+
+  /**
+   * Build the indexes of several n-gram orders concurrently.
+   *
+   * @param ngramsByOrders a list of n-gram data files for each order.
+   * @return a list of n-gram searchers ordered as the given data file lists.
+   * @throws IOException if I/O error occurs.
+   */
+  public List<NgramBoundedReaderSearcher> buildAll(List<List<Path>> ngramsByOrders)
+      throws IOException {
+    Timer t = new Timer();
+    timer = new Timer();
+    bytesScanned.set(0);
+    lastReport.set(0);
+    totalBytes = 0;
+    for (List<Path> ngrams : ngramsByOrders) {
+      for (Path p : ngrams) {
+        totalBytes += p.toFile().length();
+      }
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      // Submit all data files at once, such that orders are built concurrently.
+      List<List<Future<ShardIndex>>> futuresByOrders = new ArrayList<>();
+      for (List<Path> ngrams : ngramsByOrders) {
+        List<Future<ShardIndex>> futures = new ArrayList<>();
+        for (Path p : ngrams) {
+          futures.add(pool.submit(() -> scan(p)));
+        }
+        futuresByOrders.add(futures);
+      }
+      List<NgramBoundedReaderSearcher> searchers = new ArrayList<>();
+      for (int i = 0; i < ngramsByOrders.size(); i++) {
+        List<ShardIndex> shards = new ArrayList<>();
+        for (Future<ShardIndex> f : futuresByOrders.get(i)) {
+          shards.add(f.get());
+        }
+        searchers.add(merge(ngramsByOrders.get(i), shards));
+      }
+      LogUtils.info(String.format("scanned %.1f MB in %.1f seconds (%.1f MB/s)",
+          totalBytes / 1e6, timer.interval(), throughput(totalBytes)));
+      LogUtils.logMethodTime(t, 2);
+      return searchers;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private float throughput(long bytes) {
+    float seconds = timer.interval();
+    return seconds == 0 ? 0 : (float) (bytes / 1e6 / seconds);
+  }
+
+  private void reportProgress(long scanned) {
+    long now = System.currentTimeMillis();
+    long last = lastReport.get();
+    if (now - last >= PROGRESS_INTERVAL && lastReport.compareAndSet(last, now)) {
+      LogUtils.info(String.format("scanned %.1f / %.1f MB (%.1f%%, %.1f MB/s)",
+          scanned / 1e6, totalBytes / 1e6, scanned * 100f / totalBytes, throughput(scanned)));
+    }
+  }
+
+  /**
+   * Merge the partial indexes of data files.
+   */
+  private NgramBoundedReaderSearcher merge(List<Path> ngrams, List<ShardIndex> shards) {
+    String[] ngramPaths = new String[ngrams.size()];
+    long[] fileOffsets = new long[ngrams.size() + 1];
+    int numOfWords = 0;
+    for (int i = 0; i < ngrams.size(); i++) {
+      ngramPaths[i] = ngrams.get(i).toAbsolutePath().toString();
+      fileOffsets[i + 1] = fileOffsets[i] + shards.get(i).length;
+      numOfWords += shards.get(i).words.size();
+    }
+    List<String> words = new ArrayList<>(numOfWords);
+    TLongArrayList offsets = new TLongArrayList(numOfWords);
+    TIntArrayList sizes = new TIntArrayList(numOfWords);
+    for (int i = 0; i < shards.size(); i++) {
+      ShardIndex shard = shards.get(i);
+      words.addAll(shard.words);
+      for (int j = 0; j < shard.offsets.size(); j++) {
+        offsets.add(fileOffsets[i] + shard.offsets.get(j));
+      }
+      sizes.addAll(shard.sizes);
+    }
+    return new NgramBoundedReaderSearcher(ngramPaths, fileOffsets, words, offsets, sizes);
+  }
+
+  /**
+   * Scan a data file and build its partial index. Offsets in the partial index are relative to the
+   * beginning of the file.
+   */
+  private ShardIndex scan(Path path) throws IOException {
+    ShardIndex shard = new ShardIndex();
+    try (FileChannel fc = FileChannel.open(path)) {
+      byte[] bytes = new byte[bufferSize];
+      ByteBuffer buf = ByteBuffer.wrap(bytes);
+
+      byte[] word = new byte[64];   // the first word of the current line
+      int wordLen = 0;
+      byte[] prevWord = null;       // the first word of the current block
+      boolean inWord = true;        // whether the first word of the current line is being read
+      long lineStart = 0;
+      long blockStart = 0;
+      long pos = 0;
+
+      while (fc.read(buf) > 0) {
+        int n = buf.position();
+        for (int i = 0; i < n; i++, pos++) {
+          byte b = bytes[i];
+          if (inWord) {
+            if (b == ' ') {
+              if (wordLen == 0) {
+                throw new IOException(String.format("empty first word at %s:%d", path, lineStart));
+              }
+              // Check and record the new word.
+              if (prevWord == null || ! equals(prevWord, word, wordLen)) {
+                if (prevWord != null) {
+                  shard.add(prevWord, blockStart, lineStart);
+                  blockStart = lineStart;
+                }
+                prevWord = Arrays.copyOf(word, wordLen);
+              }
+              inWord = false;
+            } else if (b == '\n') {
+              throw new IOException(String.format("no first word at %s:%d", path, lineStart));
+            } else {
+              if (wordLen == word.length) {
+                word = Arrays.copyOf(word, word.length * 2);
+              }
+              word[wordLen++] = b;
+            }
+          } else if (b == '\n') {
+            lineStart = pos + 1;
+            wordLen = 0;
+            inWord = true;
+          }
+        }
+        buf.clear();
+        reportProgress(bytesScanned.addAndGet(n));
+      }
+      // Record the last word in file.
+      if (prevWord != null) {
+        shard.add(prevWord, blockStart, pos);
+      }
+      shard.length = pos;
+    }
+    return shard;
+  }
+
+  private static boolean equals(byte[] a, byte[] b, int bLen) {
+    if (a.length != bLen) {
+      return false;
+    }
+    for (int i = 0; i < bLen; i++) {
+      if (a[i] != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The partial index of one data file.
+   */
+  private static class ShardIndex {
+    private final List<String> words = new ArrayList<>();
+    private final TLongArrayList offsets = new TLongArrayList();
+    private final TIntArrayList sizes = new TIntArrayList();
+    private long length;
+
+    private void add(byte[] word, long start, long end) {
+      words.add(new String(word, StandardCharsets.ISO_8859_1));
+      offsets.add(start);
+      sizes.add(Math.toIntExact(end - start));
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hash partitioning of n-gram corpora by first words, such that each partition is served by its
+ * own process.
+ *
+ * <p>A first word is assigned to partition {@code floorMod(word.hashCode(), n)}, which is stable
+ * across processes. A corpus is split by reading its blocks once in the order of offsets, and
+ * appending each block to its partition. The blocks of a data file are written into the data file
+ * of the same name in the directory of their partition, e.g. {@code part-01/5gm-0000}, thus each
+ * partition is sorted as the corpus. The first word index of each partition is then built by {@link
+ * NgramIndexBuilder}.
+ *
+ * @since 2017.09.27
+ */
+public class NgramPartitioner implements Serializable {
+  private static final long serialVersionUID = 3981205739127436583L;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final int numOfPartitions;
+
+  /**
+   * Construct a partitioner.
+   *
+   * @param numOfPartitions the number of partitions.
+   */
+  public NgramPartitioner(int numOfPartitions) {
+    if (numOfPartitions <= 0) {
+      throw new IllegalArgumentException("invalid number of partitions: " + numOfPartitions);
+    }
+    this.numOfPartitions = numOfPartitions;
+  }
+
+  public int numOfPartitions() {
+    return numOfPartitions;
+  }
+
+  /**
+   * Get the partition of a first word.
+   *
+   * @param first a first word.
+   * @return the partition index.
+   */
+  public int partition(String first) {
+    return Math.floorMod(first.hashCode(), numOfPartitions);
+  }
+
+  /**
+   * Get the directory of a partition.
+   *
+   * @param outDir the output directory of {@link #split(NgramBoundedReaderSearcher, Path)}.
+   * @param partition the partition index.
+   * @return the directory of the data files of the partition.
+   */
+  public static Path partitionDir(Path outDir, int partition) {
+    return outDir.resolve(String.format("part-%02d", partition));
+  }
+
+  /**
+   * Split the corpus of a searcher into partitions.
+   *
+   * @param searcher a n-gram searcher.
+   * @param outDir the output directory.
+   * @return the n-gram searcher of each partition, or {@code null} for an empty partition.
+   * @throws IOException if I/O error occurs.
+   */
+  public List<NgramBoundedReaderSearcher> split(NgramBoundedReaderSearcher searcher, Path outDir)
+      throws IOException {
+    Timer t = new Timer();
+    List<long[]> blocks = new ArrayList<>();
+    searcher.forEachSubset((word, offset, size) -> {
+      blocks.add(new long[] {offset, size, partition(word)});
+    });
+    blocks.sort((a, b) -> Long.compare(a[0], b[0]));
+
+    String[] ngramPaths = searcher.ngramPaths();
+    List<List<Path>> partitions = new ArrayList<>();
+    for (int p = 0; p < numOfPartitions; p++) {
+      partitions.add(new ArrayList<>());
+    }
+    OutputStream[] outs = new OutputStream[numOfPartitions];
+    int[] outFiles = new int[numOfPartitions];
+    Arrays.fill(outFiles, -1);
+    byte[] buf = new byte[BUFFER_SIZE];
+    try {
+      for (long[] block : blocks) {
+        int file = searcher.findFile(block[0]);
+        int p = (int) block[2];
+        if (outFiles[p] != file) {
+          // Start the data file of the partition for the blocks of the next data file.
+          if (outs[p] != null) {
+            outs[p].close();
+          }
+          Path dir = Files.createDirectories(partitionDir(outDir, p));
+          Path out = dir.resolve(Paths.get(ngramPaths[file]).getFileName().toString());
+          outs[p] = new BufferedOutputStream(Files.newOutputStream(out), BUFFER_SIZE);
+          outFiles[p] = file;
+          partitions.get(p).add(out);
+        }
+        int last = '\n';
+        try (InputStream in = searcher.openRange(block[0], (int) block[1])) {
+          for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            if (n > 0) {
+              outs[p].write(buf, 0, n);
+              last = buf[n - 1];
+            }
+          }
+        }
+        // The last block of a data file may not be terminated.
+        if (last != '\n') {
+          outs[p].write('\n');
+        }
+      }
+    } finally {
+      for (OutputStream os : outs) {
+        if (os != null) {
+          os.close();
+        }
+      }
+    }
+
+    List<List<Path>> nonEmpty = new ArrayList<>();
+    partitions.stream().filter(p -> ! p.isEmpty()).forEach(nonEmpty::add);
+    List<NgramBoundedReaderSearcher> built = new NgramIndexBuilder().buildAll(nonEmpty);
+    List<NgramBoundedReaderSearcher> searchers = new ArrayList<>();
+    for (List<Path> p : partitions) {
+      searchers.add(p.isEmpty() ? null : built.get(nonEmpty.indexOf(p)));
+    }
+    LogUtils.info(String.format("split %d blocks into %d partitions", blocks.size(),
+        numOfPartitions));
+    LogUtils.logMethodTime(t, 2);
+    return searchers;
+  }
+}
@@ -0,0 +1,139 @@
+package edu.dal.ocrrect.suggest;
+
+import java.util.Arrays;
+
+/**
+ * A n-gram query matched against {@link NgramRecord} byte-wise. A pattern is a list of words with
+ * at most two skipped positions: the pivot, which is the position of candidates, and optionally a
+ * relaxed position, which matches any gram. The pattern is the byte-level equivalent of a skip-gram
+ * string, which replaces the skipped words by placeholders.
+ *
+ * @since 2017.09.24
+ */
+public class NgramPattern {
+  /**
+   * The position of no skipped word.
+   */
+  public static final int NONE = -1;
+
+  private static final int PIVOT_HASH = 1;
+  private static final int RELAXED_HASH = 2;
+
+  private final byte[][] grams;
+  private final int pivot;
+  private final int relaxed;
+  private final int hash;
+
+  /**
+   * Construct a pattern. Words are encoded in the default charset, in the same way as the records
+   * are decoded.
+   *
+   * @param words a list of words.
+   * @param pivot the position of the skipped word, or {@link #NONE} to match every word.
+   * @param relaxed the position of another skipped word, or {@link #NONE}.
+   */
+  public NgramPattern(String[] words, int pivot, int relaxed) {
+    this.pivot = pivot;
+    this.relaxed = relaxed;
+    grams = new byte[words.length][];
+    int[] hashes = new int[words.length];
+    for (int i = 0; i < words.length; i++) {
+      if (i != pivot && i != relaxed) {
+        grams[i] = words[i].getBytes();
+        hashes[i] = hash(grams[i]);
+      }
+    }
+    hash = hash(hashes, words.length, pivot, relaxed);
+  }
+
+  /**
+   * Compute the hash code of the bytes of a gram.
+   *
+   * @param bytes the bytes of a gram.
+   * @return the hash code.
+   */
+  public static int hash(byte[] bytes) {
+    int h = 0;
+    for (byte b : bytes) {
+      h = 31 * h + b;
+    }
+    return h;
+  }
+
+  /**
+   * Compute the hash code of the pattern of a record with the given skipped positions, which is
+   * equal to the hash code of a matching pattern.
+   *
+   * @param record a record.
+   * @param pivot the position of the skipped word, or {@link #NONE}.
+   * @param relaxed the position of another skipped word, or {@link #NONE}.
+   * @return the hash code.
+   */
+  public static int hash(NgramRecord record, int pivot, int relaxed) {
+    int h = record.size();
+    for (int i = 0; i < record.size(); i++) {
+      h = 31 * h + (i == pivot ? PIVOT_HASH : i == relaxed ? RELAXED_HASH : record.gramHash(i));
+    }
+    return h;
+  }
+
+  private static int hash(int[] hashes, int size, int pivot, int relaxed) {
+    int h = size;
+    for (int i = 0; i < size; i++) {
+      h = 31 * h + (i == pivot ? PIVOT_HASH : i == relaxed ? RELAXED_HASH : hashes[i]);
+    }
+    return h;
+  }
+
+  public int pivot() {
+    return pivot;
+  }
+
+  public int relaxed() {
+    return relaxed;
+  }
+
+  /**
+   * Check whether a record has the same number of grams, and the same grams in every position
+   * except the skipped ones.
+   *
+   * @param record a record.
+   * @return {@code true} if the record matches.
+   */
+  public boolean matches(NgramRecord record) {
+    return record.size() == grams.length && mismatches(record, 0) == 0;
+  }
+
+  /**
+   * Count the positions except the skipped ones where a record has a different gram. A position
+   * beyond the last gram of the record is counted as a mismatch.
+   *
+   * @param record a record.
+   * @param limit the number of mismatches after which counting stops.
+   * @return the number of mismatches, or {@code limit + 1} if there are more than the limit.
+   */
+  public int mismatches(NgramRecord record, int limit) {
+    int count = 0;
+    for (int i = 0; i < grams.length && count <= limit; i++) {
+      if (grams[i] != null && (i >= record.size() || ! record.gramEquals(i, grams[i]))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (! (obj instanceof NgramPattern)) {
+      return false;
+    }
+    NgramPattern other = (NgramPattern) obj;
+    return hash == other.hash && pivot == other.pivot && relaxed == other.relaxed
+        && Arrays.deepEquals(grams, other.grams);
+  }
+}
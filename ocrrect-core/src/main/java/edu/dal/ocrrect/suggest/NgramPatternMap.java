@@ -0,0 +1,101 @@
+package edu.dal.ocrrect.suggest;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A hash map from {@link NgramPattern} to values, which finds the value of the pattern matching a
+ * record without creating any object. Patterns are keyed by their hash codes, and patterns with the
+ * same hash code are chained.
+ *
+ * @param <V> the type of values.
+ * @since 2017.09.24
+ */
+public class NgramPatternMap<V> {
+  private final TIntObjectHashMap<Entry<V>> entries = new TIntObjectHashMap<>();
+  private int size;
+
+  private static class Entry<V> {
+    private final NgramPattern pattern;
+    private final V value;
+    private final Entry<V> next;
+
+    private Entry(NgramPattern pattern, V value, Entry<V> next) {
+      this.pattern = pattern;
+      this.value = value;
+      this.next = next;
+    }
+  }
+
+  /**
+   * Associate a value with a pattern, if the pattern is not in the map.
+   *
+   * @param pattern a pattern.
+   * @param value a value.
+   * @return the existing value of the pattern, or {@code null} if the value is put.
+   */
+  public V putIfAbsent(NgramPattern pattern, V value) {
+    V old = get(pattern);
+    if (old == null) {
+      entries.put(pattern.hashCode(), new Entry<>(pattern, value, entries.get(pattern.hashCode())));
+      size++;
+    }
+    return old;
+  }
+
+  /**
+   * Get the value of a pattern.
+   *
+   * @param pattern a pattern.
+   * @return the value, or {@code null} if the pattern is not in the map.
+   */
+  public V get(NgramPattern pattern) {
+    for (Entry<V> e = entries.get(pattern.hashCode()); e != null; e = e.next) {
+      if (e.pattern.equals(pattern)) {
+        return e.value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the value of the pattern which matches a record with the given skipped positions.
+   *
+   * @param record a record.
+   * @param pivot the position of the skipped word, or {@link NgramPattern#NONE}.
+   * @param relaxed the position of another skipped word, or {@link NgramPattern#NONE}.
+   * @return the value, or {@code null} if no pattern matches.
+   */
+  public V get(NgramRecord record, int pivot, int relaxed) {
+    for (Entry<V> e = entries.get(NgramPattern.hash(record, pivot, relaxed)); e != null;
+        e = e.next) {
+      if (e.pattern.pivot() == pivot && e.pattern.relaxed() == relaxed
+          && e.pattern.matches(record)) {
+        return e.value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Perform an action for every pattern and its value.
+   *
+   * @param action an action.
+   */
+  public void forEach(BiConsumer<NgramPattern, V> action) {
+    entries.forEachValue(head -> {
+      for (Entry<V> e = head; e != null; e = e.next) {
+        action.accept(e.pattern, e.value);
+      }
+      return true;
+    });
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+}
@@ -0,0 +1,589 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A scheduler of the block reads of a {@link NgramBoundedReaderSearcher} for a batch of first word
+ * requests, which reads the data files in the order of offsets instead of the order of requests.
+ *
+ * <p>Requested blocks are located in the first word index, sorted by their offsets, and coalesced
+ * into runs when they are adjacent, overlapping, or separated by a gap of at most {@code maxGap}
+ * bytes, such that each run is read by one sequential read of at most {@code maxRun} bytes. Runs
+ * are read in order by the calling thread, while the records of runs read earlier are parsed by at
+ * most {@code threads} worker threads of a daemon pool shared by all schedulers. The number of
+ * runs read ahead of parsing is bounded, which also bounds the memory of buffered runs. Blocks
+ * larger than a run are streamed by the worker threads instead. Blocks found in the {@link
+ * NgramBlockCache} of the searcher are not read, and the blocks read are offered to the cache. When
+ * records are fed to {@link NgramBlockTask}, streamed blocks are further split into parts scanned
+ * in parallel by {@link NgramBlockScanner}.
+ *
+ * <p>A {@link Plan} is created before any record is read, which gives the cost of a batch in bytes.
+ *
+ * <p>If a {@link ScanBudget} is set, the records of each block are fed to tasks within the budget,
+ * and the blocks which are not fully scanned are reported by {@link Plan#degradedBlocks()}. Once
+ * the deadline of the budget has passed, the remaining runs are not read.
+ *
+ * @since 2017.09.22
+ */
+public class NgramReadScheduler {
+  public static final int DEFAULT_MAX_GAP = 64 << 10;
+  public static final int DEFAULT_MAX_RUN = 8 << 20;
+
+  private static final ExecutorService POOL = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "ngram-read");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final NgramBoundedReaderSearcher searcher;
+  private final int threads;
+  private int maxGap = DEFAULT_MAX_GAP;
+  private int maxRun = DEFAULT_MAX_RUN;
+  private int readAhead;
+  private int splitSize = NgramBlockScanner.DEFAULT_SPLIT_SIZE;
+  private ScanBudget budget;
+
+  /**
+   * Construct a scheduler using one worker thread per available processor.
+   *
+   * @param searcher a n-gram searcher.
+   */
+  public NgramReadScheduler(NgramBoundedReaderSearcher searcher) {
+    this(searcher, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Construct a scheduler.
+   *
+   * @param searcher a n-gram searcher.
+   * @param threads the number of worker threads parsing blocks.
+   */
+  public NgramReadScheduler(NgramBoundedReaderSearcher searcher, int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("invalid number of threads: " + threads);
+    }
+    this.searcher = searcher;
+    this.threads = threads;
+    readAhead = threads * 2;
+  }
+
+  /**
+   * Set the maximum gap between two blocks in the same run.
+   *
+   * @param maxGap the gap in bytes, which are read and skipped.
+   * @return this scheduler.
+   */
+  public NgramReadScheduler setMaxGap(int maxGap) {
+    if (maxGap < 0) {
+      throw new IllegalArgumentException("invalid gap: " + maxGap);
+    }
+    this.maxGap = maxGap;
+    return this;
+  }
+
+  /**
+   * Set the maximum size of a run read at once. Larger blocks are streamed.
+   *
+   * @param maxRun the run size in bytes.
+   * @return this scheduler.
+   */
+  public NgramReadScheduler setMaxRun(int maxRun) {
+    if (maxRun <= 0) {
+      throw new IllegalArgumentException("invalid run size: " + maxRun);
+    }
+    this.maxRun = maxRun;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of runs read but not yet parsed.
+   *
+   * @param readAhead the number of runs.
+   * @return this scheduler.
+   */
+  public NgramReadScheduler setReadAhead(int readAhead) {
+    if (readAhead <= 0) {
+      throw new IllegalArgumentException("invalid read-ahead: " + readAhead);
+    }
+    this.readAhead = readAhead;
+    return this;
+  }
+
+  /**
+   * Set the size of the parts of streamed blocks scanned in parallel by splittable tasks.
+   *
+   * @param splitSize the part size in bytes.
+   * @return this scheduler.
+   */
+  public NgramReadScheduler setSplitSize(int splitSize) {
+    if (splitSize <= 0) {
+      throw new IllegalArgumentException("invalid split size: " + splitSize);
+    }
+    this.splitSize = splitSize;
+    return this;
+  }
+
+  /**
+   * Set the budget of the block scans of tasks.
+   *
+   * @param budget a budget, or {@code null} for no limit.
+   * @return this scheduler.
+   */
+  public NgramReadScheduler setBudget(ScanBudget budget) {
+    this.budget = budget;
+    return this;
+  }
+
+  /**
+   * A visitor of the records of a requested block.
+   */
+  @FunctionalInterface
+  public interface BlockVisitor {
+    /**
+     * Visit the records of a block. This method is called once for every requested block, and may
+     * be called concurrently for different blocks.
+     *
+     * @param block a requested block.
+     * @param records a reader of the records, or {@code null} if there is no such records in the
+     *     corpus.
+     * @throws IOException if I/O error occurs.
+     */
+    void visit(Block block, BufferedReader records) throws IOException;
+  }
+
+  /**
+   * A visitor of the bytes of a buffered block.
+   */
+  @FunctionalInterface
+  private interface BytesVisitor {
+    void visit(Block block, byte[] bytes, int offset, int size) throws IOException;
+  }
+
+  /**
+   * A reader of a streamed block.
+   */
+  @FunctionalInterface
+  private interface StreamVisitor {
+    void visit(Located located) throws IOException;
+  }
+
+  /**
+   * A requested block, which is the block of a first word, or its sub-block of a second word as
+   * read by {@link NgramBoundedReaderSearcher#openBufferedRecordsWithFirstTwoWords(String,
+   * String)}.
+   */
+  public static class Block {
+    private final String first;
+    private final String second;
+
+    /**
+     * Construct a request.
+     *
+     * @param first the first word.
+     * @param second the second word, or {@code null} for the full block of the first word.
+     */
+    public Block(String first, String second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    public String first() {
+      return first;
+    }
+
+    public String second() {
+      return second;
+    }
+
+    @Override
+    public int hashCode() {
+      return first.hashCode() * 31 + Objects.hashCode(second);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (! (obj instanceof Block)) {
+        return false;
+      }
+      Block other = (Block) obj;
+      return first.equals(other.first) && Objects.equals(second, other.second);
+    }
+
+    @Override
+    public String toString() {
+      return second == null ? first : first + ' ' + second;
+    }
+  }
+
+  /**
+   * A located block.
+   */
+  private static class Located {
+    private final Block block;
+    private final long offset;
+    private final int size;
+    private final String key;
+
+    private Located(Block block, long offset, int size, String key) {
+      this.block = block;
+      this.offset = offset;
+      this.size = size;
+      this.key = key;
+    }
+  }
+
+  /**
+   * A range of a data file read at once, which covers one or more blocks.
+   */
+  private static class Run {
+    private final int file;
+    private final long offset;
+    private long end;
+    private final List<Located> blocks = new ArrayList<>();
+
+    private Run(int file, Located first) {
+      this.file = file;
+      offset = first.offset;
+      end = first.offset + first.size;
+      blocks.add(first);
+    }
+
+    private void add(Located located) {
+      end = Math.max(end, located.offset + located.size);
+      blocks.add(located);
+    }
+
+    private int size() {
+      return (int) (end - offset);
+    }
+  }
+
+  /**
+   * Plan the reads of the given blocks. Blocks are located in the index, and looked up in the block
+   * cache without counting hits or misses. No record is read.
+   *
+   * @param blocks the requested blocks.
+   * @return a plan.
+   * @throws IOException if I/O error occurs.
+   */
+  public Plan plan(Collection<Block> blocks) throws IOException {
+    NgramBlockCache cache = searcher.getBlockCache();
+    int order = cache == null ? 0 : searcher.order();
+    Plan plan = new Plan();
+    List<Located> toRead = new ArrayList<>();
+    for (Block b : blocks) {
+      long[] found = searcher.locateRecords(b.first, b.second);
+      if (found == null) {
+        plan.absent.add(b);
+        continue;
+      }
+      Located l = new Located(b, found[0], (int) found[1], searcher.blockKey(b.first, b.second));
+      plan.bytesToScan += l.size;
+      if (cache != null && cache.contains(order, l.key)) {
+        plan.cached.add(l);
+      } else {
+        toRead.add(l);
+      }
+    }
+
+    // Coalesce blocks in the order of offsets.
+    toRead.sort(Comparator.comparingLong((Located l) -> l.offset));
+    Run run = null;
+    for (Located l : toRead) {
+      int file = searcher.findFile(l.offset);
+      if (l.size > maxRun) {
+        plan.streamed.add(l);
+        plan.bytesToRead += l.size;
+      } else if (run != null && run.file == file && l.offset <= run.end + maxGap
+          && Math.max(run.end, l.offset + l.size) - run.offset <= maxRun) {
+        run.add(l);
+      } else {
+        run = new Run(file, l);
+        plan.runs.add(run);
+      }
+    }
+    plan.runs.forEach(r -> plan.bytesToRead += r.size());
+    return plan;
+  }
+
+  /**
+   * The reads of a batch of blocks.
+   */
+  public class Plan {
+    private final List<Block> absent = new ArrayList<>();
+    private final List<Located> cached = new ArrayList<>();
+    private final List<Located> streamed = new ArrayList<>();
+    private final List<Run> runs = new ArrayList<>();
+    private final Set<Block> degraded = ConcurrentHashMap.newKeySet();
+    private long bytesToScan;
+    private long bytesToRead;
+
+    private Plan() {}
+
+    /**
+     * Get the total size of the requested blocks, which records are parsed in execution.
+     *
+     * @return the number of bytes.
+     */
+    public long bytesToScan() {
+      return bytesToScan;
+    }
+
+    /**
+     * Get the number of bytes read from data files, which excludes cached blocks and includes the
+     * gaps between coalesced blocks.
+     *
+     * @return the number of bytes.
+     */
+    public long bytesToRead() {
+      return bytesToRead;
+    }
+
+    /**
+     * Get the number of reads, where a streamed block is counted as one read.
+     *
+     * @return the number of reads.
+     */
+    public int numReads() {
+      return runs.size() + streamed.size();
+    }
+
+    /**
+     * Get the number of requested blocks that exist in the corpus.
+     *
+     * @return the number of blocks.
+     */
+    public int numBlocks() {
+      return cached.size() + streamed.size() + runs.stream().mapToInt(r -> r.blocks.size()).sum();
+    }
+
+    /**
+     * Get the blocks which records are not fully fed to tasks within the budget in execution.
+     *
+     * @return a set of blocks.
+     */
+    public Set<Block> degradedBlocks() {
+      return degraded;
+    }
+
+    /**
+     * Read the planned blocks and visit their records.
+     *
+     * @param visitor a visitor of every requested block.
+     * @throws IOException if I/O error occurs.
+     */
+    public void execute(BlockVisitor visitor) throws IOException {
+      execute((block, bytes, offset, size) -> {
+        visitor.visit(block, bytes == null ? null : open(bytes, offset, size));
+      }, l -> visitor.visit(l.block, open(searcher.openRange(l.offset, l.size))));
+    }
+
+    /**
+     * Read the planned blocks and feed their records to tasks. Streamed blocks are split if all
+     * their tasks support splitting.
+     *
+     * @param tasks a function giving the tasks of a requested block, which is called once for
+     *     every requested block.
+     * @param done an action called after the tasks of a block have consumed all its records.
+     * @throws IOException if I/O error occurs.
+     */
+    public void execute(Function<Block, List<? extends NgramBlockTask<?>>> tasks,
+        Consumer<Block> done) throws IOException {
+      execute((block, bytes, offset, size) -> {
+        List<? extends NgramBlockTask<?>> blockTasks = tasks.apply(block);
+        if (bytes != null) {
+          if (budget == null || ! budget.isBounded(size)) {
+            NgramBlockScanner.scan(bytes, offset, size, blockTasks);
+          } else if (! NgramBlockScanner.scan(bytes, offset, size, blockTasks, budget)) {
+            degraded.add(block);
+          }
+        }
+        done.accept(block);
+      }, l -> {
+        List<? extends NgramBlockTask<?>> blockTasks = tasks.apply(l.block);
+        if (budget == null || ! budget.isBounded(l.size)) {
+          NgramBlockScanner.scanRange(searcher, l.offset, l.size, blockTasks, splitSize);
+        } else if (! NgramBlockScanner.scanRange(searcher, l.offset, l.size, blockTasks, budget)) {
+          degraded.add(l.block);
+        }
+        done.accept(l.block);
+      });
+    }
+
+    private void execute(BytesVisitor visitor, StreamVisitor streamVisitor) throws IOException {
+      Timer t = new Timer();
+      for (Block b : absent) {
+        visitor.visit(b, null, 0, 0);
+      }
+      NgramBlockCache cache = searcher.getBlockCache();
+      int order = cache == null ? 0 : searcher.order();
+
+      BoundedExecutor pool = new BoundedExecutor(threads);
+      Semaphore permits = new Semaphore(readAhead);
+      List<Future<Void>> futures = new ArrayList<>();
+      boolean completed = false;
+      try {
+        for (Located l : cached) {
+          futures.add(pool.submit(() -> {
+            byte[] bytes = cache.getIfPresent(order, l.key);
+            if (bytes == null) {
+              // The block has been evicted since planned.
+              bytes = searcher.readRange(l.offset, l.size);
+              cache.offer(order, l.key, bytes);
+            }
+            visitor.visit(l.block, bytes, 0, l.size);
+            return null;
+          }));
+        }
+        for (Located l : streamed) {
+          futures.add(pool.submit(() -> {
+            streamVisitor.visit(l);
+            return null;
+          }));
+        }
+        for (Run run : runs) {
+          if (budget != null && budget.isExpired()) {
+            // Pass the blocks to the stream visitor without reading, where tasks skip them.
+            for (Located l : run.blocks) {
+              futures.add(pool.submit(() -> {
+                streamVisitor.visit(l);
+                return null;
+              }));
+            }
+            continue;
+          }
+          // Wait until a buffered run is parsed.
+          permits.acquire();
+          byte[] bytes = searcher.readRange(run.offset, run.size());
+          AtomicInteger remaining = new AtomicInteger(run.blocks.size());
+          for (Located l : run.blocks) {
+            futures.add(pool.submit(() -> {
+              try {
+                int from = (int) (l.offset - run.offset);
+                if (cache != null && cache.accepts(l.size)) {
+                  cache.offer(order, l.key, Arrays.copyOfRange(bytes, from, from + l.size));
+                }
+                visitor.visit(l.block, bytes, from, l.size);
+              } finally {
+                if (remaining.decrementAndGet() == 0) {
+                  permits.release();
+                }
+              }
+              return null;
+            }));
+          }
+        }
+        for (Future<Void> f : futures) {
+          f.get();
+        }
+        completed = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
+      } finally {
+        if (! completed) {
+          for (Future<Void> f : futures) {
+            f.cancel(true);
+          }
+        }
+      }
+      LogUtils.debug(toString());
+      LogUtils.logMethodTime(t, 3);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d blocks, %.1f MB to scan, %.1f MB to read in %d reads",
+          numBlocks(), bytesToScan / 1e6, bytesToRead / 1e6, numReads());
+    }
+  }
+
+  /**
+   * An executor running at most a given number of tasks at a time on the shared pool, in the order
+   * of submission.
+   */
+  private static class BoundedExecutor implements Executor {
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final int threads;
+
+    BoundedExecutor(int threads) {
+      this.threads = threads;
+    }
+
+    Future<Void> submit(Callable<Void> task) {
+      FutureTask<Void> future = new FutureTask<>(task);
+      execute(future);
+      return future;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      queue.add(task);
+      drain();
+    }
+
+    private void drain() {
+      for (int n = running.get(); n < threads && ! queue.isEmpty(); n = running.get()) {
+        if (running.compareAndSet(n, n + 1)) {
+          POOL.execute(() -> {
+            try {
+              for (Runnable r; (r = queue.poll()) != null; ) {
+                r.run();
+              }
+            } finally {
+              running.decrementAndGet();
+            }
+            // A task may have been queued after the last poll.
+            drain();
+          });
+          return;
+        }
+      }
+    }
+  }
+
+  private static BufferedReader open(byte[] bytes, int offset, int size) {
+    return open(new ByteArrayInputStream(bytes, offset, size));
+  }
+
+  private static BufferedReader open(InputStream in) {
+    // Records are decoded in the same way as the searcher.
+    return new BufferedReader(new InputStreamReader(in));
+  }
+}
@@ -0,0 +1,222 @@
+package edu.dal.ocrrect.suggest;
+
+import java.util.Arrays;
+
+/**
+ * A n-gram record read from the corpus, which is a line of n-gram and its frequency separated by a
+ * tab character. The n-gram string, the grams and the frequency are parsed from the line on demand
+ * and shared by all the consumers of the record.
+ *
+ * <p>A record is a cursor over the bytes of a line in a buffer, and is reused for all the lines in
+ * a block. Setting a line only finds the offsets and the hash codes of the grams, such that grams
+ * can be compared to query words byte-wise by {@link NgramPattern} without creating any object.
+ * Strings are decoded in the default charset only when requested, in the same way as lines read by
+ * a {@link java.io.BufferedReader}.
+ *
+ * <p>Consumers should not modify the gram array, nor keep references to it after consuming the
+ * record.
+ *
+ * @since 2017.09.14
+ */
+public class NgramRecord {
+  private byte[] buf;
+  private int start;
+  private int end;
+  private int tab;
+  private int size;
+  private int[] gramStarts = new int[8];
+  private int[] gramEnds = new int[8];
+  private int[] gramHashes = new int[8];
+  private String ngram;
+  private String[] grams;
+  private float freq;
+  private boolean freqParsed;
+
+  /**
+   * Reset this record to a new line.
+   *
+   * @param line a n-gram record line.
+   * @return this record.
+   */
+  public NgramRecord set(String line) {
+    byte[] bytes = line.getBytes();
+    return set(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Reset this record to a new line in a buffer. The buffer is not copied.
+   *
+   * @param buf a buffer.
+   * @param start the offset of the line in the buffer.
+   * @param end the end offset of the line, excluding the line break.
+   * @return this record.
+   */
+  public NgramRecord set(byte[] buf, int start, int end) {
+    if (end > start && buf[end - 1] == '\r') {
+      end--;
+    }
+    this.buf = buf;
+    this.start = start;
+    this.end = end;
+    tab = end;
+    size = 0;
+    int from = start;
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      byte b = buf[i];
+      if (b == '\t') {
+        tab = i;
+        break;
+      } else if (b == ' ') {
+        addGram(from, i, hash);
+        from = i + 1;
+        hash = 0;
+      } else {
+        hash = 31 * hash + b;
+      }
+    }
+    addGram(from, tab, hash);
+    ngram = null;
+    grams = null;
+    freqParsed = false;
+    return this;
+  }
+
+  private void addGram(int from, int to, int hash) {
+    if (size == gramStarts.length) {
+      gramStarts = Arrays.copyOf(gramStarts, size * 2);
+      gramEnds = Arrays.copyOf(gramEnds, size * 2);
+      gramHashes = Arrays.copyOf(gramHashes, size * 2);
+    }
+    gramStarts[size] = from;
+    gramEnds[size] = to;
+    gramHashes[size] = hash;
+    size++;
+  }
+
+  /**
+   * Get the n-gram string, where grams are separated by a space.
+   *
+   * @return the n-gram string.
+   */
+  public String ngram() {
+    if (ngram == null) {
+      ngram = new String(buf, start, tab - start);
+    }
+    return ngram;
+  }
+
+  /**
+   * Get the grams in the n-gram.
+   *
+   * @return an array of grams.
+   */
+  public String[] grams() {
+    if (grams == null) {
+      grams = ngram().split(" ");
+    }
+    return grams;
+  }
+
+  /**
+   * Get the number of grams in the n-gram.
+   *
+   * @return the number of grams.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Decode a gram.
+   *
+   * @param i the index of the gram.
+   * @return the gram string.
+   */
+  public String gram(int i) {
+    return grams != null ? grams[i]
+        : new String(buf, gramStarts[i], gramEnds[i] - gramStarts[i]);
+  }
+
+  /**
+   * Compare a gram to a word byte-wise.
+   *
+   * @param i the index of the gram.
+   * @param word the bytes of a word in the default charset.
+   * @return {@code true} if the gram has the same bytes as the word.
+   */
+  public boolean gramEquals(int i, byte[] word) {
+    int from = gramStarts[i];
+    int len = gramEnds[i] - from;
+    if (len != word.length) {
+      return false;
+    }
+    for (int j = 0; j < len; j++) {
+      if (buf[from + j] != word[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the hash code of a gram, which is equal to {@link NgramPattern#hash(byte[])} of the gram.
+   *
+   * @param i the index of the gram.
+   * @return the hash code.
+   */
+  public int gramHash(int i) {
+    return gramHashes[i];
+  }
+
+  /**
+   * Get the frequency of the n-gram.
+   *
+   * @return the frequency.
+   */
+  public float freq() {
+    if (! freqParsed) {
+      // Integral counts are parsed without decoding, which is identical to parsing the string.
+      long count = parseCount();
+      freq = count < 0 ? Float.parseFloat(freqString()) : count;
+      freqParsed = true;
+    }
+    return freq;
+  }
+
+  /**
+   * Get the frequency of the n-gram as an integral count, which is exact for large counts.
+   *
+   * @return the count.
+   */
+  public long count() {
+    long count = parseCount();
+    return count < 0 ? Long.parseLong(freqString()) : count;
+  }
+
+  /**
+   * Parse the frequency from the bytes of the line.
+   *
+   * @return the count, or -1 if the frequency is not a plain decimal number of at most 18 digits.
+   */
+  private long parseCount() {
+    long count = 0;
+    int i = tab + 1;
+    for (; i < end && buf[i] != '\t'; i++) {
+      int d = buf[i] - '0';
+      if (d < 0 || d > 9 || i - tab > 18) {
+        return -1;
+      }
+      count = count * 10 + d;
+    }
+    return i == tab + 1 ? -1 : count;
+  }
+
+  private String freqString() {
+    int i = tab + 1;
+    while (i < end && buf[i] != '\t') {
+      i++;
+    }
+    return tab >= end ? "" : new String(buf, tab + 1, i - tab - 1);
+  }
+}
@@ -0,0 +1,356 @@
+package edu.dal.ocrrect.suggest;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A read-only first word index of the n-gram corpora of all orders, stored in a single
+ * memory-mapped file.
+ *
+ * <p>Unlike a {@link MappedNgramIndex} for each order, the first words of all orders are stored
+ * once in a shared dictionary, where the ID of a word is its rank in the dictionary. Each order has
+ * its own table of corpus subset offsets and sizes indexed by word ID, in which a word without
+ * records in the order has size zero. Thus, a word is looked up once for all orders, and the index is
+ * opened, mapped and closed as a whole.
+ *
+ * <p>The file is organized in the following sections:
+ *
+ * <ul>
+ *   <li>A header, containing a magic number, the format version, the section positions and a CRC32
+ *       checksum of all the bytes after the header.
+ *   <li>The order table, the n-gram order and the section positions of each order.
+ *   <li>The dictionary, a front-coded key block and its restart array as in {@link
+ *       MappedNgramIndex}.
+ *   <li>For each order, the n-gram data pathnames and the offset before each data file, the packed
+ *       array of corpus subset offsets and the packed array of corpus subset sizes.
+ * </ul>
+ *
+ * <p>Features are handed an order-specific view of the store by {@link #searcher(int)}, which is a
+ * {@link NgramBoundedReaderSearcher} reading the data files of the order.
+ *
+ * @since 2017.09.25
+ */
+public class NgramStore implements Closeable {
+  public static final String FILE_EXTENSION = ".store";
+
+  static final int MAGIC = 0x4E475354; // "NGST"
+  static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = MappedFiles.HEADER_SIZE;
+  private static final int ORDER_ENTRY_SIZE = 16;
+
+  private final MappedByteBuffer buffer;
+  private final MappedKeyBlock words;
+  private final long checksum;
+  private final View[] views;
+  private final NgramBoundedReaderSearcher[] searchers;
+
+  private NgramStore(MappedByteBuffer buffer) {
+    this.buffer = buffer;
+    MappedFiles.checkHeader(buffer, MAGIC, VERSION, "n-gram store");
+    int numOfOrders = buffer.getInt(8);
+    words    = new MappedKeyBlock(buffer, buffer.getInt(12), buffer.getInt(16), buffer.getInt(20),
+                                  buffer.getInt(24));
+    checksum = buffer.getLong(32);
+
+    views = new View[numOfOrders];
+    searchers = new NgramBoundedReaderSearcher[numOfOrders];
+    for (int i = 0; i < numOfOrders; i++) {
+      int pos = HEADER_SIZE + i * ORDER_ENTRY_SIZE;
+      views[i] = new View(buffer.getInt(pos), buffer.getInt(pos + 4), buffer.getInt(pos + 8),
+          buffer.getInt(pos + 12));
+      searchers[i] = new NgramBoundedReaderSearcher(views[i]);
+    }
+  }
+
+  /**
+   * Open a store file. The checksum is not verified in this method, see {@link #verify()}.
+   *
+   * @param path a store file.
+   * @return a store.
+   * @throws IOException if I/O error occurs.
+   */
+  public static NgramStore open(Path path) throws IOException {
+    return new NgramStore(MappedFiles.map(path, "n-gram store"));
+  }
+
+  /**
+   * Check whether the content of the store file matches the checksum in header.
+   *
+   * @return {@code true} if the checksum matches, or {@code false} otherwise.
+   */
+  public boolean verify() {
+    return MappedFiles.checksum(buffer, HEADER_SIZE) == checksum;
+  }
+
+  /**
+   * Get the n-gram orders in the store.
+   *
+   * @return an array of orders.
+   */
+  public int[] orders() {
+    return Arrays.stream(views).mapToInt(v -> v.order).toArray();
+  }
+
+  /**
+   * Get the searcher of an order, which reads the first word index from this store. The same
+   * searcher is returned in every call.
+   *
+   * @param order a n-gram order.
+   * @return a n-gram searcher.
+   * @throws IllegalArgumentException if the order is not in the store.
+   */
+  public NgramBoundedReaderSearcher searcher(int order) {
+    for (int i = 0; i < views.length; i++) {
+      if (views[i].order == order) {
+        return searchers[i];
+      }
+    }
+    throw new IllegalArgumentException("invalid order: " + order);
+  }
+
+  /**
+   * Get the number of words in the dictionary.
+   *
+   * @return the number of words.
+   */
+  public int numOfWords() {
+    return words.size();
+  }
+
+  /**
+   * Find the ID of a word in the dictionary.
+   *
+   * @param word a word.
+   * @return the ID of the word, or {@code -1} if the word is not the first word of any record.
+   */
+  public int id(String word) {
+    return words.find(word);
+  }
+
+  /**
+   * Decode a word in the dictionary.
+   *
+   * @param id a word ID.
+   * @return the word.
+   */
+  public String word(int id) {
+    return words.key(id);
+  }
+
+  /**
+   * Close the channels of all the searchers. Channels are reopened on demand in later reads.
+   *
+   * @throws IOException if I/O error occurs.
+   */
+  @Override
+  public void close() throws IOException {
+    for (NgramBoundedReaderSearcher s : searchers) {
+      s.close();
+    }
+  }
+
+  /**
+   * The first word index of an order in the store.
+   */
+  class View {
+    private final int order;
+    private final int offsetPos;
+    private final int sizePos;
+    private final String[] ngramPaths;
+    private final long[] fileOffsets;
+
+    private View(int order, int pathPos, int offsetPos, int sizePos) {
+      this.order = order;
+      this.offsetPos = offsetPos;
+      this.sizePos = sizePos;
+
+      // The data pathnames are small, thus decoded once.
+      ByteBuffer bb = buffer.duplicate();
+      bb.position(pathPos);
+      ngramPaths = new String[bb.getInt()];
+      for (int i = 0; i < ngramPaths.length; i++) {
+        byte[] bytes = new byte[bb.getInt()];
+        bb.get(bytes);
+        ngramPaths[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      fileOffsets = new long[ngramPaths.length + 1];
+      for (int i = 0; i < fileOffsets.length; i++) {
+        fileOffsets[i] = bb.getLong();
+      }
+    }
+
+    int order() {
+      return order;
+    }
+
+    String[] ngramPaths() {
+      return ngramPaths.clone();
+    }
+
+    long[] fileOffsets() {
+      return fileOffsets.clone();
+    }
+
+    /**
+     * Get the number of words in the dictionary, some of which have no records in this order.
+     */
+    int numOfWords() {
+      return words.size();
+    }
+
+    int find(String word) {
+      return words.find(word);
+    }
+
+    String word(int id) {
+      return words.key(id);
+    }
+
+    long offset(int id) {
+      return buffer.getLong(offsetPos + id * 8);
+    }
+
+    /**
+     * Get the size of the corpus subset of a word, which is zero if the word has no records in this
+     * order.
+     */
+    int size(int id) {
+      return buffer.getInt(sizePos + id * 4);
+    }
+  }
+
+  /**
+   * Write the first word indexes of searchers of different orders into a store file.
+   *
+   * @param out the output path.
+   * @param ngramSearchers n-gram searchers of different orders.
+   * @throws IOException if I/O error occurs.
+   */
+  public static void write(Path out, List<NgramBoundedReaderSearcher> ngramSearchers)
+      throws IOException {
+    int numOfOrders = ngramSearchers.size();
+    int[] orders = new int[numOfOrders];
+    List<TObjectLongMap<String>> offsetMaps = new ArrayList<>();
+    List<TObjectIntMap<String>> sizeMaps = new ArrayList<>();
+    Set<String> vocab = new HashSet<>();
+    for (int i = 0; i < numOfOrders; i++) {
+      NgramBoundedReaderSearcher searcher = ngramSearchers.get(i);
+      orders[i] = searcher.order();
+      for (int j = 0; j < i; j++) {
+        if (orders[j] == orders[i]) {
+          throw new IllegalArgumentException("invalid order: " + orders[i]);
+        }
+      }
+      TObjectLongMap<String> offsets = new TObjectLongHashMap<>();
+      TObjectIntMap<String> sizes = new TObjectIntHashMap<>();
+      searcher.forEachSubset((word, offset, size) -> {
+        offsets.put(word, offset);
+        sizes.put(word, size);
+        vocab.add(word);
+      });
+      offsetMaps.add(offsets);
+      sizeMaps.add(sizes);
+    }
+
+    // Sort the dictionary by the UTF-8 bytes of words.
+    byte[][] keys = new byte[vocab.size()][];
+    int n = 0;
+    for (String word : vocab) {
+      keys[n++] = word.getBytes(StandardCharsets.UTF_8);
+    }
+    Arrays.sort(keys, MappedKeyBlock.UNSIGNED_BYTES);
+    String[] sortedWords = new String[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      sortedWords[i] = new String(keys[i], StandardCharsets.UTF_8);
+    }
+    MappedKeyBlock.Encoded keyBlock = MappedKeyBlock.encode(keys);
+
+    // Compute the section positions.
+    long keyBlockPos = HEADER_SIZE + (long) numOfOrders * ORDER_ENTRY_SIZE;
+    long restartPos = keyBlockPos + keyBlock.keys.length;
+    long pos = restartPos + keyBlock.restarts.length * 4L;
+    byte[][] paths = new byte[numOfOrders][];
+    long[] pathPos = new long[numOfOrders];
+    long[] offsetPos = new long[numOfOrders];
+    long[] sizePos = new long[numOfOrders];
+    for (int i = 0; i < numOfOrders; i++) {
+      paths[i] = encodePaths(ngramSearchers.get(i));
+      pathPos[i] = pos;
+      offsetPos[i] = pathPos[i] + paths[i].length;
+      offsetPos[i] += (8 - offsetPos[i] % 8) % 8; // align packed offsets
+      sizePos[i] = offsetPos[i] + keys.length * 8L;
+      pos = sizePos[i] + keys.length * 4L;
+    }
+    if (pos > Integer.MAX_VALUE) {
+      throw new IOException("store is too large to be mapped");
+    }
+
+    ByteBuffer body = ByteBuffer.allocate((int) (pos - HEADER_SIZE));
+    for (int i = 0; i < numOfOrders; i++) {
+      body.putInt(orders[i])
+          .putInt((int) pathPos[i])
+          .putInt((int) offsetPos[i])
+          .putInt((int) sizePos[i]);
+    }
+    body.put(keyBlock.keys);
+    for (int r : keyBlock.restarts) {
+      body.putInt(r);
+    }
+    for (int i = 0; i < numOfOrders; i++) {
+      body.position((int) (pathPos[i] - HEADER_SIZE));
+      body.put(paths[i]);
+      body.position((int) (offsetPos[i] - HEADER_SIZE));
+      for (String word : sortedWords) {
+        body.putLong(offsetMaps.get(i).get(word));
+      }
+      for (String word : sortedWords) {
+        body.putInt(sizeMaps.get(i).get(word));
+      }
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(numOfOrders)
+          .putInt(keys.length)
+          .putInt((int) keyBlockPos)
+          .putInt((int) restartPos)
+          .putInt(MappedKeyBlock.RESTART_INTERVAL)
+          .putInt(0)
+          .putLong(MappedFiles.checksum(body, 0));
+
+    MappedFiles.write(out, header, body);
+  }
+
+  private static byte[] encodePaths(NgramBoundedReaderSearcher searcher) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    String[] ngramPaths = searcher.ngramPaths();
+    out.writeInt(ngramPaths.length);
+    for (String p : ngramPaths) {
+      byte[] b = p.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(b.length);
+      out.write(b);
+    }
+    for (long offset : searcher.fileOffsets()) {
+      out.writeLong(offset);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,129 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.IOUtils;
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.THashSet;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A dictionary that maps n-gram tokens to integer IDs. IDs are assigned to tokens in their natural
+ * string order, starting from zero.
+ *
+ * @since 2017.09.08
+ */
+public class NgramVocabulary {
+  public static final int NO_ID = -1;
+
+  private final String[] words;
+  private final TObjectIntHashMap<String> ids;
+
+  private NgramVocabulary(String[] words) {
+    this.words = words;
+    ids = new TObjectIntHashMap<>(words.length * 2, 0.5f, NO_ID);
+    for (int i = 0; i < words.length; i++) {
+      ids.put(words[i], i);
+    }
+  }
+
+  /**
+   * Get the ID of a token.
+   *
+   * @param word a token.
+   * @return the ID of the token, or {@value #NO_ID} if the token is not in the vocabulary.
+   */
+  public int id(String word) {
+    return ids.get(word);
+  }
+
+  /**
+   * Get the token of an ID.
+   *
+   * @param id a token ID.
+   * @return the token.
+   */
+  public String word(int id) {
+    return words[id];
+  }
+
+  /**
+   * Get the number of tokens in the vocabulary.
+   *
+   * @return the number of tokens.
+   */
+  public int size() {
+    return words.length;
+  }
+
+  /**
+   * Build a vocabulary including all tokens in the given n-gram data files.
+   *
+   * @param ngrams a list of n-gram data files, formatted as the Web1T corpus.
+   * @return a vocabulary.
+   * @throws IOException if I/O error occurs.
+   */
+  public static NgramVocabulary build(List<Path> ngrams) throws IOException {
+    Timer t = new Timer();
+    THashSet<String> tokens = new THashSet<>();
+    for (Path p : ngrams) {
+      try (BufferedReader br = IOUtils.newBufferedReader(p)) {
+        for (String line = br.readLine(); line != null; line = br.readLine()) {
+          int end = line.indexOf('\t');
+          int str = 0;
+          for (int i = 0; i <= end; i++) {
+            if (i == end || line.charAt(i) == ' ') {
+              tokens.add(line.substring(str, i));
+              str = i + 1;
+            }
+          }
+        }
+      }
+    }
+    String[] words = tokens.toArray(new String[tokens.size()]);
+    Arrays.sort(words);
+    LogUtils.logMethodTime(t, 2);
+    return new NgramVocabulary(words);
+  }
+
+  /**
+   * Write a vocabulary to a text file, one token per line ordered by ID.
+   *
+   * @param vocab a vocabulary.
+   * @param out the output path.
+   * @throws IOException if I/O error occurs.
+   */
+  public static void write(NgramVocabulary vocab, Path out) throws IOException {
+    Files.createDirectories(out.toAbsolutePath().getParent());
+    try (BufferedWriter bw = IOUtils.newBufferedWriter(out)) {
+      for (String word : vocab.words) {
+        bw.write(word);
+        bw.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Read a vocabulary written by {@link #write(NgramVocabulary, Path)}.
+   *
+   * @param in a vocabulary file.
+   * @return a vocabulary.
+   * @throws IOException if I/O error occurs.
+   */
+  public static NgramVocabulary read(Path in) throws IOException {
+    List<String> words = new ArrayList<>();
+    try (BufferedReader br = IOUtils.newBufferedReader(in)) {
+      for (String line = br.readLine(); line != null; line = br.readLine()) {
+        words.add(line);
+      }
+    }
+    return new NgramVocabulary(words.toArray(new String[words.size()]));
+  }
+}
@@ -0,0 +1,137 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.Context;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits on the n-gram block scans of a document, which trade the recall of the context features
+ * for a predictable latency.
+ *
+ * <p>A block is scanned up to a number of bytes and a number of records. If the block is larger,
+ * only a prefix of whole records is scanned, which is a sample of the block biased to the records
+ * of the smallest second words. Once the deadline of the document has passed, the remaining blocks
+ * are not scanned, and the scan in progress stops early. The contexts of blocks that are not fully
+ * scanned are recorded as degraded, such that the suggestions depending on them are marked as
+ * approximate.
+ *
+ * <p>A budget is started for each document by {@link #start()}. Unlimited by default.
+ *
+ * @see NgramBlockScanner#scan(NgramBoundedReaderSearcher, String, String, java.util.List,
+ *     ScanBudget)
+ * @since 2017.09.27
+ */
+public class ScanBudget {
+  private int maxBlockBytes = Integer.MAX_VALUE;
+  private long maxBlockRecords = Long.MAX_VALUE;
+  private long deadlineMillis = 0;
+
+  private volatile long deadline = Long.MAX_VALUE;
+  private final Set<Context> degraded = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Set the maximum number of bytes scanned in a block.
+   *
+   * @param maxBlockBytes the number of bytes.
+   * @return this budget.
+   */
+  public ScanBudget setMaxBlockBytes(int maxBlockBytes) {
+    if (maxBlockBytes <= 0) {
+      throw new IllegalArgumentException("invalid number of bytes: " + maxBlockBytes);
+    }
+    this.maxBlockBytes = maxBlockBytes;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of records scanned in a block.
+   *
+   * @param maxBlockRecords the number of records.
+   * @return this budget.
+   */
+  public ScanBudget setMaxBlockRecords(long maxBlockRecords) {
+    if (maxBlockRecords <= 0) {
+      throw new IllegalArgumentException("invalid number of records: " + maxBlockRecords);
+    }
+    this.maxBlockRecords = maxBlockRecords;
+    return this;
+  }
+
+  /**
+   * Set the time allowed for scanning the blocks of a document.
+   *
+   * @param deadlineMillis the time in milliseconds from {@link #start()}, or {@code 0} for no
+   *     deadline.
+   * @return this budget.
+   */
+  public ScanBudget setDeadline(long deadlineMillis) {
+    if (deadlineMillis < 0) {
+      throw new IllegalArgumentException("invalid deadline: " + deadlineMillis);
+    }
+    this.deadlineMillis = deadlineMillis;
+    return this;
+  }
+
+  public int maxBlockBytes() {
+    return maxBlockBytes;
+  }
+
+  public long maxBlockRecords() {
+    return maxBlockRecords;
+  }
+
+  /**
+   * Start the budget of a document, which starts the deadline and clears the degraded contexts of
+   * the previous document.
+   *
+   * @return this budget.
+   */
+  public ScanBudget start() {
+    deadline = deadlineMillis == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + deadlineMillis;
+    degraded.clear();
+    return this;
+  }
+
+  /**
+   * Check whether a block may be cut short by this budget.
+   *
+   * @param size the size of the block in bytes.
+   * @return {@code true} if the block exceeds the byte limit, or records or time are limited.
+   */
+  boolean isBounded(int size) {
+    return size > maxBlockBytes || maxBlockRecords != Long.MAX_VALUE || deadline != Long.MAX_VALUE;
+  }
+
+  /**
+   * Check whether the deadline of the document has passed.
+   *
+   * @return {@code true} if the deadline has passed.
+   */
+  public boolean isExpired() {
+    return deadline != Long.MAX_VALUE && System.currentTimeMillis() >= deadline;
+  }
+
+  /**
+   * Record the contexts of a block which is not fully scanned.
+   *
+   * @param contexts contexts.
+   */
+  public void degrade(Collection<Context> contexts) {
+    degraded.addAll(contexts);
+  }
+
+  /**
+   * Check whether a context is degraded since the last {@link #start()}.
+   *
+   * @param context a context.
+   * @return {@code true} if the block of the context is not fully scanned.
+   */
+  public boolean isDegraded(Context context) {
+    return degraded.contains(context);
+  }
+
+  public int numOfDegradedContexts() {
+    return degraded.size();
+  }
+}
@@ -1,14 +1,7 @@
 package edu.dal.ocrrect.suggest;
 
-import edu.dal.ocrrect.feature.metric.NGram;
+import edu.dal.ocrrect.suggest.DistanceMetric.Kind;
 import edu.dal.ocrrect.util.Word;
-import info.debatty.java.stringsimilarity.Damerau;
-import info.debatty.java.stringsimilarity.Jaccard;
-import info.debatty.java.stringsimilarity.JaroWinkler;
-import info.debatty.java.stringsimilarity.Levenshtein;
-import info.debatty.java.stringsimilarity.LongestCommonSubsequence;
-import info.debatty.java.stringsimilarity.OptimalStringAlignment;
-import info.debatty.java.stringsimilarity.QGram;
 import java.io.Serializable;
 
 public interface Scoreable extends Serializable {
@@ -21,46 +14,57 @@ public interface Scoreable extends Serializable {
    */
   float score(Word word, String candidate);
 
+  /**
+   * Score candidates of the same word. A scoreable may override this method to compute the states
+   * of the word once for all the candidates.
+   *
+   * @param word A word.
+   * @param candidates Candidates for the given word.
+   * @param out The array to which the score of each candidate is written in the same order.
+   */
+  default void score(Word word, String[] candidates, float[] out) {
+    for (int i = 0; i < candidates.length; i++) {
+      out[i] = score(word, candidates[i]);
+    }
+  }
+
   static Scoreable levenshteinDist() {
-    return (w, c) -> (float)new Levenshtein().distance(w.text(), c);
+    return new DistanceMetric(Kind.LEVENSHTEIN, 0);
   }
 
   static Scoreable damerauLevDist() {
-    return (w, c) -> (float)new Damerau().distance(w.text(), c);
+    return new DistanceMetric(Kind.DAMERAU, 0);
   }
 
   static Scoreable lscDist() {
-    return (w, c) -> (float)new LongestCommonSubsequence().distance(w.text(), c);
+    return new DistanceMetric(Kind.LCS, 0);
   }
 
   static Scoreable jaroWinklerDist() {
-    return (w, c) -> (float)new JaroWinkler().distance(w.text(), c);
+    return new DistanceMetric(Kind.JARO_WINKLER, 0);
   }
 
   static Scoreable jaccardDist(int size) {
-    return (w, c) -> {
-      double dist = new Jaccard(size).distance(w.text(), c);
-      return Double.isNaN(dist) ? 0f : (float) dist;
-    };
+    return new DistanceMetric(Kind.JACCARD, size);
   }
 
   static Scoreable optStrAlignDist() {
-    return (w, c) -> (float)new OptimalStringAlignment().distance(w.text(), c);
+    return new DistanceMetric(Kind.OPTIMAL_STRING_ALIGNMENT, 0);
   }
 
   static Scoreable binNgramDist(int size) {
-    return (w, c) -> (float)new NGram(size, NGram.BINARY_COST).distance(w.text(), c);
+    return new DistanceMetric(Kind.BINARY_NGRAM, size);
   }
 
   static Scoreable posNgramDist(int size) {
-    return (w, c) -> (float)new NGram(size, NGram.POSITIONAL_COST).distance(w.text(), c);
+    return new DistanceMetric(Kind.POSITIONAL_NGRAM, size);
   }
 
   static Scoreable cmphNgramDist(int size) {
-    return (w, c) -> (float)new NGram(size, NGram.COMPREHENSIVE_COST).distance(w.text(), c);
+    return new DistanceMetric(Kind.COMPREHENSIVE_NGRAM, size);
   }
 
   static Scoreable qgramDist(int size) {
-    return (w, c) -> (float)new QGram(size).distance(w.text(), c);
+    return new DistanceMetric(Kind.QGRAM, size);
   }
 }
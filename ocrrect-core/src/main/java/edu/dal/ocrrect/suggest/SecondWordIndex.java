@@ -0,0 +1,221 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A secondary index over the oversized first word blocks of a {@link NgramBoundedReaderSearcher},
+ * which locates the sub-range of records sharing the same second word inside a block.
+ *
+ * <p>Only blocks larger than a threshold are indexed, as the records of a frequent first word such
+ * as "the" or "," may take hundreds of megabytes, while a scan of a small block is cheaper than a
+ * lookup. For each indexed block, the sub-range of a second word is stored as its offset relative
+ * to the beginning of the block and its size. Records with the same second word are expected to be
+ * contiguous in a block, as in the sorted Web 1T corpus; otherwise, the block is left unindexed.
+ * Words are decoded in ISO-8859-1, in the same way as the first word index.
+ *
+ * @since 2017.09.16
+ */
+public class SecondWordIndex implements Serializable {
+  private static final long serialVersionUID = 3841629157032467118L;
+
+  public static final String FILE_EXTENSION = ".sub";
+  public static final int DEFAULT_THRESHOLD = 4 << 20;
+
+  private final int threshold;
+
+  /**
+   * The mapping from first words to the sub-ranges of their second words, where each sub-range is
+   * packed as the relative offset in the higher 32 bits and the size in the lower 32 bits.
+   */
+  private final HashMap<String, TObjectLongHashMap<String>> blockMap;
+
+  private SecondWordIndex(int threshold, Map<String, TObjectLongHashMap<String>> blockMap) {
+    this.threshold = threshold;
+    this.blockMap = new HashMap<>(blockMap);
+  }
+
+  /**
+   * Build the index for all blocks of the given searcher that are larger than the threshold.
+   *
+   * @param searcher a n-gram searcher.
+   * @param threshold the minimum size of indexed blocks in bytes.
+   * @return a second word index.
+   * @throws IOException if I/O error occurs.
+   */
+  public static SecondWordIndex build(NgramBoundedReaderSearcher searcher, int threshold)
+      throws IOException {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("invalid threshold: " + threshold);
+    }
+    Timer t = new Timer();
+    Map<String, TObjectLongHashMap<String>> blockMap = new ConcurrentHashMap<>();
+    try {
+      searcher.wordsWithBlocksLargerThan(threshold).parallelStream().forEach(first -> {
+        try {
+          TObjectLongHashMap<String> subMap = index(searcher.readRecordsWithFirstWord(first));
+          if (subMap == null) {
+            LogUtils.warn("second words are not contiguous in block: " + first);
+          } else {
+            blockMap.put(first, subMap);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    SecondWordIndex index = new SecondWordIndex(threshold, blockMap);
+    LogUtils.info(String.format("indexed %d blocks with %d second words", index.numBlocks(),
+        index.numSubBlocks()));
+    LogUtils.logMethodTime(t, 2);
+    return index;
+  }
+
+  /**
+   * Index the second words in a block.
+   *
+   * @return the sub-range mapping, or {@code null} if records of a second word are not contiguous.
+   */
+  private static TObjectLongHashMap<String> index(ByteBuffer block) {
+    TObjectLongHashMap<String> subMap = new TObjectLongHashMap<>();
+    int base = block.position();
+    int limit = block.limit();
+    int prevStart = -1;
+    int prevEnd = -1;
+    int rangeStart = base;
+    String prevWord = null;
+    for (int lineStart = base; lineStart < limit; ) {
+      // Locate the second word in the current line.
+      int start = lineStart;
+      while (block.get(start) != ' ') {
+        start++;
+      }
+      start++;
+      int end = start;
+      for (byte b = block.get(end); b != ' ' && b != '\t'; b = block.get(end)) {
+        end++;
+      }
+      if (prevWord == null || ! sameBytes(block, prevStart, prevEnd, start, end)) {
+        if (prevWord != null && ! putRange(subMap, prevWord, rangeStart - base, lineStart - base)) {
+          return null;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+          bytes[i - start] = block.get(i);
+        }
+        prevWord = new String(bytes, StandardCharsets.ISO_8859_1);
+        rangeStart = lineStart;
+      }
+      prevStart = start;
+      prevEnd = end;
+
+      // Skip to the next line.
+      lineStart = end;
+      while (lineStart < limit && block.get(lineStart++) != '\n') {}
+    }
+    if (prevWord != null && ! putRange(subMap, prevWord, rangeStart - base, limit - base)) {
+      return null;
+    }
+    return subMap;
+  }
+
+  private static boolean putRange(TObjectLongHashMap<String> subMap, String word, int from,
+      int to) {
+    return subMap.putIfAbsent(word, ((long) from << 32) | (to - from)) == subMap.getNoEntryValue();
+  }
+
+  private static boolean sameBytes(ByteBuffer bb, int start1, int end1, int start2, int end2) {
+    if (end1 - start1 != end2 - start2) {
+      return false;
+    }
+    for (int i = 0; i < end1 - start1; i++) {
+      if (bb.get(start1 + i) != bb.get(start2 + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check whether the block of a first word is indexed.
+   *
+   * @param first the first word.
+   * @return {@code true} if the block is indexed.
+   */
+  public boolean contains(String first) {
+    return blockMap.containsKey(first);
+  }
+
+  /**
+   * Find the sub-range of records with the given first and second words.
+   *
+   * @param first the first word, which block is indexed.
+   * @param second the second word.
+   * @return the sub-range packed as the offset relative to the block in the higher 32 bits and the
+   *     size in the lower 32 bits, or 0 if there is no such records.
+   */
+  long find(String first, String second) {
+    TObjectLongHashMap<String> subMap = blockMap.get(first);
+    return subMap == null ? 0 : subMap.get(second);
+  }
+
+  /**
+   * Get the minimum size of indexed blocks.
+   *
+   * @return the threshold in bytes.
+   */
+  public int threshold() {
+    return threshold;
+  }
+
+  public int numBlocks() {
+    return blockMap.size();
+  }
+
+  public long numSubBlocks() {
+    return blockMap.values().stream().mapToLong(TObjectLongHashMap::size).sum();
+  }
+
+  public static void write(SecondWordIndex index, Path out) throws IOException {
+    Files.createDirectories(out.toAbsolutePath().getParent());
+    try (ObjectOutputStream oos = new ObjectOutputStream(Channels.newOutputStream(
+        FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)))) {
+      oos.writeObject(index);
+    }
+  }
+
+  /**
+   * Read an index from a file written by {@link #write(SecondWordIndex, Path)}.
+   *
+   * @param in a serialized file.
+   * @return a second word index.
+   * @throws IOException if I/O error occurs.
+   */
+  public static SecondWordIndex read(Path in) throws IOException {
+    try (ObjectInputStream ois = new ObjectInputStream(Channels.newInputStream(
+        FileChannel.open(in)))) {
+      return (SecondWordIndex) ois.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,458 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import gnu.trove.map.TObjectFloatMap;
+import gnu.trove.map.hash.TObjectFloatHashMap;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * A precomputed index of skip-grams of one n-gram order, which maps a n-gram with one wildcard to
+ * the words filling the wildcard and their aggregated frequencies.
+ *
+ * <p>The index replaces the scan of a first word block in suggestion by a single lookup per
+ * context. It contains one table for each wildcard position {@code i} in {@code [1, n)}, which
+ * answers {@link #lookup(String[], int)} with the same result as matching the skip-gram of every
+ * record in {@code ContextCoherenceFeature}, as both sum the frequencies in double precision and
+ * round the sums to float once, which is exact for the integral counts of the corpus. For the
+ * relaxed skip-grams used in {@code ApproximateContextCoherenceFeature}, it also contains one table
+ * for each pair of a wildcard position {@code i} and a relaxed position {@code j} in {@code [1,
+ * n)}, where the word at {@code j} matches any word, which answers {@link #lookup(String[], int,
+ * int)}.
+ *
+ * <p>An entry of a table consists of the token IDs at the key positions, which are all positions
+ * except the wildcard and the relaxed ones in ascending order, the ID of the filler word, and the
+ * frequency summed over all matching n-grams. Entries are sorted by their keys and fillers, and
+ * found by binary search in the memory-mapped tables. Tokens are encoded by a {@link
+ * NgramVocabulary}, which is decoded from the data files in UTF-8.
+ *
+ * <p>The file layout is as follows, where all numbers are big-endian:
+ * <pre>
+ *   header    int magic, int version, int order, int numTables
+ *   directory (int wildcard, int relaxed, long numEntries, long position)[numTables]
+ *   tables    (int[keyWidth] keyIds, int fillerId, float frequency)[numEntries]
+ * </pre>
+ * The relaxed position of a table without a relaxed word is -1.
+ *
+ * @since 2017.09.18
+ */
+public class SkipNgramIndex implements Closeable {
+  public static final String FILE_EXTENSION = ".skip";
+
+  private static final int MAGIC = 0x4E534B47; // "NSKG"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int DIRECTORY_ENTRY_SIZE = 24;
+  private static final int SEGMENT_SIZE = 1 << 30;
+
+  private final FileChannel channel;
+  private final NgramVocabulary vocab;
+  private final int order;
+
+  /**
+   * Tables indexed by the wildcard position and the relaxed position, where the exact tables are in
+   * the column of the wildcard position.
+   */
+  private final Table[][] tables;
+
+  private SkipNgramIndex(FileChannel channel, NgramVocabulary vocab) throws IOException {
+    this.channel = channel;
+    this.vocab = vocab;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    readFully(channel, header, 0);
+    header.flip();
+    if (header.getInt() != MAGIC) {
+      throw new IOException("not a skip-gram index");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported skip-gram index version: " + version);
+    }
+    order = header.getInt();
+    int numTables = header.getInt();
+
+    ByteBuffer dir = ByteBuffer.allocate(numTables * DIRECTORY_ENTRY_SIZE);
+    readFully(channel, dir, HEADER_SIZE);
+    dir.flip();
+    tables = new Table[order][order];
+    for (int t = 0; t < numTables; t++) {
+      int wildcard = dir.getInt();
+      int relaxed = dir.getInt();
+      long numEntries = dir.getLong();
+      long position = dir.getLong();
+      int keyWidth = relaxed < 0 ? order - 1 : order - 2;
+      tables[wildcard][relaxed < 0 ? wildcard : relaxed] =
+          new Table(channel, position, numEntries, keyWidth);
+    }
+  }
+
+  /**
+   * Open a skip-gram index.
+   *
+   * @param path a file written by {@link #build(BinaryNgramCorpus, Path)}.
+   * @param vocab the vocabulary encoding the corpus of the index.
+   * @return a skip-gram index.
+   * @throws IOException if I/O error occurs or the file is malformed.
+   */
+  public static SkipNgramIndex open(Path path, NgramVocabulary vocab) throws IOException {
+    FileChannel fc = FileChannel.open(path);
+    try {
+      return new SkipNgramIndex(fc, vocab);
+    } catch (IOException | RuntimeException e) {
+      fc.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Get the order of n-grams.
+   *
+   * @return the n-gram order.
+   */
+  public int order() {
+    return order;
+  }
+
+  /**
+   * Check whether a skip-gram can be looked up in this index.
+   *
+   * @param ngram a list of {@code n} gram strings.
+   * @param index the index of the wildcard.
+   * @return {@code true} if the order matches and the wildcard is not the first word.
+   */
+  public boolean supports(String[] ngram, int index) {
+    return ngram.length == order && index > 0 && index < order;
+  }
+
+  /**
+   * Find the words filling the wildcard of a skip-gram.
+   *
+   * @param ngram a list of {@code n} gram strings.
+   * @param index the index of the wildcard, where the gram is ignored.
+   * @return a map from filler words to their frequencies, which is empty if no n-gram matches.
+   */
+  public TObjectFloatMap<String> lookup(String[] ngram, int index) {
+    return lookup(ngram, index, index);
+  }
+
+  /**
+   * Find the words filling the wildcard of a relaxed skip-gram, where another gram matches any
+   * word.
+   *
+   * @param ngram a list of {@code n} gram strings.
+   * @param index the index of the wildcard, where the gram is ignored.
+   * @param relaxed the index of the relaxed gram, which is also ignored.
+   * @return a map from filler words to their frequencies, which is empty if no n-gram matches.
+   */
+  public TObjectFloatMap<String> lookup(String[] ngram, int index, int relaxed) {
+    if (! supports(ngram, index) || relaxed <= 0 || relaxed >= order) {
+      throw new IllegalArgumentException("unsupported skip-gram: " + String.join(" ", ngram));
+    }
+    Table table = tables[index][relaxed];
+    int[] key = new int[table.keyWidth];
+    for (int i = 0, k = 0; i < order; i++) {
+      if (i != index && i != relaxed) {
+        int id = vocab.id(ngram[i]);
+        if (id == NgramVocabulary.NO_ID) {
+          return new TObjectFloatHashMap<>();
+        }
+        key[k++] = id;
+      }
+    }
+    TObjectFloatMap<String> map = new TObjectFloatHashMap<>();
+    for (long e = table.lowerBound(key); e < table.numEntries && table.compare(e, key) == 0; e++) {
+      map.put(vocab.word(table.filler(e)), table.freq(e));
+    }
+    return map;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * A sorted table of entries, mapped in segments as a mapped buffer is limited to 2GB. Entries do
+   * not span segments.
+   */
+  private static class Table {
+    private final long numEntries;
+    private final int keyWidth;
+    private final int entrySize;
+    private final int entriesPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    private Table(FileChannel fc, long position, long numEntries, int keyWidth)
+        throws IOException {
+      this.numEntries = numEntries;
+      this.keyWidth = keyWidth;
+      entrySize = (keyWidth + 2) * 4;
+      entriesPerSegment = SEGMENT_SIZE / entrySize;
+      segments = new MappedByteBuffer[(int) ((numEntries + entriesPerSegment - 1)
+          / entriesPerSegment)];
+      for (int s = 0; s < segments.length; s++) {
+        long first = (long) s * entriesPerSegment;
+        long count = Math.min(entriesPerSegment, numEntries - first);
+        segments[s] = fc.map(FileChannel.MapMode.READ_ONLY, position + first * entrySize,
+            count * entrySize);
+      }
+    }
+
+    private int getInt(long entry, int field) {
+      return segments[(int) (entry / entriesPerSegment)]
+          .getInt((int) (entry % entriesPerSegment) * entrySize + field * 4);
+    }
+
+    private int compare(long entry, int[] key) {
+      for (int k = 0; k < keyWidth; k++) {
+        int c = Integer.compare(getInt(entry, k), key[k]);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return 0;
+    }
+
+    private long lowerBound(int[] key) {
+      long lo = 0;
+      long hi = numEntries;
+      while (lo < hi) {
+        long mid = (lo + hi) >>> 1;
+        if (compare(mid, key) < 0) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    private int filler(long entry) {
+      return getInt(entry, keyWidth);
+    }
+
+    private float freq(long entry) {
+      return Float.intBitsToFloat(getInt(entry, keyWidth + 1));
+    }
+  }
+
+  /**
+   * Build a skip-gram index from a binary n-gram corpus.
+   *
+   * <p>As every key includes the first word, entries of a table are sorted within each group of the
+   * corpus, and groups are visited in the order of first word IDs. Thus the memory used is bounded
+   * by the largest group. The frequencies of the same key and filler are summed in double precision
+   * and rounded to float once, in the same way as a scan of the text corpus.
+   *
+   * @param corpus a binary n-gram corpus.
+   * @param out the output path.
+   * @throws IOException if I/O error occurs.
+   */
+  public static void build(BinaryNgramCorpus corpus, Path out) throws IOException {
+    Timer t = new Timer();
+    int n = corpus.order();
+    if (n < 2) {
+      throw new IllegalArgumentException("skip-grams require n-grams of order 2 or above");
+    }
+    Files.createDirectories(out.toAbsolutePath().getParent());
+
+    // Tables are ordered by the wildcard position, where the exact table is followed by the
+    // relaxed tables.
+    int numTables = (n - 1) * (n - 1);
+    int[] wildcards = new int[numTables];
+    int[] relaxeds = new int[numTables];
+    for (int i = 1, tIdx = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        if (j == 0 || j != i) {
+          wildcards[tIdx] = i;
+          relaxeds[tIdx++] = j == 0 ? -1 : j;
+        }
+      }
+    }
+
+    Path[] tmps = new Path[numTables];
+    DataOutputStream[] outs = new DataOutputStream[numTables];
+    long[] counts = new long[numTables];
+    try {
+      for (int tIdx = 0; tIdx < numTables; tIdx++) {
+        tmps[tIdx] = out.resolveSibling(out.getFileName() + ".tmp" + tIdx);
+        outs[tIdx] = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(tmps[tIdx]), 1 << 16));
+      }
+      for (int firstId = 0; firstId < corpus.vocabularySize(); firstId++) {
+        int size = corpus.count(firstId);
+        if (size == 0) {
+          continue;
+        }
+        // Load the group.
+        int[] ids = new int[size * n];
+        float[] freqs = new float[size];
+        BinaryNgramCorpus.Records records = corpus.records(firstId);
+        for (int r = 0; records.next(); r++) {
+          System.arraycopy(records.ids(), 0, ids, r * n, n);
+          freqs[r] = records.freq();
+        }
+        try {
+          IntStream.range(0, numTables).parallel().forEach(tIdx -> {
+            try {
+              counts[tIdx] += writeGroup(ids, freqs, n, wildcards[tIdx], relaxeds[tIdx],
+                  outs[tIdx]);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+      }
+      for (DataOutputStream dos : outs) {
+        dos.close();
+      }
+
+      // Concatenate the tables after the header and the directory.
+      try (FileChannel fc = FileChannel.open(out, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE + numTables * DIRECTORY_ENTRY_SIZE);
+        head.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(numTables);
+        long pos = head.capacity();
+        for (int tIdx = 0; tIdx < numTables; tIdx++) {
+          int keyWidth = relaxeds[tIdx] < 0 ? n - 1 : n - 2;
+          head.putInt(wildcards[tIdx])
+              .putInt(relaxeds[tIdx])
+              .putLong(counts[tIdx])
+              .putLong(pos);
+          pos += counts[tIdx] * (keyWidth + 2) * 4;
+        }
+        head.flip();
+        while (head.hasRemaining()) {
+          fc.write(head);
+        }
+        for (Path tmp : tmps) {
+          try (FileChannel in = FileChannel.open(tmp)) {
+            long size = in.size();
+            for (long done = 0; done < size; ) {
+              done += in.transferTo(done, size - done, fc);
+            }
+          }
+        }
+      }
+    } finally {
+      for (int tIdx = 0; tIdx < numTables; tIdx++) {
+        if (outs[tIdx] != null) {
+          outs[tIdx].close();
+        }
+        if (tmps[tIdx] != null) {
+          Files.deleteIfExists(tmps[tIdx]);
+        }
+      }
+    }
+    LogUtils.info(String.format("built %d skip-gram tables of %.1f MB", numTables,
+        out.toFile().length() / 1e6));
+    LogUtils.logMethodTime(t, 2);
+  }
+
+  /**
+   * Write the sorted entries of a group to a table.
+   *
+   * @return the number of entries written.
+   */
+  private static long writeGroup(int[] ids, float[] freqs, int n, int wildcard, int relaxed,
+      DataOutputStream dos) throws IOException {
+    int[] cols = new int[relaxed < 0 ? n : n - 1];
+    for (int i = 0, k = 0; i < n; i++) {
+      if (i != wildcard && i != relaxed) {
+        cols[k++] = i;
+      }
+    }
+    // The filler is the last column to compare.
+    cols[cols.length - 1] = wildcard;
+
+    int size = freqs.length;
+    int[] perm = new int[size];
+    for (int r = 0; r < size; r++) {
+      perm[r] = r;
+    }
+    sort(perm, new int[size], 0, size, (a, b) -> {
+      for (int c : cols) {
+        int cmp = Integer.compare(ids[a * n + c], ids[b * n + c]);
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return 0;
+    });
+
+    long count = 0;
+    for (int s = 0; s < size; ) {
+      // Sum the frequencies of records with the same key and filler.
+      double freq = freqs[perm[s]];
+      int e = s + 1;
+      for (; e < size && sameColumns(ids, n, cols, perm[s], perm[e]); e++) {
+        freq += freqs[perm[e]];
+      }
+      for (int c : cols) {
+        dos.writeInt(ids[perm[s] * n + c]);
+      }
+      dos.writeFloat((float) freq);
+      count++;
+      s = e;
+    }
+    return count;
+  }
+
+  private static boolean sameColumns(int[] ids, int n, int[] cols, int a, int b) {
+    for (int c : cols) {
+      if (ids[a * n + c] != ids[b * n + c]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @FunctionalInterface
+  private interface IntComparator {
+    int compare(int a, int b);
+  }
+
+  /**
+   * Stable merge sort of an int array.
+   */
+  private static void sort(int[] a, int[] tmp, int from, int to, IntComparator cmp) {
+    if (to - from < 2) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    sort(a, tmp, from, mid, cmp);
+    sort(a, tmp, mid, to, cmp);
+    if (cmp.compare(a[mid - 1], a[mid]) <= 0) {
+      return;
+    }
+    System.arraycopy(a, from, tmp, from, to - from);
+    for (int i = from, l = from, r = mid; i < to; i++) {
+      if (r >= to || (l < mid && cmp.compare(tmp[l], tmp[r]) <= 0)) {
+        a[i] = tmp[l++];
+      } else {
+        a[i] = tmp[r++];
+      }
+    }
+  }
+
+  private static void readFully(FileChannel fc, ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      if (fc.read(buf, pos + buf.position()) < 0) {
+        throw new IOException("unexpected end of file");
+      }
+    }
+  }
+}
@@ -0,0 +1,398 @@
+package edu.dal.ocrrect.suggest;
+
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import gnu.trove.list.array.TLongArrayList;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A sparse n-gram first word index, which keeps one first word every {@code interval} bytes in
+ * each data file instead of every first word.
+ *
+ * <p>The index relies on the records in the Web1T corpus being sorted by the bytes of n-grams,
+ * both within and across data files. Thus the first words are sorted, and the records of a first
+ * word are contiguous. A block is sampled if it starts at least {@code interval} bytes after the previous
+ * sample in the same file, and the first block in each file is always sampled. A first word is
+ * located by binary search over the sampled words, followed by a forward scan from the nearest
+ * preceding sample, which reads no more than {@code interval} bytes and a line. A larger interval
+ * takes less memory and a longer scan.
+ *
+ * <p>Words are decoded in ISO-8859-1, in the same way as the dense index built by {@link
+ * NgramBoundedReaderSearcher#NgramBoundedReaderSearcher(List)}, such that the order of words is the
+ * order of their bytes. If the records of a word span two data files, the word is located in the
+ * later file, as the dense index does.
+ *
+ * @since 2017.09.20
+ */
+public class SparseNgramIndex implements Serializable {
+  private static final long serialVersionUID = -4927061835541387196L;
+
+  public static final String FILE_EXTENSION = ".sparse";
+  public static final int DEFAULT_INTERVAL = 64 << 10;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final String[] ngramPaths;
+  private final long[] fileOffsets;
+  private final int interval;
+
+  /**
+   * The sampled words and their offsets relative to the beginning of each data file.
+   */
+  private final String[][] words;
+  private final long[][] offsets;
+
+  /**
+   * The first word in each data file.
+   */
+  private final String[] firstWords;
+
+  private SparseNgramIndex(String[] ngramPaths, long[] fileOffsets, int interval,
+      String[][] words, long[][] offsets) {
+    this.ngramPaths = ngramPaths;
+    this.fileOffsets = fileOffsets;
+    this.interval = interval;
+    this.words = words;
+    this.offsets = offsets;
+    firstWords = Arrays.stream(words).map(w -> w[0]).toArray(String[]::new);
+  }
+
+  /**
+   * A provider of the channel of a data file.
+   */
+  @FunctionalInterface
+  interface ShardChannels {
+    FileChannel channel(int pIdx) throws IOException;
+  }
+
+  /**
+   * A consumer of a first word block.
+   */
+  @FunctionalInterface
+  interface BlockConsumer {
+    void accept(String word, long offset, int size);
+  }
+
+  /**
+   * Build a sparse index over n-gram data files.
+   *
+   * @param ngrams the n-gram data files, sorted as the Web1T corpus.
+   * @param interval the minimum distance between two sampled blocks in bytes.
+   * @return a sparse index.
+   * @throws IOException if I/O error occurs or the data files are not sorted.
+   */
+  public static SparseNgramIndex build(List<Path> ngrams, int interval) throws IOException {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("invalid interval: " + interval);
+    }
+    Timer t = new Timer();
+    int n = ngrams.size();
+    String[][] words = new String[n][];
+    long[][] offsets = new long[n][];
+    try {
+      IntStream.range(0, n).parallel().forEach(pIdx -> {
+        List<String> sampledWords = new ArrayList<>();
+        TLongArrayList sampledOffsets = new TLongArrayList();
+        try (InputStream in = Files.newInputStream(ngrams.get(pIdx))) {
+          scan(in, (word, offset, size) -> {
+            if (sampledWords.isEmpty()
+                || offset - sampledOffsets.get(sampledOffsets.size() - 1) >= interval) {
+              sampledWords.add(word);
+              sampledOffsets.add(offset);
+            }
+          });
+        } catch (IOException e) {
+          throw new UncheckedIOException(ngrams.get(pIdx).toString(), e);
+        }
+        if (sampledWords.isEmpty()) {
+          throw new UncheckedIOException(
+              new IOException("empty n-gram file: " + ngrams.get(pIdx)));
+        }
+        words[pIdx] = sampledWords.toArray(new String[sampledWords.size()]);
+        offsets[pIdx] = sampledOffsets.toArray();
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    long[] fileOffsets = new long[n + 1];
+    for (int i = 0; i < n; i++) {
+      fileOffsets[i + 1] = fileOffsets[i] + ngrams.get(i).toFile().length();
+    }
+    for (int i = 1; i < n; i++) {
+      if (words[i][0].compareTo(words[i - 1][words[i - 1].length - 1]) < 0) {
+        throw new IOException("n-gram files are not sorted: " + ngrams.get(i));
+      }
+    }
+    String[] ngramPaths = ngrams.stream()
+        .map(p -> p.toAbsolutePath().toString())
+        .collect(Collectors.toList())
+        .toArray(new String[n]);
+    SparseNgramIndex index = new SparseNgramIndex(ngramPaths, fileOffsets, interval, words,
+        offsets);
+    LogUtils.info(String.format("sampled %d first words in %d files", index.numSamples(), n));
+    LogUtils.logMethodTime(t, 2);
+    return index;
+  }
+
+  /**
+   * Scan the blocks in a data file.
+   *
+   * @param in an input stream of the data file.
+   * @param consumer the consumer of blocks, which offsets are relative to the data file.
+   * @throws IOException if I/O error occurs or the records are not sorted.
+   */
+  private static void scan(InputStream in, BlockConsumer consumer) throws IOException {
+    FirstWordReader reader = new FirstWordReader(in, 0);
+    byte[] prev = null;
+    long blockStart = 0;
+    while (reader.next()) {
+      int cmp = prev == null ? 1 : reader.compareTo(prev);
+      if (cmp < 0) {
+        throw new IOException("n-gram records are not sorted at " + reader.position());
+      }
+      if (cmp > 0) {
+        if (prev != null) {
+          consumer.accept(decode(prev), blockStart,
+              Math.toIntExact(reader.position() - blockStart));
+        }
+        prev = reader.word();
+        blockStart = reader.position();
+      }
+      reader.skipLine();
+    }
+    if (prev != null) {
+      // The position is at the end of file.
+      consumer.accept(decode(prev), blockStart, Math.toIntExact(reader.position() - blockStart));
+    }
+  }
+
+  private static String decode(byte[] bytes) {
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Find the last element which is less than or equal to the given word, or -1 if there is none.
+   */
+  private static int floor(String[] sorted, String word) {
+    int idx = Arrays.binarySearch(sorted, word);
+    return idx >= 0 ? idx : -idx - 2;
+  }
+
+  private long fileSize(int pIdx) {
+    return fileOffsets[pIdx + 1] - fileOffsets[pIdx];
+  }
+
+  /**
+   * Locate the block of a first word.
+   *
+   * @param word a first word.
+   * @param channels the channels of data files.
+   * @return the offset from the beginning of the first data file and the size of the block, or
+   *     {@code null} if the word is not found.
+   * @throws IOException if I/O error occurs.
+   */
+  long[] find(String word, ShardChannels channels) throws IOException {
+    int pIdx = floor(firstWords, word);
+    if (pIdx < 0) {
+      return null;
+    }
+    int sIdx = floor(words[pIdx], word);
+    long start = offsets[pIdx][sIdx];
+    long next = sIdx + 1 < offsets[pIdx].length ? offsets[pIdx][sIdx + 1] : fileSize(pIdx);
+    // No block starts between the mark and the next sample.
+    long mark = start + interval;
+
+    byte[] key = word.getBytes(StandardCharsets.ISO_8859_1);
+    FirstWordReader reader = new FirstWordReader(new NgramBoundedReaderSearcher
+        .ChannelRangeInputStream(channels.channel(pIdx), start, next - start), start);
+    long blockStart = -1;
+    while (reader.next()) {
+      int cmp = reader.compareTo(key);
+      if (blockStart >= 0 && cmp != 0) {
+        return new long[] {fileOffsets[pIdx] + blockStart, reader.position() - blockStart};
+      }
+      if (blockStart < 0) {
+        if (cmp > 0) {
+          return null;
+        } else if (cmp == 0) {
+          blockStart = reader.position();
+        }
+      }
+      if (reader.position() >= mark) {
+        // The current block extends to the next sample.
+        return blockStart < 0 ? null : new long[] {fileOffsets[pIdx] + blockStart,
+            next - blockStart};
+      }
+      reader.skipLine();
+    }
+    return blockStart < 0 ? null : new long[] {fileOffsets[pIdx] + blockStart, next - blockStart};
+  }
+
+  /**
+   * Visit all blocks in data files. A word which records span two data files is visited once with
+   * its block in the later file.
+   *
+   * @param channels the channels of data files.
+   * @param consumer the consumer of blocks, which offsets are relative to the first data file.
+   * @throws IOException if I/O error occurs.
+   */
+  void forEachBlock(ShardChannels channels, BlockConsumer consumer) throws IOException {
+    for (int pIdx = 0; pIdx < words.length; pIdx++) {
+      String nextFirst = pIdx + 1 < words.length ? firstWords[pIdx + 1] : null;
+      long base = fileOffsets[pIdx];
+      InputStream in = new NgramBoundedReaderSearcher.ChannelRangeInputStream(
+          channels.channel(pIdx), 0, fileSize(pIdx));
+      scan(in, (word, offset, size) -> {
+        if (! word.equals(nextFirst)) {
+          consumer.accept(word, base + offset, size);
+        }
+      });
+    }
+  }
+
+  /**
+   * A reader of the first word in each line.
+   */
+  private static class FirstWordReader {
+    private final InputStream in;
+    private byte[] buf = new byte[256];
+    private int len;
+    private long position;
+    private long next;
+
+    private FirstWordReader(InputStream in, long position) {
+      this.in = new BufferedInputStream(in, BUFFER_SIZE);
+      this.position = position;
+      next = position;
+    }
+
+    /**
+     * Read the first word of the next line.
+     *
+     * @return {@code false} if the input is exhausted.
+     */
+    private boolean next() throws IOException {
+      position = next;
+      int b = in.read();
+      if (b < 0) {
+        return false;
+      }
+      for (len = 0; b != ' '; b = in.read()) {
+        if (b < 0 || b == '\n' || b == '\t') {
+          throw new IOException("malformed n-gram record at " + position);
+        }
+        if (len == buf.length) {
+          buf = Arrays.copyOf(buf, len * 2);
+        }
+        buf[len++] = (byte) b;
+      }
+      next = position + len + 1;
+      return true;
+    }
+
+    /**
+     * Skip the rest of the current line.
+     */
+    private void skipLine() throws IOException {
+      for (int b = in.read(); b >= 0; b = in.read()) {
+        next++;
+        if (b == '\n') {
+          break;
+        }
+      }
+    }
+
+    /**
+     * Get the offset of the current line.
+     */
+    private long position() {
+      return position;
+    }
+
+    private byte[] word() {
+      return Arrays.copyOf(buf, len);
+    }
+
+    /**
+     * Compare the first word with the given bytes in unsigned lexicographic order.
+     */
+    private int compareTo(byte[] other) {
+      for (int i = 0; i < len && i < other.length; i++) {
+        int c = (buf[i] & 0xFF) - (other[i] & 0xFF);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return len - other.length;
+    }
+  }
+
+  String[] ngramPaths() {
+    return ngramPaths;
+  }
+
+  long[] fileOffsets() {
+    return fileOffsets;
+  }
+
+  /**
+   * Get the minimum distance between two sampled blocks.
+   *
+   * @return the interval in bytes.
+   */
+  public int interval() {
+    return interval;
+  }
+
+  /**
+   * Get the number of sampled first words in all data files.
+   *
+   * @return the number of samples.
+   */
+  public long numSamples() {
+    return Arrays.stream(words).mapToLong(w -> w.length).sum();
+  }
+
+  public static void write(SparseNgramIndex index, Path out) throws IOException {
+    Files.createDirectories(out.toAbsolutePath().getParent());
+    try (ObjectOutputStream oos = new ObjectOutputStream(Channels.newOutputStream(
+        FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)))) {
+      oos.writeObject(index);
+    }
+  }
+
+  /**
+   * Read an index from a file written by {@link #write(SparseNgramIndex, Path)}.
+   *
+   * @param in a serialized file.
+   * @return a sparse index.
+   * @throws IOException if I/O error occurs.
+   */
+  public static SparseNgramIndex read(Path in) throws IOException {
+    try (ObjectInputStream ois = new ObjectInputStream(Channels.newInputStream(
+        FileChannel.open(in)))) {
+      return (SparseNgramIndex) ois.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
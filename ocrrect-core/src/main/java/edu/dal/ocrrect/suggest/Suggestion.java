@@ -2,10 +2,14 @@ package edu.dal.ocrrect.suggest;
 
 import edu.dal.ocrrect.eval.GroundTruthError;
 import edu.dal.ocrrect.feature.metric.NGram;
+import edu.dal.ocrrect.suggest.batch.BatchScoreMixin;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
 import edu.dal.ocrrect.suggest.feature.ContextSensitiveFeature;
+import edu.dal.ocrrect.suggest.feature.DistanceFeature;
 import edu.dal.ocrrect.suggest.feature.DuplicateFeatureException;
 import edu.dal.ocrrect.suggest.feature.Feature;
 import edu.dal.ocrrect.suggest.feature.FeatureType;
+import edu.dal.ocrrect.suggest.feature.FusedContextScan;
 import edu.dal.ocrrect.util.IOUtils;
 import edu.dal.ocrrect.util.LocatedTextualUnit;
 import edu.dal.ocrrect.util.LogUtils;
@@ -29,7 +33,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -113,14 +119,16 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
    *
    * @param word A list of words.
    * @param features A list of features.
+   * @param scan the results of a fused scan, or {@code null} if not fused.
    * @return A list of candidates for each word ordered in the input word list.
    */
-  private static List<Boolean> batchDetect(List<Word> words, List<Feature> features) {
+  private static List<Boolean> batchDetect(List<Word> words, List<Feature> features,
+      FusedContextScan scan) {
     return LogUtils.logMethodTime(2, () -> {
       // Detect for each word using all features.
       List<List<Boolean>> decisions = features.stream()
           .map(feat ->
-              LogUtils.logTime(3, () -> feat.detect(words),
+              LogUtils.logTime(3, () -> detect(feat, words, scan),
                   feat.getClass().getName()
                       + ".detect()"
                       + (feat.type().name() == null ? "" : " [" + feat.type().name() + "]")))
@@ -137,6 +145,17 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
     });
   }
 
+  private static List<Boolean> detect(Feature feat, List<Word> words, FusedContextScan scan) {
+    List<Boolean> detected = scan == null ? null : scan.detect(feat, words);
+    return detected == null ? feat.detect(words) : detected;
+  }
+
+  private static List<TObjectFloatMap<String>> suggest(Feature feat, List<Word> words,
+      FusedContextScan scan) {
+    List<TObjectFloatMap<String>> suggested = scan == null ? null : scan.suggest(feat, words);
+    return suggested == null ? feat.suggest(words) : suggested;
+  }
+
   private static List<Set<String>> batchSearch(List<Word> words, List<Feature> features) {
     return LogUtils.logMethodTime(2, () -> {
       List<Set<String>> candidateForWords =
@@ -157,14 +176,50 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
       List<Set<String>> candidateLists) {
     return LogUtils.logMethodTime(2, () -> {
       List<List<FeatureSuggestion>> fsByFeatsByWords = new ArrayList<>();
+      Map<Feature, List<TObjectFloatMap<String>>> fused =
+          fusedDistanceScores(words, features, candidateLists);
       for (Feature feat: features) {
-        List<TObjectFloatMap<String>> scoreMaps = feat.score(words, candidateLists);
+        List<TObjectFloatMap<String>> scoreMaps = fused.containsKey(feat)
+            ? fused.get(feat)
+            : feat.score(words, candidateLists);
         fsByFeatsByWords.add(FeatureSuggestionBuilder.build(feat, words, scoreMaps));
       }
       return fsByFeatsByWords;
     });
   }
 
+  /**
+   * Score candidates by the distance features of built-in metrics at once. See {@link
+   * MultiDistanceScorer}.
+   *
+   * @param words a list of words.
+   * @param features a list of features.
+   * @param candidateLists a list of candidates for each word.
+   * @return the score maps of the words for each fused feature.
+   */
+  private static Map<Feature, List<TObjectFloatMap<String>>> fusedDistanceScores(
+      List<Word> words, List<Feature> features, List<Set<String>> candidateLists) {
+    Map<Feature, List<TObjectFloatMap<String>>> fused = new IdentityHashMap<>();
+    List<Feature> fusedFeats = new ArrayList<>();
+    List<DistanceMetric> metrics = new ArrayList<>();
+    for (Feature feat : features) {
+      if (feat instanceof DistanceFeature
+          && ((DistanceFeature) feat).getScoreable() instanceof DistanceMetric) {
+        fusedFeats.add(feat);
+        metrics.add((DistanceMetric) ((DistanceFeature) feat).getScoreable());
+      }
+    }
+    if (fusedFeats.size() > 1) {
+      List<List<TObjectFloatMap<String>>> scoreMaps = LogUtils.logTime(
+          String.format("fused score() of %d distance features", fusedFeats.size()), 3,
+          () -> BatchScoreMixin.score(new MultiDistanceScorer(metrics), words, candidateLists));
+      for (int i = 0; i < fusedFeats.size(); i++) {
+        fused.put(fusedFeats.get(i), scoreMaps.get(i));
+      }
+    }
+    return fused;
+  }
+
   @SuppressWarnings("unused")
   private static List<List<FeatureSuggestion>> batchSuggest(
       List<Word> words,
@@ -176,7 +231,8 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
   private static List<List<FeatureSuggestion>> batchSuggestWithBatchType(
       List<Word> words,
       List<Feature> features,
-      int top)
+      int top,
+      FusedContextScan scan)
   {
     return LogUtils.logMethodTime(2, () -> {
       List<Set<String>> candidateTotalByWords =
@@ -203,7 +259,7 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
           List<TObjectFloatMap<String>> scoreMaps =
               LogUtils.logTime(
                   String.format("%s.%s.suggest()", feat.getClass().getPackage(), feat.type()), 3,
-                  () -> feat.suggest(words));
+                  () -> suggest(feat, words, scan));
           List<FeatureSuggestion> fsList =
               IntStream.range(0, words.size())
                   .parallel()
@@ -223,7 +279,9 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
                                 .collect(Collectors.toList());
                     // Build a new feature suggestion with scores from the top
                     // ranked and reverse levenshtein suggested candidates.
-                    FeatureSuggestionBuilder fsb = new FeatureSuggestionBuilder(feat, words.get(i));
+                    FeatureSuggestionBuilder fsb = new FeatureSuggestionBuilder(feat, words.get(i))
+                        .setApproximate(
+                            ((ContextSensitiveFeature) feat).isApproximate(words.get(i)));
                     topCands.stream().forEach(fc -> fsb.add(fc));
                     candidateTotalByWords.get(i).forEach(c -> {
                       float score = 0;
@@ -244,10 +302,13 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
         }
       }
       // Score candidates and generate feature suggestions.
+      Map<Feature, List<TObjectFloatMap<String>>> fused =
+          fusedDistanceScores(words, features, candidateTotalByWords);
       for (Feature feat: features) {
         if (! (feat instanceof ContextSensitiveFeature)) {
-          List<TObjectFloatMap<String>> scoreMaps =
-              LogUtils.logTime(
+          List<TObjectFloatMap<String>> scoreMaps = fused.containsKey(feat)
+              ? fused.get(feat)
+              : LogUtils.logTime(
                   String.format("%s.%s.score()", feat.getClass().getPackage(), feat.type()), 3,
                   () -> feat.score(words, candidateTotalByWords));
           List<FeatureSuggestion> fsList =
@@ -273,11 +334,35 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
    */
   public static List<Suggestion> suggest(List<Word> words, List<Feature> features, int top,
       boolean detect) {
+    return suggest(words, features, top, detect, false);
+  }
+
+  /**
+   * Generate correction suggestions.
+   *
+   * <p>If the scan is fused, the n-gram blocks required by all the context coherence features in
+   * both the detection and the suggestion steps are scanned at once. See {@link FusedContextScan}.
+   *
+   * <p>The {@link ScanBudget} of each context coherence feature is not started in this method, as a
+   * document may be suggested in several calls. See {@link #startScanBudgets(List)}. The number of
+   * contexts degraded within the budgets since they are started is logged.
+   *
+   * @param words a list of words.
+   * @param features a list of features.
+   * @param detect whether the error detection step is needed.
+   * @param fused whether the n-gram blocks are scanned once for all context coherence features.
+   * @return A list of suggestions.
+   */
+  public static List<Suggestion> suggest(List<Word> words, List<Feature> features, int top,
+      boolean detect, boolean fused) {
     return LogUtils.logMethodTime(1, () -> {
+      List<ScanBudget> budgets = scanBudgets(features);
+      FusedContextScan scan = fused ? FusedContextScan.run(words, features, detect) : null;
+
       // Detection.
       List<Word> errWords = words;
       if (detect) {
-        List<Boolean> detects = batchDetect(words, features);
+        List<Boolean> detects = batchDetect(words, features, scan);
         // Filtering undetected words.
         errWords = IntStream
             .range(0, words.size())
@@ -287,7 +372,7 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
       }
       // Candidate suggesting.
       List<List<FeatureSuggestion>> fsByFeatsByWords =
-          batchSuggestWithBatchType(errWords, features, top);
+          batchSuggestWithBatchType(errWords, features, top, scan);
       List<SuggestionBuilder> sbList = errWords
           .stream()
           .map(w -> new SuggestionBuilder(w))
@@ -301,13 +386,51 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
           }
         }
       });
-      return sbList
+      List<Suggestion> suggestions = sbList
           .stream()
           .map(sb -> sb.build())
           .collect(Collectors.toList());
+      int degraded = budgets.stream().mapToInt(ScanBudget::numOfDegradedContexts).sum();
+      if (degraded > 0) {
+        LogUtils.info(String.format("%d contexts of the document degraded within scan budgets",
+            degraded));
+      }
+      return suggestions;
     });
   }
 
+  /**
+   * Start the scan budgets of the context coherence features for a document. This method should be
+   * called once per document, before the words of the document are suggested.
+   *
+   * @param features a list of features.
+   * @return the started budgets.
+   */
+  public static List<ScanBudget> startScanBudgets(List<Feature> features) {
+    List<ScanBudget> budgets = scanBudgets(features);
+    budgets.forEach(ScanBudget::start);
+    return budgets;
+  }
+
+  /**
+   * Get the distinct scan budgets of the context coherence features.
+   *
+   * @param features a list of features.
+   * @return the budgets.
+   */
+  private static List<ScanBudget> scanBudgets(List<Feature> features) {
+    List<ScanBudget> budgets = new ArrayList<>();
+    for (Feature feat : features) {
+      if (feat instanceof ContextCoherenceFeature) {
+        ScanBudget budget = ((ContextCoherenceFeature) feat).getScanBudget();
+        if (budget != null && budgets.stream().noneMatch(b -> b == budget)) {
+          budgets.add(budget);
+        }
+      }
+    }
+    return budgets;
+  }
+
   public static List<Suggestion> suggest(List<Word> words, List<Feature> features, int top) {
     return suggest(words, features, top, false);
   }
@@ -579,8 +702,8 @@ public class Suggestion extends LocatedTextualUnit implements Serializable {
   }
 
   static Comparator<Candidate> sortByMetric(String errorWord) {
+    NGram metric = new NGram(2, NGram.COMPREHENSIVE_COST);
     return (c1, c2) -> {
-      NGram metric = new NGram(2, NGram.COMPREHENSIVE_COST);
       double diff = metric.distance(c1.text(), errorWord) - metric.distance(c2.text(), errorWord);
       return diff == 0 ? 0 : diff < 0 ? -1 : 1;
     };
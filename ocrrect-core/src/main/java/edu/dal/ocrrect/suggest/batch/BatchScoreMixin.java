@@ -1,9 +1,11 @@
 package edu.dal.ocrrect.suggest.batch;
 
+import edu.dal.ocrrect.suggest.MultiDistanceScorer;
 import edu.dal.ocrrect.suggest.Scoreable;
 import edu.dal.ocrrect.util.Word;
 import gnu.trove.map.TObjectFloatMap;
 import gnu.trove.map.hash.TObjectFloatHashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -19,14 +21,56 @@ public interface BatchScoreMixin extends Scoreable {
         .range(0, words.size())
         .parallel()
         .mapToObj(i -> {
-          Word word = words.get(i);
           Set<String> candidates = candidateLists.get(i);
-          TObjectFloatMap<String> scores = new TObjectFloatHashMap<>();
-          candidates.forEach(c -> {
-            scores.put(c, score(word, c));
-          });
+          String[] cands = candidates.toArray(new String[candidates.size()]);
+          float[] out = new float[cands.length];
+          score(words.get(i), cands, out);
+          TObjectFloatMap<String> scores = new TObjectFloatHashMap<>(cands.length);
+          for (int c = 0; c < cands.length; c++) {
+            scores.put(cands[c], out[c]);
+          }
           return scores;
         })
         .collect(Collectors.toList());
   }
+
+  /**
+   * Score candidates by all the metrics of a scorer at once, and fan out the scores to the features
+   * of the metrics.
+   *
+   * @param scorer a multi-metric scorer.
+   * @param words a list of words.
+   * @param candidateLists a list of candidates for each word.
+   * @return the score maps of the words for each metric, in the order of {@link
+   *     MultiDistanceScorer#metrics()}.
+   */
+  static List<List<TObjectFloatMap<String>>> score(MultiDistanceScorer scorer, List<Word> words,
+      List<Set<String>> candidateLists) {
+    List<float[][]> scoresByWords = IntStream
+        .range(0, words.size())
+        .parallel()
+        .mapToObj(i -> {
+          Set<String> candidates = candidateLists.get(i);
+          return scorer.score(
+              words.get(i).text(), candidates.toArray(new String[candidates.size()]));
+        })
+        .collect(Collectors.toList());
+    List<List<TObjectFloatMap<String>>> scoreMapsByMetrics = new ArrayList<>();
+    for (int m = 0; m < scorer.size(); m++) {
+      scoreMapsByMetrics.add(new ArrayList<>(words.size()));
+    }
+    for (int i = 0; i < words.size(); i++) {
+      Set<String> candidates = candidateLists.get(i);
+      float[][] scores = scoresByWords.get(i);
+      for (int m = 0; m < scorer.size(); m++) {
+        TObjectFloatMap<String> scoreMap = new TObjectFloatHashMap<>();
+        int c = 0;
+        for (String cand : candidates) {
+          scoreMap.put(cand, scores[c++][m]);
+        }
+        scoreMapsByMetrics.get(m).add(scoreMap);
+      }
+    }
+    return scoreMapsByMetrics;
+  }
 }
@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import edu.dal.ocrrect.suggest.NgramBloomFilter;
 import edu.dal.ocrrect.util.Context;
 import edu.dal.ocrrect.util.Word;
 
@@ -32,6 +33,18 @@ public interface ContextSensitiveBatchDetectMixin extends BatchDetectMixin {
    */
   int detectionContextSize();
 
+  /**
+   * Get the filter for testing the existence of detection contexts before calling {@link
+   * #detect(String, TObjectByteMap)}. Contexts rejected by the filter are detected as absent
+   * without scanning the corpus.
+   *
+   * @return a Bloom filter over the n-grams of the detection context size, or {@code null} if
+   *     contexts are not filtered.
+   */
+  default NgramBloomFilter detectionFilter() {
+    return null;
+  }
+
   /**
    * Get the final detection decision given context detection results. Implemented class should
    * override this method to modify the detection rule.
@@ -42,8 +55,13 @@ public interface ContextSensitiveBatchDetectMixin extends BatchDetectMixin {
     return detected.stream().noneMatch(b -> b.booleanValue());
   }
 
-  @Override
-  default List<Boolean> detect(List<Word> words) {
+  /**
+   * Group the detection contexts of words by their first words.
+   *
+   * @param words a list of words.
+   * @return a mapping from first words to the contexts starting with them.
+   */
+  default Map<String, TObjectByteMap<Context>> groupDetectionContexts(List<Word> words) {
     // Construct a mapping from word to ngram contexts start with such word.
     Map<String, TObjectByteMap<Context>> wordContextMap = new HashMap<>();
     words.forEach(w -> {
@@ -57,17 +75,62 @@ public interface ContextSensitiveBatchDetectMixin extends BatchDetectMixin {
         contextMap.put(c, (byte) 0);
       });
     });
-    // Create detection benchmarks for contexts separated by their first words.
-    // Compute using the parallel streaming approach.
-    wordContextMap
-        .keySet()
-        .parallelStream()
-        .forEach(str -> {
-          TObjectByteMap<Context> newMap = detect(str, wordContextMap.get(str));
-          wordContextMap.put(str, newMap);
-        });
-    // Collect the results.
-    List<Boolean> results = words.stream()
+    return wordContextMap;
+  }
+
+  /**
+   * Select the contexts which may exist according to {@link #detectionFilter()}.
+   *
+   * @param contextMap contexts with the same first word.
+   * @return the contexts accepted by the filter, or the given map if there is no filter.
+   */
+  default TObjectByteMap<Context> filterDetectionContexts(TObjectByteMap<Context> contextMap) {
+    NgramBloomFilter filter = detectionFilter();
+    if (filter == null) {
+      return contextMap;
+    }
+    TObjectByteMap<Context> positiveMap = new TObjectByteHashMap<>();
+    for (Context c : contextMap.keySet()) {
+      if (filter.mightContain(c.toString())) {
+        positiveMap.put(c, (byte) 0);
+      }
+    }
+    return positiveMap;
+  }
+
+  /**
+   * Complete the detection results of the filtered contexts, where contexts rejected by the filter
+   * are detected as absent.
+   *
+   * @param contextMap contexts with the same first word.
+   * @param positiveMap the filtered contexts returned by {@link
+   *     #filterDetectionContexts(TObjectByteMap)}.
+   * @param detected the detection results of the filtered contexts.
+   * @return the detection results of all contexts.
+   */
+  static TObjectByteMap<Context> completeDetections(TObjectByteMap<Context> contextMap,
+      TObjectByteMap<Context> positiveMap, TObjectByteMap<Context> detected) {
+    if (positiveMap == contextMap) {
+      return detected;
+    }
+    TObjectByteMap<Context> newMap = new TObjectByteHashMap<>();
+    for (Context c : contextMap.keySet()) {
+      newMap.put(c, detected.containsKey(c) ? detected.get(c) : (byte) 0);
+    }
+    return newMap;
+  }
+
+  /**
+   * Make the detection decision of words given the detection results of their contexts.
+   *
+   * @param words a list of words.
+   * @param wordContextMap a mapping from first words to the detection results of the contexts
+   *     starting with them.
+   * @return a list of detection decisions for each word.
+   */
+  default List<Boolean> collectDetections(List<Word> words,
+      Map<String, TObjectByteMap<Context>> wordContextMap) {
+    return words.stream()
       .map(w -> w.getContexts(detectionContextSize()))
       .map(contexts -> {
         List<Boolean> detected = contexts.stream()
@@ -80,8 +143,26 @@ public interface ContextSensitiveBatchDetectMixin extends BatchDetectMixin {
         return detectByContextResult(detected);
       })
       .collect(Collectors.toList());
+  }
 
-    return results;
+  @Override
+  default List<Boolean> detect(List<Word> words) {
+    Map<String, TObjectByteMap<Context>> wordContextMap = groupDetectionContexts(words);
+    // Create detection benchmarks for contexts separated by their first words.
+    // Compute using the parallel streaming approach. Only the contexts that may exist are checked
+    // against the corpus.
+    wordContextMap
+        .keySet()
+        .parallelStream()
+        .forEach(str -> {
+          TObjectByteMap<Context> contextMap = wordContextMap.get(str);
+          TObjectByteMap<Context> positiveMap = filterDetectionContexts(contextMap);
+          TObjectByteMap<Context> detected =
+              positiveMap.isEmpty() ? positiveMap : detect(str, positiveMap);
+          wordContextMap.put(str, completeDetections(contextMap, positiveMap, detected));
+        });
+    // Collect the results.
+    return collectDetections(words, wordContextMap);
   }
 
   @Override
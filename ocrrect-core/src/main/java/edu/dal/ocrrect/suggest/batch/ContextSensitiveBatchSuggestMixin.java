@@ -69,8 +69,14 @@ public interface ContextSensitiveBatchSuggestMixin extends BatchSuggestMixin {
     return merged;
   }
 
-  @Override
-  default List<TObjectFloatMap<String>> suggest(List<Word> words) {
+  /**
+   * Group the suggestion contexts of words by their first words. Contexts with an empty first word
+   * are omitted.
+   *
+   * @param words a list of words.
+   * @return a mapping from first words to the contexts starting with them.
+   */
+  default Map<String, List<Context>> groupSuggestionContexts(List<Word> words) {
     // Construct a mapping from word to ngram contexts start with such word.
     Map<String, List<Context>> wordContextMap = new HashMap<>();
     words.forEach(w -> {
@@ -86,6 +92,30 @@ public interface ContextSensitiveBatchSuggestMixin extends BatchSuggestMixin {
         }
       });
     });
+    return wordContextMap;
+  }
+
+  /**
+   * Merge the suggestions of contexts into the suggestions of words.
+   *
+   * @param words a list of words.
+   * @param suggestMap a mapping from contexts to their suggestions.
+   * @return a map from suggested candidates to their confidence values for each word.
+   */
+  default List<TObjectFloatMap<String>> collectSuggestions(List<Word> words,
+      Map<Context, TObjectFloatMap<String>> suggestMap) {
+    return words.stream()
+      .map(w -> w.getContexts(suggestionContextSize()).stream()
+        .map(suggestMap::get)
+        .reduce(new TObjectFloatHashMap<String>(), (a, b) -> {
+          return mergeContextSuggests(a, b);
+        }))
+      .collect(Collectors.toList());
+  }
+
+  @Override
+  default List<TObjectFloatMap<String>> suggest(List<Word> words) {
+    Map<String, List<Context>> wordContextMap = groupSuggestionContexts(words);
 
     // Create search benchmarks for contexts separated by their first words.
     // Compute using the parallel streaming approach.
@@ -102,13 +132,7 @@ public interface ContextSensitiveBatchSuggestMixin extends BatchSuggestMixin {
         });
 
     // Collect the results.
-    return words.stream()
-      .map(w -> w.getContexts(suggestionContextSize()).stream()
-        .map(suggestMap::get)
-        .reduce(new TObjectFloatHashMap<String>(), (a, b) -> {
-          return mergeContextSuggests(a, b);
-        }))
-      .collect(Collectors.toList());
+    return collectSuggestions(words, suggestMap);
   }
 
   @Override
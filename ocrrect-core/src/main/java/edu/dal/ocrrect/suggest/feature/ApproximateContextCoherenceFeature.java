@@ -1,14 +1,18 @@
 package edu.dal.ocrrect.suggest.feature;
 
+import edu.dal.ocrrect.suggest.NgramBlockTask;
 import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
+import edu.dal.ocrrect.suggest.NgramPattern;
+import edu.dal.ocrrect.suggest.NgramPatternMap;
+import edu.dal.ocrrect.suggest.NgramRecord;
+import edu.dal.ocrrect.suggest.SkipNgramIndex;
 import edu.dal.ocrrect.util.Context;
+import gnu.trove.map.TObjectDoubleMap;
 import gnu.trove.map.TObjectFloatMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
 import gnu.trove.map.hash.TObjectFloatHashMap;
-import java.io.BufferedReader;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -27,96 +31,132 @@ public class ApproximateContextCoherenceFeature extends ContextCoherenceFeature
     super(name, reader, ngramSize);
   }
 
+  /**
+   * Every word except the pivot is relaxed in turn, including the second word.
+   */
   @Override
-  public List<TObjectFloatMap<String>> suggest(String first, List<Context> contexts) {
-    // Initialize a hash map storing mappings from skipped ngram context to all its candidates. The
-    // map is separated by the position of the skipped gram in the context, in order to increase the
-    // searching speed.
-    int maxNgramSize = contexts
-        .stream()
-        .map(c -> c.words().length)
-        .max(Comparator.naturalOrder())
-        .get();
-    List<HashMap<String, TObjectFloatMap<String>>> rsNgramMaps = new ArrayList<>();
-    for (int i = 0; i < maxNgramSize; i++) {
-      rsNgramMaps.add(new HashMap<>());
-    }
-    contexts.forEach(c -> {
-      String[] words = c.words();
-      int idx = c.index();
-      relaxedSkipNgrams(words, idx).forEach(rsNgram -> {
-        rsNgramMaps.get(idx).putIfAbsent(rsNgram, new TObjectFloatHashMap<>());
-      });
-    });
+  protected boolean fixesSecondWord(Context context) {
+    return false;
+  }
+
+  @Override
+  public NgramBlockTask<List<TObjectFloatMap<String>>> newSuggestTask(List<Context> contexts) {
+    return new RelaxedSuggestTask(contexts);
+  }
+
+  /**
+   * A task collecting candidates of relaxed skip-grams. The frequencies of candidates of each
+   * relaxed skip-gram are summed in double precision and rounded to float in the result, as in the
+   * task of {@link ContextCoherenceFeature}.
+   */
+  private class RelaxedSuggestTask implements NgramBlockTask<List<TObjectFloatMap<String>>> {
+    private final List<Context> contexts;
+    private final int maxNgramSize;
+    private final List<NgramPatternMap<TObjectDoubleMap<String>>> rsNgramMaps;
 
-    // Check for the existence of n-grams in corpus.
-    try (BufferedReader br = reader.openBufferedRecordsWithFirstWord(first)) {
-      if (br != null) {
-        for (String line = br.readLine(); line != null; line = br.readLine()) {
-          String[] splits = line.split("\t");
-          String ngram = splits[0];
-          float freq = Float.parseFloat(splits[1]);
+    private RelaxedSuggestTask(List<Context> contexts) {
+      this.contexts = contexts;
+      // Initialize a hash map storing mappings from skipped ngram context to all its candidates.
+      // The map is separated by the position of the skipped gram in the context, in order to
+      // increase the searching speed.
+      maxNgramSize = contexts
+          .stream()
+          .map(c -> c.words().length)
+          .max(Comparator.naturalOrder())
+          .get();
+      rsNgramMaps = new ArrayList<>();
+      for (int i = 0; i < maxNgramSize; i++) {
+        rsNgramMaps.add(new NgramPatternMap<>());
+      }
+      contexts.forEach(c -> {
+        int idx = c.index();
+        relaxedSkipNgrams(c.words(), idx).forEach(rsNgram -> {
+          rsNgramMaps.get(idx).putIfAbsent(rsNgram, new TObjectDoubleHashMap<>());
+        });
+      });
+    }
 
-          // Construct skip-ngram using the ngram in the current reading line. Check the existence
-          // of each skip-ngram in map.
-          String[] grams = ngram.split(" ");
-          for (int i = 0; i < grams.length; i++) {
-            HashMap<String, TObjectFloatMap<String>> map = rsNgramMaps.get(i);
-            TObjectFloatMap<String> candidateMap = null;
-            for (String rsNgram : relaxedSkipNgrams(grams, i)) {
-              if ((candidateMap = map.get(rsNgram)) != null) {
-                candidateMap.adjustOrPutValue(grams[i], freq, freq);
-              }
-            }
+    @Override
+    public void accept(NgramRecord record) {
+      // Match the ngram in the current reading line against the relaxed skip-ngrams of every
+      // pivot and relaxed position.
+      for (int i = 0; i < record.size() && i < maxNgramSize; i++) {
+        NgramPatternMap<TObjectDoubleMap<String>> map = rsNgramMaps.get(i);
+        if (map.isEmpty()) {
+          continue;
+        }
+        for (int j = 1; j < record.size(); j++) {
+          TObjectDoubleMap<String> candidateMap;
+          if (j != i && (candidateMap = map.get(record, i, j)) != null) {
+            double freq = record.freq();
+            candidateMap.adjustOrPutValue(record.gram(i), freq, freq);
           }
         }
-      } else {
-        // Return a list of empty maps.
-        return IntStream
-            .range(0, contexts.size())
-            .mapToObj(i -> new TObjectFloatHashMap<String>())
-            .collect(Collectors.toList());
       }
-    } catch (IOException e) {
-      throw new RuntimeException();
     }
 
-    return IntStream
-        .range(0, contexts.size())
-        .mapToObj(i -> {
-          // Merge candidates from different skip-grams to construct the final result.
-          Context context = contexts.get(i);
-          int pos = context.index();
-          HashMap<String, TObjectFloatMap<String>> map = rsNgramMaps.get(pos);
-          return relaxedSkipNgrams(context.words(), pos)
-              .stream()
-              .map(map::get)
-              .reduce(new TObjectFloatHashMap<String>(), (a, b) -> {
-                return mergeContextSuggests(a, b);
-              });
-          })
-        .collect(Collectors.toList());
+    @Override
+    public List<TObjectFloatMap<String>> result() {
+      return IntStream
+          .range(0, contexts.size())
+          .mapToObj(i -> {
+            // Merge candidates from different skip-grams to construct the final result.
+            Context context = contexts.get(i);
+            int pos = context.index();
+            NgramPatternMap<TObjectDoubleMap<String>> map = rsNgramMaps.get(pos);
+            return relaxedSkipNgrams(context.words(), pos)
+                .stream()
+                .map(rsNgram -> toFloatMap(map.get(rsNgram)))
+                .reduce(new TObjectFloatHashMap<String>(), (a, b) -> {
+                  return mergeContextSuggests(a, b);
+                });
+            })
+          .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean splittable() {
+      return true;
+    }
+
+    @Override
+    public NgramBlockTask<List<TObjectFloatMap<String>>> split() {
+      return new RelaxedSuggestTask(contexts);
+    }
+
+    @Override
+    public void merge(NgramBlockTask<List<TObjectFloatMap<String>>> part) {
+      mergeCandidateMaps(rsNgramMaps, ((RelaxedSuggestTask) part).rsNgramMaps);
+    }
+  }
+
+  @Override
+  protected TObjectFloatMap<String> lookup(SkipNgramIndex index, Context context) {
+    // Merge candidates of the relaxed skip-grams in the same order as the task does.
+    String[] words = context.words();
+    int pos = context.index();
+    TObjectFloatMap<String> merged = new TObjectFloatHashMap<>();
+    for (int i = 1; i < words.length; i++) {
+      if (i != pos) {
+        merged = mergeContextSuggests(merged, index.lookup(words, pos, i));
+      }
+    }
+    return merged;
   }
 
   /**
    * Generate a list of relaxed skip ngram, which is a n-gram with one word replaced by "{@value
-   * RELAX_WORD_SUB}" and one word replaced by "{@value MATCH_WORD_SUB}".
+   * RELAX_WORD_SUB}" and one word replaced by "{@value MATCH_WORD_SUB}". The skip-grams are
+   * represented by patterns, which are matched against the records byte-wise.
    *
    * @param ngram a list of {@code n} gram strings.
    * @param index the index of the pivot (matching) gram in n-gram.
-   * @return a concatenated skip-ngram, which pivot gram is skipped and another gram is substituted
-   *     by "{@value RELAX_WORD_SUB}".
+   * @return patterns of the skip-ngrams, which pivot gram is skipped and another gram is relaxed.
    */
-  private List<String> relaxedSkipNgrams(String[] ngram, int index) {
-    String[] skipNgram = ngram.clone();
-    skipNgram[index] = MATCH_WORD_SUB;
+  private static List<NgramPattern> relaxedSkipNgrams(String[] ngram, int index) {
     return IntStream.range(1, ngram.length)
         .filter(i -> i != index)
-        .mapToObj(i -> {
-          String[] relaxdSkipNgram = skipNgram.clone();
-          relaxdSkipNgram[i] = RELAX_WORD_SUB;
-          return String.join(" ", relaxdSkipNgram);
-        })
+        .mapToObj(i -> new NgramPattern(ngram, index, i))
         .collect(Collectors.toList());
   }
 }
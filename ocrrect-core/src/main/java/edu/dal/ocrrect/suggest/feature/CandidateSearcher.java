@@ -0,0 +1,34 @@
+package edu.dal.ocrrect.suggest.feature;
+
+import java.util.Set;
+
+/**
+ * A search engine of the vocabulary words within a Levenshtein distance, used by word isolated
+ * features. All engines find the same candidates as {@link ReverseLevenshteinDistanceSearcher}.
+ *
+ * @since 2017.09.28
+ */
+public interface CandidateSearcher {
+  /**
+   * Search the vocabulary words within a Levenshtein distance.
+   *
+   * @param word a word.
+   * @param maxDistance the maximum distance.
+   * @return the vocabulary words within the distance.
+   */
+  Set<String> search(String word, int maxDistance);
+
+  /**
+   * Get the number of words in the vocabulary.
+   *
+   * @return the number of words.
+   */
+  int numOfWords();
+
+  /**
+   * Get the maximum distance supported by this engine.
+   *
+   * @return the maximum distance.
+   */
+  int maxDistance();
+}
@@ -1,24 +1,36 @@
 package edu.dal.ocrrect.suggest.feature;
 
+import edu.dal.ocrrect.suggest.NgramBlockScanner;
+import edu.dal.ocrrect.suggest.NgramBlockTask;
+import edu.dal.ocrrect.suggest.NgramBloomFilter;
 import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
+import edu.dal.ocrrect.suggest.NgramPattern;
+import edu.dal.ocrrect.suggest.NgramPatternMap;
+import edu.dal.ocrrect.suggest.NgramRecord;
 import edu.dal.ocrrect.suggest.NormalizationOption;
+import edu.dal.ocrrect.suggest.ScanBudget;
+import edu.dal.ocrrect.suggest.SkipNgramIndex;
 import edu.dal.ocrrect.util.Context;
 import edu.dal.ocrrect.util.Word;
 import gnu.trove.map.TObjectByteMap;
+import gnu.trove.map.TObjectDoubleMap;
 import gnu.trove.map.TObjectFloatMap;
 import gnu.trove.map.hash.TObjectByteHashMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
 import gnu.trove.map.hash.TObjectFloatHashMap;
-import java.io.BufferedReader;
+import gnu.trove.set.hash.THashSet;
 import java.io.IOException;
 import java.lang.UnsupportedOperationException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * @since 2017.04.20
@@ -28,6 +40,7 @@ public class ContextCoherenceFeature extends ContextSensitiveFeature {
 
   protected NgramBoundedReaderSearcher reader;
   private int ngramSize;
+  private transient ScanBudget budget;
 
   public ContextCoherenceFeature(String name, NgramBoundedReaderSearcher reader, int ngramSize) {
     super(name);
@@ -46,107 +59,417 @@ public class ContextCoherenceFeature extends ContextSensitiveFeature {
   @Override
   public int suggestionContextSize() { return ngramSize; }
 
+  @Override
+  public NgramBloomFilter detectionFilter() {
+    return reader.getBloomFilter();
+  }
+
   /**
-   * Generate a skip ngram.
+   * Set a budget limiting the block scans of this feature. The budget should be started for each
+   * document by {@link ScanBudget#start()}, e.g. by {@link
+   * edu.dal.ocrrect.suggest.Suggestion#startScanBudgets(List)}. In a fused scan, the budget of the
+   * first feature bound to a searcher limits the scans shared by all the features bound to it.
    *
-   * @param ngram A list of {@code n} gram strings.
-   * @param position The index of the skipped gram in ngram array.
-   * @return A concatenated skip-ngram, which skipped gram is replaced by an space character.
+   * @param budget a budget, or {@code null} for no limit.
    */
-  private String skipNgram(String[] ngram, int position) {
-    String[] copy = ngram.clone();
-    copy[position] = " ";
-    return String.join(" ", copy);
+  public void setScanBudget(ScanBudget budget) {
+    this.budget = budget;
+  }
+
+  public ScanBudget getScanBudget() {
+    return budget;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>A suggestion is approximate if the block of any of its contexts is not fully scanned within
+   * the budget since the budget is started.
+   */
   @Override
-  public TObjectByteMap<Context> detect(String first, TObjectByteMap<Context> contextMap) {
-    TObjectByteHashMap<String> ngramMap = new TObjectByteHashMap<>();
-    contextMap.keySet().forEach(context -> {
-      ngramMap.put(context.toString(), (byte) 0);
-    });
-    // Check for the existence of n-grams in corpus.
-    try (BufferedReader br = reader.openBufferedRecordsWithFirstWord(first)) {
-      if (br != null) {
-        for (String line = br.readLine(); line != null; line = br.readLine()) {
-          String[] splits = line.split("\t");
-          String ngram = splits[0];
-          if (ngramMap.containsKey(ngram)) {
-            ngramMap.put(ngram, (byte) 1);
-          }
-        }
-      }
+  public boolean isApproximate(Word word) {
+    return budget != null && budget.numOfDegradedContexts() > 0
+        && word.getContexts(suggestionContextSize()).stream().anyMatch(budget::isDegraded);
+  }
+
+  /**
+   * Scan the block of a first word once, and feed every record to all the given tasks. Large
+   * blocks are split into parts scanned in parallel if all the tasks support splitting.
+   *
+   * @param reader a n-gram searcher.
+   * @param first the first word.
+   * @param second the second word to narrow the block to the sub-block with this word, or {@code
+   *     null} to scan the full block.
+   * @param tasks a list of tasks.
+   * @see NgramBlockScanner#scan(NgramBoundedReaderSearcher, String, String, List)
+   */
+  static void scan(NgramBoundedReaderSearcher reader, String first, String second,
+      List<? extends NgramBlockTask<?>> tasks) {
+    try {
+      NgramBlockScanner.scan(reader, first, second, tasks);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
-    // Update detection results to contextMap.
-    TObjectByteMap<Context> resultMap = new TObjectByteHashMap<>();
-    for (Context key : contextMap.keySet()) {
-      byte result = ngramMap.get(key.toString());
-      resultMap.put(key, result);
+  }
+
+  /**
+   * Scan a block for a task within the budget of this feature.
+   *
+   * @param contexts the contexts of the task, which are degraded if the block is not fully scanned.
+   */
+  private <T> T scan(String first, String second, NgramBlockTask<T> task,
+      Collection<Context> contexts) {
+    if (budget == null) {
+      scan(reader, first, second, Arrays.asList(task));
+    } else {
+      try {
+        if (! NgramBlockScanner.scan(reader, first, second, Arrays.asList(task), budget)) {
+          budget.degrade(contexts);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return task.result();
+  }
+
+  /**
+   * Check whether the second word of a context is matched exactly in suggestion. The sub-block of
+   * the second word is scanned for such contexts, if the first word block has a second word index.
+   *
+   * @param context a context.
+   * @return {@code true} if the second word is not the pivot.
+   */
+  protected boolean fixesSecondWord(Context context) {
+    return context.index() != 1;
+  }
+
+  /**
+   * Partition contexts with the same first word by the sub-block to be scanned for them.
+   *
+   * @param first the first word.
+   * @param contexts contexts with the given first word.
+   * @param detect {@code true} for detection, where all words are matched exactly.
+   * @return a mapping from second words to their contexts, where contexts requiring the full block
+   *     are mapped from {@code null}.
+   */
+  Map<String, List<Context>> partitionBySecondWord(String first, Collection<Context> contexts,
+      boolean detect) {
+    boolean indexed = reader.hasSecondWordIndex(first);
+    Map<String, List<Context>> parts = new HashMap<>();
+    for (Context c : contexts) {
+      String[] words = c.words();
+      String second = indexed && words.length > 1 && (detect || fixesSecondWord(c))
+          ? words[1] : null;
+      parts.computeIfAbsent(second, k -> new ArrayList<>()).add(c);
+    }
+    return parts;
+  }
+
+  /**
+   * Get the subset of a context map with the given contexts.
+   */
+  static TObjectByteMap<Context> subMap(TObjectByteMap<Context> contextMap,
+      List<Context> contexts) {
+    TObjectByteMap<Context> map = new TObjectByteHashMap<>();
+    contexts.forEach(c -> map.put(c, contextMap.get(c)));
+    return map;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The blocks of all first words are read in the order of their offsets in the corpus.
+   *
+   * @see FusedContextScan
+   */
+  @Override
+  public List<Boolean> detect(List<Word> words) {
+    return FusedContextScan.run(words, Arrays.asList(this), true, false).detect(this, words);
+  }
+
+  @Override
+  public TObjectByteMap<Context> detect(String first, TObjectByteMap<Context> contextMap) {
+    if (! reader.hasSecondWordIndex(first)) {
+      return scan(first, null, newDetectTask(contextMap), contextMap.keySet());
     }
+    TObjectByteMap<Context> resultMap = new TObjectByteHashMap<>();
+    partitionBySecondWord(first, contextMap.keySet(), true).forEach((second, contexts) -> {
+      resultMap.putAll(
+          scan(first, second, newDetectTask(subMap(contextMap, contexts)), contexts));
+    });
     return resultMap;
   }
 
+  /**
+   * Create a task checking the existence of contexts in the records of their first word block.
+   *
+   * @param contextMap contexts with the same first word.
+   * @return a task which result maps each context to 1 if it exists in the corpus, or 0 otherwise.
+   */
+  public NgramBlockTask<TObjectByteMap<Context>> newDetectTask(TObjectByteMap<Context> contextMap) {
+    return new DetectTask(contextMap);
+  }
+
+  /**
+   * A task checking the existence of contexts. Split tasks share the patterns of the contexts, and
+   * are merged by the union of the existing n-grams.
+   */
+  private static class DetectTask implements NgramBlockTask<TObjectByteMap<Context>> {
+    private final TObjectByteMap<Context> contextMap;
+    private final NgramPatternMap<String> patternMap;
+    private final TObjectByteHashMap<String> ngramMap = new TObjectByteHashMap<>();
+
+    private DetectTask(TObjectByteMap<Context> contextMap) {
+      this(contextMap, new NgramPatternMap<>());
+      contextMap.keySet().forEach(context -> {
+        String ngram = context.toString();
+        patternMap.putIfAbsent(
+            new NgramPattern(context.words(), NgramPattern.NONE, NgramPattern.NONE), ngram);
+      });
+    }
+
+    private DetectTask(TObjectByteMap<Context> contextMap, NgramPatternMap<String> patternMap) {
+      this.contextMap = contextMap;
+      this.patternMap = patternMap;
+      contextMap.keySet().forEach(context -> {
+        ngramMap.put(context.toString(), (byte) 0);
+      });
+    }
+
+    @Override
+    public void accept(NgramRecord record) {
+      // Check for the existence of n-grams in corpus.
+      String ngram = patternMap.get(record, NgramPattern.NONE, NgramPattern.NONE);
+      if (ngram != null) {
+        ngramMap.put(ngram, (byte) 1);
+      }
+    }
+
+    @Override
+    public TObjectByteMap<Context> result() {
+      // Update detection results to contextMap.
+      TObjectByteMap<Context> resultMap = new TObjectByteHashMap<>();
+      for (Context key : contextMap.keySet()) {
+        byte result = ngramMap.get(key.toString());
+        resultMap.put(key, result);
+      }
+      return resultMap;
+    }
+
+    @Override
+    public boolean splittable() {
+      return true;
+    }
+
+    @Override
+    public NgramBlockTask<TObjectByteMap<Context>> split() {
+      return new DetectTask(contextMap, patternMap);
+    }
+
+    @Override
+    public void merge(NgramBlockTask<TObjectByteMap<Context>> part) {
+      ((DetectTask) part).ngramMap.forEachEntry((ngram, exists) -> {
+        if (exists == 1) {
+          ngramMap.put(ngram, exists);
+        }
+        return true;
+      });
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The blocks of all first words are read in the order of their offsets in the corpus.
+   *
+   * @see FusedContextScan
+   */
+  @Override
+  public List<TObjectFloatMap<String>> suggest(List<Word> words) {
+    return FusedContextScan.run(words, Arrays.asList(this), false, true).suggest(this, words);
+  }
+
   @Override
   public List<TObjectFloatMap<String>> suggest(String first, List<Context> contexts) {
-    // Initialize a hash map storing mappings from skipped ngram context to all its candidates. The
-    // map is separated by the position of the skipped gram in the context, in order to increase the
-    // searching speed.
-    int maxNgramSize = contexts.stream().map(c -> c.words().length)
-        .max(Comparator.naturalOrder()).get();
-    List<HashMap<String, TObjectFloatMap<String>>> skipNgramMaps
-        = new ArrayList<>();
-    for (int i = 0; i < maxNgramSize; i++) {
-      skipNgramMaps.add(new HashMap<>());
-    }
-    contexts.forEach(c -> {
-      String[] words = c.words();
-      int idx = c.index();
-      skipNgramMaps.get(idx).putIfAbsent(
-          skipNgram(words, idx),
-          new TObjectFloatHashMap<>());
+    if (canLookup(contexts)) {
+      return lookup(contexts);
+    }
+    if (! reader.hasSecondWordIndex(first)) {
+      return scan(first, null, newSuggestTask(contexts), contexts);
+    }
+    // Contexts with a fixed second word are suggested from the sub-blocks of the second words, and
+    // the others from the full block.
+    Map<Context, TObjectFloatMap<String>> resultMap = new IdentityHashMap<>();
+    partitionBySecondWord(first, contexts, false).forEach((second, part) -> {
+      List<TObjectFloatMap<String>> maps = scan(first, second, newSuggestTask(part), part);
+      for (int i = 0; i < part.size(); i++) {
+        resultMap.put(part.get(i), maps.get(i));
+      }
     });
-    // Check for the existence of n-grams in corpus.
-    try (BufferedReader br = reader.openBufferedRecordsWithFirstWord(first)) {
-      if (br != null) {
-        for (String line = br.readLine(); line != null; line = br.readLine()) {
-          String[] splits = line.split("\t");
-          String[] grams = splits[0].split(" ");
-          float freq = Float.parseFloat(splits[1]);
-
-          // Post-process the reading grams.
-          String[] procGrams = Arrays.stream(grams)
-              .collect(Collectors.toList())
-              .toArray(new String[grams.length]);
-
-          // Check the existence of every possible skipped ngram in map.
-          for (int i = 0; i < procGrams.length; i++) {
-            HashMap<String, TObjectFloatMap<String>> map = skipNgramMaps.get(i);
-            TObjectFloatMap<String> candidateMap = null;
-            if ((candidateMap = map.get(skipNgram(procGrams, i))) != null) {
-              // Return back the original string representation as the
-              // candidate.
-              candidateMap.adjustOrPutValue(grams[i], freq, freq);
-            }
-          }
+    return contexts.stream().map(resultMap::get).collect(Collectors.toList());
+  }
+
+  /**
+   * Check whether the candidates of all the given contexts can be found in the skip-gram index of
+   * the searcher, instead of scanning the corpus.
+   *
+   * @param contexts a list of contexts.
+   * @return {@code true} if a skip-gram index is set and supports every context.
+   */
+  boolean canLookup(List<Context> contexts) {
+    SkipNgramIndex index = reader.getSkipNgramIndex();
+    return index != null && contexts.stream().allMatch(c -> index.supports(c.words(), c.index()));
+  }
+
+  /**
+   * Find the candidates of contexts in the skip-gram index of the searcher.
+   *
+   * @param contexts a list of contexts, which are supported by the index.
+   * @return a map from candidates to their frequencies for each context.
+   * @see #canLookup(List)
+   */
+  List<TObjectFloatMap<String>> lookup(List<Context> contexts) {
+    SkipNgramIndex index = reader.getSkipNgramIndex();
+    return contexts.stream().map(c -> lookup(index, c)).collect(Collectors.toList());
+  }
+
+  /**
+   * Find the candidates of a context in a skip-gram index. The result is identical to the one
+   * collected by the task created in {@link #newSuggestTask(List)}, as both sum the integral
+   * frequencies of the corpus in double precision and round the sums to float once.
+   *
+   * @param index a skip-gram index.
+   * @param context a context.
+   * @return a map from candidates to their frequencies.
+   */
+  protected TObjectFloatMap<String> lookup(SkipNgramIndex index, Context context) {
+    return index.lookup(context.words(), context.index());
+  }
+
+  /**
+   * Create a task collecting candidates for contexts from the records of their first word block.
+   *
+   * @param contexts contexts with the same first word.
+   * @return a task which result is a map from candidates to their frequencies for each context.
+   */
+  public NgramBlockTask<List<TObjectFloatMap<String>>> newSuggestTask(List<Context> contexts) {
+    return new SuggestTask(contexts);
+  }
+
+  /**
+   * A task collecting candidates of skip-grams. The frequencies of candidates are summed in double
+   * precision and rounded to float in the result, thus the result does not depend on how a block is
+   * split, as long as the sums are exact in double. Sums above 2<sup>24</sup> are more precise than
+   * the float sums of the earlier versions, which the trained models may depend on.
+   */
+  private static class SuggestTask implements NgramBlockTask<List<TObjectFloatMap<String>>> {
+    private final List<Context> contexts;
+    private final int maxNgramSize;
+    private final List<NgramPatternMap<TObjectDoubleMap<String>>> skipNgramMaps;
+
+    private SuggestTask(List<Context> contexts) {
+      this.contexts = contexts;
+      // Initialize a hash map storing mappings from skipped ngram context to all its candidates.
+      // The map is separated by the position of the skipped gram in the context, in order to
+      // increase the searching speed.
+      maxNgramSize = contexts.stream().map(c -> c.words().length)
+          .max(Comparator.naturalOrder()).get();
+      skipNgramMaps = new ArrayList<>();
+      for (int i = 0; i < maxNgramSize; i++) {
+        skipNgramMaps.add(new NgramPatternMap<>());
+      }
+      contexts.forEach(c -> {
+        int idx = c.index();
+        skipNgramMaps.get(idx).putIfAbsent(
+            new NgramPattern(c.words(), idx, NgramPattern.NONE),
+            new TObjectDoubleHashMap<>());
+      });
+    }
+
+    @Override
+    public void accept(NgramRecord record) {
+      // Check the existence of every possible skipped ngram in map.
+      for (int i = 0; i < record.size() && i < maxNgramSize; i++) {
+        TObjectDoubleMap<String> candidateMap =
+            skipNgramMaps.get(i).get(record, i, NgramPattern.NONE);
+        if (candidateMap != null) {
+          // Return back the original string representation as the candidate.
+          double freq = record.freq();
+          candidateMap.adjustOrPutValue(record.gram(i), freq, freq);
         }
-      } else {
-        // Return a list of empty maps.
-        return IntStream
-            .range(0, contexts.size())
-            .mapToObj(i -> new TObjectFloatHashMap<String>())
-            .collect(Collectors.toList());
       }
-    } catch (IOException e) {
-      throw new RuntimeException();
     }
-    return contexts
+
+    @Override
+    public List<TObjectFloatMap<String>> result() {
+      return contexts
+          .stream()
+          .map(c -> {
+              int pos = c.index();
+              return toFloatMap(skipNgramMaps.get(pos).get(
+                  new NgramPattern(c.words(), pos, NgramPattern.NONE)));
+          })
+          .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean splittable() {
+      return true;
+    }
+
+    @Override
+    public NgramBlockTask<List<TObjectFloatMap<String>>> split() {
+      return new SuggestTask(contexts);
+    }
+
+    @Override
+    public void merge(NgramBlockTask<List<TObjectFloatMap<String>>> part) {
+      mergeCandidateMaps(skipNgramMaps, ((SuggestTask) part).skipNgramMaps);
+    }
+  }
+
+  /**
+   * Merge the candidates collected by a split task, by summing the frequencies of the same
+   * candidates.
+   *
+   * @param maps maps from skip-grams to their candidate maps, which are updated.
+   * @param parts maps with the same skip-grams collected by a split task.
+   */
+  protected static void mergeCandidateMaps(List<NgramPatternMap<TObjectDoubleMap<String>>> maps,
+      List<NgramPatternMap<TObjectDoubleMap<String>>> parts) {
+    for (int i = 0; i < maps.size(); i++) {
+      NgramPatternMap<TObjectDoubleMap<String>> map = maps.get(i);
+      parts.get(i).forEach((pattern, partMap) -> {
+        TObjectDoubleMap<String> candidateMap = map.get(pattern);
+        partMap.forEachEntry((candidate, freq) -> {
+          candidateMap.adjustOrPutValue(candidate, freq, freq);
+          return true;
+        });
+      });
+    }
+  }
+
+  /**
+   * Round the summed frequencies of candidates to float.
+   *
+   * @param sums a map from candidates to their summed frequencies.
+   * @return a map from candidates to their frequencies.
+   */
+  protected static TObjectFloatMap<String> toFloatMap(TObjectDoubleMap<String> sums) {
+    TObjectFloatMap<String> map = new TObjectFloatHashMap<>(Math.max(sums.size(), 1));
+    sums.forEachEntry((candidate, freq) -> {
+      map.put(candidate, (float) freq);
+      return true;
+    });
+    return map;
+  }
+
+  @Override
+  public List<Set<String>> search(List<Word> words) {
+    return suggest(words)
         .stream()
-        .map(c -> {
-            int pos = c.index();
-            return skipNgramMaps.get(pos).get(skipNgram(c.words(), pos));
-        })
+        .map(map -> new THashSet<>(map.keySet()))
         .collect(Collectors.toList());
   }
 
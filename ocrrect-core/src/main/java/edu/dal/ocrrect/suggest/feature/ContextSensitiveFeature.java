@@ -4,6 +4,7 @@ import edu.dal.ocrrect.suggest.batch.ContextSensitiveBatchDetectMixin;
 import edu.dal.ocrrect.suggest.batch.ContextSensitiveBatchScoreMixin;
 import edu.dal.ocrrect.suggest.batch.ContextSensitiveBatchSearchMixin;
 import edu.dal.ocrrect.suggest.batch.ContextSensitiveBatchSuggestMixin;
+import edu.dal.ocrrect.util.Word;
 
 public abstract class ContextSensitiveFeature extends Feature
     implements ContextSensitiveBatchDetectMixin,
@@ -15,4 +16,15 @@ public abstract class ContextSensitiveFeature extends Feature
   public ContextSensitiveFeature(String name) {
 	  super(name);
   }
+
+  /**
+   * Check whether the suggestion of a word is approximated, as some of its contexts are not fully
+   * matched against the corpus.
+   *
+   * @param word a word.
+   * @return {@code true} if the suggestion is approximate.
+   */
+  public boolean isApproximate(Word word) {
+    return false;
+  }
 }
@@ -0,0 +1,309 @@
+package edu.dal.ocrrect.suggest.feature;
+
+import edu.dal.ocrrect.feature.metric.EditDistance;
+import edu.dal.ocrrect.suggest.MappedFiles;
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.THashSet;
+import gnu.trove.set.hash.TIntHashSet;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A candidate searcher on the delete neighborhood of a vocabulary, which finds the same candidates
+ * as {@link ReverseLevenshteinDistanceSearcher} without comparing the word with every vocabulary
+ * word of a similar length.
+ *
+ * <p>Two words are within Levenshtein distance {@code d} only if they share a string obtained by
+ * deleting at most {@code d} characters from each of them. The strings obtained by deleting up to
+ * the maximum distance from each vocabulary word are indexed when the searcher is built. A search
+ * generates the deletes of the word, collects the vocabulary words sharing any of them, and
+ * verifies their distances by {@link EditDistance}.
+ *
+ * <p>Deletes are not stored. Each delete is hashed into 64 bits, where the low bits select a bucket
+ * and the high 32 bits are stored as a fingerprint next to the vocabulary word ID. A hash collision
+ * only adds a candidate to be verified. The index is organized in the following sections of a
+ * buffer, which is either on the heap or mapped from a file written by {@link #write(Path)}:
+ *
+ * <ul>
+ *   <li>A header, containing a magic number, the format version, the maximum distance, the section
+ *       positions and a CRC32 checksum of all the bytes after the header.
+ *   <li>The offset of each vocabulary word in the character section, and the characters of the
+ *       sorted vocabulary words.
+ *   <li>The start of each bucket in the entry sections.
+ *   <li>The fingerprints of entries, and the vocabulary word IDs of entries.
+ * </ul>
+ *
+ * @since 2017.09.28
+ */
+public class DeleteNeighborhoodSearcher implements CandidateSearcher {
+  public static final String FILE_EXTENSION = ".dns";
+
+  static final int MAGIC = 0x444E5349; // "DNSI"
+  static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = MappedFiles.HEADER_SIZE;
+
+  private final ByteBuffer buffer;
+  private final int maxDistance;
+  private final int numOfWords;
+  private final int bucketMask;
+  private final int wordOffsetPos;
+  private final int charPos;
+  private final int bucketPos;
+  private final int fingerprintPos;
+  private final int idPos;
+  private final long checksum;
+
+  private DeleteNeighborhoodSearcher(ByteBuffer buffer) {
+    this.buffer = buffer;
+    MappedFiles.checkHeader(buffer, MAGIC, VERSION, "delete neighborhood index");
+    maxDistance    = buffer.getInt(8);
+    numOfWords     = buffer.getInt(12);
+    bucketMask     = buffer.getInt(16) - 1;
+    wordOffsetPos  = buffer.getInt(20);
+    charPos        = buffer.getInt(24);
+    bucketPos      = buffer.getInt(28);
+    fingerprintPos = buffer.getInt(32);
+    idPos          = buffer.getInt(36);
+    checksum       = buffer.getLong(40);
+  }
+
+  /**
+   * Build a searcher on the heap.
+   *
+   * @param vocab a vocabulary.
+   * @param maxDistance the maximum distance of searches.
+   * @return a searcher.
+   * @throws IllegalArgumentException if the index is too large for a buffer.
+   */
+  public static DeleteNeighborhoodSearcher build(Collection<String> vocab, int maxDistance) {
+    if (maxDistance < 0) {
+      throw new IllegalArgumentException("invalid distance: " + maxDistance);
+    }
+    Timer t = new Timer();
+    String[] words = vocab.toArray(new String[vocab.size()]);
+    Arrays.sort(words);
+
+    // Hash the distinct deletes of each word.
+    TLongArrayList hashes = new TLongArrayList();
+    int[] counts = new int[words.length];
+    Set<String> deletes = new HashSet<>();
+    for (int id = 0; id < words.length; id++) {
+      deletes.clear();
+      deletes(words[id], maxDistance, deletes);
+      for (String d : deletes) {
+        hashes.add(hash(d));
+      }
+      counts[id] = deletes.size();
+    }
+    int numOfEntries = hashes.size();
+    int numOfBuckets = Integer.highestOneBit(Math.max(numOfEntries, 1) * 2 - 1);
+
+    long chars = 0;
+    for (String w : words) {
+      chars += w.length();
+    }
+    long wordOffsetPos = HEADER_SIZE;
+    long charPos = wordOffsetPos + (words.length + 1) * 4L;
+    long bucketPos = charPos + chars * 2;
+    bucketPos += (4 - bucketPos % 4) % 4; // align buckets
+    long fingerprintPos = bucketPos + (numOfBuckets + 1) * 4L;
+    long idPos = fingerprintPos + numOfEntries * 4L;
+    long end = idPos + numOfEntries * 4L;
+    if (end > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("index is too large: " + end);
+    }
+    ByteBuffer bb = ByteBuffer.allocate((int) end);
+
+    int pos = (int) charPos;
+    for (int id = 0; id < words.length; id++) {
+      bb.putInt((int) wordOffsetPos + id * 4, pos);
+      for (int i = 0; i < words[id].length(); i++, pos += 2) {
+        bb.putChar(pos, words[id].charAt(i));
+      }
+    }
+    bb.putInt((int) wordOffsetPos + words.length * 4, pos);
+
+    // Count the entries of buckets, and fill the buckets from their ends.
+    int mask = numOfBuckets - 1;
+    int[] starts = new int[numOfBuckets + 1];
+    for (int i = 0; i < numOfEntries; i++) {
+      starts[((int) hashes.get(i) & mask) + 1]++;
+    }
+    for (int b = 0; b < numOfBuckets; b++) {
+      starts[b + 1] += starts[b];
+    }
+    for (int b = 0; b <= numOfBuckets; b++) {
+      bb.putInt((int) bucketPos + b * 4, starts[b]);
+    }
+    int i = 0;
+    for (int id = 0; id < words.length; id++) {
+      for (int last = i + counts[id]; i < last; i++) {
+        long h = hashes.get(i);
+        int e = --starts[((int) h & mask) + 1];
+        bb.putInt((int) fingerprintPos + e * 4, (int) (h >>> 32));
+        bb.putInt((int) idPos + e * 4, id);
+      }
+    }
+
+    long checksum = MappedFiles.checksum(bb, HEADER_SIZE);
+    bb.putInt(MAGIC)
+      .putInt(VERSION)
+      .putInt(maxDistance)
+      .putInt(words.length)
+      .putInt(numOfBuckets)
+      .putInt((int) wordOffsetPos)
+      .putInt((int) charPos)
+      .putInt((int) bucketPos)
+      .putInt((int) fingerprintPos)
+      .putInt((int) idPos)
+      .putLong(checksum);
+    bb.clear();
+
+    LogUtils.info(String.format("index %d deletes of %d words in %d bytes", numOfEntries,
+        words.length, end));
+    LogUtils.logMethodTime(t, 2);
+    return new DeleteNeighborhoodSearcher(bb);
+  }
+
+  /**
+   * Open an index file. The checksum is not verified in this method, see {@link #verify()}.
+   *
+   * @param path an index file.
+   * @return a mapped searcher.
+   * @throws IOException if I/O error occurs.
+   */
+  public static DeleteNeighborhoodSearcher open(Path path) throws IOException {
+    return new DeleteNeighborhoodSearcher(MappedFiles.map(path, "delete neighborhood index"));
+  }
+
+  /**
+   * Write the index file.
+   *
+   * @param out the output path.
+   * @throws IOException if I/O error occurs.
+   */
+  public void write(Path out) throws IOException {
+    MappedFiles.write(out, buffer);
+  }
+
+  /**
+   * Check whether the content of the index matches the checksum in header.
+   *
+   * @return {@code true} if the checksum matches, or {@code false} otherwise.
+   */
+  public boolean verify() {
+    return MappedFiles.checksum(buffer, HEADER_SIZE) == checksum;
+  }
+
+  @Override
+  public int maxDistance() {
+    return maxDistance;
+  }
+
+  @Override
+  public int numOfWords() {
+    return numOfWords;
+  }
+
+  /**
+   * Decode a vocabulary word.
+   *
+   * @param id a word ID.
+   * @return the word.
+   */
+  String word(int id) {
+    int from = buffer.getInt(wordOffsetPos + id * 4);
+    int to = buffer.getInt(wordOffsetPos + id * 4 + 4);
+    char[] chars = new char[(to - from) / 2];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = buffer.getChar(from + i * 2);
+    }
+    return new String(chars);
+  }
+
+  private int wordLength(int id) {
+    return (buffer.getInt(wordOffsetPos + id * 4 + 4) - buffer.getInt(wordOffsetPos + id * 4)) / 2;
+  }
+
+  /**
+   * Search the vocabulary words within a Levenshtein distance. The results are identical to {@link
+   * ReverseLevenshteinDistanceSearcher#search(String, int)} on the same vocabulary.
+   *
+   * @param word a word.
+   * @param maxDistance the maximum distance, which is not larger than the distance of the index.
+   * @return the vocabulary words within the distance.
+   */
+  @Override
+  public Set<String> search(String word, int maxDistance) {
+    if (maxDistance < 0 || maxDistance > this.maxDistance) {
+      throw new IllegalArgumentException("invalid distance: " + maxDistance);
+    }
+    Set<String> deletes = new HashSet<>();
+    deletes(word, maxDistance, deletes);
+
+    TIntHashSet seen = new TIntHashSet();
+    Set<String> candidates = new THashSet<>();
+    int len = word.length();
+    for (String d : deletes) {
+      long h = hash(d);
+      int fingerprint = (int) (h >>> 32);
+      int b = (int) h & bucketMask;
+      int end = buffer.getInt(bucketPos + b * 4 + 4);
+      for (int e = buffer.getInt(bucketPos + b * 4); e < end; e++) {
+        if (buffer.getInt(fingerprintPos + e * 4) != fingerprint) {
+          continue;
+        }
+        int id = buffer.getInt(idPos + e * 4);
+        if (! seen.add(id)) {
+          continue;
+        }
+        int wordLen = wordLength(id);
+        // The empty word is not compared for a word of exactly the maximum length.
+        if (Math.abs(wordLen - len) > maxDistance || (wordLen == 0 && len == maxDistance)) {
+          continue;
+        }
+        String gram = word(id);
+        if (EditDistance.levenshtein(gram, word, maxDistance) <= maxDistance) {
+          candidates.add(gram);
+        }
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Collect the distinct strings obtained by deleting up to a number of characters from a word,
+   * including the word itself.
+   */
+  private static void deletes(String word, int distance, Set<String> out) {
+    if (out.add(word) && distance > 0) {
+      for (int i = 0; i < word.length(); i++) {
+        deletes(word.substring(0, i) + word.substring(i + 1), distance - 1, out);
+      }
+    }
+  }
+
+  /**
+   * Hash a string by 64-bit FNV-1a, followed by the finalizer of MurmurHash3 to mix the low bits.
+   */
+  static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      h = (h ^ s.charAt(i)) * 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -41,6 +41,15 @@ public class DistanceFeature extends WordIsolatedFeature {
     return scoreable.score(word, candidate);
   }
 
+  @Override
+  public void score(Word word, String[] candidates, float[] out) {
+    scoreable.score(word, candidates, out);
+  }
+
+  public Scoreable getScoreable() {
+    return scoreable;
+  }
+
   public NormalizationOption normalize() {
     return norm;
   }
@@ -0,0 +1,281 @@
+package edu.dal.ocrrect.suggest.feature;
+
+import edu.dal.ocrrect.suggest.NgramBlockTask;
+import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
+import edu.dal.ocrrect.suggest.NgramReadScheduler;
+import edu.dal.ocrrect.suggest.NgramReadScheduler.Block;
+import edu.dal.ocrrect.suggest.ScanBudget;
+import edu.dal.ocrrect.suggest.batch.ContextSensitiveBatchDetectMixin;
+import edu.dal.ocrrect.util.Context;
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Word;
+import gnu.trove.map.TObjectByteMap;
+import gnu.trove.map.TObjectFloatMap;
+import gnu.trove.map.hash.TObjectByteHashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A fused execution of the context coherence features, which streams each n-gram first word block
+ * at most once.
+ *
+ * <p>The contexts of all {@link ContextCoherenceFeature} bound to the same {@link
+ * NgramBoundedReaderSearcher} are grouped by their first words, across the detection and the
+ * suggestion phases. Each block is then scanned once, and its records are dispatched to the tasks
+ * of every feature and phase created by {@link ContextCoherenceFeature#newDetectTask(
+ * TObjectByteMap)} and {@link ContextCoherenceFeature#newSuggestTask(List)}. As the detection
+ * decisions are unknown during the scan, suggestions are computed for all the given words, and
+ * later collected for any subset of them. If a block has a second word index, contexts with a fixed
+ * second word are scanned in the sub-block of that word instead, in the same way as the feature.
+ * Suggestions of a searcher with a skip-gram index are looked up without scanning. The blocks of
+ * each searcher are read in the order of their offsets by a {@link NgramReadScheduler}, where large
+ * blocks are split into parts scanned in parallel.
+ *
+ * <p>The scans of a searcher are limited by the first {@link ScanBudget} set on the features bound
+ * to it. The contexts of the blocks which are not fully scanned are degraded in the budget of each
+ * feature, thus features sharing a searcher should share a budget.
+ *
+ * <p>The results are identical to calling {@link Feature#detect(List)} and {@link
+ * Feature#suggest(List)} of each feature separately, even though blocks may be split differently,
+ * as the frequencies of candidates are summed in double precision, which is exact for the integral
+ * counts of the corpus, and rounded to float once. Search results can be derived from the
+ * suggestions, as {@link ContextCoherenceFeature#search(String, List)} does.
+ *
+ * <p>Note that the features summed the frequencies in float before blocks were split, which drops
+ * the low bits of a sum once it exceeds 2<sup>24</sup>. The feature values of frequent candidates
+ * thus differ slightly from the ones of the earlier versions, and models trained on those values
+ * should be retrained.
+ *
+ * @since 2017.09.14
+ */
+public class FusedContextScan {
+  private final Map<Feature, Map<String, TObjectByteMap<Context>>> detections =
+      new IdentityHashMap<>();
+  private final Map<Feature, Map<Context, TObjectFloatMap<String>>> suggestions =
+      new IdentityHashMap<>();
+  private final List<Runnable> lookups = new ArrayList<>();
+  private final Map<NgramBoundedReaderSearcher, ScanBudget> budgets = new IdentityHashMap<>();
+
+  private FusedContextScan() {}
+
+  /**
+   * Scan n-gram blocks for all context coherence features in the given list.
+   *
+   * @param words a list of words.
+   * @param features a list of features, where features other than {@link ContextCoherenceFeature}
+   *     are ignored.
+   * @param detect whether the detection results are computed.
+   * @return the scan results.
+   */
+  public static FusedContextScan run(List<Word> words, List<Feature> features, boolean detect) {
+    return run(words, features, detect, true);
+  }
+
+  /**
+   * Scan n-gram blocks for the selected phases of all context coherence features in the given list.
+   *
+   * @param words a list of words.
+   * @param features a list of features.
+   * @param detect whether the detection results are computed.
+   * @param suggest whether the suggestion results are computed.
+   * @return the scan results.
+   */
+  static FusedContextScan run(List<Word> words, List<Feature> features, boolean detect,
+      boolean suggest) {
+    return LogUtils.logMethodTime(2, () -> {
+      FusedContextScan scan = new FusedContextScan();
+      Map<NgramBoundedReaderSearcher, Map<Block, List<Job<?>>>> jobsByReaders =
+          scan.addJobs(words, features, detect, suggest);
+      scan.lookups.parallelStream().forEach(Runnable::run);
+      jobsByReaders.forEach((reader, jobs) -> {
+        try {
+          NgramReadScheduler.Plan plan = new NgramReadScheduler(reader)
+              .setBudget(scan.budgets.get(reader))
+              .plan(jobs.keySet());
+          LogUtils.debug(plan);
+          plan.execute(block -> {
+            List<Job<?>> jobList = jobs.get(block);
+            List<NgramBlockTask<?>> tasks = new ArrayList<>(jobList.size());
+            jobList.forEach(job -> tasks.add(job.task));
+            return tasks;
+          }, block -> jobs.get(block).forEach(Job::finish));
+          plan.degradedBlocks().forEach(block -> jobs.get(block).forEach(Job::degrade));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      return scan;
+    });
+  }
+
+  /**
+   * Estimate the cost of {@link #run(List, List, boolean)} before it starts, which is the total
+   * size of the n-gram blocks to be scanned. Blocks of contexts looked up in a skip-gram index are
+   * not counted.
+   *
+   * @param words a list of words.
+   * @param features a list of features.
+   * @param detect whether the detection results are computed.
+   * @return the number of bytes to scan.
+   * @throws IOException if I/O error occurs.
+   */
+  public static long estimateBytesToScan(List<Word> words, List<Feature> features, boolean detect)
+      throws IOException {
+    long bytes = 0;
+    for (Map.Entry<NgramBoundedReaderSearcher, Map<Block, List<Job<?>>>> e
+        : new FusedContextScan().addJobs(words, features, detect, true).entrySet()) {
+      bytes += new NgramReadScheduler(e.getKey()).plan(e.getValue().keySet()).bytesToScan();
+    }
+    return bytes;
+  }
+
+  private Map<NgramBoundedReaderSearcher, Map<Block, List<Job<?>>>> addJobs(List<Word> words,
+      List<Feature> features, boolean detect, boolean suggest) {
+    Map<NgramBoundedReaderSearcher, Map<Block, List<Job<?>>>> jobsByReaders =
+        new IdentityHashMap<>();
+    for (Feature feat : features) {
+      if (feat instanceof ContextCoherenceFeature) {
+        ContextCoherenceFeature ccf = (ContextCoherenceFeature) feat;
+        Map<Block, List<Job<?>>> jobs =
+            jobsByReaders.computeIfAbsent(ccf.reader, r -> new HashMap<>());
+        if (budgets.get(ccf.reader) == null) {
+          budgets.put(ccf.reader, ccf.getScanBudget());
+        }
+        if (detect) {
+          addDetectJobs(ccf, words, jobs);
+        }
+        if (suggest) {
+          addSuggestJobs(ccf, words, jobs);
+        }
+      }
+    }
+    return jobsByReaders;
+  }
+
+  private void addDetectJobs(ContextCoherenceFeature feat, List<Word> words,
+      Map<Block, List<Job<?>>> jobs) {
+    Map<String, TObjectByteMap<Context>> results = new ConcurrentHashMap<>();
+    feat.groupDetectionContexts(words).forEach((first, contextMap) -> {
+      TObjectByteMap<Context> positiveMap = feat.filterDetectionContexts(contextMap);
+      if (positiveMap.isEmpty()) {
+        results.put(first, ContextSensitiveBatchDetectMixin.completeDetections(
+            contextMap, positiveMap, positiveMap));
+        return;
+      }
+      // The results of all sub-blocks are completed once the last one is scanned.
+      Map<String, List<Context>> parts =
+          feat.partitionBySecondWord(first, positiveMap.keySet(), true);
+      TObjectByteMap<Context> detected = new TObjectByteHashMap<>();
+      AtomicInteger remaining = new AtomicInteger(parts.size());
+      parts.forEach((second, contexts) -> {
+        TObjectByteMap<Context> partMap = parts.size() == 1
+            ? positiveMap : ContextCoherenceFeature.subMap(positiveMap, contexts);
+        addJob(jobs, new Block(first, second), new Job<>(feat, partMap.keySet(),
+            feat.newDetectTask(partMap), partial -> {
+          synchronized (detected) {
+            detected.putAll(partial);
+          }
+          if (remaining.decrementAndGet() == 0) {
+            results.put(first, ContextSensitiveBatchDetectMixin.completeDetections(
+                contextMap, positiveMap, detected));
+          }
+        }));
+      });
+    });
+    detections.put(feat, results);
+  }
+
+  private void addSuggestJobs(ContextCoherenceFeature feat, List<Word> words,
+      Map<Block, List<Job<?>>> jobs) {
+    Map<Context, TObjectFloatMap<String>> results = new ConcurrentHashMap<>();
+    feat.groupSuggestionContexts(words).forEach((first, allContexts) -> {
+      if (feat.canLookup(allContexts)) {
+        // Candidates are found in the skip-gram index without scanning.
+        lookups.add(() -> {
+          List<TObjectFloatMap<String>> maps = feat.lookup(allContexts);
+          for (int i = 0; i < allContexts.size(); i++) {
+            results.put(allContexts.get(i), maps.get(i));
+          }
+        });
+        return;
+      }
+      feat.partitionBySecondWord(first, allContexts, false).forEach((second, contexts) -> {
+        addJob(jobs, new Block(first, second), new Job<>(feat, contexts,
+            feat.newSuggestTask(contexts), maps -> {
+          for (int i = 0; i < contexts.size(); i++) {
+            results.put(contexts.get(i), maps.get(i));
+          }
+        }));
+      });
+    });
+    suggestions.put(feat, results);
+  }
+
+  private static void addJob(Map<Block, List<Job<?>>> jobs, Block block, Job<?> job) {
+    jobs.computeIfAbsent(block, k -> new ArrayList<>()).add(job);
+  }
+
+  /**
+   * Get the detection results of a feature.
+   *
+   * @param feat a feature.
+   * @param words the words given in {@link #run(List, List, boolean)}.
+   * @return a list of detection decisions for each word, or {@code null} if the feature was not
+   *     scanned for detection.
+   */
+  public List<Boolean> detect(Feature feat, List<Word> words) {
+    Map<String, TObjectByteMap<Context>> results = detections.get(feat);
+    return results == null ? null
+        : ((ContextCoherenceFeature) feat).collectDetections(words, results);
+  }
+
+  /**
+   * Get the suggestion results of a feature.
+   *
+   * @param feat a feature.
+   * @param words the words given in {@link #run(List, List, boolean)}, or a subset of them.
+   * @return a map from suggested candidates to their confidence values for each word, or {@code
+   *     null} if the feature was not scanned.
+   */
+  public List<TObjectFloatMap<String>> suggest(Feature feat, List<Word> words) {
+    Map<Context, TObjectFloatMap<String>> results = suggestions.get(feat);
+    return results == null ? null
+        : ((ContextCoherenceFeature) feat).collectSuggestions(words, results);
+  }
+
+  /**
+   * A task of the contexts of a feature, and the action on its result.
+   */
+  private static class Job<T> {
+    private final ContextCoherenceFeature feat;
+    private final Collection<Context> contexts;
+    private final NgramBlockTask<T> task;
+    private final Consumer<T> done;
+
+    private Job(ContextCoherenceFeature feat, Collection<Context> contexts, NgramBlockTask<T> task,
+        Consumer<T> done) {
+      this.feat = feat;
+      this.contexts = contexts;
+      this.task = task;
+      this.done = done;
+    }
+
+    private void finish() {
+      done.accept(task.result());
+    }
+
+    private void degrade() {
+      if (feat.getScanBudget() != null) {
+        feat.getScanBudget().degrade(contexts);
+      }
+    }
+  }
+}
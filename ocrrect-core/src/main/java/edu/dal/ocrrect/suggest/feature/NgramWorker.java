@@ -0,0 +1,400 @@
+package edu.dal.ocrrect.suggest.feature;
+
+import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
+import edu.dal.ocrrect.suggest.NgramBoundedReaders;
+import edu.dal.ocrrect.util.Context;
+import edu.dal.ocrrect.util.LocatedTextualUnit;
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.TextualUnit;
+import gnu.trove.map.TObjectByteMap;
+import gnu.trove.map.hash.TObjectByteHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A process serving the context coherence features of a partition of n-gram corpora over a
+ * localhost socket.
+ *
+ * <p>A worker loads the searchers of one partition created by {@link
+ * edu.dal.ocrrect.suggest.NgramPartitioner}, one per n-gram order, and serves the detection and
+ * suggestion requests of {@link PartitionedContextCoherenceFeature}. A request carries the
+ * contexts of several first words in the partition, which are grouped as in {@link
+ * edu.dal.ocrrect.suggest.batch.ContextSensitiveBatchSuggestMixin}. The groups are computed in
+ * parallel by a {@link ContextCoherenceFeature} or an {@link ApproximateContextCoherenceFeature} of
+ * the requested order, and the results are returned by first words. Requests and responses are
+ * Java serialized objects, which are read by a {@link MessageInputStream} accepting only the
+ * classes of the messages. Each connection is served by its own thread, and its requests are
+ * answered in order.
+ *
+ * <p>A worker is started in its own JVM by {@link #main(String[])}, which prints the bound port as
+ * {@code port <n>} on the standard output.
+ *
+ * @since 2017.09.27
+ */
+public class NgramWorker implements Closeable {
+  private final Map<Integer, ContextCoherenceFeature[]> features = new HashMap<>();
+  private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "ngram-worker");
+    t.setDaemon(true);
+    return t;
+  });
+  // Groups are computed in a pool of their own, as a client in the same process may occupy the
+  // common pool while waiting for the responses.
+  private final ForkJoinPool compute = new ForkJoinPool();
+  private ServerSocket server;
+
+  /**
+   * Construct a worker.
+   *
+   * @param searchers the n-gram searchers of a partition, of different orders.
+   * @throws IOException if I/O error occurs.
+   * @throws IllegalArgumentException if two searchers have the same order.
+   */
+  public NgramWorker(List<NgramBoundedReaderSearcher> searchers) throws IOException {
+    for (NgramBoundedReaderSearcher searcher : searchers) {
+      int order = searcher.order();
+      if (features.put(order, new ContextCoherenceFeature[] {
+          new ContextCoherenceFeature(searcher, order),
+          new ApproximateContextCoherenceFeature(null, searcher, order)}) != null) {
+        throw new IllegalArgumentException("duplicate order: " + order);
+      }
+    }
+  }
+
+  /**
+   * Start serving on a localhost port.
+   *
+   * @param port a port number, or {@code 0} for an ephemeral port.
+   * @return the bound port number.
+   * @throws IOException if I/O error occurs.
+   */
+  public synchronized int start(int port) throws IOException {
+    if (server != null) {
+      throw new IllegalStateException("worker started");
+    }
+    server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    ServerSocket listening = server;
+    pool.execute(() -> {
+      try {
+        while (true) {
+          Socket socket = listening.accept();
+          pool.execute(() -> serve(socket));
+        }
+      } catch (IOException e) {
+        if (! listening.isClosed()) {
+          LogUtils.error("worker stopped accepting connections", e);
+        }
+      }
+    });
+    LogUtils.info("worker serving orders " + features.keySet() + " at port "
+        + server.getLocalPort());
+    return server.getLocalPort();
+  }
+
+  /**
+   * Serve the requests of a connection until it is closed.
+   */
+  private void serve(Socket socket) {
+    try (Socket s = socket) {
+      s.setTcpNoDelay(true);
+      ObjectOutputStream oos = new ObjectOutputStream(
+          new BufferedOutputStream(s.getOutputStream()));
+      oos.flush();
+      ObjectInputStream ois = new MessageInputStream(new BufferedInputStream(s.getInputStream()));
+      while (true) {
+        Request request;
+        try {
+          request = (Request) ois.readObject();
+        } catch (EOFException | SocketException e) {
+          return;
+        }
+        Response response;
+        try {
+          response = new Response(handle(request));
+        } catch (RuntimeException e) {
+          response = new Response(e);
+        }
+        oos.writeObject(response);
+        oos.flush();
+        // Discard the references to the written objects.
+        oos.reset();
+      }
+    } catch (IOException | ClassNotFoundException e) {
+      LogUtils.error("worker connection failed", e);
+    }
+  }
+
+  /**
+   * Compute a request.
+   *
+   * @param request a request.
+   * @return a map from first words to their results.
+   */
+  Map<String, Object> handle(Request request) {
+    ContextCoherenceFeature[] feats = features.get(request.order);
+    if (feats == null) {
+      throw new IllegalArgumentException("invalid order: " + request.order);
+    }
+    ContextCoherenceFeature feat = feats[request.relaxed ? 1 : 0];
+    Map<String, Object> results = new HashMap<>();
+    compute.submit(() -> request.contexts.entrySet().parallelStream().forEach(e -> {
+      Object result;
+      if (request.detect) {
+        TObjectByteMap<Context> contextMap = new TObjectByteHashMap<>();
+        e.getValue().forEach(c -> contextMap.put(c, (byte) 0));
+        result = feat.detect(e.getKey(), contextMap);
+      } else {
+        result = new ArrayList<>(feat.suggest(e.getKey(), e.getValue()));
+      }
+      synchronized (results) {
+        results.put(e.getKey(), result);
+      }
+    })).join();
+    return results;
+  }
+
+  /**
+   * Stop serving. Open connections are served until they are closed by clients.
+   *
+   * @throws IOException if I/O error occurs.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+    pool.shutdown();
+    compute.shutdown();
+  }
+
+  /**
+   * A request of the detection or suggestion results of contexts grouped by their first words.
+   */
+  static class Request implements Serializable {
+    private static final long serialVersionUID = -3419407723365270245L;
+
+    final int order;
+    final boolean relaxed;
+    final boolean detect;
+    final Map<String, List<Context>> contexts;
+
+    /**
+     * Construct a request.
+     *
+     * @param order the n-gram order of the contexts.
+     * @param relaxed {@code true} to suggest by {@link ApproximateContextCoherenceFeature}.
+     * @param detect {@code true} to detect, or {@code false} to suggest.
+     * @param contexts a mapping from first words to the contexts starting with them.
+     */
+    Request(int order, boolean relaxed, boolean detect, Map<String, List<Context>> contexts) {
+      this.order = order;
+      this.relaxed = relaxed;
+      this.detect = detect;
+      this.contexts = contexts;
+    }
+  }
+
+  /**
+   * A response of a request, which is a map from first words to a {@code TObjectByteMap<Context>}
+   * in detection or a {@code List<TObjectFloatMap<String>>} in suggestion, or an error. An error is
+   * sent as its class name and message, and rebuilt by {@link #error()}.
+   *
+   * @see ContextCoherenceFeature#detect(String, TObjectByteMap)
+   * @see ContextCoherenceFeature#suggest(String, List)
+   */
+  static class Response implements Serializable {
+    private static final long serialVersionUID = -5180254237316926417L;
+
+    final Map<String, Object> results;
+    private final String errorClass;
+    private final String errorMessage;
+
+    Response(Map<String, Object> results) {
+      this.results = results;
+      this.errorClass = null;
+      this.errorMessage = null;
+    }
+
+    Response(RuntimeException error) {
+      this.results = null;
+      this.errorClass = error.getClass().getName();
+      this.errorMessage = error.getMessage();
+    }
+
+    /**
+     * Rebuild the error of the worker. The error is of the same class if it is a {@code
+     * RuntimeException} constructed by a message, or a {@code RuntimeException} otherwise.
+     *
+     * @return the error, or {@code null} if the request succeeds.
+     */
+    RuntimeException error() {
+      if (errorClass == null) {
+        return null;
+      }
+      try {
+        Class<?> cls = Class.forName(errorClass, false, Response.class.getClassLoader());
+        if (RuntimeException.class.isAssignableFrom(cls)) {
+          Constructor<?> cons = cls.getConstructor(String.class);
+          return (RuntimeException) cons.newInstance(errorMessage);
+        }
+      } catch (ReflectiveOperationException e) {
+        // Fall back to a plain exception.
+      }
+      return new RuntimeException(errorClass + ": " + errorMessage);
+    }
+  }
+
+  /**
+   * An input stream of the requests and responses, which rejects the classes other than the ones of
+   * the messages, their contexts and results, as deserializing an arbitrary class may run its code.
+   */
+  static class MessageInputStream extends ObjectInputStream {
+    private static final Set<String> ACCEPTED = new HashSet<>(Arrays.asList(
+        Request.class.getName(),
+        Response.class.getName(),
+        Context.class.getName(),
+        LocatedTextualUnit.class.getName(),
+        TextualUnit.class.getName(),
+        String.class.getName(),
+        String[].class.getName(),
+        HashMap.class.getName(),
+        ArrayList.class.getName()));
+
+    MessageInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+        throws IOException, ClassNotFoundException {
+      String name = desc.getName();
+      // Trove collections are used for the results.
+      if (! ACCEPTED.contains(name) && ! name.startsWith("gnu.trove.")) {
+        throw new InvalidClassException(name, "unexpected class in worker message");
+      }
+      return super.resolveClass(desc);
+    }
+  }
+
+  /**
+   * A worker running in another process.
+   */
+  public static class LocalProcess implements Closeable {
+    private final Process process;
+    private final int port;
+
+    private LocalProcess(Process process, int port) {
+      this.process = process;
+      this.port = port;
+    }
+
+    public int port() {
+      return port;
+    }
+
+    /**
+     * Kill the process.
+     */
+    @Override
+    public void close() {
+      process.destroy();
+    }
+  }
+
+  /**
+   * Launch a worker by {@link #main(String[])} in a new JVM with the Java runtime and the class
+   * path of this process, and wait until it is serving at an ephemeral port. The standard output of
+   * the process is discarded after the port is read.
+   *
+   * @param searchers the serialized searchers of a partition.
+   * @return the worker process.
+   * @throws IOException if I/O error occurs, or the process exits before serving.
+   */
+  public static LocalProcess launch(List<Path> searchers) throws IOException {
+    List<String> command = new ArrayList<>(Arrays.asList(
+        Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+        "-cp", System.getProperty("java.class.path"), NgramWorker.class.getName(), "0"));
+    searchers.forEach(p -> command.add(p.toString()));
+    Process process = new ProcessBuilder(command)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
+    for (String line = br.readLine(); line != null; line = br.readLine()) {
+      if (line.startsWith("port ")) {
+        int port = Integer.parseInt(line.substring(5).trim());
+        Thread drain = new Thread(() -> {
+          try {
+            while (br.readLine() != null) {
+              continue;
+            }
+          } catch (IOException e) {
+            return;
+          }
+        });
+        drain.setDaemon(true);
+        drain.start();
+        return new LocalProcess(process, port);
+      }
+    }
+    process.destroy();
+    throw new IOException("worker exited before serving");
+  }
+
+  /**
+   * Start a worker, and serve until the process is killed.
+   *
+   * <p>Usage: {@code NgramWorker <port> <searcher>...}, where each searcher is a serialized {@link
+   * NgramBoundedReaderSearcher} of the partition, and port {@code 0} binds an ephemeral port.
+   *
+   * @param args the arguments.
+   * @throws IOException if I/O error occurs.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: NgramWorker <port> <searcher>...");
+      System.exit(1);
+    }
+    List<NgramBoundedReaderSearcher> searchers = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      searchers.add(NgramBoundedReaders.read(Paths.get(args[i])));
+    }
+    NgramWorker worker = new NgramWorker(searchers);
+    int port = worker.start(Integer.parseInt(args[0]));
+    System.out.println("port " + port);
+    System.out.flush();
+    try {
+      // Serve in the daemon threads of the pool.
+      Thread.currentThread().join();
+    } catch (InterruptedException e) {
+      worker.close();
+    }
+  }
+}
@@ -0,0 +1,274 @@
+package edu.dal.ocrrect.suggest.feature;
+
+import edu.dal.ocrrect.suggest.NgramPartitioner;
+import edu.dal.ocrrect.suggest.NormalizationOption;
+import edu.dal.ocrrect.suggest.feature.NgramWorker.MessageInputStream;
+import edu.dal.ocrrect.suggest.feature.NgramWorker.Request;
+import edu.dal.ocrrect.suggest.feature.NgramWorker.Response;
+import edu.dal.ocrrect.util.Context;
+import edu.dal.ocrrect.util.Word;
+import gnu.trove.map.TObjectByteMap;
+import gnu.trove.map.TObjectFloatMap;
+import gnu.trove.set.hash.THashSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A context coherence feature served by {@link NgramWorker} processes, each of which holds a
+ * partition of the n-gram corpora.
+ *
+ * <p>The contexts of words are grouped by their first words as in {@link ContextCoherenceFeature}.
+ * The groups are scattered to the workers of their first word partitions, one request per worker,
+ * and the results are gathered into the results of words. The results are identical to a {@link
+ * ContextCoherenceFeature}, or an {@link ApproximateContextCoherenceFeature} if relaxed, over the
+ * whole corpus of the same order.
+ *
+ * <p>Each worker is connected once, and the requests to a worker are sent in order. A connection is
+ * reopened in the next request after an I/O error.
+ *
+ * @see NgramPartitioner
+ * @since 2017.09.27
+ */
+public class PartitionedContextCoherenceFeature extends ContextSensitiveFeature
+    implements Closeable {
+  private static final long serialVersionUID = -6150829411603497235L;
+
+  private final List<InetSocketAddress> workers;
+  private final NgramPartitioner partitioner;
+  private final int ngramSize;
+  private final boolean relaxed;
+  private transient Connection[] connections;
+
+  /**
+   * Construct a feature.
+   *
+   * @param name the feature name.
+   * @param workers the addresses of the workers, ordered by their partitions.
+   * @param ngramSize the n-gram order.
+   * @param relaxed {@code true} to suggest as {@link ApproximateContextCoherenceFeature}.
+   */
+  public PartitionedContextCoherenceFeature(String name, List<InetSocketAddress> workers,
+      int ngramSize, boolean relaxed) {
+    super(name);
+    this.workers = new ArrayList<>(workers);
+    this.partitioner = new NgramPartitioner(workers.size());
+    this.ngramSize = ngramSize;
+    this.relaxed = relaxed;
+  }
+
+  @Override
+  public int detectionContextSize()  { return ngramSize; }
+  @Override
+  public int searchContextSize() { return ngramSize; }
+  @Override
+  public int suggestionContextSize() { return ngramSize; }
+
+  /**
+   * Send the groups of contexts to the workers of their partitions, and gather the results.
+   *
+   * @param detect {@code true} to detect, or {@code false} to suggest.
+   * @param groups a mapping from first words to their contexts.
+   * @return a mapping from first words to their results.
+   */
+  private Map<String, Object> scatter(boolean detect, Map<String, List<Context>> groups) {
+    List<Map<String, List<Context>>> parts = new ArrayList<>();
+    for (int i = 0; i < workers.size(); i++) {
+      parts.add(new HashMap<>());
+    }
+    groups.forEach((first, contexts) -> {
+      parts.get(partitioner.partition(first)).put(first, new ArrayList<>(contexts));
+    });
+    Map<String, Object> results = new ConcurrentHashMap<>();
+    IntStream.range(0, parts.size())
+        .parallel()
+        .filter(p -> ! parts.get(p).isEmpty())
+        .forEach(p -> {
+          results.putAll(connection(p).call(new Request(ngramSize, relaxed, detect, parts.get(p))));
+        });
+    return results;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<Boolean> detect(List<Word> words) {
+    Map<String, List<Context>> groups = new HashMap<>();
+    groupDetectionContexts(words).forEach((first, contextMap) -> {
+      groups.put(first, new ArrayList<>(contextMap.keySet()));
+    });
+    Map<String, TObjectByteMap<Context>> detected = new HashMap<>();
+    scatter(true, groups).forEach((first, result) -> {
+      detected.put(first, (TObjectByteMap<Context>) result);
+    });
+    return collectDetections(words, detected);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public TObjectByteMap<Context> detect(String first, TObjectByteMap<Context> contextMap) {
+    Map<String, List<Context>> groups = new HashMap<>();
+    groups.put(first, new ArrayList<>(contextMap.keySet()));
+    return (TObjectByteMap<Context>) scatter(true, groups).get(first);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<TObjectFloatMap<String>> suggest(List<Word> words) {
+    Map<String, List<Context>> groups = groupSuggestionContexts(words);
+    Map<Context, TObjectFloatMap<String>> suggestMap = new HashMap<>();
+    scatter(false, groups).forEach((first, result) -> {
+      List<Context> contexts = groups.get(first);
+      List<TObjectFloatMap<String>> maps = (List<TObjectFloatMap<String>>) result;
+      for (int i = 0; i < contexts.size(); i++) {
+        suggestMap.put(contexts.get(i), maps.get(i));
+      }
+    });
+    return collectSuggestions(words, suggestMap);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<TObjectFloatMap<String>> suggest(String first, List<Context> contexts) {
+    Map<String, List<Context>> groups = new HashMap<>();
+    groups.put(first, contexts);
+    return (List<TObjectFloatMap<String>>) scatter(false, groups).get(first);
+  }
+
+  @Override
+  public List<Set<String>> search(List<Word> words) {
+    return suggest(words)
+        .stream()
+        .map(map -> new THashSet<>(map.keySet()))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public List<Set<String>> search(String first, List<Context> contexts) {
+    return suggest(first, contexts)
+        .stream()
+        .map(map -> map.keySet())
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public NormalizationOption normalize() {
+    return NormalizationOption.LOG_AND_RESCALE;
+  }
+
+  @Override
+  public float score(Word word, String candidate) {
+    throw new UnsupportedOperationException();
+  }
+
+  private synchronized Connection connection(int partition) {
+    if (connections == null) {
+      connections = new Connection[workers.size()];
+    }
+    if (connections[partition] == null) {
+      connections[partition] = new Connection(workers.get(partition));
+    }
+    return connections[partition];
+  }
+
+  /**
+   * Close the connections to the workers.
+   *
+   * @throws IOException if I/O error occurs.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (connections != null) {
+      for (Connection c : connections) {
+        if (c != null) {
+          c.close();
+        }
+      }
+    }
+    connections = null;
+  }
+
+  /**
+   * A connection to a worker, which sends requests in order.
+   */
+  private static class Connection implements Closeable {
+    private final InetSocketAddress address;
+    private Socket socket;
+    private ObjectOutputStream oos;
+    private ObjectInputStream ois;
+
+    private Connection(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    /**
+     * Send a request and wait for its response.
+     *
+     * @param request a request.
+     * @return the results of the response.
+     * @throws RuntimeException if the request fails in the worker, or I/O error occurs.
+     */
+    private synchronized Map<String, Object> call(Request request) {
+      Response response;
+      try {
+        if (socket == null) {
+          socket = new Socket(address.getAddress(), address.getPort());
+          socket.setTcpNoDelay(true);
+          oos = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+          oos.flush();
+          ois = new MessageInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+        oos.writeObject(request);
+        oos.flush();
+        oos.reset();
+        response = (Response) ois.readObject();
+      } catch (IOException | ClassNotFoundException e) {
+        try {
+          close();
+        } catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+        throw new RuntimeException("request to worker " + address + " failed", e);
+      }
+      RuntimeException error = response.error();
+      if (error != null) {
+        throw error;
+      }
+      return response.results;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (socket != null) {
+        socket.close();
+      }
+      socket = null;
+    }
+  }
+
+  /**
+   * Get the addresses of workers at localhost ports.
+   *
+   * @param ports the ports of the workers, ordered by their partitions.
+   * @return the addresses.
+   */
+  public static List<InetSocketAddress> localWorkers(int... ports) {
+    return Arrays.stream(ports)
+        .mapToObj(p -> new InetSocketAddress(InetAddress.getLoopbackAddress(), p))
+        .collect(Collectors.toList());
+  }
+}
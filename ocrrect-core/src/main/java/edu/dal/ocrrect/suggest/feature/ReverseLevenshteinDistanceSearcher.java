@@ -1,8 +1,8 @@
 package edu.dal.ocrrect.suggest.feature;
 
+import edu.dal.ocrrect.feature.metric.EditDistance;
 import gnu.trove.map.hash.TObjectByteHashMap;
 import gnu.trove.set.hash.THashSet;
-import info.debatty.java.stringsimilarity.Levenshtein;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -17,7 +17,7 @@ import java.util.WeakHashMap;
  *
  * @since 2017.04.20
  */
-class ReverseLevenshteinDistanceSearcher implements Serializable {
+class ReverseLevenshteinDistanceSearcher implements CandidateSearcher, Serializable {
   private static final long serialVersionUID = -693442884043428965L;
 
   private static Map<THashSet<String>, ReverseLevenshteinDistanceSearcher> instanceMap =
@@ -56,7 +56,6 @@ class ReverseLevenshteinDistanceSearcher implements Serializable {
    */
   private String[][] lexiconInLen;
 
-  private Levenshtein lev;
   private THashSet<String> dict;
 
   /**
@@ -67,7 +66,6 @@ class ReverseLevenshteinDistanceSearcher implements Serializable {
    */
   private ReverseLevenshteinDistanceSearcher(THashSet<String> dictionary) {
     this.dict = dictionary;
-    this.lev = new Levenshtein();
 
     // Separate unigram by length.
     ArrayList<ArrayList<String>> uniList = new ArrayList<>();
@@ -90,6 +88,17 @@ class ReverseLevenshteinDistanceSearcher implements Serializable {
     }
   }
 
+  @Override
+  public int numOfWords() {
+    return dict.size();
+  }
+
+  @Override
+  public int maxDistance() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
   public Set<String> search(String word, int maxDistance) {
     Set<String> candidates = new HashSet<String>();
     int len = word.length();
@@ -113,7 +122,7 @@ class ReverseLevenshteinDistanceSearcher implements Serializable {
          i <= len + maxDistance; i++) {
       try {
         for (String gram : lexiconInLen[i]) {
-          if (lev.distance(gram, word) <= maxDistance) {
+          if (EditDistance.levenshtein(gram, word, maxDistance) <= maxDistance) {
             candidates.add(gram);
           }
         }
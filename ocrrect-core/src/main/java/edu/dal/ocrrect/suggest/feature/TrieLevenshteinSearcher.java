@@ -0,0 +1,191 @@
+package edu.dal.ocrrect.suggest.feature;
+
+import edu.dal.ocrrect.util.LogUtils;
+import edu.dal.ocrrect.util.Timer;
+import gnu.trove.list.array.TCharArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.THashSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Set;
+
+/**
+ * A candidate searcher walking a trie of the vocabulary with a bounded Levenshtein automaton, which
+ * finds the same candidates as {@link ReverseLevenshteinDistanceSearcher}.
+ *
+ * <p>Each trie node extends the dynamic programming row of its parent by one character, thus the
+ * rows of a shared prefix are computed once for all the words below it. A subtree is cut once the
+ * minimum of the row exceeds the maximum distance, since the distance never decreases when more
+ * characters are appended.
+ *
+ * <p>The trie is stored in arrays in breadth-first order, where the children of a node are
+ * contiguous and sorted by their characters. Node {@code 0} is the root.
+ *
+ * @since 2017.09.28
+ */
+public class TrieLevenshteinSearcher implements CandidateSearcher {
+  private final char[] labels;
+  private final int[] childStarts;
+  private final BitSet terminals;
+  private final int numOfWords;
+  private final int maxLength;
+
+  /**
+   * Build a trie of a vocabulary.
+   *
+   * @param vocab a vocabulary.
+   */
+  public TrieLevenshteinSearcher(Collection<String> vocab) {
+    Timer t = new Timer();
+    String[] words = vocab.toArray(new String[vocab.size()]);
+    Arrays.sort(words);
+
+    TCharArrayList labelList = new TCharArrayList();
+    TIntArrayList childStartList = new TIntArrayList();
+    terminals = new BitSet();
+    int maxLength = 0;
+
+    // Each queued node is the range of words sharing its prefix, and the prefix length.
+    Deque<int[]> queue = new ArrayDeque<>();
+    labelList.add((char) 0);
+    queue.add(new int[] {0, words.length, 0});
+    for (int node = 0; ! queue.isEmpty(); node++) {
+      int[] range = queue.poll();
+      int lo = range[0];
+      int hi = range[1];
+      int depth = range[2];
+      if (lo < hi && words[lo].length() == depth) {
+        terminals.set(node);
+        maxLength = Math.max(maxLength, depth);
+        lo++;
+      }
+      childStartList.add(labelList.size());
+      while (lo < hi) {
+        char c = words[lo].charAt(depth);
+        int end = lo + 1;
+        while (end < hi && words[end].charAt(depth) == c) {
+          end++;
+        }
+        labelList.add(c);
+        queue.add(new int[] {lo, end, depth + 1});
+        lo = end;
+      }
+    }
+    childStartList.add(labelList.size());
+
+    this.labels = labelList.toArray();
+    this.childStarts = childStartList.toArray();
+    this.numOfWords = words.length;
+    this.maxLength = maxLength;
+    LogUtils.info(String.format("build trie of %d nodes for %d words", labels.length, numOfWords));
+    LogUtils.logMethodTime(t, 2);
+  }
+
+  @Override
+  public int numOfWords() {
+    return numOfWords;
+  }
+
+  @Override
+  public int maxDistance() {
+    return Integer.MAX_VALUE;
+  }
+
+  public int numOfNodes() {
+    return labels.length;
+  }
+
+  @Override
+  public Set<String> search(String word, int maxDistance) {
+    Set<String> candidates = new THashSet<>();
+    search(word, maxDistance, candidates);
+    return candidates;
+  }
+
+  /**
+   * Search the vocabulary words within a Levenshtein distance.
+   *
+   * @param word a word.
+   * @param maxDistance the maximum distance.
+   * @param candidates the collection to which the words within the distance are added.
+   * @return the number of trie nodes visited, including the root.
+   */
+  public int search(String word, int maxDistance, Collection<String> candidates) {
+    if (maxDistance < 0) {
+      throw new IllegalArgumentException("invalid distance: " + maxDistance);
+    }
+    Walk walk = new Walk(word, maxDistance, candidates);
+    for (int j = 0; j <= word.length(); j++) {
+      walk.rows[0][j] = j;
+    }
+    walk.accept(0, 0);
+    if (walk.path.length > 0) {
+      walk.visit(0, 0);
+    }
+    return walk.visited;
+  }
+
+  /**
+   * The state of a search.
+   */
+  private class Walk {
+    private final String word;
+    private final int len;
+    private final int maxDistance;
+    private final Collection<String> candidates;
+    private final int[][] rows;
+    private final char[] path;
+    private int visited = 1;
+
+    private Walk(String word, int maxDistance, Collection<String> candidates) {
+      this.word = word;
+      this.len = word.length();
+      this.maxDistance = maxDistance;
+      this.candidates = candidates;
+      // A word longer than the query by more than the distance is never reached.
+      int depth = Math.min(maxLength, len + maxDistance);
+      this.rows = new int[depth + 1][len + 1];
+      this.path = new char[depth];
+    }
+
+    /**
+     * Add the word of a node if it is within the distance.
+     */
+    private void accept(int node, int depth) {
+      // The empty word is not compared for a word of exactly the maximum length, as in
+      // ReverseLevenshteinDistanceSearcher.
+      if (terminals.get(node) && rows[depth][len] <= maxDistance
+          && ! (depth == 0 && len == maxDistance)) {
+        candidates.add(new String(path, 0, depth));
+      }
+    }
+
+    /**
+     * Visit the children of a node, whose row is within the distance.
+     */
+    private void visit(int node, int depth) {
+      int[] prev = rows[depth];
+      int[] row = rows[depth + 1];
+      for (int child = childStarts[node]; child < childStarts[node + 1]; child++) {
+        char c = labels[child];
+        visited++;
+        row[0] = depth + 1;
+        int min = row[0];
+        for (int j = 1; j <= len; j++) {
+          int d = Math.min(prev[j] + 1, row[j - 1] + 1);
+          d = Math.min(d, prev[j - 1] + (word.charAt(j - 1) == c ? 0 : 1));
+          row[j] = d;
+          min = Math.min(min, d);
+        }
+        path[depth] = c;
+        accept(child, depth + 1);
+        if (min <= maxDistance && depth + 1 < path.length) {
+          visit(child, depth + 1);
+        }
+      }
+    }
+  }
+}
@@ -27,6 +27,7 @@ abstract class WordIsolatedFeature extends Feature
   public static final int DISTANCE_THRESHOLD = 3;
 
   private ReverseLevenshteinDistanceSearcher revLevDistance;
+  private transient CandidateSearcher searcher;
   private THashSet<String> vocab;
 
   /**
@@ -48,11 +49,34 @@ abstract class WordIsolatedFeature extends Feature
   }
 
   /**
-   * Search candidates that has {@link edu.dal.corr.metric.EditDistance#levDist(String, String)}
-   * {@value #DISTANCE_THRESHOLD} with the given word.
+   * Search candidates by another engine instead of comparing with every vocabulary word of a
+   * similar length, e.g. a {@link DeleteNeighborhoodSearcher} or a {@link TrieLevenshteinSearcher}.
+   * The candidates are identical. The engine is not serialized with this feature.
+   *
+   * @param searcher a searcher built on the vocabulary of this feature, or {@code null} to compare
+   *     with vocabulary words.
+   * @throws IllegalArgumentException if the searcher is built on a different vocabulary size or a
+   *     smaller distance.
+   */
+  public void setCandidateSearcher(CandidateSearcher searcher) {
+    if (searcher != null && (searcher.numOfWords() != vocab.size()
+        || searcher.maxDistance() < DISTANCE_THRESHOLD)) {
+      throw new IllegalArgumentException("invalid searcher: " + searcher.numOfWords()
+          + " words within distance " + searcher.maxDistance());
+    }
+    this.searcher = searcher;
+  }
+
+  /**
+   * Search candidates that has {@link
+   * edu.dal.ocrrect.feature.metric.EditDistance#levenshtein(String, String)} within {@value
+   * #DISTANCE_THRESHOLD} with the given word.
    */
   @Override
   public Set<String> search(Word word) {
+    if (searcher != null) {
+      return searcher.search(word.text(), DISTANCE_THRESHOLD);
+    }
     return revLevDistance.search(word.text(), DISTANCE_THRESHOLD);
   }
 }
@@ -6,9 +6,16 @@ package edu.dal.ocrrect.util;
  * @since 2017.04.20
  */
 public class Token extends LocatedTextualUnit {
-  public static Token EMPTY = new Token("", -1);
+  /**
+   * An empty token padding the contexts at the text boundaries, which has no position.
+   */
+  public static Token EMPTY = new Token("");
 
   public Token(String name, int position) {
     super(name, position);
   }
+
+  private Token(String name) {
+    super(name);
+  }
 }
@@ -0,0 +1,69 @@
+package edu.dal.ocrrect.feature.metric;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import info.debatty.java.stringsimilarity.Levenshtein;
+import info.debatty.java.stringsimilarity.OptimalStringAlignment;
+
+public class EditDistanceTest
+{
+  private static final String ALPHABET = "abc\u00e9\u4e2d";
+
+  private static String random(Random rand, int maxLength)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (int i = rand.nextInt(maxLength + 1); i > 0; i--) {
+      sb.append(ALPHABET.charAt(rand.nextInt(ALPHABET.length())));
+    }
+    return sb.toString();
+  }
+
+  private static void assertSame(String s1, String s2)
+  {
+    int lev = (int) new Levenshtein().distance(s1, s2);
+    int osa = (int) new OptimalStringAlignment().distance(s1, s2);
+    assertEquals(s1 + " " + s2, lev, EditDistance.levenshtein(s1, s2));
+    assertEquals(s1 + " " + s2, osa, EditDistance.osa(s1, s2));
+    for (int max = 0; max <= 4; max++) {
+      assertEquals(Math.min(lev, max + 1), EditDistance.levenshtein(s1, s2, max));
+      assertEquals(Math.min(osa, max + 1), EditDistance.osa(s1, s2, max));
+    }
+  }
+
+  @Test
+  public void testShortWords()
+    throws Exception
+  {
+    Random rand = new Random(1);
+    for (int i = 0; i < 20000; i++) {
+      assertSame(random(rand, 12), random(rand, 12));
+    }
+    assertSame("", "");
+    assertSame("ca", "abc");
+    assertSame("recieve", "receive");
+  }
+
+  @Test
+  public void testLongWords()
+    throws Exception
+  {
+    Random rand = new Random(2);
+    for (int i = 0; i < 2000; i++) {
+      String s = random(rand, 100);
+      // Similar strings around the bit vector length.
+      StringBuilder sb = new StringBuilder(s);
+      for (int k = rand.nextInt(4); k > 0 && sb.length() > 1; k--) {
+        int j = rand.nextInt(sb.length() - 1);
+        char c = sb.charAt(j);
+        sb.setCharAt(j, sb.charAt(j + 1));
+        sb.setCharAt(j + 1, c);
+      }
+      assertSame(s, sb.toString());
+      assertSame(s, random(rand, 100));
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package edu.dal.ocrrect.feature.metric;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NGramTest
+{
+  private static final String ALPHABET = "abca \n\u00e9\u4e2d";
+
+  /**
+   * The previous cost functions, which compare copies of the n-grams.
+   */
+  private interface ReferenceCost
+  {
+    float cost(char[] s1, char[] s2);
+  }
+
+  private static final ReferenceCost BINARY = (s1, s2) -> {
+    for (int ni = 0; ni < s1.length; ni++) {
+      if (s1[ni] != s2[ni]) {
+        return 1;
+      }
+    }
+    return 0;
+  };
+
+  private static final ReferenceCost POSITIONAL = (s1, s2) -> {
+    int tn = s1.length;
+    int cost = 0;
+    for (int ni = 0; ni < s1.length; ni++) {
+      if (s1[ni] != s2[ni]) {
+        cost++;
+      } else if (s1[ni] == '\n') {
+        tn--;
+      }
+    }
+    return (float) cost / tn;
+  };
+
+  private static final ReferenceCost COMPREHENSIVE = (s1, s2) -> {
+    int tn = s1.length;
+    int cost = 0;
+    List<Character> l2 = new ArrayList<>();
+    for (char c: s2) {
+      l2.add(c);
+    }
+    for (char c: s1) {
+      if (! l2.contains(c)) {
+        cost++;
+      } else {
+        l2.remove((Character) c);
+      }
+      if (c == '\n') {
+        tn--;
+      }
+    }
+    return (float) cost / tn;
+  };
+
+  /**
+   * The previous distance, which copies the n-grams of each cell.
+   */
+  private static double reference(int n, ReferenceCost cf, String s0, String s1)
+  {
+    if (s0.equals(s1)) {
+      return 0;
+    }
+    int sl = s0.length();
+    int tl = s1.length();
+    if (sl == 0 || tl == 0) {
+      return 1;
+    }
+    if (sl < n || tl < n) {
+      int cost = 0;
+      for (int i = 0, ni = Math.min(sl, tl); i < ni; i++) {
+        if (s0.charAt(i) == s1.charAt(i)) {
+          cost++;
+        }
+      }
+      return (float) cost;
+    }
+    char[] sa = new char[sl + n - 1];
+    for (int i = 0; i < sa.length; i++) {
+      sa[i] = i < n - 1 ? '\n' : s0.charAt(i - n + 1);
+    }
+    float[] p = new float[sl + 1];
+    float[] d = new float[sl + 1];
+    char[] tj = new char[n];
+    for (int i = 0; i <= sl; i++) {
+      p[i] = i;
+    }
+    for (int j = 1; j <= tl; j++) {
+      if (j < n) {
+        for (int ti = 0; ti < n - j; ti++) {
+          tj[ti] = '\n';
+        }
+        for (int ti = n - j; ti < n; ti++) {
+          tj[ti] = s1.charAt(ti - (n - j));
+        }
+      } else {
+        tj = s1.substring(j - n, j).toCharArray();
+      }
+      d[0] = j;
+      for (int i = 1; i <= sl; i++) {
+        float ec = cf.cost(Arrays.copyOfRange(sa, i - 1, i - 1 + n), tj);
+        d[i] = Math.min(Math.min(d[i - 1] + 1, p[i] + 1), p[i - 1] + ec);
+      }
+      float[] tmp = p;
+      p = d;
+      d = tmp;
+    }
+    return p[sl];
+  }
+
+  private static String random(Random rand, int maxLength)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (int i = rand.nextInt(maxLength + 1); i > 0; i--) {
+      sb.append(ALPHABET.charAt(rand.nextInt(ALPHABET.length())));
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testSameDistances()
+    throws Exception
+  {
+    NGram.CostFunction[] funcs =
+        {NGram.BINARY_COST, NGram.POSITIONAL_COST, NGram.COMPREHENSIVE_COST};
+    ReferenceCost[] refs = {BINARY, POSITIONAL, COMPREHENSIVE};
+    Random rand = new Random(3);
+    for (int t = 0; t < 5000; t++) {
+      String s0 = random(rand, 14);
+      String s1 = rand.nextBoolean() ? random(rand, 14) : s0 + random(rand, 2);
+      for (int n = 1; n <= 6; n++) {
+        double[] dists = NGram.distances(n, funcs, s0, s1);
+        for (int f = 0; f < funcs.length; f++) {
+          double expected = reference(n, refs[f], s0, s1);
+          String msg = n + " " + f + ": " + s0 + " " + s1;
+          assertEquals(msg, Double.doubleToLongBits(expected),
+              Double.doubleToLongBits(new NGram(n, funcs[f]).distance(s0, s1)));
+          assertEquals(msg, Double.doubleToLongBits(expected), Double.doubleToLongBits(dists[f]));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBuffersReused()
+    throws Exception
+  {
+    // A long pair grows the buffers, which must not affect a following short pair.
+    NGram ngram = new NGram(3, NGram.COMPREHENSIVE_COST);
+    String longer = "abcdefghijklmnopqrstuvwxyz0123456789";
+    double expected = reference(3, COMPREHENSIVE, "recieve", "receive");
+    ngram.distance(longer, new StringBuilder(longer).reverse().toString());
+    assertEquals(expected, ngram.distance("recieve", "receive"), 0);
+    assertEquals(reference(3, COMPREHENSIVE, longer, "ab"), ngram.distance(longer, "ab"), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize()
+    throws Exception
+  {
+    new NGram(0, NGram.BINARY_COST);
+  }
+}
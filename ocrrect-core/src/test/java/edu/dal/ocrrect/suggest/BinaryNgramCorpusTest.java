@@ -0,0 +1,109 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import edu.dal.ocrrect.util.IOUtils;
+import edu.dal.ocrrect.util.ResourceUtils;
+
+import java.io.BufferedReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryNgramCorpusTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Map<String, List<String>> readGroups(List<Path> ngrams)
+    throws Exception
+  {
+    Map<String, List<String>> groups = new LinkedHashMap<>();
+    for (Path p : ngrams) {
+      try (BufferedReader br = IOUtils.newBufferedReader(p)) {
+        for (String line = br.readLine(); line != null; line = br.readLine()) {
+          String word = line.substring(0, line.indexOf(' '));
+          groups.computeIfAbsent(word, k -> new ArrayList<>()).add(line);
+        }
+      }
+    }
+    return groups;
+  }
+
+  private void assertConvert(List<Path> ngrams, int order)
+    throws Exception
+  {
+    NgramVocabulary vocab = NgramVocabulary.build(ngrams);
+    Path vocabFile = folder.getRoot().toPath().resolve("ngram.vocab");
+    NgramVocabulary.write(vocab, vocabFile);
+    vocab = NgramVocabulary.read(vocabFile);
+
+    Path out = folder.getRoot().toPath().resolve(order + "gm" + BinaryNgramCorpus.FILE_EXTENSION);
+    BinaryNgramCorpus.convert(ngrams, vocab, out);
+
+    Map<String, List<String>> groups = readGroups(ngrams);
+    try (BinaryNgramCorpus corpus = BinaryNgramCorpus.open(out)) {
+      assertEquals(order, corpus.order());
+      assertEquals(vocab.size(), corpus.vocabularySize());
+      assertEquals(groups.size(), corpus.numGroups());
+      for (Map.Entry<String, List<String>> e : groups.entrySet()) {
+        int first = vocab.id(e.getKey());
+        assertEquals(e.getValue().size(), corpus.count(first));
+
+        List<String> lines = new ArrayList<>();
+        BinaryNgramCorpus.Records records = corpus.records(first);
+        while (records.next()) {
+          StringBuilder sb = new StringBuilder();
+          for (int id : records.ids()) {
+            sb.append(sb.length() == 0 ? "" : " ").append(vocab.word(id));
+          }
+          lines.add(sb.append('\t').append(records.freq()).toString());
+        }
+        assertEquals(e.getValue(), lines);
+      }
+      // A word that is only found in the middle of n-grams.
+      for (int id = 0; id < vocab.size(); id++) {
+        if (! groups.containsKey(vocab.word(id))) {
+          assertNull(corpus.records(id));
+          assertEquals(0, corpus.count(id));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testConvert()
+    throws Exception
+  {
+    assertConvert(Arrays.asList(
+        ResourceUtils.getResource("test.suggest/2gms/2gms.0001.test.txt"),
+        ResourceUtils.getResource("test.suggest/2gms/2gms.0002.test.txt")), 2);
+    assertConvert(Arrays.asList(
+        ResourceUtils.getResource("test.suggest/3gms/3gms.0001.test.txt")), 3);
+    assertConvert(Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg")), 5);
+  }
+
+  @Test
+  public void testVocabulary()
+    throws Exception
+  {
+    NgramVocabulary vocab = NgramVocabulary.build(Arrays.asList(
+        ResourceUtils.getResource("test.suggest/3gms/3gms.0001.test.txt")));
+    for (int i = 0; i < vocab.size(); i++) {
+      assertEquals(i, vocab.id(vocab.word(i)));
+      if (i > 0) {
+        assertTrue(vocab.word(i - 1).compareTo(vocab.word(i)) < 0);
+      }
+    }
+    assertEquals(NgramVocabulary.NO_ID, vocab.id("not-a-token"));
+  }
+}
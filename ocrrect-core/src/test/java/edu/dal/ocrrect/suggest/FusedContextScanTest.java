@@ -0,0 +1,82 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.dal.ocrrect.suggest.feature.ApproximateContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.Feature;
+import edu.dal.ocrrect.suggest.feature.FusedContextScan;
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.Word;
+
+public class FusedContextScanTest
+{
+  private static NgramBoundedReaderSearcher searcher;
+  private static List<Word> words;
+
+  @BeforeClass
+  public static void setUpBeforeClass()
+    throws Exception
+  {
+    Path ngrams = ResourceUtils.getResource("5gm-0000.seg");
+    searcher = new NgramBoundedReaderSearcher(Arrays.asList(ngrams));
+
+    // Words in the second position of existing 5-grams, as well as their misspellings.
+    words = new ArrayList<>();
+    List<String> lines = Files.readAllLines(ngrams, StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i += 7) {
+      String[] grams = lines.get(i).split("\t")[0].split(" ");
+      words.add(new Word(i, "x", "y", "z", grams[0], grams[1], grams[2], grams[3], grams[4]));
+      words.add(new Word(i, "x", "y", "z", grams[0], grams[1] + "q", grams[2], grams[3], grams[4]));
+    }
+  }
+
+  @Test
+  public void testSameResults()
+    throws Exception
+  {
+    List<Feature> features = Arrays.asList(
+        new ContextCoherenceFeature("Fivegram", searcher, 5),
+        new ApproximateContextCoherenceFeature("Fivegram", searcher, 5));
+    FusedContextScan scan = FusedContextScan.run(words, features, true);
+    for (Feature feat : features) {
+      List<Boolean> detected = feat.detect(words);
+      assertTrue(detected.contains(true) && detected.contains(false));
+      assertEquals(detected, scan.detect(feat, words));
+      assertEquals(feat.suggest(words), scan.suggest(feat, words));
+
+      // Suggestions are also available for a subset of the scanned words.
+      List<Word> subset = words.subList(0, words.size() / 2);
+      assertEquals(feat.suggest(subset), scan.suggest(feat, subset));
+    }
+  }
+
+  @Test
+  public void testScanOnce()
+    throws Exception
+  {
+    NgramBlockCache cache = new NgramBlockCache(1 << 30);
+    searcher.setBlockCache(cache);
+    try {
+      List<Feature> features = Arrays.asList(
+          new ContextCoherenceFeature("Fivegram", searcher, 5),
+          new ApproximateContextCoherenceFeature("Fivegram", searcher, 5));
+      FusedContextScan.run(words, features, true);
+      // Every block is read once for two features in both phases.
+      assertEquals(0, cache.hits());
+      assertTrue(cache.misses() > 0);
+    } finally {
+      searcher.setBlockCache(null);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readString;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.dal.ocrrect.util.ResourceUtils;
+public class MappedNgramIndexTest
+{
+  private static List<Path> ngrams;
+  private static NgramBoundedReaderSearcher searcher;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setUpBeforeClass()
+    throws Exception
+  {
+    ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    searcher = new NgramBoundedReaderSearcher(ngrams);
+  }
+
+  private static void assertSameRecords(NgramBoundedReaderSearcher mapped)
+    throws Exception
+  {
+    for (Path p : ngrams) {
+      // Words are indexed as read by RandomAccessFile.readLine(), which maps each byte to a char.
+      try (BufferedReader br = Files.newBufferedReader(p, StandardCharsets.ISO_8859_1)) {
+        String prev = null;
+        for (String line = br.readLine(); line != null; line = br.readLine()) {
+          String word = line.substring(0, line.indexOf(' '));
+          if (! word.equals(prev)) {
+            assertEquals(readString(searcher.openBufferedRecordsWithFirstWord(word)),
+                readString(mapped.openBufferedRecordsWithFirstWord(word)));
+            prev = word;
+          }
+        }
+      }
+    }
+    assertNull(mapped.openBufferedRecordsWithFirstWord("xyz"));
+    assertNull(mapped.openBufferedRecordsWithFirstWord(""));
+  }
+
+  @Test
+  public void testWriteAndReadMapped()
+    throws Exception
+  {
+    Path out = folder.getRoot().toPath().resolve("5gm.search" + MappedNgramIndex.FILE_EXTENSION);
+    NgramBoundedReaders.writeMapped(searcher, out);
+
+    MappedNgramIndex index = MappedNgramIndex.open(out);
+    assertTrue(index.verify());
+    assertEquals(133, index.size());
+    for (int i = 0; i < index.size(); i++) {
+      assertEquals(i, index.find(index.key(i)));
+    }
+    NgramBoundedReaderSearcher mapped = NgramBoundedReaders.readMapped(out);
+    assertEquals(searcher, mapped);
+    assertSameRecords(mapped);
+  }
+
+  @Test
+  public void testConvertSerialized()
+    throws Exception
+  {
+    Path serialized = folder.getRoot().toPath().resolve("5gm.search.bin");
+    Path out = folder.getRoot().toPath().resolve("5gm.search" + MappedNgramIndex.FILE_EXTENSION);
+    NgramBoundedReaders.write(searcher, serialized);
+    NgramBoundedReaders.convert(serialized, out);
+    assertSameRecords(NgramBoundedReaders.readMapped(out));
+  }
+
+  @Test
+  public void testConvertLegacySerialized()
+    throws Exception
+  {
+    Path serialized = folder.getRoot().toPath().resolve("5gm.search");
+    Path out = folder.getRoot().toPath().resolve("5gm.search" + MappedNgramIndex.FILE_EXTENSION);
+    edu.dal.corr.suggest.NgramBoundedReaderSearcher.write(
+        new edu.dal.corr.suggest.NgramBoundedReaderSearcher(ngrams), serialized);
+    NgramBoundedReaders.convert(serialized, out);
+    assertSameRecords(NgramBoundedReaders.readMapped(out));
+  }
+}
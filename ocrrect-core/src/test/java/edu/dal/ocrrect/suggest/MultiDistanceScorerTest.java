@@ -0,0 +1,191 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.dal.ocrrect.feature.metric.EditDistance;
+import edu.dal.ocrrect.feature.metric.NGram;
+import edu.dal.ocrrect.suggest.batch.BatchScoreMixin;
+import edu.dal.ocrrect.util.IOUtils;
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.Word;
+import gnu.trove.map.TObjectFloatMap;
+import info.debatty.java.stringsimilarity.Damerau;
+import info.debatty.java.stringsimilarity.Jaccard;
+import info.debatty.java.stringsimilarity.JaroWinkler;
+import info.debatty.java.stringsimilarity.Levenshtein;
+import info.debatty.java.stringsimilarity.LongestCommonSubsequence;
+import info.debatty.java.stringsimilarity.OptimalStringAlignment;
+import info.debatty.java.stringsimilarity.QGram;
+
+public class MultiDistanceScorerTest
+{
+  private static List<String> words;
+  private static List<DistanceMetric> metrics;
+
+  @BeforeClass
+  public static void setUpBeforeClass()
+    throws Exception
+  {
+    // Vocabulary words and their misspellings, as well as short words and whitespaces.
+    words = new ArrayList<>(Arrays.asList("", "a", "ab", "ba", "t\u00e9", "a b", "a  b", "xqzjv"));
+    String[] vocab = IOUtils.readList(ResourceUtils.getResource("search_vocab.txt"))
+        .toArray(new String[0]);
+    Arrays.sort(vocab);
+    for (int i = 0; i < vocab.length; i += 1999) {
+      String w = vocab[i];
+      words.add(w);
+      words.add(w + "q");
+      words.add("l" + w.substring(1));
+      words.add(w.length() < 2 ? w : w.substring(1, 2) + w.charAt(0) + w.substring(2));
+    }
+
+    // The metrics registered by the experiments.
+    metrics = new ArrayList<>();
+    for (Scoreable s : Arrays.asList(Scoreable.levenshteinDist(), Scoreable.damerauLevDist(),
+        Scoreable.lscDist(), Scoreable.optStrAlignDist(), Scoreable.jaroWinklerDist())) {
+      metrics.add((DistanceMetric) s);
+    }
+    for (int size = 1; size <= 5; size++) {
+      metrics.add((DistanceMetric) Scoreable.jaccardDist(size));
+    }
+    for (int size = 2; size <= 5; size++) {
+      metrics.add((DistanceMetric) Scoreable.qgramDist(size));
+      metrics.add((DistanceMetric) Scoreable.binNgramDist(size));
+      metrics.add((DistanceMetric) Scoreable.posNgramDist(size));
+      metrics.add((DistanceMetric) Scoreable.cmphNgramDist(size));
+    }
+  }
+
+  /**
+   * The distance computed individually by the underlying metric.
+   */
+  private static float expected(DistanceMetric m, String s1, String s2)
+  {
+    switch (m.kind()) {
+      case LEVENSHTEIN:
+        return (float) new Levenshtein().distance(s1, s2);
+      case DAMERAU:
+        return (float) new Damerau().distance(s1, s2);
+      case OPTIMAL_STRING_ALIGNMENT:
+        return (float) new OptimalStringAlignment().distance(s1, s2);
+      case LCS:
+        return (float) new LongestCommonSubsequence().distance(s1, s2);
+      case JARO_WINKLER:
+        return (float) new JaroWinkler().distance(s1, s2);
+      case JACCARD:
+        double dist = new Jaccard(m.size()).distance(s1, s2);
+        return Double.isNaN(dist) ? 0f : (float) dist;
+      case QGRAM:
+        return (float) new QGram(m.size()).distance(s1, s2);
+      default:
+        return (float) new NGram(m.size(), m.costFunction()).distance(s1, s2);
+    }
+  }
+
+  @Test
+  public void testSameScores()
+    throws Exception
+  {
+    MultiDistanceScorer scorer = new MultiDistanceScorer(metrics);
+    assertEquals(26, scorer.size());
+    String[] candidates = words.toArray(new String[words.size()]);
+    for (String w : words) {
+      Word word = new Word(0, "", "", "", "", w, "", "", "");
+      float[][] scores = scorer.score(w, candidates);
+      for (int c = 0; c < candidates.length; c++) {
+        for (int m = 0; m < metrics.size(); m++) {
+          String msg = metrics.get(m) + ": " + w + " " + candidates[c];
+          float e = expected(metrics.get(m), w, candidates[c]);
+          assertEquals(msg, Float.floatToIntBits(e), Float.floatToIntBits(scores[c][m]));
+          assertEquals(msg, Float.floatToIntBits(e),
+              Float.floatToIntBits(metrics.get(m).score(word, candidates[c])));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBatchScores()
+    throws Exception
+  {
+    String[] candidates = words.toArray(new String[words.size()]);
+    float[] out = new float[candidates.length];
+    Scoreable custom = (w, c) -> w.text().length() - c.length();
+    for (String w : words) {
+      Word word = new Word(0, "", "", "", "", w, "", "", "");
+      for (DistanceMetric m : metrics) {
+        m.score(word, candidates, out);
+        for (int c = 0; c < candidates.length; c++) {
+          String msg = m + ": " + w + " " + candidates[c];
+          float e = expected(m, w, candidates[c]);
+          assertEquals(msg, Float.floatToIntBits(e), Float.floatToIntBits(out[c]));
+        }
+      }
+      custom.score(word, candidates, out);
+      for (int c = 0; c < candidates.length; c++) {
+        assertEquals(custom.score(word, candidates[c]), out[c], 0);
+      }
+    }
+  }
+
+  @Test
+  public void testSharedKernels()
+    throws Exception
+  {
+    NGram.CostFunction[] funcs = {NGram.BINARY_COST, NGram.POSITIONAL_COST,
+        NGram.COMPREHENSIVE_COST};
+    int[] edits = new int[2];
+    for (String s1 : words) {
+      for (int i = 0; i < words.size(); i += 7) {
+        String s2 = words.get(i);
+        EditDistance.levenshteinAndOsa(s1, s2, edits);
+        assertEquals(EditDistance.levenshtein(s1, s2), edits[0]);
+        assertEquals(EditDistance.osa(s1, s2), edits[1]);
+        for (int n = 1; n <= 5; n++) {
+          double[] dists = NGram.distances(n, funcs, s1, s2);
+          for (int f = 0; f < funcs.length; f++) {
+            assertEquals(new NGram(n, funcs[f]).distance(s1, s2), dists[f], 0);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFanOut()
+    throws Exception
+  {
+    List<DistanceMetric> subset = Arrays.asList(metrics.get(0), metrics.get(7), metrics.get(0));
+    MultiDistanceScorer scorer = new MultiDistanceScorer(subset);
+    List<Word> ws = new ArrayList<>();
+    List<Set<String>> candidateLists = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      ws.add(new Word(i, "", "", "", "", words.get(i), "", "", ""));
+      candidateLists.add(new LinkedHashSet<>(words.subList(i, i + 10)));
+    }
+    candidateLists.set(0, new HashSet<>());
+    List<List<TObjectFloatMap<String>>> scoreMaps =
+        BatchScoreMixin.score(scorer, ws, candidateLists);
+    assertEquals(subset.size(), scoreMaps.size());
+    for (int m = 0; m < subset.size(); m++) {
+      assertEquals(ws.size(), scoreMaps.get(m).size());
+      for (int i = 0; i < ws.size(); i++) {
+        TObjectFloatMap<String> scoreMap = scoreMaps.get(m).get(i);
+        assertEquals(candidateLists.get(i), scoreMap.keySet());
+        for (String c : candidateLists.get(i)) {
+          assertEquals(subset.get(m).score(ws.get(i), c), scoreMap.get(c), 0);
+        }
+      }
+    }
+  }
+}
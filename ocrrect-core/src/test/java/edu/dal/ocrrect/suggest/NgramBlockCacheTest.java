@@ -0,0 +1,115 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readString;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.dal.ocrrect.util.ResourceUtils;
+
+public class NgramBlockCacheTest
+{
+  @Test
+  public void testEviction()
+    throws Exception
+  {
+    NgramBlockCache cache = new NgramBlockCache(100);
+    AtomicInteger loads = new AtomicInteger();
+
+    NgramBlockCache.BlockLoader loader = () -> {
+      loads.incrementAndGet();
+      return new byte[20];
+    };
+    assertEquals(20, cache.get(2, "a", loader).length);
+    assertEquals(20, cache.get(2, "a", loader).length);
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+    assertEquals(20, cache.bytesSaved());
+
+    // Blocks are keyed by both order and word.
+    cache.get(3, "a", loader);
+    assertEquals(2, loads.get());
+    assertEquals(40, cache.size());
+
+    // Blocks larger than a quarter of the budget are not cached.
+    cache.get(2, "b", () -> new byte[30]);
+    assertEquals(2, cache.numBlocks());
+
+    // The least recently used block is evicted first.
+    cache.get(2, "a", () -> new byte[20]);
+    cache.get(2, "c", () -> new byte[25]);
+    cache.get(2, "d", () -> new byte[25]);
+    assertEquals(90, cache.size());
+    cache.get(2, "e", () -> new byte[25]);
+    assertEquals(1, cache.evictions());
+    assertEquals(95, cache.size());
+    loads.set(0);
+    cache.get(3, "a", loader);
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testSearcherWithCache()
+    throws Exception
+  {
+    List<Path> ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(ngrams);
+    NgramBoundedReaderSearcher cached = new NgramBoundedReaderSearcher(ngrams);
+    NgramBlockCache cache = new NgramBlockCache(1 << 24);
+    cached.setBlockCache(cache);
+    assertEquals(5, cached.order());
+
+    Set<String> words = new LinkedHashSet<>();
+    for (Path p : ngrams) {
+      for (String line : Files.readAllLines(p, StandardCharsets.ISO_8859_1)) {
+        words.add(line.substring(0, line.indexOf(' ')));
+      }
+    }
+    for (int round = 0; round < 2; round++) {
+      for (String word : words) {
+        assertEquals(readString(searcher.openBufferedRecordsWithFirstWord(word)),
+            readString(cached.openBufferedRecordsWithFirstWord(word)));
+        ByteBuffer expect = searcher.readRecordsWithFirstWord(word);
+        ByteBuffer actual = cached.readRecordsWithFirstWord(word);
+        assertEquals(expect, actual);
+        assertTrue(actual.isReadOnly());
+      }
+    }
+    assertNull(cached.openBufferedRecordsWithFirstWord("xyz"));
+    // Each block is read from disk once.
+    assertEquals(cache.misses(), cache.numBlocks());
+    assertEquals(cache.misses() * 3, cache.hits());
+  }
+
+  @Test
+  public void testLargeBlocksStreamed()
+    throws Exception
+  {
+    List<Path> ngrams = Arrays.asList(ResourceUtils.getResource("5gm-0098.seg"));
+    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(ngrams);
+    NgramBoundedReaderSearcher cached = new NgramBoundedReaderSearcher(ngrams);
+    NgramBlockCache cache = new NgramBlockCache(4 << 10);
+    cached.setBlockCache(cache);
+
+    // A block larger than a quarter of the cache is read without the cache.
+    assertEquals(readString(searcher.openBufferedRecordsWithFirstWord("recently")),
+        readString(cached.openBufferedRecordsWithFirstWord("recently")));
+    assertEquals(searcher.readRecordsWithFirstWord("recently"),
+        cached.readRecordsWithFirstWord("recently"));
+    assertEquals(0, cache.misses());
+    assertEquals(0, cache.numBlocks());
+  }
+}
@@ -0,0 +1,195 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readLines;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.dal.ocrrect.suggest.NgramReadScheduler.Block;
+import edu.dal.ocrrect.suggest.feature.ApproximateContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
+import edu.dal.ocrrect.util.Context;
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.Word;
+import gnu.trove.map.TObjectByteMap;
+
+public class NgramBlockScannerTest
+{
+  private static NgramBoundedReaderSearcher searcher;
+  private static List<Word> words;
+
+  @BeforeClass
+  public static void setUpBeforeClass()
+    throws Exception
+  {
+    Path ngrams = ResourceUtils.getResource("5gm-0098.seg");
+    searcher = new NgramBoundedReaderSearcher(Arrays.asList(ngrams));
+
+    // Words in the second position of existing 5-grams, as well as their misspellings.
+    words = new ArrayList<>();
+    List<String> lines = Files.readAllLines(ngrams, StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i += 97) {
+      String[] g = lines.get(i).split("\t")[0].split(" ");
+      words.add(new Word(i, "x", "y", "z", g[0], g[1], g[2], g[3], g[4]));
+      words.add(new Word(i, "x", "y", "z", g[0], g[1] + "q", g[2], g[3], g[4]));
+    }
+  }
+
+  /**
+   * A task collecting all the records in order.
+   */
+  private static class LineTask implements NgramBlockTask<List<String>>
+  {
+    private final List<String> lines = new ArrayList<>();
+
+    @Override
+    public void accept(NgramRecord record) {
+      lines.add(record.ngram() + '\t' + record.count());
+    }
+
+    @Override
+    public List<String> result() {
+      return lines;
+    }
+
+    @Override
+    public boolean splittable() {
+      return true;
+    }
+
+    @Override
+    public NgramBlockTask<List<String>> split() {
+      return new LineTask();
+    }
+
+    @Override
+    public void merge(NgramBlockTask<List<String>> part) {
+      lines.addAll(part.result());
+    }
+  }
+
+  @Test
+  public void testSplitLines()
+    throws Exception
+  {
+    for (String first : Arrays.asList("recently", "recent", "receptionist", "xyz")) {
+      List<String> expected = readLines(searcher.openBufferedRecordsWithFirstWord(first));
+      for (int splitSize : new int[] {4 << 10, 1 << 30}) {
+        LineTask task = new LineTask();
+        NgramBlockScanner.scan(searcher, first, null, Arrays.asList(task), splitSize);
+        assertEquals(expected, task.result());
+      }
+    }
+    // Part boundaries fall on, right after, and inside the lines of a small block.
+    List<String> expected = readLines(searcher.openBufferedRecordsWithFirstWord("receptionist"));
+    for (int splitSize : new int[] {1, 7, 31}) {
+      LineTask task = new LineTask();
+      NgramBlockScanner.scan(searcher, "receptionist", null, Arrays.asList(task), splitSize);
+      assertEquals(expected, task.result());
+    }
+
+    // Tasks without splitting are scanned in order.
+    NgramBlockTask<List<String>> task = new NgramBlockTask<List<String>>() {
+      private final List<String> lines = new ArrayList<>();
+
+      @Override
+      public void accept(NgramRecord record) {
+        lines.add(record.ngram());
+      }
+
+      @Override
+      public List<String> result() {
+        return lines;
+      }
+    };
+    NgramBlockScanner.scan(searcher, "recently", null, Arrays.asList(task), 4 << 10);
+    assertEquals(63636, task.result().size());
+  }
+
+  @Test
+  public void testSameResults()
+    throws Exception
+  {
+    for (ContextCoherenceFeature feat : Arrays.asList(
+        new ContextCoherenceFeature("Fivegram", searcher, 5),
+        new ApproximateContextCoherenceFeature("Fivegram", searcher, 5))) {
+      TObjectByteMap<Context> contextMap = feat.groupDetectionContexts(words).get("recently");
+      List<Context> contexts = feat.groupSuggestionContexts(words).get("recently");
+      List<NgramBlockTask<?>> expected = Arrays.asList(
+          feat.newDetectTask(contextMap), feat.newSuggestTask(contexts));
+      NgramBlockScanner.scan(searcher, "recently", null, expected, Integer.MAX_VALUE);
+      assertTrue(((TObjectByteMap<?>) expected.get(0).result()).containsValue((byte) 1));
+      // The frequencies of candidates do not depend on the split size.
+      for (int splitSize : new int[] {1 << 10, 16 << 10, 256 << 10}) {
+        List<NgramBlockTask<?>> actual = Arrays.asList(
+            feat.newDetectTask(contextMap), feat.newSuggestTask(contexts));
+        NgramBlockScanner.scan(searcher, "recently", null, actual, splitSize);
+        for (int i = 0; i < expected.size(); i++) {
+          assertEquals(expected.get(i).result(), actual.get(i).result());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBlockCache()
+    throws Exception
+  {
+    NgramBlockCache cache = new NgramBlockCache(1 << 30);
+    searcher.setBlockCache(cache);
+    try {
+      List<String> expected = readLines(searcher.openBufferedRecordsWithFirstWord("recently"));
+      for (int i = 0; i < 2; i++) {
+        LineTask task = new LineTask();
+        NgramBlockScanner.scan(searcher, "recently", null, Arrays.asList(task), 4 << 10);
+        assertEquals(expected, task.result());
+      }
+      assertEquals(2, cache.hits());
+
+      // A block larger than a quarter of the cache is streamed and split without the cache.
+      NgramBlockCache small = new NgramBlockCache(64 << 10);
+      searcher.setBlockCache(small);
+      LineTask task = new LineTask();
+      NgramBlockScanner.scan(searcher, "recently", null, Arrays.asList(task), 4 << 10);
+      assertEquals(expected, task.result());
+      assertEquals(0, small.misses());
+    } finally {
+      searcher.setBlockCache(null);
+    }
+  }
+
+  @Test
+  public void testSchedulerSplit()
+    throws Exception
+  {
+    Set<Block> blocks = new LinkedHashSet<>(Arrays.asList(new Block("recent", null),
+        new Block("recently", null), new Block("reception", null), new Block("xyz", null)));
+    Map<Block, LineTask> tasks = Collections.synchronizedMap(new HashMap<>());
+    Set<Block> done = Collections.synchronizedSet(new LinkedHashSet<>());
+    // Every block is streamed and split.
+    new NgramReadScheduler(searcher, 2).setMaxRun(1).setSplitSize(4 << 10).plan(blocks)
+        .execute(block -> {
+          LineTask task = new LineTask();
+          assertNull(tasks.put(block, task));
+          return Arrays.asList(task);
+        }, block -> assertTrue(done.add(block)));
+    assertEquals(blocks, done);
+    for (Block b : blocks) {
+      assertEquals(readLines(searcher.openBufferedRecordsWithFirstWord(b.first())),
+          tasks.get(b).result());
+    }
+  }
+}
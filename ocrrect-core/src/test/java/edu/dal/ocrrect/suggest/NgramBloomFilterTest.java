@@ -0,0 +1,72 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import edu.dal.ocrrect.util.IOUtils;
+import edu.dal.ocrrect.util.ResourceUtils;
+
+import java.io.BufferedReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NgramBloomFilterTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<String> readNgrams(List<Path> ngrams)
+    throws Exception
+  {
+    List<String> list = new ArrayList<>();
+    for (Path p : ngrams) {
+      try (BufferedReader br = IOUtils.newBufferedReader(p)) {
+        for (String line = br.readLine(); line != null; line = br.readLine()) {
+          list.add(line.substring(0, line.indexOf('\t')));
+        }
+      }
+    }
+    return list;
+  }
+
+  @Test
+  public void testBuild()
+    throws Exception
+  {
+    List<Path> ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    List<String> list = readNgrams(ngrams);
+    Path out = folder.getRoot().toPath().resolve("5gm.search" + NgramBloomFilter.FILE_EXTENSION);
+
+    for (double fpp : new double[] {0.1, 0.01, 0.001}) {
+      NgramBloomFilter filter = NgramBloomFilter.build(ngrams, fpp, out);
+      assertEquals(list.size(), filter.numKeys());
+      assertEquals(fpp, filter.expectedFpp(), fpp * 0.2);
+
+      // No false negatives.
+      for (String ngram : list) {
+        assertTrue(filter.mightContain(ngram));
+      }
+      // Reopened filters answer the same.
+      NgramBloomFilter reopened = NgramBloomFilter.open(out);
+      assertEquals(filter.sizeInBytes(), reopened.sizeInBytes());
+      assertEquals(filter.numHashFunctions(), reopened.numHashFunctions());
+
+      // False positives are bounded by the rate with some tolerance.
+      int falsePositives = 0;
+      int trials = 100000;
+      for (int i = 0; i < trials; i++) {
+        if (reopened.mightContain("absent " + i + " n gram")) {
+          falsePositives++;
+        }
+      }
+      assertTrue(falsePositives < trials * fpp * 2);
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.dal.ocrrect.util.ResourceUtils;
+
+public class NgramBoundedReaderRecordsTest
+{
+  @Test
+  public void testReadRecords()
+    throws Exception
+  {
+    for (boolean mapShards : new boolean[] {false, true}) {
+      NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(
+          Arrays.asList(
+              ResourceUtils.getResource("5gm-0000.seg"),
+              ResourceUtils.getResource("5gm-0098.seg")));
+      try {
+        searcher.setMapShards(mapShards);
+        int found = 0;
+        for (String word : Arrays.asList("!", "\"", "recent", "xyz")) {
+          BufferedReader br = searcher.openBufferedRecordsWithFirstWord(word);
+          ByteBuffer bb = searcher.readRecordsWithFirstWord(word);
+          if (br == null) {
+            assertNull(bb);
+            continue;
+          }
+          assertTrue(bb.isReadOnly());
+          found++;
+          byte[] bytes = new byte[bb.remaining()];
+          bb.get(bytes);
+          StringBuilder sb = new StringBuilder();
+          for (String line = br.readLine(); line != null; line = br.readLine()) {
+            sb.append(line).append('\n');
+          }
+          br.close();
+          assertEquals(word, sb.toString(), new String(bytes));
+        }
+        // The blocks are in both data files.
+        assertEquals(3, found);
+      } finally {
+        searcher.close();
+      }
+    }
+  }
+}
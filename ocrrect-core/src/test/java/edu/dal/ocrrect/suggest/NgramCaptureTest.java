@@ -0,0 +1,88 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.dal.ocrrect.suggest.feature.ApproximateContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.Feature;
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.Word;
+
+public class NgramCaptureTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<Feature> features(NgramBoundedReaderSearcher searcher)
+  {
+    return Arrays.asList(
+        new ContextCoherenceFeature("Fivegram", searcher, 5),
+        new ApproximateContextCoherenceFeature("Fivegram", searcher, 5));
+  }
+
+  @Test
+  public void testCapture()
+    throws Exception
+  {
+    List<Path> ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(ngrams);
+
+    // Words in the second position of a few 5-grams, as well as their misspellings.
+    List<Word> words = new ArrayList<>();
+    List<String> lines = Files.readAllLines(ngrams.get(1), StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i += 997) {
+      String[] grams = lines.get(i).split("\t")[0].split(" ");
+      words.add(new Word(i, "x", "y", "z", grams[0], grams[1], grams[2], grams[3], grams[4]));
+      words.add(new Word(i, "x", "y", "z", grams[0], grams[1] + "q", grams[2], grams[3], grams[4]));
+    }
+
+    searcher.setCapture(true);
+    List<Object> expected = new ArrayList<>();
+    for (Feature feat : features(searcher)) {
+      expected.add(feat.detect(words));
+      expected.add(feat.suggest(words));
+    }
+    assertTrue(searcher.numOfCapturedBlocks() > 0);
+
+    Path data = folder.getRoot().toPath().resolve("5gm.ws.data");
+    Path out = folder.getRoot().toPath().resolve("5gm.ws");
+    NgramBoundedReaders.writeCaptured(searcher, data, out);
+    assertTrue(Files.size(data) < Files.size(ngrams.get(0)) + Files.size(ngrams.get(1)));
+
+    // The same results are computed from the captured corpus.
+    NgramBoundedReaderSearcher captured = NgramBoundedReaders.read(out);
+    captured.setNgramPath(Arrays.asList(data));
+    List<Object> actual = new ArrayList<>();
+    for (Feature feat : features(captured)) {
+      actual.add(feat.detect(words));
+      actual.add(feat.suggest(words));
+    }
+    assertEquals(expected, actual);
+
+    searcher.setCapture(false);
+    assertEquals(0, searcher.numOfCapturedBlocks());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNothingCaptured()
+    throws Exception
+  {
+    NgramBoundedReaderSearcher searcher =
+        new NgramBoundedReaderSearcher(Arrays.asList(ResourceUtils.getResource("5gm-0098.seg")));
+    searcher.setCapture(true);
+    searcher.writeCaptured(folder.getRoot().toPath().resolve("5gm.ws.data"));
+  }
+}
@@ -0,0 +1,87 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readString;
+import static org.junit.Assert.*;
+
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.lexicon.Lexicon;
+import edu.dal.ocrrect.util.lexicon.Lexicons;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NgramCorpusPrunerTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPrune()
+    throws Exception
+  {
+    List<Path> ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    Lexicon lexicon = Lexicons.toLexicon(Arrays.asList("the", "of", "and", "to", "a", "in"));
+    NgramCorpusPruner pruner = new NgramCorpusPruner(lexicon, 2)
+        .setMaxOutOfLexicon(3)
+        .setMinCount(100);
+    Path out = folder.getRoot().toPath();
+    NgramBoundedReaderSearcher searcher = pruner.prune(ngrams, out);
+
+    // Records are filtered in the same order.
+    long read = 0;
+    long kept = 0;
+    for (Path p : ngrams) {
+      List<String> expected = new ArrayList<>();
+      for (String line : Files.readAllLines(p, StandardCharsets.ISO_8859_1)) {
+        read++;
+        String[] splits = line.split("\t");
+        int outOfLexicon = 0;
+        for (String gram : splits[0].split(" ")) {
+          if (! lexicon.contains(gram)) {
+            outOfLexicon++;
+          }
+        }
+        if (outOfLexicon <= 3 && Long.parseLong(splits[1]) >= 100) {
+          expected.add(line);
+        }
+      }
+      kept += expected.size();
+      assertEquals(expected, Files.readAllLines(out.resolve(p.getFileName().toString()),
+          StandardCharsets.ISO_8859_1));
+    }
+    assertEquals(read, pruner.recordsRead());
+    assertEquals(kept, pruner.recordsKept());
+    assertTrue(kept > 0 && kept < read);
+    assertTrue(pruner.bytesKept() < pruner.bytesRead());
+
+    // The index is built over the pruned corpus.
+    List<Path> pruned = Arrays.asList(out.resolve("5gm-0000.seg"), out.resolve("5gm-0098.seg"));
+    NgramBoundedReaderSearcher expected = new NgramBoundedReaderSearcher(pruned);
+    assertEquals(expected, searcher);
+    for (String word : expected.wordsWithBlocksLargerThan(0)) {
+      assertEquals(readString(expected.openBufferedRecordsWithFirstWord(word)),
+          readString(searcher.openBufferedRecordsWithFirstWord(word)));
+    }
+  }
+
+  @Test
+  public void testKeepAll()
+    throws Exception
+  {
+    Path ngram = ResourceUtils.getResource("5gm-0098.seg");
+    NgramCorpusPruner pruner = new NgramCorpusPruner(null, 1);
+    pruner.prune(Arrays.asList(ngram), folder.getRoot().toPath());
+    assertArrayEquals(Files.readAllBytes(ngram),
+        Files.readAllBytes(folder.getRoot().toPath().resolve(ngram.getFileName().toString())));
+    assertEquals(pruner.recordsRead(), pruner.recordsKept());
+  }
+}
@@ -0,0 +1,144 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import edu.dal.ocrrect.text.WhiteSpaceSegmenter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NgramCounterTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String[] TEXTS = {
+    "the cat sat on the mat\nthe dog sat on the mat\n",
+    "a cat and a dog sat on a mat\nthe caf\u00e9 cat sat on the mat",
+    "the cat\nsat on the caf\u00e9 mat\n",
+  };
+
+  private List<Path> writeTexts()
+    throws Exception
+  {
+    List<Path> texts = new ArrayList<>();
+    for (int i = 0; i < TEXTS.length; i++) {
+      Path p = folder.getRoot().toPath().resolve("text-" + i);
+      Files.write(p, TEXTS[i].getBytes(StandardCharsets.UTF_8));
+      texts.add(p);
+    }
+    return texts;
+  }
+
+  /**
+   * Count the n-grams of an order in memory.
+   */
+  private static Map<String, Long> count(int n)
+  {
+    Map<String, Long> counts = new HashMap<>();
+    for (String text : TEXTS) {
+      String[] words = text.trim().split("\\s+");
+      for (int i = 0; i + n <= words.length; i++) {
+        counts.merge(String.join(" ", Arrays.copyOfRange(words, i, i + n)), 1L, Long::sum);
+      }
+    }
+    return counts;
+  }
+
+  private static List<String> lines(List<Path> ngrams)
+    throws Exception
+  {
+    List<String> lines = new ArrayList<>();
+    for (Path p : ngrams) {
+      lines.addAll(Files.readAllLines(p, StandardCharsets.UTF_8));
+    }
+    return lines;
+  }
+
+  @Test
+  public void testCount()
+    throws Exception
+  {
+    Path out = folder.newFolder("out").toPath();
+    List<NgramBoundedReaderSearcher> searchers = new NgramCounter(new WhiteSpaceSegmenter(), 2)
+        .setMaxEntries(5)
+        .setShardSize(20)
+        .count(writeTexts(), out);
+    assertEquals(4, searchers.size());
+
+    for (int n = 2; n <= 5; n++) {
+      NgramBoundedReaderSearcher searcher = searchers.get(n - 2);
+      assertEquals(n, searcher.order());
+      List<Path> ngrams = Files.list(out.resolve(n + "gm")).sorted()
+          .collect(Collectors.toList());
+      assertTrue(ngrams.size() > 1);
+
+      // Records are summed over runs, and sorted by bytes with a word before its extensions.
+      List<String> lines = lines(ngrams);
+      Map<String, Long> counts = new HashMap<>();
+      for (String line : lines) {
+        String[] splits = line.split("\t");
+        assertNull(counts.put(splits[0], Long.parseLong(splits[1])));
+      }
+      assertEquals(count(n), counts);
+      for (int i = 1; i < lines.size(); i++) {
+        byte[] prev = lines.get(i - 1).split("\t")[0].getBytes(StandardCharsets.UTF_8);
+        byte[] next = lines.get(i).split("\t")[0].getBytes(StandardCharsets.UTF_8);
+        assertTrue(NgramCounter.NGRAM_ORDER.compare(prev, next) < 0);
+      }
+
+      // The records of a first word are in one block, where words are indexed by their bytes.
+      String bytes = new String(String.join("\n", lines).getBytes(StandardCharsets.UTF_8),
+          StandardCharsets.ISO_8859_1) + "\n";
+      for (String first : lines.stream().map(l -> l.substring(0, l.indexOf(' ')))
+          .map(w -> new String(w.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1))
+          .collect(Collectors.toSet())) {
+        String expected = Arrays.stream(bytes.split("\n")).filter(l -> l.startsWith(first + " "))
+            .map(l -> l + "\n").collect(Collectors.joining());
+        ByteBuffer block = searcher.readRecordsWithFirstWord(first);
+        byte[] actual = new byte[block.remaining()];
+        block.get(actual);
+        assertEquals(expected, new String(actual, StandardCharsets.ISO_8859_1));
+      }
+    }
+    try (Stream<Path> s = Files.list(out)) {
+      assertEquals(4, s.count());
+    }
+  }
+
+  @Test
+  public void testMinCount()
+    throws Exception
+  {
+    Path out = folder.newFolder("out").toPath();
+    List<NgramBoundedReaderSearcher> searchers = new NgramCounter(new WhiteSpaceSegmenter(), 1)
+        .setOrders(2, 3)
+        .setMinCount(3)
+        .count(writeTexts(), out);
+    assertEquals(2, searchers.size());
+
+    for (int n = 2; n <= 3; n++) {
+      Map<String, Long> expected = count(n).entrySet().stream().filter(e -> e.getValue() >= 3)
+          .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+      assertTrue(expected.size() < count(n).size());
+      List<String> lines = lines(Arrays.asList(out.resolve(n + "gm").resolve(n + "gm-0000")));
+      assertEquals(expected.size(), lines.size());
+      for (String line : lines) {
+        String[] splits = line.split("\t");
+        assertEquals(expected.get(splits[0]), Long.valueOf(splits[1]));
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.dal.ocrrect.util.ResourceUtils;
+
+public class NgramIndexBuilderTest
+{
+  @Test
+  public void testBuild()
+    throws Exception
+  {
+    List<Path> ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    NgramBoundedReaderSearcher expect = new NgramBoundedReaderSearcher(ngrams);
+
+    // Small buffers split words and lines across reads.
+    for (int bufferSize : new int[] {1, 7, 4096, 1 << 20}) {
+      NgramBoundedReaderSearcher searcher =
+          new NgramIndexBuilder(2).setBufferSize(bufferSize).build(ngrams);
+      assertEquals(expect, searcher);
+      assertEquals(searcher, expect);
+    }
+  }
+
+  @Test
+  public void testBuildAll()
+    throws Exception
+  {
+    List<List<Path>> ngramsByOrders = Arrays.asList(
+        Arrays.asList(
+            ResourceUtils.getResource("test.suggest/2gms/2gms.0001.test.txt"),
+            ResourceUtils.getResource("test.suggest/2gms/2gms.0002.test.txt")),
+        Arrays.asList(
+            ResourceUtils.getResource("test.suggest/3gms/3gms.0001.test.txt")),
+        Arrays.asList(
+            ResourceUtils.getResource("5gm-0000.seg"),
+            ResourceUtils.getResource("5gm-0098.seg")));
+    List<NgramBoundedReaderSearcher> searchers = new NgramIndexBuilder().buildAll(ngramsByOrders);
+    assertEquals(ngramsByOrders.size(), searchers.size());
+    for (int i = 0; i < ngramsByOrders.size(); i++) {
+      NgramBoundedReaderSearcher expect = new NgramBoundedReaderSearcher(ngramsByOrders.get(i));
+      assertEquals(expect, searchers.get(i));
+      assertEquals(searchers.get(i), expect);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readLines;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.dal.ocrrect.suggest.feature.ApproximateContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.NgramWorker;
+import edu.dal.ocrrect.suggest.feature.PartitionedContextCoherenceFeature;
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.Word;
+import gnu.trove.map.hash.TObjectByteHashMap;
+
+public class NgramPartitionerTest
+{
+  @ClassRule
+  public static TemporaryFolder folder = new TemporaryFolder();
+
+  private static final int PARTITIONS = 3;
+
+  private static NgramBoundedReaderSearcher searcher;
+  private static List<NgramBoundedReaderSearcher> partitions;
+  private static List<Word> words;
+
+  @BeforeClass
+  public static void setUpBeforeClass()
+    throws Exception
+  {
+    Path ngrams = ResourceUtils.getResource("5gm-0098.seg");
+    searcher = new NgramBoundedReaderSearcher(Arrays.asList(ngrams));
+    partitions = new NgramPartitioner(PARTITIONS).split(searcher, folder.getRoot().toPath());
+
+    // Words in the second position of existing 5-grams, as well as their misspellings.
+    words = new ArrayList<>();
+    List<String> lines = Files.readAllLines(ngrams, StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i += 97) {
+      String[] g = lines.get(i).split("\t")[0].split(" ");
+      words.add(new Word(i, "x", "y", "z", g[0], g[1], g[2], g[3], g[4]));
+      words.add(new Word(i, "x", "y", "z", g[0], g[1] + "q", g[2], g[3], g[4]));
+    }
+  }
+
+  @Test
+  public void testSplit()
+    throws Exception
+  {
+    NgramPartitioner partitioner = new NgramPartitioner(PARTITIONS);
+    Set<String> expected = new HashSet<>();
+    searcher.forEachSubset((word, offset, size) -> expected.add(word));
+
+    Set<String> actual = new HashSet<>();
+    for (int p = 0; p < PARTITIONS; p++) {
+      NgramBoundedReaderSearcher part = partitions.get(p);
+      assertNotNull(part);
+      assertEquals(5, part.order());
+      List<String> partWords = new ArrayList<>();
+      part.forEachSubset((word, offset, size) -> partWords.add(word));
+      for (String word : partWords) {
+        assertEquals(p, partitioner.partition(word));
+        assertTrue(actual.add(word));
+        assertEquals(readLines(searcher.openBufferedRecordsWithFirstWord(word)),
+            readLines(part.openBufferedRecordsWithFirstWord(word)));
+      }
+    }
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testWorkers()
+    throws Exception
+  {
+    List<NgramWorker> workers = new ArrayList<>();
+    int[] ports = new int[PARTITIONS];
+    try {
+      for (int p = 0; p < PARTITIONS; p++) {
+        NgramWorker worker = new NgramWorker(Arrays.asList(partitions.get(p)));
+        workers.add(worker);
+        ports[p] = worker.start(0);
+      }
+      ContextCoherenceFeature[] expected = {
+          new ContextCoherenceFeature("Fivegram", searcher, 5),
+          new ApproximateContextCoherenceFeature("Fivegram", searcher, 5)};
+      for (int i = 0; i < expected.length; i++) {
+        try (PartitionedContextCoherenceFeature feat = new PartitionedContextCoherenceFeature(
+            "Fivegram", PartitionedContextCoherenceFeature.localWorkers(ports), 5, i == 1)) {
+          List<Boolean> detected = feat.detect(words);
+          assertTrue(detected.contains(true) && detected.contains(false));
+          assertEquals(expected[i].detect(words), detected);
+          assertEquals(expected[i].suggest(words), feat.suggest(words));
+          // Requests are sent over the same connections.
+          assertEquals(expected[i].search(words), feat.search(words));
+        }
+      }
+    } finally {
+      for (NgramWorker worker : workers) {
+        worker.close();
+      }
+    }
+  }
+
+  @Test
+  public void testWorkerError()
+    throws Exception
+  {
+    try (NgramWorker worker = new NgramWorker(Arrays.asList(partitions.get(0)))) {
+      int port = worker.start(0);
+      try (PartitionedContextCoherenceFeature feat = new PartitionedContextCoherenceFeature(
+          "Fourgram", PartitionedContextCoherenceFeature.localWorkers(port), 4, false)) {
+        // The error of the worker is rebuilt with its class and message.
+        feat.detect(words.get(0).text(), new TObjectByteHashMap<>());
+        fail();
+      } catch (IllegalArgumentException e) {
+        assertEquals("invalid order: 4", e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void testLaunch()
+    throws Exception
+  {
+    List<NgramWorker.LocalProcess> processes = new ArrayList<>();
+    int[] ports = new int[PARTITIONS];
+    try {
+      for (int p = 0; p < PARTITIONS; p++) {
+        Path serialized = folder.newFile().toPath();
+        NgramBoundedReaders.write(partitions.get(p), serialized);
+        NgramWorker.LocalProcess process = NgramWorker.launch(Arrays.asList(serialized));
+        processes.add(process);
+        ports[p] = process.port();
+      }
+      try (PartitionedContextCoherenceFeature feat = new PartitionedContextCoherenceFeature(
+          "Fivegram", PartitionedContextCoherenceFeature.localWorkers(ports), 5, false)) {
+        assertEquals(new ContextCoherenceFeature("Fivegram", searcher, 5).suggest(words),
+            feat.suggest(words));
+      }
+    } finally {
+      for (NgramWorker.LocalProcess process : processes) {
+        process.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.dal.ocrrect.util.ResourceUtils;
+
+public class NgramPatternTest
+{
+  @Test
+  public void testRecord()
+    throws Exception
+  {
+    // Records parsed from bytes are the same as the ones parsed from the decoded lines.
+    byte[] bytes = Files.readAllBytes(ResourceUtils.getResource("5gm-0098.seg"));
+    List<String> lines = new ArrayList<>();
+    for (String line : new String(bytes).split("\n")) {
+      lines.add(line);
+    }
+    NgramRecord record = new NgramRecord();
+    int from = 0;
+    for (int i = 0, n = 0; i < bytes.length; i++) {
+      if (bytes[i] == '\n') {
+        String line = lines.get(n++);
+        String[] splits = line.split("\t");
+        record.set(bytes, from, i);
+        assertEquals(splits[0].split(" ").length, record.size());
+        for (int j = 0; j < record.size(); j++) {
+          String gram = splits[0].split(" ")[j];
+          assertEquals(gram, record.gram(j));
+          // Grams are compared byte-wise if they are encoded back to the same bytes.
+          if (gram.equals(new String(gram.getBytes()))) {
+            assertTrue(record.gramEquals(j, gram.getBytes()));
+            assertFalse(record.gramEquals(j, (gram + "q").getBytes()));
+            assertEquals(NgramPattern.hash(gram.getBytes()), record.gramHash(j));
+          }
+        }
+        assertEquals(Long.parseLong(splits[1]), record.count());
+        assertEquals(Float.parseFloat(splits[1]), record.freq(), 0);
+        assertEquals(splits[0], record.ngram());
+        assertArrayEquals(splits[0].split(" "), record.grams());
+        from = i + 1;
+      }
+    }
+
+    // Frequencies other than plain decimal counts are parsed from the strings.
+    assertEquals(1.5f, new NgramRecord().set("a b\t1.5").freq(), 0);
+    assertEquals(12345678901234567890f, new NgramRecord().set("a b\t12345678901234567890").freq(),
+        0);
+    assertEquals(42, new NgramRecord().set("a b\t42\tx\r").count());
+    assertEquals("b", new NgramRecord().set("a b\t42\r").gram(1));
+  }
+
+  @Test
+  public void testMatch()
+    throws Exception
+  {
+    NgramRecord record = new NgramRecord().set("a b c d e\t10");
+    String[] words = {"a", "b", "c", "d", "e"};
+    String[] other = {"a", "x", "c", "d", "e"};
+    assertTrue(new NgramPattern(words, NgramPattern.NONE, NgramPattern.NONE).matches(record));
+    assertFalse(new NgramPattern(other, NgramPattern.NONE, NgramPattern.NONE).matches(record));
+    assertTrue(new NgramPattern(other, 1, NgramPattern.NONE).matches(record));
+    assertTrue(new NgramPattern(other, 2, 1).matches(record));
+    assertFalse(new NgramPattern(Arrays.copyOf(words, 4), 2, 1).matches(record));
+    assertEquals(1, new NgramPattern(other, 2, NgramPattern.NONE).mismatches(record, 1));
+    assertEquals(2, new NgramPattern(new String[] {"x", "x", "x", "d", "e"}, 2, NgramPattern.NONE)
+        .mismatches(record, 1));
+
+    NgramPatternMap<String> map = new NgramPatternMap<>();
+    assertNull(map.putIfAbsent(new NgramPattern(other, 1, NgramPattern.NONE), "1"));
+    assertNull(map.putIfAbsent(new NgramPattern(other, 2, 1), "2 1"));
+    assertNull(map.putIfAbsent(new NgramPattern(other, 1, 2), "1 2"));
+    assertEquals("1", map.putIfAbsent(new NgramPattern(words, 1, NgramPattern.NONE), "x"));
+    assertEquals(3, map.size());
+    assertEquals("1", map.get(record, 1, NgramPattern.NONE));
+    assertEquals("2 1", map.get(record, 2, 1));
+    assertEquals("1 2", map.get(record, 1, 2));
+    assertNull(map.get(record, 2, NgramPattern.NONE));
+  }
+}
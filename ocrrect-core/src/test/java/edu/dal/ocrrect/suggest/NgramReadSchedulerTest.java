@@ -0,0 +1,180 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readString;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.dal.ocrrect.suggest.NgramReadScheduler.Block;
+import edu.dal.ocrrect.suggest.feature.ApproximateContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
+import edu.dal.ocrrect.util.Context;
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.Word;
+import gnu.trove.map.TObjectByteMap;
+import gnu.trove.map.TObjectFloatMap;
+
+public class NgramReadSchedulerTest
+{
+  private static List<Path> ngrams;
+  private static NgramBoundedReaderSearcher searcher;
+  private static Set<Block> blocks;
+
+  @BeforeClass
+  public static void setUpBeforeClass()
+    throws Exception
+  {
+    ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    searcher = new NgramBoundedReaderSearcher(ngrams);
+    searcher.setSecondWordIndex(SecondWordIndex.build(searcher, 1 << 20));
+
+    // All first word blocks, some sub-blocks of the second words, and absent blocks.
+    blocks = new LinkedHashSet<>();
+    for (Path p : ngrams) {
+      for (String line : Files.readAllLines(p, StandardCharsets.ISO_8859_1)) {
+        String[] grams = line.split("\t")[0].split(" ");
+        blocks.add(new Block(grams[0], null));
+        if (grams[1].startsWith("a")) {
+          blocks.add(new Block(grams[0], grams[1]));
+        }
+      }
+    }
+    blocks.add(new Block("xyz", null));
+    blocks.add(new Block("recently", "xyz"));
+  }
+
+  private static Map<Block, String> execute(NgramReadScheduler.Plan plan)
+    throws Exception
+  {
+    Map<Block, String> visited = Collections.synchronizedMap(new HashMap<>());
+    plan.execute((block, records) -> {
+      try {
+        assertNull(visited.put(block, String.valueOf(readString(records))));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    return visited;
+  }
+
+  private static void assertSameRecords(Map<Block, String> visited)
+    throws Exception
+  {
+    assertEquals(blocks, visited.keySet());
+    for (Block b : blocks) {
+      assertEquals(String.valueOf(readString(b.second() == null
+          ? searcher.openBufferedRecordsWithFirstWord(b.first())
+          : searcher.openBufferedRecordsWithFirstTwoWords(b.first(), b.second()))),
+          visited.get(b));
+    }
+  }
+
+  @Test
+  public void testPlan()
+    throws Exception
+  {
+    long fullSize = Files.size(ngrams.get(0)) + Files.size(ngrams.get(1));
+    NgramReadScheduler.Plan plan = new NgramReadScheduler(searcher).setMaxRun(Integer.MAX_VALUE)
+        .plan(blocks);
+    assertEquals(blocks.size() - 2, plan.numBlocks());
+    // Full blocks are coalesced into one read per data file.
+    assertEquals(2, plan.numReads());
+    assertEquals(fullSize, plan.bytesToRead());
+    assertTrue(plan.bytesToScan() > fullSize);
+    assertSameRecords(execute(plan));
+
+    // Every block is streamed if it is larger than a run.
+    plan = new NgramReadScheduler(searcher, 2).setMaxRun(1).plan(blocks);
+    assertEquals(blocks.size() - 2, plan.numReads());
+    assertSameRecords(execute(plan));
+
+    // Runs are bounded, and no more than one run is read ahead.
+    plan = new NgramReadScheduler(searcher, 3).setMaxRun(64 << 10).setMaxGap(0).setReadAhead(1)
+        .plan(blocks);
+    assertTrue(plan.numReads() > 2 && plan.numReads() < plan.numBlocks());
+    assertSameRecords(execute(plan));
+  }
+
+  @Test
+  public void testBlockCache()
+    throws Exception
+  {
+    NgramBlockCache cache = new NgramBlockCache(1 << 30);
+    searcher.setBlockCache(cache);
+    try {
+      NgramReadScheduler scheduler = new NgramReadScheduler(searcher);
+      NgramReadScheduler.Plan plan = scheduler.plan(blocks);
+      assertTrue(plan.bytesToRead() > 0);
+      Map<Block, String> visited = execute(plan);
+      assertEquals(0, cache.hits());
+      assertEquals(plan.numBlocks(), cache.misses());
+
+      // Cached blocks are not read again.
+      plan = scheduler.plan(blocks);
+      assertEquals(0, plan.bytesToRead());
+      assertEquals(0, plan.numReads());
+      assertEquals(visited, execute(plan));
+      assertEquals(plan.numBlocks(), cache.hits());
+      assertSameRecords(visited);
+    } finally {
+      searcher.setBlockCache(null);
+    }
+  }
+
+  @Test
+  public void testSameResults()
+    throws Exception
+  {
+    // Words in the second position of existing 5-grams, as well as their misspellings.
+    List<Word> words = new ArrayList<>();
+    List<String> lines = Files.readAllLines(ngrams.get(1), StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i += 997) {
+      String[] g = lines.get(i).split("\t")[0].split(" ");
+      words.add(new Word(i, "x", "y", "z", g[0], g[1], g[2], g[3], g[4]));
+      words.add(new Word(i, "x", "y", "z", g[0], g[1] + "q", g[2], g[3], g[4]));
+      words.add(new Word(i, "x", "y", g[0], g[1], g[2], g[3], g[4], "z"));
+    }
+
+    for (ContextCoherenceFeature feat : Arrays.asList(
+        new ContextCoherenceFeature("Fivegram", searcher, 5),
+        new ApproximateContextCoherenceFeature("Fivegram", searcher, 5))) {
+      // Results of the batch methods are the same as scanning each first word block in turn.
+      Map<String, TObjectByteMap<Context>> detectMap = feat.groupDetectionContexts(words);
+      for (String first : new ArrayList<>(detectMap.keySet())) {
+        detectMap.put(first, feat.detect(first, detectMap.get(first)));
+      }
+      List<Boolean> detected = feat.collectDetections(words, detectMap);
+      assertTrue(detected.contains(true) && detected.contains(false));
+      assertEquals(detected, feat.detect(words));
+
+      Map<Context, TObjectFloatMap<String>> suggestMap = new HashMap<>();
+      feat.groupSuggestionContexts(words).forEach((first, contexts) -> {
+        List<TObjectFloatMap<String>> maps = feat.suggest(first, contexts);
+        for (int i = 0; i < contexts.size(); i++) {
+          suggestMap.put(contexts.get(i), maps.get(i));
+        }
+      });
+      List<TObjectFloatMap<String>> suggested = feat.collectSuggestions(words, suggestMap);
+      assertEquals(suggested, feat.suggest(words));
+      List<Set<String>> searched = feat.search(words);
+      for (int i = 0; i < words.size(); i++) {
+        assertEquals(suggested.get(i).keySet(), searched.get(i));
+      }
+    }
+  }
+}
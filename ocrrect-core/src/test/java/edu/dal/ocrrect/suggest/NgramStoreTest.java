@@ -0,0 +1,115 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readString;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.dal.ocrrect.util.ResourceUtils;
+
+public class NgramStoreTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Write the records of a 5-gram file truncated to the first n words, which are still sorted by
+   * their first words.
+   */
+  private Path truncate(Path ngram, int n)
+    throws Exception
+  {
+    List<String> lines = new ArrayList<>();
+    for (String line : Files.readAllLines(ngram, StandardCharsets.ISO_8859_1)) {
+      String[] splits = line.split("\t");
+      String[] grams = splits[0].split(" ");
+      lines.add(String.join(" ", Arrays.copyOf(grams, n)) + "\t" + splits[1]);
+    }
+    Path out = folder.getRoot().toPath().resolve(n + "gm-" + ngram.getFileName());
+    Files.write(out, lines, StandardCharsets.ISO_8859_1);
+    return out;
+  }
+
+  private static Set<String> words(List<Path> ngrams)
+    throws Exception
+  {
+    Set<String> words = new HashSet<>();
+    for (Path p : ngrams) {
+      for (String line : Files.readAllLines(p, StandardCharsets.ISO_8859_1)) {
+        words.add(line.substring(0, line.indexOf(' ')));
+      }
+    }
+    return words;
+  }
+
+  @Test
+  public void testWriteAndRead()
+    throws Exception
+  {
+    List<List<Path>> ngrams = Arrays.asList(
+        Arrays.asList(truncate(ResourceUtils.getResource("5gm-0098.seg"), 2)),
+        Arrays.asList(truncate(ResourceUtils.getResource("5gm-0000.seg"), 3)),
+        Arrays.asList(
+            ResourceUtils.getResource("5gm-0000.seg"),
+            ResourceUtils.getResource("5gm-0098.seg")));
+    List<NgramBoundedReaderSearcher> searchers = new ArrayList<>();
+    for (List<Path> p : ngrams) {
+      searchers.add(new NgramBoundedReaderSearcher(p));
+    }
+    Path out = folder.getRoot().toPath().resolve("ngram" + NgramStore.FILE_EXTENSION);
+    NgramBoundedReaders.writeStore(searchers, out);
+
+    try (NgramStore store = NgramBoundedReaders.readStore(out)) {
+      assertTrue(store.verify());
+      assertArrayEquals(new int[] {2, 3, 5}, store.orders());
+
+      // Words of all orders are stored once.
+      Set<String> words = words(ngrams.get(2));
+      assertEquals(133, words.size());
+      assertEquals(words.size(), store.numOfWords());
+      for (int i = 0; i < store.numOfWords(); i++) {
+        assertEquals(i, store.id(store.word(i)));
+        assertTrue(words.contains(store.word(i)));
+      }
+      assertEquals(-1, store.id("xyz"));
+
+      for (int i = 0; i < searchers.size(); i++) {
+        NgramBoundedReaderSearcher view = store.searcher(store.orders()[i]);
+        assertSame(view, store.searcher(store.orders()[i]));
+        assertEquals(store.orders()[i], view.order());
+        assertEquals(searchers.get(i), view);
+        assertEquals(new HashSet<>(searchers.get(i).wordsWithBlocksLargerThan(0)),
+            new HashSet<>(view.wordsWithBlocksLargerThan(0)));
+        // Words in the dictionary but not in the order have no records.
+        for (String word : words) {
+          assertEquals(readString(searchers.get(i).openBufferedRecordsWithFirstWord(word)),
+              readString(view.openBufferedRecordsWithFirstWord(word)));
+        }
+      }
+      assertTrue(words(ngrams.get(0)).size() < store.numOfWords());
+      assertNull(store.searcher(5).openBufferedRecordsWithFirstWord("xyz"));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingOrder()
+    throws Exception
+  {
+    Path out = folder.getRoot().toPath().resolve("ngram" + NgramStore.FILE_EXTENSION);
+    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(
+        Arrays.asList(ResourceUtils.getResource("5gm-0098.seg")));
+    NgramBoundedReaders.writeStore(Arrays.asList(searcher), out);
+    NgramStore.open(out).searcher(4);
+  }
+}
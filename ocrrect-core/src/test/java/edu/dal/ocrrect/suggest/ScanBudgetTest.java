@@ -0,0 +1,220 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readLines;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.dal.ocrrect.suggest.NgramReadScheduler.Block;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.FusedContextScan;
+import edu.dal.ocrrect.util.Context;
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.Word;
+
+public class ScanBudgetTest
+{
+  private static NgramBoundedReaderSearcher searcher;
+  private static List<Word> words;
+
+  @BeforeClass
+  public static void setUpBeforeClass()
+    throws Exception
+  {
+    Path ngrams = ResourceUtils.getResource("5gm-0098.seg");
+    searcher = new NgramBoundedReaderSearcher(Arrays.asList(ngrams));
+
+    words = new ArrayList<>();
+    List<String> lines = Files.readAllLines(ngrams, StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i += 97) {
+      String[] g = lines.get(i).split("\t")[0].split(" ");
+      words.add(new Word(i, "x", "y", "z", g[0], g[1], g[2], g[3], g[4]));
+    }
+  }
+
+  /**
+   * A task collecting all the records in order.
+   */
+  private static class LineTask implements NgramBlockTask<List<String>>
+  {
+    private final List<String> lines = new ArrayList<>();
+
+    @Override
+    public void accept(NgramRecord record) {
+      lines.add(record.ngram() + '\t' + record.count());
+    }
+
+    @Override
+    public List<String> result() {
+      return lines;
+    }
+
+    @Override
+    public boolean splittable() {
+      return true;
+    }
+
+    @Override
+    public NgramBlockTask<List<String>> split() {
+      return new LineTask();
+    }
+
+    @Override
+    public void merge(NgramBlockTask<List<String>> part) {
+      lines.addAll(part.result());
+    }
+  }
+
+  /**
+   * Get the number of lines in the first bytes of lines.
+   */
+  private static int linesIn(List<String> lines, int bytes)
+  {
+    int n = 0;
+    for (String line : lines) {
+      bytes -= line.getBytes(StandardCharsets.ISO_8859_1).length + 1;
+      if (bytes < 0) {
+        break;
+      }
+      n++;
+    }
+    return n;
+  }
+
+  @Test
+  public void testBlockBudget()
+    throws Exception
+  {
+    List<String> expected = readLines(searcher.openBufferedRecordsWithFirstWord("recently"));
+    NgramBlockCache cache = new NgramBlockCache(1 << 30);
+    for (boolean cached : new boolean[] {false, true}) {
+      searcher.setBlockCache(cached ? cache : null);
+      try {
+        // A prefix of whole records within the byte limit.
+        for (int bytes : new int[] {1, 1000, 1 << 16}) {
+          LineTask task = new LineTask();
+          assertFalse(NgramBlockScanner.scan(searcher, "recently", null, Arrays.asList(task),
+              new ScanBudget().setMaxBlockBytes(bytes).start()));
+          assertEquals(expected.subList(0, linesIn(expected, bytes)), task.result());
+        }
+        // The first records within the record limit.
+        LineTask task = new LineTask();
+        assertFalse(NgramBlockScanner.scan(searcher, "recently", null, Arrays.asList(task),
+            new ScanBudget().setMaxBlockRecords(100).start()));
+        assertEquals(expected.subList(0, 100), task.result());
+
+        // Blocks within the limits are fully scanned.
+        task = new LineTask();
+        assertTrue(NgramBlockScanner.scan(searcher, "recently", null, Arrays.asList(task),
+            new ScanBudget().setMaxBlockRecords(expected.size()).start()));
+        assertEquals(expected, task.result());
+        task = new LineTask();
+        assertTrue(NgramBlockScanner.scan(searcher, "recently", null, Arrays.asList(task),
+            new ScanBudget().start()));
+        assertEquals(expected, task.result());
+        assertTrue(NgramBlockScanner.scan(searcher, "xyz", null, Arrays.asList(new LineTask()),
+            new ScanBudget().setMaxBlockBytes(1).start()));
+      } finally {
+        searcher.setBlockCache(null);
+      }
+      // Scan the cached block.
+      NgramBlockScanner.scan(searcher, "recently", null, Arrays.asList(new LineTask()));
+    }
+  }
+
+  @Test
+  public void testDeadline()
+    throws Exception
+  {
+    ScanBudget budget = new ScanBudget().setDeadline(1).start();
+    Thread.sleep(10);
+    assertTrue(budget.isExpired());
+    LineTask task = new LineTask();
+    assertFalse(NgramBlockScanner.scan(searcher, "recently", null, Arrays.asList(task), budget));
+    assertTrue(task.result().isEmpty());
+    assertFalse(budget.start().isExpired());
+    assertFalse(new ScanBudget().start().isExpired());
+  }
+
+  @Test
+  public void testScheduler()
+    throws Exception
+  {
+    Set<Block> blocks = new LinkedHashSet<>(Arrays.asList(new Block("recent", null),
+        new Block("recently", null), new Block("receptionist", null), new Block("xyz", null)));
+    int limit = 1000;
+    for (int maxRun : new int[] {1, 8 << 20}) {
+      Map<Block, LineTask> tasks = Collections.synchronizedMap(new HashMap<>());
+      NgramReadScheduler.Plan plan = new NgramReadScheduler(searcher, 2)
+          .setMaxRun(maxRun)
+          .setBudget(new ScanBudget().setMaxBlockRecords(limit).start())
+          .plan(blocks);
+      plan.execute(block -> {
+        LineTask task = new LineTask();
+        tasks.put(block, task);
+        return Arrays.asList(task);
+      }, block -> {});
+      Set<Block> degraded = new HashSet<>();
+      for (Block b : blocks) {
+        List<String> expected = readLines(searcher.openBufferedRecordsWithFirstWord(b.first()));
+        if (expected.size() > limit) {
+          degraded.add(b);
+        }
+        assertEquals(expected.subList(0, Math.min(limit, expected.size())),
+            tasks.get(b).result());
+      }
+      assertFalse(degraded.isEmpty());
+      assertEquals(degraded, plan.degradedBlocks());
+    }
+  }
+
+  @Test
+  public void testDegradedContexts()
+    throws Exception
+  {
+    ScanBudget budget = new ScanBudget().setMaxBlockRecords(1000);
+    ContextCoherenceFeature feat = new ContextCoherenceFeature("Fivegram", searcher, 5);
+    feat.setScanBudget(budget);
+
+    // Contexts are degraded in the same way by the feature and by the fused scan.
+    budget.start();
+    feat.groupSuggestionContexts(words).forEach(feat::suggest);
+    Set<Context> degraded = new HashSet<>();
+    for (Word w : words) {
+      w.getContexts(5).stream().filter(budget::isDegraded).forEach(degraded::add);
+    }
+    assertFalse(degraded.isEmpty());
+    assertEquals(degraded.size(), budget.numOfDegradedContexts());
+    List<Boolean> approximate = new ArrayList<>();
+    for (Word w : words) {
+      approximate.add(feat.isApproximate(w));
+    }
+    assertTrue(approximate.contains(true));
+    assertTrue(approximate.contains(false));
+
+    budget.start();
+    assertEquals(0, budget.numOfDegradedContexts());
+    FusedContextScan.run(words, Arrays.asList(feat), false);
+    assertEquals(degraded.size(), budget.numOfDegradedContexts());
+    for (Context c : degraded) {
+      assertTrue(budget.isDegraded(c));
+    }
+    for (int i = 0; i < words.size(); i++) {
+      assertEquals(approximate.get(i), feat.isApproximate(words.get(i)));
+    }
+  }
+}
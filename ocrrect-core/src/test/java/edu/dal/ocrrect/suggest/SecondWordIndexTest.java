@@ -0,0 +1,115 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readString;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.dal.ocrrect.suggest.feature.ApproximateContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.Feature;
+import edu.dal.ocrrect.suggest.feature.FusedContextScan;
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.Word;
+
+public class SecondWordIndexTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSubBlocks()
+    throws Exception
+  {
+    List<Path> ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(ngrams);
+
+    // Expected sub-blocks keyed by the first two words, which are decoded in the same way as the
+    // index keys, while records are read in the default charset.
+    Map<String, StringBuilder> expect = new LinkedHashMap<>();
+    for (Path p : ngrams) {
+      for (String line : Files.readAllLines(p, StandardCharsets.ISO_8859_1)) {
+        String[] grams = line.split("\t")[0].split(" ");
+        expect.computeIfAbsent(grams[0] + " " + grams[1], k -> new StringBuilder())
+            .append(new String(line.getBytes(StandardCharsets.ISO_8859_1))).append('\n');
+      }
+    }
+
+    SecondWordIndex index = SecondWordIndex.build(searcher, 0);
+    assertEquals(expect.size(), index.numSubBlocks());
+    Path out = folder.getRoot().toPath().resolve("5gm.search" + SecondWordIndex.FILE_EXTENSION);
+    SecondWordIndex.write(index, out);
+
+    for (SecondWordIndex idx : Arrays.asList(index, SecondWordIndex.read(out))) {
+      searcher.setSecondWordIndex(idx);
+      for (String key : expect.keySet()) {
+        String[] words = key.split(" ");
+        assertTrue(searcher.hasSecondWordIndex(words[0]));
+        assertEquals(expect.get(key).toString(),
+            readString(searcher.openBufferedRecordsWithFirstTwoWords(words[0], words[1])));
+      }
+      assertNull(searcher.openBufferedRecordsWithFirstTwoWords("recently", "xyz"));
+      assertNull(searcher.openBufferedRecordsWithFirstTwoWords("xyz", "recently"));
+    }
+
+    // Small blocks are not indexed, and read in full.
+    searcher.setSecondWordIndex(SecondWordIndex.build(searcher, 1 << 20));
+    assertTrue(searcher.hasSecondWordIndex("recently"));
+    assertFalse(searcher.hasSecondWordIndex("reception"));
+    assertEquals(readString(searcher.openBufferedRecordsWithFirstWord("reception")),
+        readString(searcher.openBufferedRecordsWithFirstTwoWords("reception", "xyz")));
+  }
+
+  @Test
+  public void testSameResults()
+    throws Exception
+  {
+    Path ngramPath = ResourceUtils.getResource("5gm-0098.seg");
+    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(Arrays.asList(ngramPath));
+    NgramBoundedReaderSearcher indexed = new NgramBoundedReaderSearcher(Arrays.asList(ngramPath));
+    indexed.setSecondWordIndex(SecondWordIndex.build(indexed, 0));
+
+    // Words at every position of existing 5-grams, as well as their misspellings.
+    List<Word> words = new ArrayList<>();
+    List<String> lines = Files.readAllLines(ngramPath, StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i += 997) {
+      String[] g = lines.get(i).split("\t")[0].split(" ");
+      words.add(new Word(i, "x", "y", "z", g[0], g[1], g[2], g[3], g[4]));
+      words.add(new Word(i, "x", "y", "z", g[0], g[1] + "q", g[2], g[3], g[4]));
+      words.add(new Word(i, "x", "y", g[0], g[1], g[2], g[3], g[4], "z"));
+      words.add(new Word(i, "x", "y", g[0], g[1], g[2] + "q", g[3], g[4], "z"));
+      words.add(new Word(i, "x", g[0], g[1], g[2], g[3], g[4], "y", "z"));
+    }
+
+    List<Feature> features = Arrays.asList(
+        new ContextCoherenceFeature("Fivegram", searcher, 5),
+        new ApproximateContextCoherenceFeature("Fivegram", searcher, 5));
+    List<Feature> indexedFeatures = Arrays.asList(
+        new ContextCoherenceFeature("Fivegram", indexed, 5),
+        new ApproximateContextCoherenceFeature("Fivegram", indexed, 5));
+    FusedContextScan scan = FusedContextScan.run(words, indexedFeatures, true);
+    for (int i = 0; i < features.size(); i++) {
+      List<Boolean> detected = features.get(i).detect(words);
+      assertTrue(detected.contains(true) && detected.contains(false));
+      assertEquals(detected, indexedFeatures.get(i).detect(words));
+      assertEquals(detected, scan.detect(indexedFeatures.get(i), words));
+
+      List<?> suggested = features.get(i).suggest(words);
+      assertEquals(suggested, indexedFeatures.get(i).suggest(words));
+      assertEquals(suggested, scan.suggest(indexedFeatures.get(i), words));
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package edu.dal.ocrrect.suggest;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.dal.ocrrect.suggest.feature.ApproximateContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
+import edu.dal.ocrrect.suggest.feature.Feature;
+import edu.dal.ocrrect.suggest.feature.FusedContextScan;
+import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.Word;
+import gnu.trove.map.TObjectFloatMap;
+
+public class SkipNgramIndexTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private SkipNgramIndex buildIndex(List<Path> ngrams)
+    throws Exception
+  {
+    Path root = folder.getRoot().toPath();
+    NgramVocabulary vocab = NgramVocabulary.build(ngrams);
+    Path bin = root.resolve("5gm" + BinaryNgramCorpus.FILE_EXTENSION);
+    BinaryNgramCorpus.convert(ngrams, vocab, bin);
+    Path out = root.resolve("5gm" + SkipNgramIndex.FILE_EXTENSION);
+    try (BinaryNgramCorpus corpus = BinaryNgramCorpus.open(bin)) {
+      SkipNgramIndex.build(corpus, out);
+    }
+    return SkipNgramIndex.open(out, vocab);
+  }
+
+  @Test
+  public void testLookup()
+    throws Exception
+  {
+    Path ngramPath = ResourceUtils.getResource("5gm-0098.seg");
+    try (SkipNgramIndex index = buildIndex(Arrays.asList(ngramPath))) {
+      assertEquals(5, index.order());
+      String[] grams = Files.readAllLines(ngramPath, StandardCharsets.UTF_8).get(0)
+          .split("\t")[0].split(" ");
+      String word = grams[2];
+      grams[2] = "xyz";
+      assertFalse(index.supports(grams, 0));
+      assertFalse(index.supports(Arrays.copyOf(grams, 4), 2));
+
+      TObjectFloatMap<String> map = index.lookup(grams, 2);
+      assertTrue(map.containsKey(word));
+      assertTrue(index.lookup(grams, 2, 3).containsKey(word));
+      // The fillers of a relaxed skip-gram include the ones of the exact skip-gram.
+      assertTrue(index.lookup(grams, 2, 3).keySet().containsAll(map.keySet()));
+      // Unknown words match nothing.
+      assertTrue(index.lookup(grams, 1).isEmpty());
+      assertTrue(index.lookup(grams, 1, 2).containsKey(grams[1]));
+    }
+  }
+
+  @Test
+  public void testSameResults()
+    throws Exception
+  {
+    // The searcher decodes records in the default charset, while the vocabulary is in UTF-8. Thus
+    // only ASCII records are compared.
+    List<String> lines = new ArrayList<>();
+    for (String line : Files.readAllLines(ResourceUtils.getResource("5gm-0098.seg"),
+        StandardCharsets.UTF_8)) {
+      if (line.chars().allMatch(c -> c < 128)) {
+        lines.add(line);
+      }
+    }
+    Path ngramPath = folder.newFile("5gm-0098.seg").toPath();
+    Files.write(ngramPath, lines, StandardCharsets.UTF_8);
+    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(Arrays.asList(ngramPath));
+    NgramBoundedReaderSearcher indexed = new NgramBoundedReaderSearcher(Arrays.asList(ngramPath));
+    indexed.setSkipNgramIndex(buildIndex(Arrays.asList(ngramPath)));
+
+    // Words at every position of existing 5-grams, as well as their misspellings.
+    List<Word> words = new ArrayList<>();
+    for (int i = 0; i < lines.size(); i += 97) {
+      String[] g = lines.get(i).split("\t")[0].split(" ");
+      words.add(new Word(i, "x", "y", "z", g[0], g[1], g[2], g[3], g[4]));
+      words.add(new Word(i, "x", "y", "z", g[0], g[1] + "q", g[2], g[3], g[4]));
+      words.add(new Word(i, "x", "y", g[0], g[1], g[2], g[3], g[4], "z"));
+      words.add(new Word(i, "x", g[0], g[1], g[2], g[3], g[4], "y", "z"));
+      words.add(new Word(i, g[0], g[1], g[2], g[3], g[4], "x", "y", "z"));
+    }
+
+    List<Feature> features = Arrays.asList(
+        new ContextCoherenceFeature("Fivegram", searcher, 5),
+        new ApproximateContextCoherenceFeature("Fivegram", searcher, 5));
+    List<Feature> indexedFeatures = Arrays.asList(
+        new ContextCoherenceFeature("Fivegram", indexed, 5),
+        new ApproximateContextCoherenceFeature("Fivegram", indexed, 5));
+    FusedContextScan scan = FusedContextScan.run(words, indexedFeatures, false);
+    for (int i = 0; i < features.size(); i++) {
+      List<TObjectFloatMap<String>> suggested = features.get(i).suggest(words);
+      assertTrue(suggested.stream().anyMatch(m -> m.size() > 1));
+      assertEquals(suggested, indexedFeatures.get(i).suggest(words));
+      assertEquals(suggested, scan.suggest(indexedFeatures.get(i), words));
+    }
+  }
+}
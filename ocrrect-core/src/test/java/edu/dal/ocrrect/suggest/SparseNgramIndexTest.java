@@ -0,0 +1,116 @@
+package edu.dal.ocrrect.suggest;
+
+import static edu.dal.ocrrect.util.TestUtils.readString;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.dal.ocrrect.util.ResourceUtils;
+
+public class SparseNgramIndexTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static void assertSameRecords(List<Path> ngrams, NgramBoundedReaderSearcher sparse)
+    throws Exception
+  {
+    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(ngrams);
+    for (Path p : ngrams) {
+      // Words are indexed as read by RandomAccessFile.readLine(), which maps each byte to a char.
+      String prev = null;
+      for (String line : Files.readAllLines(p, StandardCharsets.ISO_8859_1)) {
+        String word = line.substring(0, line.indexOf(' '));
+        if (! word.equals(prev)) {
+          assertEquals(readString(searcher.openBufferedRecordsWithFirstWord(word)),
+              readString(sparse.openBufferedRecordsWithFirstWord(word)));
+          // Absent words between the existing ones.
+          assertNull(sparse.openBufferedRecordsWithFirstWord(word + "\u0001"));
+          prev = word;
+        }
+      }
+    }
+    assertNull(sparse.openBufferedRecordsWithFirstWord(""));
+    assertNull(sparse.openBufferedRecordsWithFirstWord(" "));
+    assertNull(sparse.openBufferedRecordsWithFirstWord("\u00ff"));
+    assertEquals(searcher, sparse);
+    assertEquals(sparse, searcher);
+    assertEquals(new HashSet<>(searcher.wordsWithBlocksLargerThan(1 << 16)),
+        new HashSet<>(sparse.wordsWithBlocksLargerThan(1 << 16)));
+  }
+
+  @Test
+  public void testFind()
+    throws Exception
+  {
+    List<Path> ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    long prevSamples = Long.MAX_VALUE;
+    for (int interval : new int[] {1, 4 << 10, SparseNgramIndex.DEFAULT_INTERVAL, 1 << 30}) {
+      SparseNgramIndex index = SparseNgramIndex.build(ngrams, interval);
+      assertEquals(interval, index.interval());
+      assertTrue(index.numSamples() < prevSamples);
+      prevSamples = index.numSamples();
+      assertSameRecords(ngrams, new NgramBoundedReaderSearcher(index));
+    }
+    // Every block is sampled with the minimum interval, and only the first one with the maximum.
+    assertEquals(2, prevSamples);
+    assertEquals(133, SparseNgramIndex.build(ngrams, 1).numSamples());
+  }
+
+  @Test
+  public void testBlockAcrossFiles()
+    throws Exception
+  {
+    // Split a data file inside the block of "recently", which is then read from the later file.
+    List<String> lines = Files.readAllLines(ResourceUtils.getResource("5gm-0098.seg"),
+        StandardCharsets.ISO_8859_1);
+    int split = 0;
+    while (! lines.get(split).startsWith("recently ")) {
+      split++;
+    }
+    split += 100;
+    assertTrue(lines.get(split).startsWith("recently "));
+    Path first = folder.newFile("5gm-0098a.seg").toPath();
+    Path second = folder.newFile("5gm-0098b.seg").toPath();
+    Files.write(first, lines.subList(0, split), StandardCharsets.ISO_8859_1);
+    Files.write(second, lines.subList(split, lines.size()), StandardCharsets.ISO_8859_1);
+
+    List<Path> ngrams = Arrays.asList(first, second);
+    for (int interval : new int[] {1, 4 << 10}) {
+      assertSameRecords(ngrams,
+          new NgramBoundedReaderSearcher(SparseNgramIndex.build(ngrams, interval)));
+    }
+  }
+
+  @Test
+  public void testWriteAndReadSparse()
+    throws Exception
+  {
+    List<Path> ngrams = Arrays.asList(
+        ResourceUtils.getResource("5gm-0000.seg"),
+        ResourceUtils.getResource("5gm-0098.seg"));
+    Path out = folder.getRoot().toPath().resolve("5gm.search" + SparseNgramIndex.FILE_EXTENSION);
+    NgramBoundedReaders.writeSparse(ngrams, 4 << 10, out);
+    NgramBoundedReaderSearcher sparse = NgramBoundedReaders.readSparse(out);
+    assertSameRecords(ngrams, sparse);
+
+    // The sparse searcher works with the secondary indexes as well.
+    Path mapped = folder.getRoot().toPath().resolve("5gm.search" + MappedNgramIndex.FILE_EXTENSION);
+    NgramBoundedReaders.writeMapped(sparse, mapped);
+    assertEquals(133, MappedNgramIndex.open(mapped).size());
+    sparse.setSecondWordIndex(SecondWordIndex.build(sparse, 1 << 20));
+    assertTrue(sparse.hasSecondWordIndex("recently"));
+    assertNull(sparse.openBufferedRecordsWithFirstTwoWords("recently", "xyz"));
+  }
+}
@@ -0,0 +1,103 @@
+package edu.dal.ocrrect.suggest.feature;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.dal.ocrrect.util.IOUtils;
+import edu.dal.ocrrect.util.ResourceUtils;
+import gnu.trove.set.hash.THashSet;
+
+public class DeleteNeighborhoodSearcherTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static THashSet<String> vocab;
+  private static DeleteNeighborhoodSearcher searcher;
+  private static List<String> queries;
+
+  @BeforeClass
+  public static void setUpBeforeClass()
+    throws Exception
+  {
+    vocab = IOUtils.readList(ResourceUtils.getResource("search_vocab.txt"));
+    searcher = DeleteNeighborhoodSearcher.build(vocab, WordIsolatedFeature.DISTANCE_THRESHOLD);
+
+    // Vocabulary words and their misspellings, as well as short words.
+    queries = new ArrayList<>(Arrays.asList("", "a", "ab", "abc", "t\u00e9", "xqzjv"));
+    String[] words = vocab.toArray(new String[vocab.size()]);
+    Arrays.sort(words);
+    for (int i = 0; i < words.length; i += 613) {
+      String w = words[i];
+      queries.add(w);
+      queries.add(w + "q");
+      queries.add("l" + w.substring(1));
+      if (w.length() > 1) {
+        queries.add(w.substring(0, w.length() / 2) + w.substring(w.length() / 2 + 1));
+      }
+    }
+  }
+
+  @Test
+  public void testSameCandidates()
+    throws Exception
+  {
+    ReverseLevenshteinDistanceSearcher expected =
+        ReverseLevenshteinDistanceSearcher.getInstance(vocab);
+    boolean found = false;
+    for (String q : queries) {
+      for (int d = 0; d <= WordIsolatedFeature.DISTANCE_THRESHOLD; d++) {
+        assertEquals(q + " within " + d, expected.search(q, d), searcher.search(q, d));
+      }
+      found |= searcher.search(q, WordIsolatedFeature.DISTANCE_THRESHOLD).size() > 1;
+    }
+    assertTrue(found);
+  }
+
+  @Test
+  public void testEmptyWord()
+    throws Exception
+  {
+    THashSet<String> dict = new THashSet<>(Arrays.asList("", "a", "ab", "abcd", "bcd"));
+    ReverseLevenshteinDistanceSearcher expected =
+        ReverseLevenshteinDistanceSearcher.getInstance(dict);
+    DeleteNeighborhoodSearcher actual = DeleteNeighborhoodSearcher.build(dict, 3);
+    for (String q : Arrays.asList("", "a", "b", "ab", "abc", "abcd", "abcde", "xyz")) {
+      for (int d = 0; d <= 3; d++) {
+        assertEquals(q + " within " + d, expected.search(q, d), actual.search(q, d));
+      }
+    }
+  }
+
+  @Test
+  public void testMapped()
+    throws Exception
+  {
+    Path path = folder.getRoot().toPath()
+        .resolve("vocab" + DeleteNeighborhoodSearcher.FILE_EXTENSION);
+    searcher.write(path);
+    DeleteNeighborhoodSearcher mapped = DeleteNeighborhoodSearcher.open(path);
+    assertTrue(mapped.verify());
+    assertEquals(vocab.size(), mapped.numOfWords());
+    assertEquals(WordIsolatedFeature.DISTANCE_THRESHOLD, mapped.maxDistance());
+    for (String q : queries.subList(0, 100)) {
+      assertEquals(searcher.search(q, 3), mapped.search(q, 3));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDistanceOutOfIndex()
+    throws Exception
+  {
+    searcher.search("abc", WordIsolatedFeature.DISTANCE_THRESHOLD + 1);
+  }
+}
@@ -0,0 +1,86 @@
+package edu.dal.ocrrect.suggest.feature;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.dal.ocrrect.util.IOUtils;
+import edu.dal.ocrrect.util.ResourceUtils;
+import gnu.trove.set.hash.THashSet;
+
+public class TrieLevenshteinSearcherTest
+{
+  private static THashSet<String> vocab;
+  private static TrieLevenshteinSearcher searcher;
+  private static List<String> queries;
+
+  @BeforeClass
+  public static void setUpBeforeClass()
+    throws Exception
+  {
+    vocab = IOUtils.readList(ResourceUtils.getResource("search_vocab.txt"));
+    searcher = new TrieLevenshteinSearcher(vocab);
+
+    // Vocabulary words and their misspellings, as well as short words.
+    queries = new ArrayList<>(Arrays.asList("", "a", "ab", "abc", "t\u00e9", "xqzjv"));
+    String[] words = vocab.toArray(new String[vocab.size()]);
+    Arrays.sort(words);
+    for (int i = 0; i < words.length; i += 613) {
+      String w = words[i];
+      queries.add(w);
+      queries.add(w + "q");
+      queries.add("l" + w.substring(1));
+    }
+  }
+
+  @Test
+  public void testSameCandidates()
+    throws Exception
+  {
+    ReverseLevenshteinDistanceSearcher expected =
+        ReverseLevenshteinDistanceSearcher.getInstance(vocab);
+    assertEquals(vocab.size(), searcher.numOfWords());
+    for (String q : queries) {
+      for (int d = 0; d <= WordIsolatedFeature.DISTANCE_THRESHOLD; d++) {
+        assertEquals(q + " within " + d, expected.search(q, d), searcher.search(q, d));
+      }
+    }
+  }
+
+  @Test
+  public void testEmptyWord()
+    throws Exception
+  {
+    THashSet<String> dict = new THashSet<>(Arrays.asList("", "a", "ab", "abcd", "bcd"));
+    ReverseLevenshteinDistanceSearcher expected =
+        ReverseLevenshteinDistanceSearcher.getInstance(dict);
+    TrieLevenshteinSearcher actual = new TrieLevenshteinSearcher(dict);
+    assertEquals(8, actual.numOfNodes());
+    for (String q : Arrays.asList("", "a", "b", "ab", "abc", "abcd", "abcde", "xyz")) {
+      for (int d = 0; d <= 3; d++) {
+        assertEquals(q + " within " + d, expected.search(q, d), actual.search(q, d));
+      }
+    }
+  }
+
+  @Test
+  public void testNodesVisited()
+    throws Exception
+  {
+    Set<String> candidates = new HashSet<>();
+    int exact = searcher.search("recently", 0, candidates);
+    assertEquals(new HashSet<>(Arrays.asList("recently")), candidates);
+    int relaxed = searcher.search("recently", 3, candidates);
+    // Subtrees are cut, thus only a small part of the trie is visited.
+    assertTrue(exact < relaxed);
+    assertTrue(relaxed < searcher.numOfNodes() / 2);
+    assertEquals(1, new TrieLevenshteinSearcher(new HashSet<>()).search("abc", 3, candidates));
+  }
+}
@@ -1,5 +1,10 @@
 package edu.dal.ocrrect.util;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Rule;
 import org.junit.rules.TemporaryFolder;
 
@@ -7,4 +12,43 @@ public class TestUtils
 {
   @Rule
   public static TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+  /**
+   * Read the remaining lines of a reader, and close it.
+   *
+   * @param br a reader, or {@code null}.
+   * @return the lines, each of which ends with a newline, or {@code null} if the reader is null.
+   */
+  public static String readString(BufferedReader br)
+    throws IOException
+  {
+    if (br == null) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String line = br.readLine(); line != null; line = br.readLine()) {
+      sb.append(line).append('\n');
+    }
+    br.close();
+    return sb.toString();
+  }
+
+  /**
+   * Read the remaining lines of a reader, and close it.
+   *
+   * @param br a reader, or {@code null}.
+   * @return the lines, or an empty list if the reader is null.
+   */
+  public static List<String> readLines(BufferedReader br)
+    throws IOException
+  {
+    List<String> lines = new ArrayList<>();
+    if (br != null) {
+      for (String line = br.readLine(); line != null; line = br.readLine()) {
+        lines.add(line);
+      }
+      br.close();
+    }
+    return lines;
+  }
 }
@@ -48,6 +48,8 @@ public class DocumentCorrector {
           t.interval()));
     }
 
+    // The scan budgets limit the whole document, which is suggested in parts.
+    Suggestion.startScanBudgets(features);
     List<List<Word>> wordSubLists = split(words, 1000);
     for (int i = 0; i < wordSubLists.size(); i++) {
       correctImpl(wordSubLists.get(i), features, top, String.format("part%03d", i));
@@ -69,7 +71,7 @@ public class DocumentCorrector {
 
     Timer t = new Timer();
     t.start();
-    List<Suggestion> suggestions = Suggestion.suggest(words, features, top);
+    List<Suggestion> suggestions = Suggestion.suggest(words, features, top, false, true);
     if (LOG.isInfoEnabled()) {
       LOG.info(String.format(
           "Suggesting candidates using features...\n" +
@@ -2,8 +2,17 @@ package edu.dal.ocrrect;
 
 import edu.dal.ocrrect.eval.GroundTruthError;
 import edu.dal.ocrrect.suggest.Candidate;
+import edu.dal.ocrrect.suggest.MappedNgramIndex;
+import edu.dal.ocrrect.suggest.NgramBlockCache;
+import edu.dal.ocrrect.suggest.NgramBloomFilter;
 import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
+import edu.dal.ocrrect.suggest.NgramBoundedReaders;
+import edu.dal.ocrrect.suggest.NgramStore;
+import edu.dal.ocrrect.suggest.NgramVocabulary;
 import edu.dal.ocrrect.suggest.Scoreable;
+import edu.dal.ocrrect.suggest.SecondWordIndex;
+import edu.dal.ocrrect.suggest.SkipNgramIndex;
+import edu.dal.ocrrect.suggest.SparseNgramIndex;
 import edu.dal.ocrrect.suggest.Suggestion;
 import edu.dal.ocrrect.suggest.feature.ApproximateContextCoherenceFeature;
 import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
@@ -24,6 +33,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
@@ -37,12 +47,67 @@ import java.util.stream.Collectors;
  */
 public class Main {
   private static final int TOP = 100;
+  private static final long BLOCK_CACHE_SIZE = 1L << 30;
+  private static final String NGRAM_VOCABULARY = "ngram.vocab";
+  private static final String NGRAM_STORE = "ngram" + NgramStore.FILE_EXTENSION;
+
+  private static NgramVocabulary vocab;
+  private static NgramStore store;
+
+  /**
+   * Get the vocabulary shared by the binary corpora and the skip-gram indexes, which is read once.
+   */
+  private static synchronized NgramVocabulary getNgramVocabulary() throws IOException {
+    if (vocab == null) {
+      vocab = NgramVocabulary.read(PathUtils.TEMP_DIR.resolve(NGRAM_VOCABULARY));
+    }
+    return vocab;
+  }
+
+  /**
+   * Get the store of all n-gram orders, which is opened once. Return {@code null} if the store has
+   * not been generated.
+   */
+  private static synchronized NgramStore getNgramStore() throws IOException {
+    Path path = PathUtils.TEMP_DIR.resolve(NGRAM_STORE);
+    if (store == null && Files.exists(path)) {
+      store = NgramBoundedReaders.readStore(path);
+    }
+    return store;
+  }
 
   public static NgramBoundedReaderSearcher getNgramSearch(String pathname, List<Path> dataPath) {
     try {
-      NgramBoundedReaderSearcher ngramSearch =
-          NgramBoundedReaderSearcher.read(PathUtils.TEMP_DIR.resolve(Paths.get(pathname)));
+      // Prefer the multi-order store and then the memory-mapped index of the order, and fall back
+      // to the low-memory sparse index if only it has been generated. The order is the number
+      // prefixing the pathname, e.g. 5 in "5gm.search".
+      Path mapped = PathUtils.TEMP_DIR.resolve(pathname + MappedNgramIndex.FILE_EXTENSION);
+      Path serialized = PathUtils.TEMP_DIR.resolve(Paths.get(pathname));
+      Path sparse = PathUtils.TEMP_DIR.resolve(pathname + SparseNgramIndex.FILE_EXTENSION);
+      NgramBoundedReaderSearcher ngramSearch;
+      if (getNgramStore() != null) {
+        ngramSearch = getNgramStore().searcher(
+            Integer.parseInt(pathname.substring(0, pathname.indexOf("gm"))));
+      } else if (Files.exists(mapped)) {
+        ngramSearch = NgramBoundedReaders.readMapped(mapped);
+      } else if (! Files.exists(serialized) && Files.exists(sparse)) {
+        ngramSearch = NgramBoundedReaders.readSparse(sparse);
+      } else {
+        ngramSearch = NgramBoundedReaderSearcher.read(serialized);
+      }
       ngramSearch.setNgramPath(dataPath);
+      Path bloom = PathUtils.TEMP_DIR.resolve(pathname + NgramBloomFilter.FILE_EXTENSION);
+      if (Files.exists(bloom)) {
+        ngramSearch.setBloomFilter(NgramBloomFilter.open(bloom));
+      }
+      Path sub = PathUtils.TEMP_DIR.resolve(pathname + SecondWordIndex.FILE_EXTENSION);
+      if (Files.exists(sub)) {
+        ngramSearch.setSecondWordIndex(SecondWordIndex.read(sub));
+      }
+      Path skip = PathUtils.TEMP_DIR.resolve(pathname + SkipNgramIndex.FILE_EXTENSION);
+      if (Files.exists(skip)) {
+        ngramSearch.setSkipNgramIndex(SkipNgramIndex.open(skip, getNgramVocabulary()));
+      }
       return ngramSearch;
     } catch (IOException e) {
       throw new RuntimeException(
@@ -60,6 +125,12 @@ public class Main {
     NgramBoundedReaderSearcher fourgram = getNgramSearch("4gm.search", ResourceUtils.FOURGRAM);
     NgramBoundedReaderSearcher fivegram = getNgramSearch("5gm.search", ResourceUtils.FIVEGRAM);
 
+    // Share hot first word blocks among features and document parts.
+    NgramBlockCache cache = new NgramBlockCache(BLOCK_CACHE_SIZE);
+    for (NgramBoundedReaderSearcher s : Arrays.asList(bigram, trigram, fourgram, fivegram)) {
+      s.setBlockCache(cache);
+    }
+
     // Construct features.
     Feature[] features =
         new Feature[] {
@@ -106,6 +177,7 @@ public class Main {
 
     // Generate suggestions.
     new DocumentCorrector().correct(Arrays.asList(features), text, TOP);
+    LogUtils.info("block cache: " + cache);
   }
 
   private static List<Integer> TOP_VALS = Arrays.asList(3, 5, 10, 20, 50, 100);
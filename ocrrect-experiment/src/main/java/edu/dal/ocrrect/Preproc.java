@@ -1,14 +1,27 @@
 package edu.dal.ocrrect;
 
+import edu.dal.ocrrect.suggest.BinaryNgramCorpus;
+import edu.dal.ocrrect.suggest.MappedNgramIndex;
+import edu.dal.ocrrect.suggest.NgramBloomFilter;
 import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
 import edu.dal.ocrrect.suggest.NgramBoundedReaders;
+import edu.dal.ocrrect.suggest.NgramCorpusPruner;
+import edu.dal.ocrrect.suggest.NgramIndexBuilder;
+import edu.dal.ocrrect.suggest.NgramVocabulary;
+import edu.dal.ocrrect.suggest.SecondWordIndex;
+import edu.dal.ocrrect.suggest.SkipNgramIndex;
+import edu.dal.ocrrect.suggest.SparseNgramIndex;
 import edu.dal.ocrrect.util.PathUtils;
 import edu.dal.ocrrect.util.ResourceUtils;
+import edu.dal.ocrrect.util.lexicon.Lexicon;
+import edu.dal.ocrrect.util.lexicon.Lexicons;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -19,6 +32,27 @@ public class Preproc {
   private static Path TRIGRAM_SEARCHER_FILE  = PathUtils.getTempPath("3gm.search");
   private static Path FOURGRAM_SEARCHER_FILE = PathUtils.getTempPath("4gm.search");
   private static Path FIVEGRAM_SEARCHER_FILE = PathUtils.getTempPath("5gm.search");
+  private static Path BIGRAM_CORPUS_FILE     = PathUtils.getTempPath("2gm.bin");
+  private static Path TRIGRAM_CORPUS_FILE    = PathUtils.getTempPath("3gm.bin");
+  private static Path FOURGRAM_CORPUS_FILE   = PathUtils.getTempPath("4gm.bin");
+  private static Path FIVEGRAM_CORPUS_FILE   = PathUtils.getTempPath("5gm.bin");
+  private static Path NGRAM_VOCABULARY_FILE  = PathUtils.getTempPath("ngram.vocab");
+  private static Path NGRAM_STORE_FILE       = PathUtils.getTempPath("ngram.store");
+  private static Path PRUNED_DIR             = PathUtils.getTempPath("pruned");
+
+  /**
+   * Write a n-gram searcher as both a serialized object and a memory-mapped index.
+   *
+   * @param searcher a n-gram searcher.
+   * @param preproc path to the pre-processed searcher object file.
+   * @throws IOException if I/O error occurs
+   */
+  private static void writeNgramSearcher(NgramBoundedReaderSearcher searcher, Path preproc)
+      throws IOException {
+    NgramBoundedReaders.write(searcher, preproc);
+    NgramBoundedReaders.writeMapped(searcher,
+        preproc.resolveSibling(preproc.getFileName() + MappedNgramIndex.FILE_EXTENSION));
+  }
 
   /**
    * Generate n-gram searchers using n-gram resources (n &gt; 1).
@@ -30,15 +64,236 @@ public class Preproc {
    */
   public static void genNgramSearcher(List<Path> ngramData, Path preproc)
       throws FileNotFoundException, IOException {
-    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(ngramData);
-    NgramBoundedReaders.write(searcher, preproc);
+    writeNgramSearcher(new NgramIndexBuilder().build(ngramData), preproc);
+  }
+
+  /**
+   * Generate n-gram searchers of several orders concurrently.
+   *
+   * @param ngramData a list of n-gram data files for each order.
+   * @param preproc a list of paths to the pre-processed searcher object files.
+   * @throws IOException if I/O error occurs
+   */
+  public static void genNgramSearchers(List<List<Path>> ngramData, List<Path> preproc)
+      throws IOException {
+    genNgramSearchers(ngramData, preproc, NgramBloomFilter.DEFAULT_FPP);
+  }
+
+  /**
+   * Generate n-gram searchers of several orders concurrently. A Bloom filter over the n-grams and a
+   * second word index of oversized blocks of each order are written next to the searcher files.
+   *
+   * @param ngramData a list of n-gram data files for each order.
+   * @param preproc a list of paths to the pre-processed searcher object files.
+   * @param fpp the false positive rate of Bloom filters.
+   * @throws IOException if I/O error occurs
+   */
+  public static void genNgramSearchers(List<List<Path>> ngramData, List<Path> preproc, double fpp)
+      throws IOException {
+    List<NgramBoundedReaderSearcher> searchers = new NgramIndexBuilder().buildAll(ngramData);
+    for (int i = 0; i < searchers.size(); i++) {
+      writeNgramSearcher(searchers.get(i), preproc.get(i));
+      NgramBloomFilter.build(ngramData.get(i), fpp, preproc.get(i).resolveSibling(
+          preproc.get(i).getFileName() + NgramBloomFilter.FILE_EXTENSION));
+      SecondWordIndex.write(
+          SecondWordIndex.build(searchers.get(i), SecondWordIndex.DEFAULT_THRESHOLD),
+          preproc.get(i).resolveSibling(
+              preproc.get(i).getFileName() + SecondWordIndex.FILE_EXTENSION));
+    }
+  }
+
+  /**
+   * Convert n-gram data files of several orders into dictionary-encoded binary corpora sharing one
+   * vocabulary.
+   *
+   * @param ngramData a list of n-gram data files for each order.
+   * @param vocabFile path to the vocabulary file.
+   * @param preproc a list of paths to the binary corpus files.
+   * @throws IOException if I/O error occurs
+   */
+  public static void genBinaryCorpora(List<List<Path>> ngramData, Path vocabFile,
+      List<Path> preproc) throws IOException {
+    List<Path> all = new ArrayList<>();
+    ngramData.forEach(all::addAll);
+    NgramVocabulary vocab = NgramVocabulary.build(all);
+    NgramVocabulary.write(vocab, vocabFile);
+    for (int i = 0; i < ngramData.size(); i++) {
+      BinaryNgramCorpus.convert(ngramData.get(i), vocab, preproc.get(i));
+    }
+  }
+
+  /**
+   * Build skip-gram indexes from binary corpora of several orders. Binary corpora are generated
+   * by {@link #genBinaryCorpora(List, Path, List)}.
+   *
+   * @param corpora a list of paths to the binary corpus files.
+   * @param preproc a list of paths to the skip-gram index files.
+   * @throws IOException if I/O error occurs
+   */
+  public static void genSkipNgramIndexes(List<Path> corpora, List<Path> preproc)
+      throws IOException {
+    for (int i = 0; i < corpora.size(); i++) {
+      try (BinaryNgramCorpus corpus = BinaryNgramCorpus.open(corpora.get(i))) {
+        SkipNgramIndex.build(corpus, preproc.get(i));
+      }
+    }
+  }
+
+  /**
+   * Generate sparse first word indexes of several orders, which are used in place of the searcher
+   * files in the low-memory mode.
+   *
+   * @param ngramData a list of n-gram data files for each order.
+   * @param preproc a list of paths to the sparse index files.
+   * @param interval the minimum distance between two sampled first words in bytes.
+   * @throws IOException if I/O error occurs
+   */
+  public static void genSparseIndexes(List<List<Path>> ngramData, List<Path> preproc,
+      int interval) throws IOException {
+    for (int i = 0; i < ngramData.size(); i++) {
+      NgramBoundedReaders.writeSparse(ngramData.get(i), interval, preproc.get(i));
+    }
+  }
+
+  /**
+   * Generate a single store of the first word indexes of all n-gram orders from the pre-processed
+   * searchers.
+   *
+   * @param preproc a list of paths to the pre-processed searcher object files.
+   * @param out path to the store file.
+   * @throws IOException if I/O error occurs
+   */
+  public static void genNgramStore(List<Path> preproc, Path out) throws IOException {
+    List<NgramBoundedReaderSearcher> searchers = new ArrayList<>();
+    for (Path p : preproc) {
+      searchers.add(NgramBoundedReaders.read(p));
+    }
+    NgramBoundedReaders.writeStore(searchers, out);
+  }
+
+  /**
+   * Generate pruned n-gram corpora of several orders, which keep only the records with at most a
+   * given number of words outside a lexicon and with a count not less than a floor. Each pruned
+   * corpus is written to a sub-directory of the output directory named after its searcher file,
+   * e.g. {@code 5gm/}, together with the searcher files of the pruned corpus, e.g. {@code
+   * 5gm.search}.
+   *
+   * @param ngramData a list of n-gram data files for each order.
+   * @param lexicon the lexicon of words in contexts.
+   * @param minCount the minimum count of kept records.
+   * @param maxOutOfLexicon the number of words outside the lexicon allowed in a kept record, which
+   *     is {@link NgramCorpusPruner#APPROXIMATE_MAX_OUT_OF_LEXICON} if approximate context features
+   *     are served.
+   * @param outDir the output directory.
+   * @throws IOException if I/O error occurs
+   */
+  public static void genPrunedCorpora(List<List<Path>> ngramData, Lexicon lexicon, long minCount,
+      int maxOutOfLexicon, Path outDir) throws IOException {
+    NgramCorpusPruner pruner = new NgramCorpusPruner(lexicon)
+        .setMinCount(minCount)
+        .setMaxOutOfLexicon(maxOutOfLexicon);
+    for (List<Path> ngrams : ngramData) {
+      Path dir = outDir.resolve(ngrams.get(0).getFileName().toString().substring(0, 3));
+      NgramBoundedReaderSearcher searcher = pruner.prune(ngrams, dir);
+      writeNgramSearcher(searcher, dir.resolveSibling(dir.getFileName() + ".search"));
+    }
+  }
+
+  private static Path sparseIndexFile(Path searcherFile) {
+    return searcherFile.resolveSibling(
+        searcherFile.getFileName() + SparseNgramIndex.FILE_EXTENSION);
+  }
+
+  private static Path skipNgramIndexFile(Path searcherFile) {
+    return searcherFile.resolveSibling(searcherFile.getFileName() + SkipNgramIndex.FILE_EXTENSION);
   }
 
   public static void main(String[] args) throws Exception {
     Files.createDirectories(PathUtils.TEMP_DIR);
-    genNgramSearcher(ResourceUtils.BIGRAM,   BIGRAM_SEARCHER_FILE);
-    genNgramSearcher(ResourceUtils.TRIGRAM,  TRIGRAM_SEARCHER_FILE);
-    genNgramSearcher(ResourceUtils.FOURGRAM, FOURGRAM_SEARCHER_FILE);
-    genNgramSearcher(ResourceUtils.FIVEGRAM, FIVEGRAM_SEARCHER_FILE);
+    if (args.length > 0 && args[0].equals("binary")) {
+      genBinaryCorpora(
+          Arrays.asList(
+              ResourceUtils.BIGRAM,
+              ResourceUtils.TRIGRAM,
+              ResourceUtils.FOURGRAM,
+              ResourceUtils.FIVEGRAM),
+          NGRAM_VOCABULARY_FILE,
+          Arrays.asList(
+              BIGRAM_CORPUS_FILE,
+              TRIGRAM_CORPUS_FILE,
+              FOURGRAM_CORPUS_FILE,
+              FIVEGRAM_CORPUS_FILE));
+      return;
+    }
+    if (args.length > 0 && args[0].equals("skipgram")) {
+      genSkipNgramIndexes(
+          Arrays.asList(
+              BIGRAM_CORPUS_FILE,
+              TRIGRAM_CORPUS_FILE,
+              FOURGRAM_CORPUS_FILE,
+              FIVEGRAM_CORPUS_FILE),
+          Arrays.asList(
+              skipNgramIndexFile(BIGRAM_SEARCHER_FILE),
+              skipNgramIndexFile(TRIGRAM_SEARCHER_FILE),
+              skipNgramIndexFile(FOURGRAM_SEARCHER_FILE),
+              skipNgramIndexFile(FIVEGRAM_SEARCHER_FILE)));
+      return;
+    }
+    if (args.length > 0 && args[0].equals("store")) {
+      genNgramStore(
+          Arrays.asList(
+              BIGRAM_SEARCHER_FILE,
+              TRIGRAM_SEARCHER_FILE,
+              FOURGRAM_SEARCHER_FILE,
+              FIVEGRAM_SEARCHER_FILE),
+          NGRAM_STORE_FILE);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("prune")) {
+      // The optional second argument is the minimum count of kept records. The corpora serve the
+      // approximate context features by default, unless the third argument is "exact".
+      genPrunedCorpora(
+          Arrays.asList(
+              ResourceUtils.BIGRAM,
+              ResourceUtils.TRIGRAM,
+              ResourceUtils.FOURGRAM,
+              ResourceUtils.FIVEGRAM),
+          Lexicons.toLexicon(ResourceUtils.VOCAB),
+          args.length > 1 ? Long.parseLong(args[1]) : 0,
+          args.length > 2 && args[2].equals("exact")
+              ? 1 : NgramCorpusPruner.APPROXIMATE_MAX_OUT_OF_LEXICON,
+          PRUNED_DIR);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("sparse")) {
+      // The optional second argument is the sampling interval in kilobytes.
+      int interval = args.length > 1
+          ? Integer.parseInt(args[1]) << 10
+          : SparseNgramIndex.DEFAULT_INTERVAL;
+      genSparseIndexes(
+          Arrays.asList(
+              ResourceUtils.BIGRAM,
+              ResourceUtils.TRIGRAM,
+              ResourceUtils.FOURGRAM,
+              ResourceUtils.FIVEGRAM),
+          Arrays.asList(
+              sparseIndexFile(BIGRAM_SEARCHER_FILE),
+              sparseIndexFile(TRIGRAM_SEARCHER_FILE),
+              sparseIndexFile(FOURGRAM_SEARCHER_FILE),
+              sparseIndexFile(FIVEGRAM_SEARCHER_FILE)),
+          interval);
+      return;
+    }
+    genNgramSearchers(
+        Arrays.asList(
+            ResourceUtils.BIGRAM,
+            ResourceUtils.TRIGRAM,
+            ResourceUtils.FOURGRAM,
+            ResourceUtils.FIVEGRAM),
+        Arrays.asList(
+            BIGRAM_SEARCHER_FILE,
+            TRIGRAM_SEARCHER_FILE,
+            FOURGRAM_SEARCHER_FILE,
+            FIVEGRAM_SEARCHER_FILE));
   }
 }
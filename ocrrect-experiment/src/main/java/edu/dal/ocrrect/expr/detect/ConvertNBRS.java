@@ -1,40 +1,61 @@
 package edu.dal.ocrrect.expr.detect;
 
-import edu.dal.corr.suggest.NgramBoundedReaderSearcher;
+import edu.dal.ocrrect.suggest.MappedNgramIndex;
+import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
 import edu.dal.ocrrect.suggest.NgramBoundedReaders;
 import edu.dal.ocrrect.util.ResourceUtils;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
+/**
+ * Convert serialized n-gram searchers into {@code .search.bin} files of {@link
+ * NgramBoundedReaderSearcher}, as well as memory-mapped index files, without rebuilding them from
+ * the n-gram corpus. Both the {@code .search} files of the legacy {@code edu.dal.corr.suggest}
+ * searcher and the {@code .search.bin} files are accepted.
+ */
 public class ConvertNBRS {
 
-  private static NgramBoundedReaderSearcher getNgramSearch(String pathname, List<Path> dataPath) {
-    try {
-      NgramBoundedReaderSearcher ngramSearch =
-          NgramBoundedReaderSearcher.read(DATA_PATH.resolve(Paths.get(pathname)));
-      ngramSearch.setNgramPath(dataPath);
-      return ngramSearch;
-    } catch (IOException e) {
-      throw new RuntimeException(
-        String.format("Cannot open %s in building NgramBoundedReaderSearcher object.", pathname));
+  /**
+   * Convert a serialized searcher in the data folder.
+   *
+   * @param pathname the pathname of a serialized searcher in the data folder.
+   * @param dataPath the n-gram data files that overwrite the paths stored in the searcher, or
+   *     {@code null} to keep the stored paths.
+   * @throws IOException if the searcher does not exist, or I/O error occurs.
+   */
+  private static void convert(String pathname, List<Path> dataPath) throws IOException {
+    Path in = DATA_PATH.resolve(pathname);
+    if (! Files.exists(in)) {
+      throw new NoSuchFileException(in.toString(), null, "n-gram searcher not found");
     }
-  }
-
-  private static void convertAndWrite(NgramBoundedReaderSearcher searcher, String pathname) throws IOException {
-    edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher reader =
-        new edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher(searcher);
-    NgramBoundedReaders.write(reader, Paths.get(pathname));
+    NgramBoundedReaderSearcher searcher = NgramBoundedReaders.readAny(in);
+    if (dataPath != null) {
+      searcher.setNgramPath(dataPath);
+    }
+    String name = pathname.replaceFirst("\\.bin$", "");
+    NgramBoundedReaders.write(searcher, OUT_PATH.resolve(name + ".bin"));
+    NgramBoundedReaders.writeMappedAndVerify(searcher,
+        OUT_PATH.resolve(name + MappedNgramIndex.FILE_EXTENSION));
   }
 
   private static final Path DATA_PATH = Paths.get("data");
+  private static final Path OUT_PATH = Paths.get("tmp");
 
   public static void main(String[] args) throws IOException {
-    convertAndWrite(getNgramSearch("2gm.search", ResourceUtils.BIGRAM),   "tmp/2gm.search.bin");
-    convertAndWrite(getNgramSearch("3gm.search", ResourceUtils.TRIGRAM),  "tmp/3gm.search.bin");
-    convertAndWrite(getNgramSearch("4gm.search", ResourceUtils.FOURGRAM), "tmp/4gm.search.bin");
-    convertAndWrite(getNgramSearch("5gm.search", ResourceUtils.FIVEGRAM), "tmp/5gm.search.bin");
+    if (args.length > 0) {
+      for (String pathname : args) {
+        convert(pathname, null);
+      }
+    } else {
+      convert("2gm.search", ResourceUtils.BIGRAM);
+      convert("3gm.search", ResourceUtils.TRIGRAM);
+      convert("4gm.search", ResourceUtils.FOURGRAM);
+      convert("5gm.search", ResourceUtils.FIVEGRAM);
+    }
   }
 }
@@ -4,6 +4,7 @@ import edu.dal.ocrrect.expr.Constants;
 import edu.dal.ocrrect.expr.ExprUtils;
 import edu.dal.ocrrect.io.WordTSVFile;
 import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
+import edu.dal.ocrrect.suggest.NgramBoundedReaders;
 import edu.dal.ocrrect.suggest.Scoreable;
 import edu.dal.ocrrect.suggest.Suggestion;
 import edu.dal.ocrrect.suggest.feature.*;
@@ -13,21 +14,71 @@ import edu.dal.ocrrect.util.Unigram;
 import edu.dal.ocrrect.util.Word;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Generate the suggestions of words split into parts, where the parts with existing outputs are
+ * skipped.
+ *
+ * <p>With the argument {@code capture}, the n-gram blocks read by the searchers are captured and
+ * written as working sets next to the searcher files, e.g. {@code 5gm.search.bin.ws} and {@code
+ * 5gm.search.bin.ws.data}. Each working set is keyed to the input word files by a manifest of their
+ * paths and SHA-256 hashes, e.g. {@code 5gm.search.bin.ws.inputs}. A later run reads a working set
+ * instead of the whole corpus only if its manifest matches the current input word files. As a
+ * working set contains only the blocks read in its run, it is not written if any part is skipped.
+ *
+ * <p>Usage: {@code GenerateTrainSuggestion [capture]}
+ */
 public class GenerateTrainSuggestion {
+  private static final String WORKING_SET = ".ws";
+  private static final String WORKING_SET_DATA = WORKING_SET + ".data";
+  private static final String WORKING_SET_INPUTS = WORKING_SET + ".inputs";
 
+  private static final Map<String, NgramBoundedReaderSearcher> capturing = new LinkedHashMap<>();
 
-  private static NgramBoundedReaderSearcher getNgramSearch(String pathname, List<Path> dataPath) {
+  /**
+   * Get a n-gram searcher. If a working set of the searcher has been captured for the same input
+   * word files, the captured corpus is read instead of the whole corpus. Otherwise, the whole
+   * corpus is read, and the blocks read in this run are captured if requested.
+   *
+   * @param pathname the pathname of a serialized searcher in the data folder.
+   * @param dataPath the n-gram data files.
+   * @param inputs the manifest of the input word files.
+   * @param capture whether to capture the blocks read in this run.
+   */
+  private static NgramBoundedReaderSearcher getNgramSearch(String pathname, List<Path> dataPath,
+      List<String> inputs, boolean capture) {
     try {
+      Path workingSet = Constants.DATA_PATH.resolve(pathname + WORKING_SET);
+      Path workingSetData = Constants.DATA_PATH.resolve(pathname + WORKING_SET_DATA);
+      Path workingSetInputs = Constants.DATA_PATH.resolve(pathname + WORKING_SET_INPUTS);
+      if (Files.exists(workingSet) && Files.exists(workingSetData)) {
+        if (Files.exists(workingSetInputs)
+            && Files.readAllLines(workingSetInputs, StandardCharsets.UTF_8).equals(inputs)) {
+          NgramBoundedReaderSearcher ngramSearch = NgramBoundedReaders.read(workingSet);
+          ngramSearch.setNgramPath(Arrays.asList(workingSetData));
+          return ngramSearch;
+        }
+        System.out.println("Ignore the working set captured for other words: " + workingSet);
+      }
       NgramBoundedReaderSearcher ngramSearch =
         NgramBoundedReaderSearcher.read(Constants.DATA_PATH.resolve(Paths.get(pathname)));
       ngramSearch.setNgramPath(dataPath);
+      if (capture) {
+        ngramSearch.setCapture(true);
+        capturing.put(pathname, ngramSearch);
+      }
       return ngramSearch;
     } catch (IOException e) {
       throw new RuntimeException(
@@ -35,7 +86,55 @@ public class GenerateTrainSuggestion {
     }
   }
 
-  private static List<Feature> constructFeatures() {
+  /**
+   * Write the working sets captured in this run together with the manifest of the input word
+   * files, which are read by later runs on the same words.
+   *
+   * @param inputs the manifest of the input word files.
+   */
+  private static void writeWorkingSets(List<String> inputs) throws IOException {
+    for (Map.Entry<String, NgramBoundedReaderSearcher> e : capturing.entrySet()) {
+      if (e.getValue().numOfCapturedBlocks() > 0) {
+        Path inputsPath = Constants.DATA_PATH.resolve(e.getKey() + WORKING_SET_INPUTS);
+        // Remove the previous manifest first, such that a partially written working set is never
+        // taken as a match.
+        Files.deleteIfExists(inputsPath);
+        NgramBoundedReaders.writeCaptured(e.getValue(),
+            Constants.DATA_PATH.resolve(e.getKey() + WORKING_SET_DATA),
+            Constants.DATA_PATH.resolve(e.getKey() + WORKING_SET));
+        Files.write(inputsPath, inputs, StandardCharsets.UTF_8);
+      }
+    }
+  }
+
+  /**
+   * List the SHA-256 hash and the path of each input word file, one line per file.
+   */
+  private static List<String> manifest(List<Path> wordPaths) throws IOException {
+    List<String> lines = new ArrayList<>();
+    byte[] buffer = new byte[1 << 16];
+    for (Path p : wordPaths) {
+      MessageDigest md;
+      try {
+        md = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e); // expect no error
+      }
+      try (InputStream is = Files.newInputStream(p)) {
+        for (int len = is.read(buffer); len >= 0; len = is.read(buffer)) {
+          md.update(buffer, 0, len);
+        }
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      lines.add(sb.append('\t').append(p.toAbsolutePath().normalize()).toString());
+    }
+    return lines;
+  }
+
+  private static List<Feature> constructFeatures(List<String> inputs, boolean capture) {
     // Override the default resource paths.
     // TODO: fix jar resource error.
     ResourceUtils.VOCAB = Paths.get("ocrrect-core/src/main/resources/lexicon/wiki.txt");
@@ -47,10 +146,14 @@ public class GenerateTrainSuggestion {
     Unigram unigram = Unigram.getInstance();
 
     // Read pre-processed 5-gram search indexing.
-    NgramBoundedReaderSearcher bigram = getNgramSearch("2gm.search.bin", ResourceUtils.BIGRAM);
-    NgramBoundedReaderSearcher trigram = getNgramSearch("3gm.search.bin", ResourceUtils.TRIGRAM);
-    NgramBoundedReaderSearcher fourgram = getNgramSearch("4gm.search.bin", ResourceUtils.FOURGRAM);
-    NgramBoundedReaderSearcher fivegram = getNgramSearch("5gm.search.bin", ResourceUtils.FIVEGRAM);
+    NgramBoundedReaderSearcher bigram =
+        getNgramSearch("2gm.search.bin", ResourceUtils.BIGRAM, inputs, capture);
+    NgramBoundedReaderSearcher trigram =
+        getNgramSearch("3gm.search.bin", ResourceUtils.TRIGRAM, inputs, capture);
+    NgramBoundedReaderSearcher fourgram =
+        getNgramSearch("4gm.search.bin", ResourceUtils.FOURGRAM, inputs, capture);
+    NgramBoundedReaderSearcher fivegram =
+        getNgramSearch("5gm.search.bin", ResourceUtils.FIVEGRAM, inputs, capture);
 
     try {
       return Arrays.asList(
@@ -122,7 +225,12 @@ public class GenerateTrainSuggestion {
     return parts;
   }
 
-  private static void genCandidates(Path inputWordPath,
+  /**
+   * Generate the suggestions of each part of words, unless the output of the part exists.
+   *
+   * @return {@code true} if the suggestions of every part are generated in this run.
+   */
+  private static boolean genCandidates(Path inputWordPath,
                                     Path outputBinaryPath,
                                     Path outputTop100Path,
                                     Path outputTop10Path,
@@ -140,6 +248,7 @@ public class GenerateTrainSuggestion {
     List<Path> top3Parts   = toParts(outputTop3Path, numParts);
     List<Path> top1Parts   = toParts(outputTop1Path, numParts);
 
+    boolean all = true;
     for (int i = 0; i < binParts.size(); i++) {
       Path binPath    = binParts.get(i);
       Path wordPath   = wordParts.get(i);
@@ -155,6 +264,8 @@ public class GenerateTrainSuggestion {
         List<Suggestion> suggests = Suggestion.suggest(words, features,
             SuggestConstants.SUGGEST_TOP_NUM, false);
         Suggestion.write(suggests, binPath, "suggest");
+      } else {
+        all = false;
       }
       rewriteTopIfNotExists(binPath, top100Path, 100);
       rewriteTopIfNotExists(binPath, top10Path,  10);
@@ -162,10 +273,14 @@ public class GenerateTrainSuggestion {
       rewriteTopIfNotExists(binPath, top3Path,   3);
       rewriteTopIfNotExists(binPath, top1Path,   1);
     }
+    return all;
   }
 
   public static void main(String arg[]) throws IOException {
-    List<Feature> features = constructFeatures();
+    boolean capture = arg.length > 0 && arg[0].equals("capture");
+    int numParts = 4;
+    List<String> inputs = manifest(toParts(SuggestConstants.DETECT_TEST_WORDS, numParts));
+    List<Feature> features = constructFeatures(inputs, capture);
     /*
     genCandidates(SuggestConstants.DETECT_TRAIN_WORDS,
                   SuggestConstants.TRAIN_BINARY_PATH,
@@ -178,15 +293,23 @@ public class GenerateTrainSuggestion {
                   features
         );
         */
-    genCandidates(SuggestConstants.DETECT_TEST_WORDS,
-                  SuggestConstants.TEST_BINARY_PATH,
-                  SuggestConstants.TEST_BINARY_TOP100_PATH,
-                  SuggestConstants.TEST_BINARY_TOP10_PATH,
-                  SuggestConstants.TEST_BINARY_TOP5_PATH,
-                  SuggestConstants.TEST_BINARY_TOP3_PATH,
-                  SuggestConstants.TEST_BINARY_TOP1_PATH,
-                  4,
-                  features
+    boolean all = genCandidates(SuggestConstants.DETECT_TEST_WORDS,
+                                SuggestConstants.TEST_BINARY_PATH,
+                                SuggestConstants.TEST_BINARY_TOP100_PATH,
+                                SuggestConstants.TEST_BINARY_TOP10_PATH,
+                                SuggestConstants.TEST_BINARY_TOP5_PATH,
+                                SuggestConstants.TEST_BINARY_TOP3_PATH,
+                                SuggestConstants.TEST_BINARY_TOP1_PATH,
+                                numParts,
+                                features
         );
+    if (capture) {
+      if (all) {
+        writeWorkingSets(inputs);
+      } else {
+        // The blocks of the skipped parts are not captured.
+        System.out.println("Skip writing working sets, as some parts were generated before.");
+      }
+    }
   }
 }
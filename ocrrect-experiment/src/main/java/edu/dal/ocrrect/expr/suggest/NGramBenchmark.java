@@ -0,0 +1,199 @@
+package edu.dal.ocrrect.expr.suggest;
+
+import edu.dal.ocrrect.feature.metric.NGram;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A benchmark of {@link NGram}, which compares the in-place n-gram distance against the previous
+ * implementation copying the n-grams of every cell and boxing the characters of the comprehensive
+ * cost.
+ *
+ * <p>Pairs of words and their misspellings are sampled from the given word file. Each cost function
+ * of the n-gram sizes used by the distance features is run in the calling thread, and reports the
+ * throughput and the bytes allocated per pair after a few warm-up iterations. The distances of
+ * both implementations are checked to be identical.
+ *
+ * <p>Usage: {@code NGramBenchmark WORD_FILE}
+ */
+public class NGramBenchmark {
+  private static final int WARMUP = 3;
+  private static final int ITERATIONS = 5;
+  private static final int NUM_OF_PAIRS = 20000;
+  private static final char PREFIX = '\n';
+
+  private interface Metric {
+    double distance(String s0, String s1);
+  }
+
+  private interface PreviousCost {
+    float cost(char[] ngram1, char[] ngram2);
+  }
+
+  private static final PreviousCost BINARY_COST = (s1, s2) -> {
+    int n = s1.length;
+    for (int ni = 0; ni < n; ni++) {
+      if (s1[ni] != s2[ni]) {
+        return 1;
+      }
+    }
+    return 0;
+  };
+
+  private static final PreviousCost POSITIONAL_COST = (s1, s2) -> {
+    int n = s1.length;
+    int tn = n;
+    int cost = 0;
+    for (int ni = 0; ni < n; ni++) {
+      if (s1[ni] != s2[ni]) {
+        cost++;
+      } else if (s1[ni] == PREFIX) {
+        tn--;
+      }
+    }
+    return (float) cost / tn;
+  };
+
+  private static final PreviousCost COMPREHENSIVE_COST = (s1, s2) -> {
+    int n = s1.length;
+    int tn = n;
+    int cost = 0;
+    List<Character> l2 = new ArrayList<>();
+    for (char c: s2) {
+      l2.add(c);
+    }
+    for (char c: s1) {
+      if (! l2.contains(c)) {
+        cost++;
+      } else {
+        l2.remove((Character)c);
+      }
+      if (c == PREFIX) {
+        tn--;
+      }
+    }
+    return (float) cost / tn;
+  };
+
+  /**
+   * The previous distance, which copies the n-grams of every cell.
+   */
+  private static double previousDistance(int n, PreviousCost cf, String s0, String s1) {
+    if (s0.equals(s1)) {
+      return 0;
+    }
+    final int sl = s0.length();
+    final int tl = s1.length();
+    if (sl == 0 || tl == 0) {
+      return 1;
+    }
+    int cost = 0;
+    if (sl < n || tl < n) {
+      for (int i = 0, ni = Math.min(sl, tl); i < ni; i++) {
+        if (s0.charAt(i) == s1.charAt(i)) {
+          cost++;
+        }
+      }
+      return (float) cost;
+    }
+    char[] sa = new char[sl + n - 1];
+    for (int i = 0; i < sa.length; i++) {
+      sa[i] = i < n - 1 ? PREFIX : s0.charAt(i - n + 1);
+    }
+    float[] p = new float[sl + 1];
+    float[] d = new float[sl + 1];
+    char[] tj = new char[n];
+    for (int i = 0; i <= sl; i++) {
+      p[i] = i;
+    }
+    for (int j = 1; j <= tl; j++) {
+      if (j < n) {
+        for (int ti = 0; ti < n - j; ti++) {
+          tj[ti] = PREFIX;
+        }
+        for (int ti = n - j; ti < n; ti++) {
+          tj[ti] = s1.charAt(ti - (n - j));
+        }
+      } else {
+        tj = s1.substring(j - n, j).toCharArray();
+      }
+      d[0] = j;
+      for (int i = 1; i <= sl; i++) {
+        float ec = cf.cost(Arrays.copyOfRange(sa, i - 1, i - 1 + n), tj);
+        d[i] = Math.min(Math.min(d[i - 1] + 1, p[i] + 1), p[i - 1] + ec);
+      }
+      float[] tmp = p;
+      p = d;
+      d = tmp;
+    }
+    return p[sl];
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static double[] run(String name, Metric metric, String[][] pairs) {
+    double[] results = new double[pairs.length];
+    for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+      long bytes = allocatedBytes();
+      long time = System.nanoTime();
+      for (int k = 0; k < pairs.length; k++) {
+        results[k] = metric.distance(pairs[k][0], pairs[k][1]);
+      }
+      time = System.nanoTime() - time;
+      bytes = allocatedBytes() - bytes;
+      if (i >= WARMUP) {
+        System.out.printf("%-24s %8.1f ms %10.1f pairs/ms %10.1f bytes/pair%n", name,
+            time / 1e6, pairs.length / (time / 1e6), (double) bytes / pairs.length);
+      }
+    }
+    return results;
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<String> words = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+
+    // Words and their misspellings, as well as random word pairs.
+    Random rand = new Random(1);
+    String[][] pairs = new String[NUM_OF_PAIRS][];
+    for (int k = 0; k < pairs.length; k++) {
+      String w = words.get(rand.nextInt(words.size()));
+      if (k % 2 == 0) {
+        int i = rand.nextInt(w.length() + 1);
+        pairs[k] = new String[] {w.substring(0, i) + "q" + w.substring(i), w};
+      } else {
+        pairs[k] = new String[] {w, words.get(rand.nextInt(words.size()))};
+      }
+    }
+    System.out.printf("%d pairs from %d words%n", pairs.length, words.size());
+
+    String[] names = {"binary", "positional", "comprehensive"};
+    PreviousCost[] previous = {BINARY_COST, POSITIONAL_COST, COMPREHENSIVE_COST};
+    NGram.CostFunction[] current =
+        {NGram.BINARY_COST, NGram.POSITIONAL_COST, NGram.COMPREHENSIVE_COST};
+    for (int size = 2; size <= 5; size++) {
+      final int n = size;
+      for (int f = 0; f < names.length; f++) {
+        PreviousCost cf = previous[f];
+        NGram ngram = new NGram(n, current[f]);
+        String name = names[f] + "(" + n + ")";
+        double[] expected = run(name + " previous", (s0, s1) -> previousDistance(n, cf, s0, s1),
+            pairs);
+        double[] actual = run(name + " in place", ngram::distance, pairs);
+        if (! Arrays.equals(expected, actual)) {
+          throw new IllegalStateException("different distances: " + name);
+        }
+      }
+    }
+  }
+}
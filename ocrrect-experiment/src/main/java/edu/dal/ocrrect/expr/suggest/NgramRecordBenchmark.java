@@ -0,0 +1,145 @@
+package edu.dal.ocrrect.expr.suggest;
+
+import edu.dal.ocrrect.suggest.NgramBlockScanner;
+import edu.dal.ocrrect.suggest.NgramBlockTask;
+import edu.dal.ocrrect.suggest.NgramBoundedReaderSearcher;
+import edu.dal.ocrrect.suggest.feature.ContextCoherenceFeature;
+import edu.dal.ocrrect.util.Context;
+import edu.dal.ocrrect.util.Word;
+import gnu.trove.map.TObjectFloatMap;
+import gnu.trove.map.hash.TObjectFloatHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A benchmark of the record loop of {@link ContextCoherenceFeature}, which compares the byte-level
+ * {@link edu.dal.ocrrect.suggest.NgramRecord} cursor against the previous loop splitting every
+ * line into strings and joining a skip-gram string for every position.
+ *
+ * <p>Contexts are sampled from the given n-gram files, such that every first word block is scanned
+ * for some contexts. Each path scans all the blocks in the calling thread, and reports the time and
+ * the bytes allocated per record after a few warm-up iterations. The suggestions of both paths are
+ * checked to be identical.
+ *
+ * <p>Usage: {@code NgramRecordBenchmark NGRAM_FILE...}
+ */
+public class NgramRecordBenchmark {
+  private static final int WARMUP = 3;
+  private static final int ITERATIONS = 5;
+  private static final int SAMPLE_INTERVAL = 97;
+
+  private interface Loop {
+    List<TObjectFloatMap<String>> suggest(String first, List<Context> contexts) throws IOException;
+  }
+
+  /**
+   * The previous loop, which creates a string for every gram and skip-gram of a record.
+   */
+  private static List<TObjectFloatMap<String>> suggestByStrings(
+      NgramBoundedReaderSearcher searcher, String first, List<Context> contexts)
+      throws IOException {
+    int maxNgramSize = contexts.stream().mapToInt(c -> c.words().length).max().getAsInt();
+    List<HashMap<String, TObjectFloatMap<String>>> skipNgramMaps = new ArrayList<>();
+    for (int i = 0; i < maxNgramSize; i++) {
+      skipNgramMaps.add(new HashMap<>());
+    }
+    contexts.forEach(c -> skipNgramMaps.get(c.index())
+        .putIfAbsent(skipNgram(c.words(), c.index()), new TObjectFloatHashMap<>()));
+    try (BufferedReader br = searcher.openBufferedRecordsWithFirstWord(first)) {
+      for (String line = br == null ? null : br.readLine(); line != null; line = br.readLine()) {
+        String[] splits = line.split("\t");
+        String[] grams = splits[0].split(" ");
+        for (int i = 0; i < grams.length && i < maxNgramSize; i++) {
+          TObjectFloatMap<String> candidateMap = skipNgramMaps.get(i).get(skipNgram(grams, i));
+          if (candidateMap != null) {
+            float freq = Float.parseFloat(splits[1]);
+            candidateMap.adjustOrPutValue(grams[i], freq, freq);
+          }
+        }
+      }
+    }
+    return contexts.stream()
+        .map(c -> skipNgramMaps.get(c.index()).get(skipNgram(c.words(), c.index())))
+        .collect(Collectors.toList());
+  }
+
+  private static String skipNgram(String[] ngram, int position) {
+    String[] copy = ngram.clone();
+    copy[position] = " ";
+    return String.join(" ", copy);
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static Map<String, List<TObjectFloatMap<String>>> run(String name, Loop loop,
+      Map<String, List<Context>> contextMap, long records) throws IOException {
+    Map<String, List<TObjectFloatMap<String>>> results = new HashMap<>();
+    for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+      long bytes = allocatedBytes();
+      long time = System.nanoTime();
+      for (Map.Entry<String, List<Context>> e : contextMap.entrySet()) {
+        results.put(e.getKey(), loop.suggest(e.getKey(), e.getValue()));
+      }
+      time = System.nanoTime() - time;
+      bytes = allocatedBytes() - bytes;
+      if (i >= WARMUP) {
+        System.out.printf("%-8s %8.1f ms %10.1f records/ms %8.1f bytes/record%n", name,
+            time / 1e6, records / (time / 1e6), (double) bytes / records);
+      }
+    }
+    return results;
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<Path> ngrams = Arrays.stream(args).map(Paths::get).collect(Collectors.toList());
+    NgramBoundedReaderSearcher searcher = new NgramBoundedReaderSearcher(ngrams);
+    ContextCoherenceFeature feat = new ContextCoherenceFeature("Fivegram", searcher, 5);
+
+    // Words in the second position of existing 5-grams, as well as their misspellings.
+    List<Word> words = new ArrayList<>();
+    for (Path p : ngrams) {
+      List<String> lines = Files.readAllLines(p, StandardCharsets.ISO_8859_1);
+      for (int i = 0; i < lines.size(); i += SAMPLE_INTERVAL) {
+        String[] g = lines.get(i).split("\t")[0].split(" ");
+        words.add(new Word(i, "x", "y", "z", g[0], g[1], g[2], g[3], g[4]));
+        words.add(new Word(i, "x", "y", "z", g[0], g[1] + "q", g[2], g[3], g[4]));
+      }
+    }
+    Map<String, List<Context>> contextMap = feat.groupSuggestionContexts(words);
+    long records = 0;
+    for (String first : contextMap.keySet()) {
+      try (BufferedReader br = searcher.openBufferedRecordsWithFirstWord(first)) {
+        records += br == null ? 0 : br.lines().count();
+      }
+    }
+    System.out.printf("%d records, %d first words, %d words%n",
+        records, contextMap.size(), words.size());
+
+    Map<String, List<TObjectFloatMap<String>>> expected = run("strings",
+        (first, contexts) -> suggestByStrings(searcher, first, contexts), contextMap, records);
+    Map<String, List<TObjectFloatMap<String>>> actual = run("cursor", (first, contexts) -> {
+      NgramBlockTask<List<TObjectFloatMap<String>>> task = feat.newSuggestTask(contexts);
+      // Blocks are not split, such that all the allocations are made by the calling thread.
+      NgramBlockScanner.scan(searcher, first, null, Arrays.asList(task), Integer.MAX_VALUE);
+      return task.result();
+    }, contextMap, records);
+    if (! expected.equals(actual)) {
+      throw new IllegalStateException("different suggestions");
+    }
+  }
+}